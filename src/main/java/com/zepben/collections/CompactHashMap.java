@@ -29,6 +29,10 @@ import com.zepben.annotations.EverythingIsNonnullByDefault;
 import javax.annotation.Nullable;
 import java.io.Serializable;
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * A hash table based map that stores data as arrays of Objects.
@@ -40,9 +44,14 @@ import java.util.*;
  * Cons:
  * - The maps entrySet is created on demand and is not cached.
  * This means calls to entrySet() can produce a lot of short lived objects
- * which will make the GC work harder.
+ * which will make the GC work harder. Use forEach(), keySet(), values() or
+ * cursor() instead, which don't allocate anything per item.
  * - Small performance hit (needs proper benchmarking).
  * <p>
+ * Keys are hashed with a seed chosen randomly at startup. Unlike HashMap there is no tree to fall back on when many
+ * keys share a hash code, so if an add has to probe past a long run of keys with the same hash, such as strings built
+ * from "Aa" and "BB", the map rehashes with a new seed and hashes strings by their characters from then on.
+ * <p>
  * TODO: THIS CLASS DOESN'T REALLY IMPLEMENT SERIALIZABLE BECAUSE TWO OF ITS FIELDS IS NOT SERIALIZABLE, NAMELY keyTable and valueTable. BECAUSE THE Object CLASS DOES NOT IMPLEMENT SERIALIZABLE.
  */
 @EverythingIsNonnullByDefault
@@ -52,17 +61,60 @@ public final class CompactHashMap<K, V> extends AbstractMap<K, V> implements Ser
 
     private Object[] keyTable = new Object[0];  // Length is always a power of 2. Each element is either null, tombstone, or data. At least one element must be null.
     private Object[] valueTable = new Object[0];  // Length is always a power of 2. Each element is either null, tombstone, or data. At least one element must be null.
+    @Nullable private int[] hashTable;  // Hash of the key in each slot of keyTable, or null if hashes are not cached.
     private int lengthBits;  // Equal to log2(table.length)
     private int size;        // Number of items stored in hash table
     private int filled;      // Items plus tombstones; 0 <= size <= filled < table.length
     private int version;
+    private int modCount;    // Incremented by every add, remove and resize, so the result of a probe can be reused until it changes
+    private int seed = Hashing.DEFAULT_SEED;  // Mixed into the hash of each key. Replaced with a new seed when hardened.
+    private boolean hardened;                 // Set once a long run of keys with equal hashes is seen. See Hashing.hardenedHash.
     private final double loadFactor = 0.5;  // 0 < loadFactor < 1
 
     /*---- Constructors ----*/
 
     public CompactHashMap() {
+        this(0, false);
+    }
+
+    /**
+     * @param cacheHashes Indicates if the hash of each key should be stored alongside it. See {@link #withCachedHashes()}.
+     */
+    public CompactHashMap(boolean cacheHashes) {
+        this(0, cacheHashes);
+    }
+
+    /**
+     * @param expectedSize The number of items the map is expected to hold, which it can do without resizing.
+     */
+    public CompactHashMap(int expectedSize) {
+        this(expectedSize, false);
+    }
+
+    /**
+     * @param expectedSize The number of items the map is expected to hold, which it can do without resizing.
+     * @param cacheHashes  Indicates if the hash of each key should be stored alongside it. See {@link #withCachedHashes()}.
+     */
+    public CompactHashMap(int expectedSize, boolean cacheHashes) {
+        if (cacheHashes)
+            hashTable = new int[0];
         version = -1;
-        clear();
+        resize(tableLengthFor(expectedSize));
+    }
+
+    /**
+     * Creates a map that stores the hash of each key alongside it. Lookups compare the stored hash before calling equals,
+     * so keys that collide in the table only have equals called when their hashes match, and resizing the table doesn't
+     * call hashCode again. This suits keys with expensive equals or hashCode, such as long ids that share a prefix.
+     * <p>
+     * The trade-off is an extra int for every slot in the table, which is 8 to 16 bytes per item at the 0.5 load factor.
+     *
+     * @param <K> The type of the keys.
+     * @param <V> The type of the values.
+     * @return A new map that caches the hashes of its keys.
+     */
+    public static <K, V> CompactHashMap<K, V> withCachedHashes() {
+        return new CompactHashMap<>(true);
     }
 
     /*---- Basic methods ----*/
@@ -71,6 +123,8 @@ public final class CompactHashMap<K, V> extends AbstractMap<K, V> implements Ser
         size = 0;
         keyTable = new Object[0];
         valueTable = new Object[0];
+        if (hashTable != null)
+            hashTable = new int[0];
         resize(1);
     }
 
@@ -94,48 +148,206 @@ public final class CompactHashMap<K, V> extends AbstractMap<K, V> implements Ser
 
     @SuppressWarnings("unchecked")
     public V put(K key, @Nullable V value) {
-
         int index = probe(key);
-        boolean isNew = index < 0;
-        Object result = isNew ? null : valueTable[index];
-        if (isNew) {
-            if (size == MAX_TABLE_LEN - 1)  // Because table.length is a power of 2, and at least one slot must be free
-                throw new IllegalStateException("Maximum size reached");
-            index = ~index;
-            if (keyTable[index] != TOMBSTONE) {
-                filled++;
-            }
+        if (index < 0) {
+            insert(~index, key, value);
+            return null;
         }
-        keyTable[index] = key;
+
+        Object result = valueTable[index];
         valueTable[index] = value;
-        if (isNew) {
-            incrementSize();
-            if (filled == MAX_TABLE_LEN)
-                resize(keyTable.length);
-        }
         return (V) result;
     }
 
     @SuppressWarnings("unchecked")
     @Nullable
     public V remove(Object key) {
-
         int index = probe(key);
         if (index >= 0) {
             Object result = valueTable[index];
-            keyTable[index] = TOMBSTONE;
-            valueTable[index] = TOMBSTONE;
-            decrementSize();
+            removeAt(index);
             return (V) result;
         } else
             return null;
     }
 
+    /*---- Single probe overrides ----*/
+
+    // The Map defaults for these methods probe the table for each get/containsKey/put/remove they make. These overrides
+    // only probe once, unless the function passed to them modifies the map, in which case the key is probed again.
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public V getOrDefault(Object key, @Nullable V defaultValue) {
+        int index = probe(key);
+        return index >= 0 ? (V) valueTable[index] : defaultValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public V putIfAbsent(K key, @Nullable V value) {
+        int index = probe(key);
+        if (index < 0) {
+            insert(~index, key, value);
+            return null;
+        }
+
+        V result = (V) valueTable[index];
+        if (result == null)
+            valueTable[index] = value;
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        int index = probe(key);
+        if (index >= 0 && valueTable[index] != null)
+            return (V) valueTable[index];
+
+        int expectedModCount = modCount;
+        V value = mappingFunction.apply(key);
+        if (value != null)
+            store(index, key, value, expectedModCount);
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        int index = probe(key);
+        if (index < 0 || valueTable[index] == null)
+            return null;
+
+        int expectedModCount = modCount;
+        V value = remappingFunction.apply(key, (V) valueTable[index]);
+        if (value != null)
+            store(index, key, value, expectedModCount);
+        else
+            removeAt(index, key, expectedModCount);
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        int index = probe(key);
+        V oldValue = index >= 0 ? (V) valueTable[index] : null;
+
+        int expectedModCount = modCount;
+        V value = remappingFunction.apply(key, oldValue);
+        if (value != null)
+            store(index, key, value, expectedModCount);
+        else if (index >= 0)
+            removeAt(index, key, expectedModCount);
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+
+        int index = probe(key);
+        V oldValue = index >= 0 ? (V) valueTable[index] : null;
+        if (oldValue == null) {
+            store(index, key, value, modCount);
+            return value;
+        }
+
+        int expectedModCount = modCount;
+        V newValue = remappingFunction.apply(oldValue, value);
+        if (newValue != null)
+            store(index, key, newValue, expectedModCount);
+        else
+            removeAt(index, key, expectedModCount);
+        return newValue;
+    }
+
+    /**
+     * Grows the table so it can hold the expected number of items without resizing again.
+     *
+     * @param expectedSize The number of items the map is expected to hold.
+     */
+    public void ensureCapacity(int expectedSize) {
+        int newLen = tableLengthFor(expectedSize);
+        if (newLen > keyTable.length)
+            resize(newLen);
+    }
+
+    /**
+     * Shrinks the table to the smallest length that holds the current items, clearing any tombstones. Useful once a map
+     * that was sized for more items, or had many removed, is not expected to change much.
+     */
+    public void trimToSize() {
+        int newLen = tableLengthFor(size);
+        if (newLen < keyTable.length || filled > size)
+            resize(newLen);
+    }
+
+    /**
+     * Returns the fraction of the table taken up by tombstones, which are left in the slots of removed items until the
+     * table is rehashed. Lookups that miss have to probe past them.
+     */
+    public double tombstoneRatio() {
+        return (double) (filled - size) / keyTable.length;
+    }
+
+    /**
+     * Rehashes the items into a table of the same length, clearing all tombstones.
+     * <p>
+     * The map does this automatically when tombstones take up more than a quarter of the table on an add or remove, but
+     * items removed through an iterator are not cleaned up until the next add or remove. Call this after removing items
+     * through an iterator, or before a period of lookups without modifications.
+     */
+    public void compact() {
+        if (filled > size) {
+            resize(keyTable.length);
+        }
+    }
+
+    /**
+     * Returns the number of slots a lookup of the key examines, including any tombstones it passes. Used to measure the
+     * probe lengths of the table.
+     */
+    int probeLength(Object key) {
+        final int lengthMask = keyTable.length - 1;
+        final int hash = hash(key);
+        int index = hash & lengthMask;
+        int length = 1;
+        Object item = keyTable[index];
+        if (item == null || (item != TOMBSTONE && matches(index, hash, key, item)))
+            return length;
+
+        int increment = Math.max((hash >>> lengthBits) & lengthMask, 1);
+        index = (index + increment) & lengthMask;
+        while (true) {
+            ++length;
+            item = keyTable[index];
+            if (item == null || (item != TOMBSTONE && matches(index, hash, key, item)))
+                return length;
+            index = (index + 1) & lengthMask;
+        }
+    }
+
     /*---- Helper methods ----*/
 
+    // The shortest table length that holds the number of items without exceeding the load factor.
+    private int tableLengthFor(int expectedSize) {
+        int len = 1;
+        while (len < MAX_TABLE_LEN && (double) expectedSize / len > loadFactor)
+            len *= 2;
+        return len;
+    }
+
     private int hash(Object key) {
-        int h;
-        return (h = key.hashCode()) ^ (h >>> 16);
+        return hardened ? Hashing.hardenedHash(key, seed) : Hashing.mix(key.hashCode(), seed);
     }
 
     // Returns either a match index (non-negative) or the bitwise complement of the first empty slot index (negative).
@@ -150,7 +362,7 @@ public final class CompactHashMap<K, V> extends AbstractMap<K, V> implements Ser
             return ~initIndex;
         else if (item == TOMBSTONE)
             emptyIndex = initIndex;
-        else if (key.equals(item))
+        else if (matches(initIndex, hash, key, item))
             return initIndex;
 
         int increment = Math.max((hash >>> lengthBits) & lengthMask, 1);
@@ -166,7 +378,7 @@ public final class CompactHashMap<K, V> extends AbstractMap<K, V> implements Ser
             } else if (item == TOMBSTONE) {
                 if (emptyIndex == -1)
                     emptyIndex = index;
-            } else if (key.equals(item))
+            } else if (matches(index, hash, key, item))
                 return index;
             index = (index + 1) & lengthMask;
             if (index == start)
@@ -174,48 +386,167 @@ public final class CompactHashMap<K, V> extends AbstractMap<K, V> implements Ser
         }
     }
 
+    private boolean matches(int index, int hash, Object key, Object item) {
+        return (hashTable == null || hashTable[index] == hash) && key.equals(item);
+    }
+
+    // Returns the index of the first empty slot for the hash, for use when the table has no tombstones and the key is
+    // known not to be in it, such as when rehashing into a new table.
+    private int findEmpty(int hash) {
+        final int lengthMask = keyTable.length - 1;
+        int index = hash & lengthMask;
+        if (keyTable[index] == null)
+            return index;
+
+        int increment = Math.max((hash >>> lengthBits) & lengthMask, 1);
+        index = (index + increment) & lengthMask;
+        while (keyTable[index] != null)
+            index = (index + 1) & lengthMask;
+        return index;
+    }
+
+    // Stores a new item in the empty slot found by probe.
+    private void insert(int index, K key, @Nullable V value) {
+        if (size == MAX_TABLE_LEN - 1)  // Because table.length is a power of 2, and at least one slot must be free
+            throw new IllegalStateException("Maximum size reached");
+        int hash = hash(key);
+        if (keyTable[index] != TOMBSTONE)
+            filled++;
+        keyTable[index] = key;
+        valueTable[index] = value;
+        if (hashTable != null)
+            hashTable[index] = hash;
+
+        boolean harden = !hardened && isCollisionRun(hash, index);
+        incrementSize();
+        if (harden)
+            harden();
+        else if (filled == MAX_TABLE_LEN)
+            resize(keyTable.length);
+    }
+
+    // Indicates if reaching the index takes a long probe past keys that mostly have the same hash. Long probes can happen
+    // by chance in a large table, and go away as it is resized, but keys with equal hashes always share a probe sequence.
+    private boolean isCollisionRun(int hash, int index) {
+        final int lengthMask = keyTable.length - 1;
+        int slot = hash & lengthMask;
+        if (slot == index)
+            return false;
+
+        slot = (slot + Math.max((hash >>> lengthBits) & lengthMask, 1)) & lengthMask;
+        if (((index - slot) & lengthMask) + 2 <= MAX_PROBE_LENGTH)
+            return false;
+
+        int collisions = 0;
+        for (; slot != index; slot = (slot + 1) & lengthMask) {
+            Object item = keyTable[slot];
+            if (isItem(item) && (hashTable != null ? hashTable[slot] : hash(item)) == hash)
+                ++collisions;
+        }
+        return collisions > MAX_PROBE_LENGTH / 2;
+    }
+
+    // Switches to hashing keys with Hashing.hardenedHash and a new seed, and rehashes the table with them. This only
+    // happens once, as keys that still collide, such as other types with equal hash codes, won't be helped by doing it again.
+    private void harden() {
+        hardened = true;
+        seed = Hashing.newSeed();
+        resize(keyTable.length, true);
+    }
+
+    private void removeAt(int index) {
+        keyTable[index] = TOMBSTONE;
+        valueTable[index] = TOMBSTONE;
+        decrementSize();
+    }
+
+    // Stores the value using the result of an earlier probe, provided no item has been added or removed since.
+    private void store(int index, K key, V value, int expectedModCount) {
+        if (modCount != expectedModCount)
+            put(key, value);
+        else if (index >= 0)
+            valueTable[index] = value;
+        else
+            insert(~index, key, value);
+    }
+
+    // Removes the item using the result of an earlier probe, provided no item has been added or removed since.
+    private void removeAt(int index, K key, int expectedModCount) {
+        if (modCount != expectedModCount)
+            remove(key);
+        else
+            removeAt(index);
+    }
+
+    private static boolean isItem(@Nullable Object key) {
+        return key != null && key != TOMBSTONE;
+    }
+
     private void incrementSize() {
         size++;
+        modCount++;
         if (keyTable.length < MAX_TABLE_LEN && (double) filled / keyTable.length > loadFactor) {  // Refresh or expand hash keyTable
             int newLen = keyTable.length;
             while (newLen < MAX_TABLE_LEN && (double) size / newLen > loadFactor)
                 newLen *= 2;
             resize(newLen);
-        }
+        } else
+            rehashIfTombstoneHeavy();
     }
 
     private void decrementSize() {
         size--;
+        modCount++;
         int newLen = keyTable.length;
         while (newLen >= 2 && (double) size / newLen < loadFactor / 4 && size < newLen / 2)
             newLen /= 2;
         if (newLen < keyTable.length)
             resize(newLen);
+        else
+            rehashIfTombstoneHeavy();
+    }
+
+    // Rehashes into a table of the same length once the tombstones left by removed items take up too much of it, as
+    // lookups that miss have to probe past them.
+    private void rehashIfTombstoneHeavy() {
+        if (filled - size > keyTable.length * MAX_TOMBSTONE_RATIO) {
+            resize(keyTable.length);
+        }
     }
 
     private void resize(int newLen) {
+        resize(newLen, false);
+    }
+
+    private void resize(int newLen, boolean recomputeHashes) {
         version++;
+        modCount++;
 
         if (newLen <= size)
             throw new AssertionError();
         Object[] oldKeyTable = keyTable;
         Object[] oldValueTable = valueTable;
+        @Nullable int[] oldHashTable = hashTable;
 
         keyTable = new Object[newLen];
         valueTable = new Object[newLen];
+        if (oldHashTable != null)
+            hashTable = new int[newLen];
 
         lengthBits = Integer.bitCount(newLen - 1);
         filled = size;
 
+        // The keys are already unique, so they only need an empty slot rather than a full probe.
         for (int i = 0; i < oldKeyTable.length; i++) {
             Object key = oldKeyTable[i];
 
-            if (key != null && key != TOMBSTONE) {
-                int index = probe(key);
-                if (index >= 0)
-                    throw new AssertionError();
-                keyTable[~index] = key;
-                valueTable[~index] = oldValueTable[i];
+            if (isItem(key)) {
+                int hash = oldHashTable != null && !recomputeHashes ? oldHashTable[i] : hash(key);
+                int index = findEmpty(hash);
+                keyTable[index] = key;
+                valueTable[index] = oldValueTable[i];
+                if (hashTable != null)
+                    hashTable[index] = hash;
             }
         }
     }
@@ -227,11 +558,199 @@ public final class CompactHashMap<K, V> extends AbstractMap<K, V> implements Ser
         return new EntrySet();
     }
 
+    @Override
+    public Set<K> keySet() {
+        return new KeySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new Values();
+    }
+
+    /*---- Allocation free iteration ----*/
+
+    // These scan the tables directly rather than going through the entrySet(), which allocates an entry per item.
+
+    @Override
+    public boolean containsValue(@Nullable Object value) {
+        for (int i = 0; i < keyTable.length; i++) {
+            if (isItem(keyTable[i]) && Objects.equals(value, valueTable[i]))
+                return true;
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        int myVersion = version;
+        for (int i = 0; i < keyTable.length; i++) {
+            if (isItem(keyTable[i])) {
+                action.accept((K) keyTable[i], (V) valueTable[i]);
+                if (myVersion != version)
+                    throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        int myVersion = version;
+        for (int i = 0; i < keyTable.length; i++) {
+            if (isItem(keyTable[i])) {
+                V value = function.apply((K) keyTable[i], (V) valueTable[i]);
+                if (myVersion != version)
+                    throw new ConcurrentModificationException();
+                valueTable[i] = value;
+            }
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int i = 0; i < keyTable.length; i++) {
+            if (isItem(keyTable[i]))
+                hash += keyTable[i].hashCode() ^ Objects.hashCode(valueTable[i]);
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (o == this)
+            return true;
+        if (!(o instanceof Map))
+            return false;
+
+        Map<?, ?> other = (Map<?, ?>) o;
+        if (other.size() != size)
+            return false;
+
+        try {
+            for (int i = 0; i < keyTable.length; i++) {
+                Object key = keyTable[i];
+                if (!isItem(key))
+                    continue;
+
+                Object value = valueTable[i];
+                if (value == null) {
+                    if (other.get(key) != null || !other.containsKey(key))
+                        return false;
+                } else if (!value.equals(other.get(key)))
+                    return false;
+            }
+        } catch (ClassCastException | NullPointerException unused) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Creates a cursor over the items of the map. A single cursor can be reused for any number of iterations with
+     * {@link Cursor#reset()}, so iterating with it allocates nothing.
+     *
+     * @return A cursor positioned before the first item.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Iterates the items of the map without allocating anything per item:
+     * <pre>
+     * CompactHashMap&lt;K, V&gt;.Cursor cursor = map.cursor();
+     * while (cursor.advance())
+     *     use(cursor.key(), cursor.value());
+     * </pre>
+     * Adding items to the map while a cursor is in use may cause the cursor to throw a
+     * {@link ConcurrentModificationException}.
+     */
+    public final class Cursor {
+
+        private int myVersion;
+        private int index;
+
+        private Cursor() {
+            reset();
+        }
+
+        /**
+         * Moves the cursor back to before the first item, so the cursor can be reused.
+         */
+        public void reset() {
+            myVersion = version;
+            index = -1;
+        }
+
+        /**
+         * Moves the cursor to the next item.
+         *
+         * @return true if the cursor is on an item, or false if there are no more items.
+         */
+        public boolean advance() {
+            if (myVersion != version)
+                throw new ConcurrentModificationException();
+            while (++index < keyTable.length) {
+                if (isItem(keyTable[index]))
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return The key of the item the cursor is on.
+         */
+        @SuppressWarnings("unchecked")
+        public K key() {
+            return (K) keyTable[current()];
+        }
+
+        /**
+         * @return The value of the item the cursor is on.
+         */
+        @SuppressWarnings("unchecked")
+        @Nullable
+        public V value() {
+            return (V) valueTable[current()];
+        }
+
+        /**
+         * Replaces the value of the item the cursor is on.
+         *
+         * @param value The new value.
+         * @return The previous value.
+         */
+        @SuppressWarnings("unchecked")
+        @Nullable
+        public V setValue(@Nullable V value) {
+            int i = current();
+            V oldValue = (V) valueTable[i];
+            valueTable[i] = value;
+            return oldValue;
+        }
+
+        private int current() {
+            if (myVersion != version)
+                throw new ConcurrentModificationException();
+            if (index < 0 || index >= keyTable.length || !isItem(keyTable[index]))
+                throw new NoSuchElementException();
+            return index;
+        }
+
+    }
+
     // Special placeholder reference for deleted slots.
     private static final Object TOMBSTONE = new Object();
 
     private static final int MAX_TABLE_LEN = 0x40000000;  // Largest power of 2 that fits in an int
 
+    private static final double MAX_TOMBSTONE_RATIO = 0.25;  // Fraction of the table that tombstones can take up before it is rehashed
+
+    private static final int MAX_PROBE_LENGTH = 64;  // Probe length of an add past which the keys it passed are checked for equal hashes
+
     /*---- Helper classes ----*/
 
     // Clone not supported.
@@ -241,6 +760,137 @@ public final class CompactHashMap<K, V> extends AbstractMap<K, V> implements Ser
         throw new CloneNotSupportedException();
     }
 
+    // Iterates the slots of the table holding items, for the keySet() and values() iterators.
+    @EverythingIsNonnullByDefault
+    private abstract class TableIter<T> implements Iterator<T> {
+
+        private final int myVersion = version;
+        private int currentIndex = -1;
+        private int nextIndex = 0;
+
+        abstract T get(int index);
+
+        public boolean hasNext() {
+            if (myVersion != version)
+                throw new ConcurrentModificationException();
+            while (nextIndex < keyTable.length && !isItem(keyTable[nextIndex]))
+                nextIndex++;
+            return nextIndex < keyTable.length;
+        }
+
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            currentIndex = nextIndex++;
+            return get(currentIndex);
+        }
+
+        @Override
+        public void remove() {
+            if (myVersion != version)
+                throw new ConcurrentModificationException();
+            if (currentIndex == -1 || keyTable[currentIndex] == TOMBSTONE)
+                throw new IllegalStateException();
+            keyTable[currentIndex] = TOMBSTONE;
+            valueTable[currentIndex] = null;
+            size--;  // Note: Do not use decrementSize() because a table resize will screw up the iterator's indexing
+            modCount++;
+        }
+
+    }
+
+    // For the keySet() method.
+    @EverythingIsNonnullByDefault
+    private final class KeySet extends AbstractSet<K> {
+
+        public int size() {
+            return size;
+        }
+
+        public boolean contains(Object obj) {
+            return containsKey(obj);
+        }
+
+        public boolean remove(Object obj) {
+            int index = probe(obj);
+            if (index < 0)
+                return false;
+            removeAt(index);
+            return true;
+        }
+
+        public void clear() {
+            CompactHashMap.this.clear();
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            return new TableIter<K>() {
+                @SuppressWarnings("unchecked")
+                @Override
+                K get(int index) {
+                    return (K) keyTable[index];
+                }
+            };
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public void forEach(Consumer<? super K> action) {
+            int myVersion = version;
+            for (int i = 0; i < keyTable.length; i++) {
+                if (isItem(keyTable[i])) {
+                    action.accept((K) keyTable[i]);
+                    if (myVersion != version)
+                        throw new ConcurrentModificationException();
+                }
+            }
+        }
+
+    }
+
+    // For the values() method.
+    @EverythingIsNonnullByDefault
+    private final class Values extends AbstractCollection<V> {
+
+        public int size() {
+            return size;
+        }
+
+        public boolean contains(@Nullable Object obj) {
+            return containsValue(obj);
+        }
+
+        public void clear() {
+            CompactHashMap.this.clear();
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            return new TableIter<V>() {
+                @SuppressWarnings("unchecked")
+                @Override
+                V get(int index) {
+                    return (V) valueTable[index];
+                }
+            };
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public void forEach(Consumer<? super V> action) {
+            int myVersion = version;
+            for (int i = 0; i < keyTable.length; i++) {
+                if (isItem(keyTable[i])) {
+                    action.accept((V) valueTable[i]);
+                    if (myVersion != version)
+                        throw new ConcurrentModificationException();
+                }
+            }
+        }
+
+    }
+
     // For the entrySet() method.
     @EverythingIsNonnullByDefault
     private final class EntrySet extends AbstractSet<Map.Entry<K, V>> implements Serializable {
@@ -383,6 +1033,7 @@ public final class CompactHashMap<K, V> extends AbstractMap<K, V> implements Ser
                 keyTable[currentIndex] = TOMBSTONE;
                 valueTable[currentIndex] = null;
                 size--;  // Note: Do not use decrementSize() because a table resize will screw up the iterator's indexing
+                modCount++;
             }
 
         }
@@ -44,6 +44,9 @@ import java.util.NoSuchElementException;
  * Cons:
  * - Small performance hit (needs proper benchmarking).
  * <p>
+ * Items are hashed with a seed chosen randomly at startup, and a set that sees a long run of items with equal hashes
+ * switches to hashing strings by their characters. See {@link CompactHashMap}.
+ * <p>
  * TODO: THIS CLASS DOESN'T REALLY IMPLEMENT SERIALIZABLE BECAUSE ONE OF ITS FIELDS IS NOT SERIALIZABLE, NAMELY THE objTable. BECAUSE THE Object CLASS DOES NOT IMPLEMENT SERIALIZABLE.
  */
 @EverythingIsNonnullByDefault
@@ -52,17 +55,57 @@ public final class CompactHashSet<E> extends AbstractSet<E> implements Serializa
     /*---- Fields ----*/
 
     private Object[] objTable = new Object[0];  // Length is always a power of 2. Each element is either null, tombstone, or data. At least one element must be null.
+    @Nullable private int[] hashTable;  // Hash of the item in each slot of objTable, or null if hashes are not cached.
     private int lengthBits;  // Equal to log2(table.length)
     private int size;        // Number of items stored in hash table
     private int filled;      // Items plus tombstones; 0 <= size <= filled < table.length
     private int version;
+    private int seed = Hashing.DEFAULT_SEED;  // Mixed into the hash of each item. Replaced with a new seed when hardened.
+    private boolean hardened;                 // Set once a long run of items with equal hashes is seen. See Hashing.hardenedHash.
     private final double loadFactor = 0.5;  // 0 < loadFactor < 1
 
     /*---- Constructors ----*/
 
     public CompactHashSet() {
-        version = -1;
-        clear();
+        this(0, false);
+    }
+
+    /**
+     * @param cacheHashes Indicates if the hash of each item should be stored alongside it. See {@link #withCachedHashes()}.
+     */
+    public CompactHashSet(boolean cacheHashes) {
+        this(0, cacheHashes);
+    }
+
+    /**
+     * @param expectedSize The number of items the set is expected to hold, which it can do without resizing.
+     */
+    public CompactHashSet(int expectedSize) {
+        this(expectedSize, false);
+    }
+
+    /**
+     * @param expectedSize The number of items the set is expected to hold, which it can do without resizing.
+     * @param cacheHashes  Indicates if the hash of each item should be stored alongside it. See {@link #withCachedHashes()}.
+     */
+    public CompactHashSet(int expectedSize, boolean cacheHashes) {
+        if (cacheHashes)
+            hashTable = new int[0];
+        resize(tableLengthFor(expectedSize));
+    }
+
+    /**
+     * Creates a set that stores the hash of each item alongside it. Lookups compare the stored hash before calling equals,
+     * so items that collide in the table only have equals called when their hashes match, and resizing the table doesn't
+     * call hashCode again. This suits items with expensive equals or hashCode, such as long ids that share a prefix.
+     * <p>
+     * The trade-off is an extra int for every slot in the table, which is 8 to 16 bytes per item at the 0.5 load factor.
+     *
+     * @param <E> The type of the items.
+     * @return A new set that caches the hashes of its items.
+     */
+    public static <E> CompactHashSet<E> withCachedHashes() {
+        return new CompactHashSet<>(true);
     }
 
     /*---- Basic methods ----*/
@@ -70,6 +113,8 @@ public final class CompactHashSet<E> extends AbstractSet<E> implements Serializa
     public void clear() {
         size = 0;
         objTable = new Object[size];
+        if (hashTable != null)
+            hashTable = new int[0];
         version++;
         resize(1);
     }
@@ -78,6 +123,11 @@ public final class CompactHashSet<E> extends AbstractSet<E> implements Serializa
         return size;
     }
 
+    @Override
+    public boolean contains(@Nullable Object obj) {
+        return obj != null && probe(obj) >= 0;
+    }
+
     public boolean add(E obj) {
 
         int index = probe(obj);
@@ -89,9 +139,16 @@ public final class CompactHashSet<E> extends AbstractSet<E> implements Serializa
         index = ~index;
         if (objTable[index] != TOMBSTONE)
             filled++;
+        int hash = hash(obj);
         objTable[index] = obj;
+        if (hashTable != null)
+            hashTable[index] = hash;
+
+        boolean harden = !hardened && isCollisionRun(hash, index);
         incrementSize();
-        if (filled == MAX_TABLE_LEN)
+        if (harden)
+            harden();
+        else if (filled == MAX_TABLE_LEN)
             resize(objTable.length);
         return true;
     }
@@ -108,11 +165,91 @@ public final class CompactHashSet<E> extends AbstractSet<E> implements Serializa
             return false;
     }
 
+    /**
+     * Grows the table so it can hold the expected number of items without resizing again.
+     *
+     * @param expectedSize The number of items the set is expected to hold.
+     */
+    public void ensureCapacity(int expectedSize) {
+        int newLen = tableLengthFor(expectedSize);
+        if (newLen > objTable.length) {
+            version++;
+            resize(newLen);
+        }
+    }
+
+    /**
+     * Shrinks the table to the smallest length that holds the current items, clearing any tombstones. Useful once a set
+     * that was sized for more items, or had many removed, is not expected to change much.
+     */
+    public void trimToSize() {
+        int newLen = tableLengthFor(size);
+        if (newLen < objTable.length || filled > size) {
+            version++;
+            resize(newLen);
+        }
+    }
+
+    /**
+     * Returns the fraction of the table taken up by tombstones, which are left in the slots of removed items until the
+     * table is rehashed. Lookups that miss have to probe past them.
+     */
+    public double tombstoneRatio() {
+        return (double) (filled - size) / objTable.length;
+    }
+
+    /**
+     * Rehashes the items into a table of the same length, clearing all tombstones.
+     * <p>
+     * The set does this automatically when tombstones take up more than a quarter of the table on an add or remove, but
+     * items removed through an iterator are not cleaned up until the next add or remove. Call this after removing items
+     * through an iterator, or before a period of lookups without modifications.
+     */
+    public void compact() {
+        if (filled > size) {
+            version++;
+            resize(objTable.length);
+        }
+    }
+
+    /**
+     * Returns the number of slots a lookup of the item examines, including any tombstones it passes. Used to measure the
+     * probe lengths of the table.
+     */
+    int probeLength(Object obj) {
+        final int lengthMask = objTable.length - 1;
+        final int hash = hash(obj);
+        int index = hash & lengthMask;
+        int length = 1;
+        Object item = objTable[index];
+        if (item == null || (item != TOMBSTONE && matches(index, hash, obj, item)))
+            return length;
+
+        int increment = Math.max((hash >>> lengthBits) & lengthMask, 1);
+        index = (index + increment) & lengthMask;
+        while (true) {
+            ++length;
+            item = objTable[index];
+            if (item == null || (item != TOMBSTONE && matches(index, hash, obj, item)))
+                return length;
+            index = (index + 1) & lengthMask;
+        }
+    }
+
     /*---- Helper methods ----*/
 
-    static private int hash(@Nullable Object obj) {
-        int h;
-        return (obj == null) ? 0 : (h = obj.hashCode()) ^ (h >>> 16);
+    // The shortest table length that holds the number of items without exceeding the load factor.
+    private int tableLengthFor(int expectedSize) {
+        int len = 1;
+        while (len < MAX_TABLE_LEN && (double) expectedSize / len > loadFactor)
+            len *= 2;
+        return len;
+    }
+
+    private int hash(@Nullable Object obj) {
+        if (obj == null)
+            return 0;
+        return hardened ? Hashing.hardenedHash(obj, seed) : Hashing.mix(obj.hashCode(), seed);
     }
 
     // Returns either a match index (non-negative) or the bitwise complement of the first empty slot index (negative).
@@ -127,7 +264,7 @@ public final class CompactHashSet<E> extends AbstractSet<E> implements Serializa
             return ~initIndex;
         else if (item == TOMBSTONE)
             emptyIndex = initIndex;
-        else if (obj.equals(item))
+        else if (matches(initIndex, hash, obj, item))
             return initIndex;
 
         int increment = Math.max((hash >>> lengthBits) & lengthMask, 1);
@@ -143,7 +280,7 @@ public final class CompactHashSet<E> extends AbstractSet<E> implements Serializa
             } else if (item == TOMBSTONE) {
                 if (emptyIndex == -1)
                     emptyIndex = index;
-            } else if (obj.equals(item))
+            } else if (matches(index, hash, obj, item))
                 return index;
             index = (index + 1) & lengthMask;
             if (index == start)
@@ -151,6 +288,55 @@ public final class CompactHashSet<E> extends AbstractSet<E> implements Serializa
         }
     }
 
+    private boolean matches(int index, int hash, Object obj, Object item) {
+        return (hashTable == null || hashTable[index] == hash) && obj.equals(item);
+    }
+
+    // Returns the index of the first empty slot for the hash, for use when the table has no tombstones and the item is
+    // known not to be in it, such as when rehashing into a new table.
+    private int findEmpty(int hash) {
+        final int lengthMask = objTable.length - 1;
+        int index = hash & lengthMask;
+        if (objTable[index] == null)
+            return index;
+
+        int increment = Math.max((hash >>> lengthBits) & lengthMask, 1);
+        index = (index + increment) & lengthMask;
+        while (objTable[index] != null)
+            index = (index + 1) & lengthMask;
+        return index;
+    }
+
+    // Indicates if reaching the index takes a long probe past items that mostly have the same hash. Long probes can happen
+    // by chance in a large table, and go away as it is resized, but items with equal hashes always share a probe sequence.
+    private boolean isCollisionRun(int hash, int index) {
+        final int lengthMask = objTable.length - 1;
+        int slot = hash & lengthMask;
+        if (slot == index)
+            return false;
+
+        slot = (slot + Math.max((hash >>> lengthBits) & lengthMask, 1)) & lengthMask;
+        if (((index - slot) & lengthMask) + 2 <= MAX_PROBE_LENGTH)
+            return false;
+
+        int collisions = 0;
+        for (; slot != index; slot = (slot + 1) & lengthMask) {
+            Object item = objTable[slot];
+            if (item != null && item != TOMBSTONE && (hashTable != null ? hashTable[slot] : hash(item)) == hash)
+                ++collisions;
+        }
+        return collisions > MAX_PROBE_LENGTH / 2;
+    }
+
+    // Switches to hashing items with Hashing.hardenedHash and a new seed, and rehashes the table with them. This only
+    // happens once, as items that still collide, such as other types with equal hash codes, won't be helped by doing it again.
+    private void harden() {
+        hardened = true;
+        seed = Hashing.newSeed();
+        version++;
+        resize(objTable.length, true);
+    }
+
     private void incrementSize() {
         size++;
         if (objTable.length < MAX_TABLE_LEN && (double) filled / objTable.length > loadFactor) {  // Refresh or expand hash table
@@ -158,7 +344,8 @@ public final class CompactHashSet<E> extends AbstractSet<E> implements Serializa
             while (newLen < MAX_TABLE_LEN && (double) size / newLen > loadFactor)
                 newLen *= 2;
             resize(newLen);
-        }
+        } else
+            rehashIfTombstoneHeavy();
     }
 
     private void decrementSize() {
@@ -168,23 +355,44 @@ public final class CompactHashSet<E> extends AbstractSet<E> implements Serializa
             newLen /= 2;
         if (newLen < objTable.length)
             resize(newLen);
+        else
+            rehashIfTombstoneHeavy();
+    }
+
+    // Rehashes into a table of the same length once the tombstones left by removed items take up too much of it, as
+    // lookups that miss have to probe past them.
+    private void rehashIfTombstoneHeavy() {
+        if (filled - size > objTable.length * MAX_TOMBSTONE_RATIO) {
+            version++;
+            resize(objTable.length);
+        }
     }
 
     private void resize(int newLen) {
+        resize(newLen, false);
+    }
+
+    private void resize(int newLen, boolean recomputeHashes) {
         if (newLen <= size)
             throw new AssertionError();
         Object[] oldObjTable = objTable;
+        @Nullable int[] oldHashTable = hashTable;
         objTable = new Object[newLen];
+        if (oldHashTable != null)
+            hashTable = new int[newLen];
 
         lengthBits = Integer.bitCount(newLen - 1);
         filled = size;
 
-        for (Object obj : oldObjTable) {
+        // The items are already unique, so they only need an empty slot rather than a full probe.
+        for (int i = 0; i < oldObjTable.length; i++) {
+            Object obj = oldObjTable[i];
             if (obj != null && obj != TOMBSTONE) {
-                int index = probe(obj);
-                if (index >= 0)
-                    throw new AssertionError();
-                objTable[~index] = obj;
+                int hash = oldHashTable != null && !recomputeHashes ? oldHashTable[i] : hash(obj);
+                int index = findEmpty(hash);
+                objTable[index] = obj;
+                if (hashTable != null)
+                    hashTable[index] = hash;
             }
         }
     }
@@ -201,6 +409,10 @@ public final class CompactHashSet<E> extends AbstractSet<E> implements Serializa
 
     private static final int MAX_TABLE_LEN = 0x40000000;  // Largest power of 2 that fits in an int
 
+    private static final double MAX_TOMBSTONE_RATIO = 0.25;  // Fraction of the table that tombstones can take up before it is rehashed
+
+    private static final int MAX_PROBE_LENGTH = 64;  // Probe length of an add past which the items it passed are checked for equal hashes
+
     /*---- Helper classes ----*/
 
     @EverythingIsNonnullByDefault
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Seeded hash functions for the hash tables in this package.
+ * <p>
+ * Tables mix the hash codes of their keys with a seed that is chosen randomly when the JVM starts, so the slots keys land
+ * in can't be predicted ahead of time. Every table starts with the same seed, so copies of a table with the same length
+ * iterate in the same order, which keeps serialised output stable. Keys with equal hash codes can't be separated by
+ * mixing, so a table that finds a long run of them switches to {@link #hardenedHash} with a seed of its own.
+ */
+@EverythingIsNonnullByDefault
+final class Hashing {
+
+    private Hashing() {
+    }
+
+    // The seed that tables start with.
+    static final int DEFAULT_SEED = newSeed();
+
+    static int newSeed() {
+        return ThreadLocalRandom.current().nextInt();
+    }
+
+    /**
+     * Mixes the hash code with the seed using the MurmurHash3 finaliser, so every bit of the result depends on every bit
+     * of the hash code. Tables use both the low and high bits of the result to pick slots.
+     */
+    static int mix(int hashCode, int seed) {
+        return finalise(hashCode ^ seed);
+    }
+
+    /**
+     * A hash that doesn't depend on {@link Object#hashCode} for strings, whose hash codes are easy to make collide. Strings
+     * are hashed with a seeded MurmurHash3 of their characters, and other keys are mixed as by {@link #mix}.
+     * <p>
+     * This is slower than {@link #mix} as it isn't cached by the string, so tables only use it once they have seen keys
+     * with colliding hash codes.
+     */
+    static int hardenedHash(Object key, int seed) {
+        if (!(key instanceof String))
+            return mix(key.hashCode(), seed);
+
+        String s = (String) key;
+        int len = s.length();
+        int h = seed;
+        int i = 0;
+        for (; i + 1 < len; i += 2) {
+            h ^= scramble(s.charAt(i) | (s.charAt(i + 1) << 16));
+            h = Integer.rotateLeft(h, 13) * 5 + 0xe6546b64;
+        }
+        if (i < len)
+            h ^= scramble(s.charAt(i));
+
+        return finalise(h ^ (len * 2));
+    }
+
+    private static int scramble(int k) {
+        k *= 0xcc9e2d51;
+        k = Integer.rotateLeft(k, 15);
+        return k * 0x1b873593;
+    }
+
+    private static int finalise(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+}
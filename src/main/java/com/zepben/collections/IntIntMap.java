@@ -0,0 +1,342 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.io.Serializable;
+import java.util.ConcurrentModificationException;
+import java.util.function.IntConsumer;
+
+/**
+ * A hash table based map from int keys to int values, which stores both in int arrays so nothing is boxed. See
+ * {@link IntObjectMap} for the layout.
+ * <p>
+ * As there is no null to return for a missing value, lookups take the value to return when the key is missing, and
+ * modifications report whether the key was present.
+ */
+@EverythingIsNonnullByDefault
+public final class IntIntMap implements Serializable {
+
+    /**
+     * Receives the keys and values of the map without boxing them.
+     */
+    @FunctionalInterface
+    public interface KeyValueConsumer {
+
+        void accept(int key, int value);
+
+    }
+
+    /*---- Fields ----*/
+
+    private int[] keyTable = new int[0];    // Length is always a power of 2. Each element is either 0 (empty) or a key. At least one element must be empty.
+    private int[] valueTable = new int[0];
+    private boolean hasZeroKey;
+    private int zeroValue;                  // The value of the 0 key, which can't be stored in the table.
+    private int size;                       // Number of items, including the 0 key.
+    private int threshold;                  // The number of items in the table at which it grows.
+    private int version;
+    private final double loadFactor = 0.5;  // 0 < loadFactor < 1
+
+    /*---- Constructors ----*/
+
+    public IntIntMap() {
+        clear();
+    }
+
+    /**
+     * @param expectedSize The number of items the map is expected to hold, which it can do without resizing.
+     */
+    public IntIntMap(int expectedSize) {
+        allocate(tableLengthFor(expectedSize));
+    }
+
+    /*---- Basic methods ----*/
+
+    public void clear() {
+        size = 0;
+        hasZeroKey = false;
+        zeroValue = 0;
+        allocate(MIN_TABLE_LEN);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(int key) {
+        return key == 0 ? hasZeroKey : probe(key) >= 0;
+    }
+
+    public int getOrDefault(int key, int defaultValue) {
+        if (key == 0)
+            return hasZeroKey ? zeroValue : defaultValue;
+
+        int index = probe(key);
+        return index >= 0 ? valueTable[index] : defaultValue;
+    }
+
+    /**
+     * @return true if the key was added, or false if its value was replaced.
+     */
+    public boolean put(int key, int value) {
+        if (key == 0) {
+            boolean added = !hasZeroKey;
+            if (added)
+                addZeroKey();
+            zeroValue = value;
+            return added;
+        }
+
+        int index = probe(key);
+        if (index < 0) {
+            insert(~index, key, value);
+            return true;
+        }
+
+        valueTable[index] = value;
+        return false;
+    }
+
+    /**
+     * @return true if the key was added, or false if it was already in the map, in which case its value is unchanged.
+     */
+    public boolean putIfAbsent(int key, int value) {
+        if (key == 0) {
+            if (hasZeroKey)
+                return false;
+            addZeroKey();
+            zeroValue = value;
+            return true;
+        }
+
+        int index = probe(key);
+        if (index >= 0)
+            return false;
+
+        insert(~index, key, value);
+        return true;
+    }
+
+    /**
+     * Adds to the value of the key, treating a missing key as having a value of 0. Useful for counting.
+     *
+     * @return The new value of the key.
+     */
+    public int addTo(int key, int increment) {
+        if (key == 0) {
+            if (!hasZeroKey)
+                addZeroKey();
+            return zeroValue += increment;
+        }
+
+        int index = probe(key);
+        if (index < 0) {
+            insert(~index, key, increment);
+            return increment;
+        }
+
+        return valueTable[index] += increment;
+    }
+
+    /**
+     * @return true if the key was removed, or false if it wasn't in the map.
+     */
+    public boolean remove(int key) {
+        if (key == 0) {
+            if (!hasZeroKey)
+                return false;
+            hasZeroKey = false;
+            zeroValue = 0;
+            --size;
+            ++version;
+            return true;
+        }
+
+        int index = probe(key);
+        if (index < 0)
+            return false;
+
+        removeAt(index);
+        shrinkIfSparse();
+        return true;
+    }
+
+    /**
+     * Grows the table so it can hold the expected number of items without resizing again.
+     *
+     * @param expectedSize The number of items the map is expected to hold.
+     */
+    public void ensureCapacity(int expectedSize) {
+        int newLen = tableLengthFor(expectedSize);
+        if (newLen > keyTable.length)
+            resize(newLen);
+    }
+
+    /**
+     * Shrinks the table to the smallest length that holds the current items. Useful once a map that was sized for more
+     * items, or had many removed, is not expected to change much.
+     */
+    public void trimToSize() {
+        int newLen = tableLengthFor(size);
+        if (newLen < keyTable.length)
+            resize(newLen);
+    }
+
+    /**
+     * Passes each key and value to the action, without boxing or allocating anything per item.
+     *
+     * @throws ConcurrentModificationException If the action adds or removes items.
+     */
+    public void forEach(KeyValueConsumer action) {
+        int expectedVersion = version;
+        if (hasZeroKey) {
+            action.accept(0, zeroValue);
+            if (version != expectedVersion)
+                throw new ConcurrentModificationException();
+        }
+
+        for (int i = 0; i < keyTable.length; i++) {
+            if (keyTable[i] != 0) {
+                action.accept(keyTable[i], valueTable[i]);
+                if (version != expectedVersion)
+                    throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /**
+     * Passes each key to the action, without boxing or allocating anything per key.
+     *
+     * @throws ConcurrentModificationException If the action adds or removes items.
+     */
+    public void forEachKey(IntConsumer action) {
+        forEach((key, value) -> action.accept(key));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        forEach((key, value) -> {
+            if (sb.length() > 1)
+                sb.append(", ");
+            sb.append(key).append('=').append(value);
+        });
+        return sb.append('}').toString();
+    }
+
+    /*---- Helper methods ----*/
+
+    private static int hash(int key) {
+        return Hashing.mix(key, Hashing.DEFAULT_SEED);
+    }
+
+    // Returns either a match index (non-negative) or the bitwise complement of the empty slot that ended the search
+    // (negative). The key must not be 0.
+    private int probe(int key) {
+        int mask = keyTable.length - 1;
+        int index = hash(key) & mask;
+        while (true) {
+            int item = keyTable[index];
+            if (item == 0)
+                return ~index;
+            if (item == key)
+                return index;
+            index = (index + 1) & mask;
+        }
+    }
+
+    private void addZeroKey() {
+        hasZeroKey = true;
+        ++size;
+        ++version;
+    }
+
+    // Inserts a new item at the empty slot found by probe, growing the table first if it is full.
+    private void insert(int index, int key, int value) {
+        if (size - (hasZeroKey ? 1 : 0) >= threshold) {
+            if (keyTable.length == MAX_TABLE_LEN)
+                throw new IllegalStateException("Maximum size reached");
+            resize(keyTable.length * 2);
+            index = ~probe(key);
+        }
+
+        keyTable[index] = key;
+        valueTable[index] = value;
+        ++size;
+        ++version;
+    }
+
+    // Removes the item in the slot, then moves back each following item in the run that would otherwise no longer be
+    // reachable from its home slot.
+    private void removeAt(int index) {
+        int mask = keyTable.length - 1;
+        int gap = index;
+        for (int next = (index + 1) & mask; keyTable[next] != 0; next = (next + 1) & mask) {
+            int home = hash(keyTable[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keyTable[gap] = keyTable[next];
+                valueTable[gap] = valueTable[next];
+                gap = next;
+            }
+        }
+
+        keyTable[gap] = 0;
+        valueTable[gap] = 0;
+        --size;
+        ++version;
+    }
+
+    private void shrinkIfSparse() {
+        if (keyTable.length > MIN_TABLE_LEN && size < threshold / 4)
+            resize(tableLengthFor(size));
+    }
+
+    private int tableLengthFor(int expectedSize) {
+        int len = MIN_TABLE_LEN;
+        while (len < MAX_TABLE_LEN && expectedSize > (int) (len * loadFactor))
+            len *= 2;
+        return len;
+    }
+
+    private void allocate(int len) {
+        keyTable = new int[len];
+        valueTable = new int[len];
+        threshold = Math.min((int) (len * loadFactor), len - 1);
+        ++version;
+    }
+
+    private void resize(int newLen) {
+        int[] oldKeyTable = keyTable;
+        int[] oldValueTable = valueTable;
+        allocate(newLen);
+
+        int mask = newLen - 1;
+        for (int i = 0; i < oldKeyTable.length; i++) {
+            int key = oldKeyTable[i];
+            if (key == 0)
+                continue;
+
+            int index = hash(key) & mask;
+            while (keyTable[index] != 0)
+                index = (index + 1) & mask;
+            keyTable[index] = key;
+            valueTable[index] = oldValueTable[i];
+        }
+    }
+
+    private static final int MIN_TABLE_LEN = 2;
+    private static final int MAX_TABLE_LEN = 0x40000000;  // Largest power of 2 that fits in an int
+
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.util.ConcurrentModificationException;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * A hash table based map from int keys to objects, which stores the keys in an int array so they are never boxed.
+ * <p>
+ * The table uses linear probing, and removing an item shifts the items after it back rather than leaving a tombstone,
+ * as {@link RobinHoodHashMap} does. A key of 0 marks an empty slot, so the value of the 0 key is held outside the table.
+ * <p>
+ * Pros:
+ * - No boxing of keys, and no entry objects. The keys take 4 bytes per slot rather than a reference to an Integer.
+ * - Iterating with {@link #forEach} passes the primitive key directly.
+ * <p>
+ * Cons:
+ * - Not a {@link java.util.Map}, so it can't be passed to code that expects one.
+ */
+@EverythingIsNonnullByDefault
+public final class IntObjectMap<V> implements Serializable {
+
+    /**
+     * Receives the keys and values of the map without boxing the keys.
+     */
+    @FunctionalInterface
+    public interface KeyValueConsumer<V> {
+
+        void accept(int key, @Nullable V value);
+
+    }
+
+    /*---- Fields ----*/
+
+    private int[] keyTable = new int[0];           // Length is always a power of 2. Each element is either 0 (empty) or a key. At least one element must be empty.
+    private Object[] valueTable = new Object[0];
+    private boolean hasZeroKey;
+    @Nullable private Object zeroValue;            // The value of the 0 key, which can't be stored in the table.
+    private int size;                              // Number of items, including the 0 key.
+    private int threshold;                         // The number of items in the table at which it grows.
+    private int version;
+    private final double loadFactor = 0.5;         // 0 < loadFactor < 1
+
+    /*---- Constructors ----*/
+
+    public IntObjectMap() {
+        clear();
+    }
+
+    /**
+     * @param expectedSize The number of items the map is expected to hold, which it can do without resizing.
+     */
+    public IntObjectMap(int expectedSize) {
+        allocate(tableLengthFor(expectedSize));
+    }
+
+    /*---- Basic methods ----*/
+
+    public void clear() {
+        size = 0;
+        hasZeroKey = false;
+        zeroValue = null;
+        allocate(MIN_TABLE_LEN);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(int key) {
+        return key == 0 ? hasZeroKey : probe(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V get(int key) {
+        if (key == 0)
+            return (V) zeroValue;
+
+        int index = probe(key);
+        return index >= 0 ? (V) valueTable[index] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V getOrDefault(int key, @Nullable V defaultValue) {
+        if (key == 0)
+            return hasZeroKey ? (V) zeroValue : defaultValue;
+
+        int index = probe(key);
+        return index >= 0 ? (V) valueTable[index] : defaultValue;
+    }
+
+    /**
+     * @return The previous value of the key, or null if it wasn't in the map.
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V put(int key, @Nullable V value) {
+        if (key == 0) {
+            V result = (V) zeroValue;
+            if (!hasZeroKey)
+                addZeroKey();
+            zeroValue = value;
+            return result;
+        }
+
+        int index = probe(key);
+        if (index < 0) {
+            insert(~index, key, value);
+            return null;
+        }
+
+        V result = (V) valueTable[index];
+        valueTable[index] = value;
+        return result;
+    }
+
+    /**
+     * @return The current value of the key, or null if the value was put.
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V putIfAbsent(int key, @Nullable V value) {
+        if (key == 0) {
+            if (!hasZeroKey)
+                addZeroKey();
+            V result = (V) zeroValue;
+            if (result == null)
+                zeroValue = value;
+            return result;
+        }
+
+        int index = probe(key);
+        if (index < 0) {
+            insert(~index, key, value);
+            return null;
+        }
+
+        V result = (V) valueTable[index];
+        if (result == null)
+            valueTable[index] = value;
+        return result;
+    }
+
+    /**
+     * Returns the value of the key, calling the mapping function to create it if the key has no value. As with
+     * {@link java.util.Map#computeIfAbsent}, nothing is put if the function returns null.
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V computeIfAbsent(int key, IntFunction<? extends V> mappingFunction) {
+        if (key == 0) {
+            V value = (V) zeroValue;
+            if (value == null && (value = mappingFunction.apply(key)) != null)
+                put(key, value);
+            return value;
+        }
+
+        int index = probe(key);
+        if (index >= 0 && valueTable[index] != null)
+            return (V) valueTable[index];
+
+        int expectedVersion = version;
+        V value = mappingFunction.apply(key);
+        if (value == null)
+            return null;
+
+        // Only reuse the probe if the function didn't modify the map.
+        if (version != expectedVersion)
+            put(key, value);
+        else if (index >= 0)
+            valueTable[index] = value;
+        else
+            insert(~index, key, value);
+        return value;
+    }
+
+    /**
+     * @return The value of the removed key, or null if it wasn't in the map.
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V remove(int key) {
+        if (key == 0) {
+            V result = (V) zeroValue;
+            if (hasZeroKey) {
+                hasZeroKey = false;
+                zeroValue = null;
+                --size;
+                ++version;
+            }
+            return result;
+        }
+
+        int index = probe(key);
+        if (index < 0)
+            return null;
+
+        V result = (V) valueTable[index];
+        removeAt(index);
+        shrinkIfSparse();
+        return result;
+    }
+
+    /**
+     * Grows the table so it can hold the expected number of items without resizing again.
+     *
+     * @param expectedSize The number of items the map is expected to hold.
+     */
+    public void ensureCapacity(int expectedSize) {
+        int newLen = tableLengthFor(expectedSize);
+        if (newLen > keyTable.length)
+            resize(newLen);
+    }
+
+    /**
+     * Shrinks the table to the smallest length that holds the current items. Useful once a map that was sized for more
+     * items, or had many removed, is not expected to change much.
+     */
+    public void trimToSize() {
+        int newLen = tableLengthFor(size);
+        if (newLen < keyTable.length)
+            resize(newLen);
+    }
+
+    /**
+     * Passes each key and value to the action, without boxing or allocating anything per item.
+     *
+     * @throws ConcurrentModificationException If the action adds or removes items.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(KeyValueConsumer<? super V> action) {
+        int expectedVersion = version;
+        if (hasZeroKey) {
+            action.accept(0, (V) zeroValue);
+            if (version != expectedVersion)
+                throw new ConcurrentModificationException();
+        }
+
+        for (int i = 0; i < keyTable.length; i++) {
+            if (keyTable[i] != 0) {
+                action.accept(keyTable[i], (V) valueTable[i]);
+                if (version != expectedVersion)
+                    throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /**
+     * Passes each key to the action, without boxing or allocating anything per key.
+     *
+     * @throws ConcurrentModificationException If the action adds or removes items.
+     */
+    public void forEachKey(IntConsumer action) {
+        forEach((key, value) -> action.accept(key));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        forEach((key, value) -> {
+            if (sb.length() > 1)
+                sb.append(", ");
+            sb.append(key).append('=').append(value);
+        });
+        return sb.append('}').toString();
+    }
+
+    /*---- Helper methods ----*/
+
+    private static int hash(int key) {
+        return Hashing.mix(key, Hashing.DEFAULT_SEED);
+    }
+
+    // Returns either a match index (non-negative) or the bitwise complement of the empty slot that ended the search
+    // (negative). The key must not be 0.
+    private int probe(int key) {
+        int mask = keyTable.length - 1;
+        int index = hash(key) & mask;
+        while (true) {
+            int item = keyTable[index];
+            if (item == 0)
+                return ~index;
+            if (item == key)
+                return index;
+            index = (index + 1) & mask;
+        }
+    }
+
+    private void addZeroKey() {
+        hasZeroKey = true;
+        ++size;
+        ++version;
+    }
+
+    // Inserts a new item at the empty slot found by probe, growing the table first if it is full.
+    private void insert(int index, int key, @Nullable Object value) {
+        if (size - (hasZeroKey ? 1 : 0) >= threshold) {
+            if (keyTable.length == MAX_TABLE_LEN)
+                throw new IllegalStateException("Maximum size reached");
+            resize(keyTable.length * 2);
+            index = ~probe(key);
+        }
+
+        keyTable[index] = key;
+        valueTable[index] = value;
+        ++size;
+        ++version;
+    }
+
+    // Removes the item in the slot, then moves back each following item in the run that would otherwise no longer be
+    // reachable from its home slot.
+    private void removeAt(int index) {
+        int mask = keyTable.length - 1;
+        int gap = index;
+        for (int next = (index + 1) & mask; keyTable[next] != 0; next = (next + 1) & mask) {
+            int home = hash(keyTable[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keyTable[gap] = keyTable[next];
+                valueTable[gap] = valueTable[next];
+                gap = next;
+            }
+        }
+
+        keyTable[gap] = 0;
+        valueTable[gap] = null;
+        --size;
+        ++version;
+    }
+
+    private void shrinkIfSparse() {
+        if (keyTable.length > MIN_TABLE_LEN && size < threshold / 4)
+            resize(tableLengthFor(size));
+    }
+
+    private int tableLengthFor(int expectedSize) {
+        int len = MIN_TABLE_LEN;
+        while (len < MAX_TABLE_LEN && expectedSize > (int) (len * loadFactor))
+            len *= 2;
+        return len;
+    }
+
+    private void allocate(int len) {
+        keyTable = new int[len];
+        valueTable = new Object[len];
+        threshold = Math.min((int) (len * loadFactor), len - 1);
+        ++version;
+    }
+
+    private void resize(int newLen) {
+        int[] oldKeyTable = keyTable;
+        Object[] oldValueTable = valueTable;
+        allocate(newLen);
+
+        int mask = newLen - 1;
+        for (int i = 0; i < oldKeyTable.length; i++) {
+            int key = oldKeyTable[i];
+            if (key == 0)
+                continue;
+
+            int index = hash(key) & mask;
+            while (keyTable[index] != 0)
+                index = (index + 1) & mask;
+            keyTable[index] = key;
+            valueTable[index] = oldValueTable[i];
+        }
+    }
+
+    private static final int MIN_TABLE_LEN = 2;
+    private static final int MAX_TABLE_LEN = 0x40000000;  // Largest power of 2 that fits in an int
+
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.io.Serializable;
+import java.util.ConcurrentModificationException;
+import java.util.function.IntConsumer;
+
+/**
+ * A hash table based set of ints, which stores them in an int array so they are never boxed. See {@link IntObjectMap}
+ * for the layout.
+ */
+@EverythingIsNonnullByDefault
+public final class IntSet implements Serializable {
+
+    /*---- Fields ----*/
+
+    private int[] table = new int[0];       // Length is always a power of 2. Each element is either 0 (empty) or an item. At least one element must be empty.
+    private boolean hasZero;                // 0 marks an empty slot, so it can't be stored in the table.
+    private int size;                       // Number of items, including 0.
+    private int threshold;                  // The number of items in the table at which it grows.
+    private int version;
+    private final double loadFactor = 0.5;  // 0 < loadFactor < 1
+
+    /*---- Constructors ----*/
+
+    public IntSet() {
+        clear();
+    }
+
+    /**
+     * @param expectedSize The number of items the set is expected to hold, which it can do without resizing.
+     */
+    public IntSet(int expectedSize) {
+        allocate(tableLengthFor(expectedSize));
+    }
+
+    /*---- Basic methods ----*/
+
+    public void clear() {
+        size = 0;
+        hasZero = false;
+        allocate(MIN_TABLE_LEN);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int item) {
+        return item == 0 ? hasZero : probe(item) >= 0;
+    }
+
+    /**
+     * @return true if the item was added, or false if it was already in the set.
+     */
+    public boolean add(int item) {
+        if (item == 0) {
+            if (hasZero)
+                return false;
+            hasZero = true;
+            ++size;
+            ++version;
+            return true;
+        }
+
+        int index = probe(item);
+        if (index >= 0)
+            return false;
+
+        insert(~index, item);
+        return true;
+    }
+
+    /**
+     * @return true if the item was removed, or false if it wasn't in the set.
+     */
+    public boolean remove(int item) {
+        if (item == 0) {
+            if (!hasZero)
+                return false;
+            hasZero = false;
+            --size;
+            ++version;
+            return true;
+        }
+
+        int index = probe(item);
+        if (index < 0)
+            return false;
+
+        removeAt(index);
+        shrinkIfSparse();
+        return true;
+    }
+
+    /**
+     * Grows the table so it can hold the expected number of items without resizing again.
+     *
+     * @param expectedSize The number of items the set is expected to hold.
+     */
+    public void ensureCapacity(int expectedSize) {
+        int newLen = tableLengthFor(expectedSize);
+        if (newLen > table.length)
+            resize(newLen);
+    }
+
+    /**
+     * Shrinks the table to the smallest length that holds the current items. Useful once a set that was sized for more
+     * items, or had many removed, is not expected to change much.
+     */
+    public void trimToSize() {
+        int newLen = tableLengthFor(size);
+        if (newLen < table.length)
+            resize(newLen);
+    }
+
+    /**
+     * Passes each item to the action, without boxing or allocating anything per item.
+     *
+     * @throws ConcurrentModificationException If the action adds or removes items.
+     */
+    public void forEach(IntConsumer action) {
+        int expectedVersion = version;
+        if (hasZero) {
+            action.accept(0);
+            if (version != expectedVersion)
+                throw new ConcurrentModificationException();
+        }
+
+        for (int item : table) {
+            if (item != 0) {
+                action.accept(item);
+                if (version != expectedVersion)
+                    throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /**
+     * @return A new array holding the items, in no particular order.
+     */
+    public int[] toArray() {
+        int[] items = new int[size];
+        int next = 0;
+        if (hasZero)
+            ++next;  // The array already holds 0 in the first element.
+        for (int item : table) {
+            if (item != 0)
+                items[next++] = item;
+        }
+        return items;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        forEach(item -> {
+            if (sb.length() > 1)
+                sb.append(", ");
+            sb.append(item);
+        });
+        return sb.append(']').toString();
+    }
+
+    /*---- Helper methods ----*/
+
+    private static int hash(int item) {
+        return Hashing.mix(item, Hashing.DEFAULT_SEED);
+    }
+
+    // Returns either a match index (non-negative) or the bitwise complement of the empty slot that ended the search
+    // (negative). The item must not be 0.
+    private int probe(int item) {
+        int mask = table.length - 1;
+        int index = hash(item) & mask;
+        while (true) {
+            int current = table[index];
+            if (current == 0)
+                return ~index;
+            if (current == item)
+                return index;
+            index = (index + 1) & mask;
+        }
+    }
+
+    // Inserts a new item at the empty slot found by probe, growing the table first if it is full.
+    private void insert(int index, int item) {
+        if (size - (hasZero ? 1 : 0) >= threshold) {
+            if (table.length == MAX_TABLE_LEN)
+                throw new IllegalStateException("Maximum size reached");
+            resize(table.length * 2);
+            index = ~probe(item);
+        }
+
+        table[index] = item;
+        ++size;
+        ++version;
+    }
+
+    // Removes the item in the slot, then moves back each following item in the run that would otherwise no longer be
+    // reachable from its home slot.
+    private void removeAt(int index) {
+        int mask = table.length - 1;
+        int gap = index;
+        for (int next = (index + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+            int home = hash(table[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                table[gap] = table[next];
+                gap = next;
+            }
+        }
+
+        table[gap] = 0;
+        --size;
+        ++version;
+    }
+
+    private void shrinkIfSparse() {
+        if (table.length > MIN_TABLE_LEN && size < threshold / 4)
+            resize(tableLengthFor(size));
+    }
+
+    private int tableLengthFor(int expectedSize) {
+        int len = MIN_TABLE_LEN;
+        while (len < MAX_TABLE_LEN && expectedSize > (int) (len * loadFactor))
+            len *= 2;
+        return len;
+    }
+
+    private void allocate(int len) {
+        table = new int[len];
+        threshold = Math.min((int) (len * loadFactor), len - 1);
+        ++version;
+    }
+
+    private void resize(int newLen) {
+        int[] oldTable = table;
+        allocate(newLen);
+
+        int mask = newLen - 1;
+        for (int item : oldTable) {
+            if (item == 0)
+                continue;
+
+            int index = hash(item) & mask;
+            while (table[index] != 0)
+                index = (index + 1) & mask;
+            table[index] = item;
+        }
+    }
+
+    private static final int MIN_TABLE_LEN = 2;
+    private static final int MAX_TABLE_LEN = 0x40000000;  // Largest power of 2 that fits in an int
+
+}
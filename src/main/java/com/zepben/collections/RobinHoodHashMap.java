@@ -0,0 +1,593 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * A hash table based map that uses Robin Hood hashing with backward shift deletion.
+ * <p>
+ * Items are stored in arrays like {@link CompactHashMap}, but with linear probing where an item being inserted takes
+ * the slot of any item that is closer to its home slot. This keeps the distance of every item from its home slot
+ * similar, so lookups that hit and miss both stay short. Removing an item shifts the items after it back a slot rather
+ * than leaving a tombstone, so the table does not degrade when items are repeatedly removed and re-added.
+ * <p>
+ * Pros:
+ * - Probe lengths stay short and even under churn, without tombstones or periodic rehashing.
+ * - The hash of each key is stored, so equals is only called on keys with a matching hash and resizing does not call
+ * hashCode.
+ * <p>
+ * Cons:
+ * - Uses an extra int per table slot for the stored hashes.
+ * - Inserts and removes move other items, so iterators fail fast on any modification other than their own remove.
+ */
+@EverythingIsNonnullByDefault
+public final class RobinHoodHashMap<K, V> extends AbstractMap<K, V> implements Serializable {
+
+    /*---- Fields ----*/
+
+    private Object[] keyTable = new Object[0];  // Length is always a power of 2. Each element is either null or data. At least one element must be null.
+    private Object[] valueTable = new Object[0];
+    private int[] hashTable = new int[0];       // Hash of the key in each slot of keyTable.
+    private int size;
+    private int threshold;                      // The size at which the table grows.
+    private int version;                        // Changes whenever items are added, removed or moved.
+    private final double loadFactor = 0.75;     // 0 < loadFactor < 1
+
+    /*---- Constructors ----*/
+
+    public RobinHoodHashMap() {
+        clear();
+    }
+
+    /**
+     * @param expectedSize The number of items the map is expected to hold, which it can do without resizing.
+     */
+    public RobinHoodHashMap(int expectedSize) {
+        allocate(tableLengthFor(expectedSize));
+    }
+
+    /*---- Basic methods ----*/
+
+    public void clear() {
+        size = 0;
+        allocate(MIN_TABLE_LEN);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(@Nullable Object key) {
+        return key != null && probe(key, hash(key)) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V get(@Nullable Object key) {
+        if (key == null)
+            return null;
+
+        int index = probe(key, hash(key));
+        return index >= 0 ? (V) valueTable[index] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public V getOrDefault(@Nullable Object key, @Nullable V defaultValue) {
+        if (key == null)
+            return defaultValue;
+
+        int index = probe(key, hash(key));
+        return index >= 0 ? (V) valueTable[index] : defaultValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V put(K key, @Nullable V value) {
+        int hash = hash(key);
+        int index = probe(key, hash);
+        if (index < 0) {
+            insert(~index, key, hash, value);
+            return null;
+        }
+
+        V result = (V) valueTable[index];
+        valueTable[index] = value;
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public V putIfAbsent(K key, @Nullable V value) {
+        int hash = hash(key);
+        int index = probe(key, hash);
+        if (index < 0) {
+            insert(~index, key, hash, value);
+            return null;
+        }
+
+        V result = (V) valueTable[index];
+        if (result == null)
+            valueTable[index] = value;
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        int hash = hash(key);
+        int index = probe(key, hash);
+        if (index >= 0 && valueTable[index] != null)
+            return (V) valueTable[index];
+
+        int expectedVersion = version;
+        V value = mappingFunction.apply(key);
+        if (value == null)
+            return null;
+
+        if (version != expectedVersion)
+            put(key, value);
+        else if (index >= 0)
+            valueTable[index] = value;
+        else
+            insert(~index, key, hash, value);
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V remove(@Nullable Object key) {
+        if (key == null)
+            return null;
+
+        int index = probe(key, hash(key));
+        if (index < 0)
+            return null;
+
+        V result = (V) valueTable[index];
+        removeAt(index);
+        shrinkIfSparse();
+        return result;
+    }
+
+    /**
+     * Grows the table so it can hold the expected number of items without resizing again.
+     *
+     * @param expectedSize The number of items the map is expected to hold.
+     */
+    public void ensureCapacity(int expectedSize) {
+        int newLen = tableLengthFor(expectedSize);
+        if (newLen > keyTable.length)
+            resize(newLen);
+    }
+
+    /**
+     * Shrinks the table to the smallest length that holds the current items. Useful once a map that was sized for more
+     * items, or had many removed, is not expected to change much.
+     */
+    public void trimToSize() {
+        int newLen = tableLengthFor(size);
+        if (newLen < keyTable.length)
+            resize(newLen);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        int expectedVersion = version;
+        for (int i = 0; i < keyTable.length; i++) {
+            if (keyTable[i] != null) {
+                action.accept((K) keyTable[i], (V) valueTable[i]);
+                if (version != expectedVersion)
+                    throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of slots a lookup of the key examines, which is the key's distance from its home slot plus one
+     * for keys in the map. Used to measure the probe lengths of the table.
+     */
+    int probeLength(Object key) {
+        int hash = hash(key);
+        int mask = keyTable.length - 1;
+        int index = hash & mask;
+        for (int dist = 0; ; dist++) {
+            if (keyTable[index] == null || distance(index, mask) < dist)
+                return dist + 1;
+            if (hashTable[index] == hash && key.equals(keyTable[index]))
+                return dist + 1;
+            index = (index + 1) & mask;
+        }
+    }
+
+    /*---- Helper methods ----*/
+
+    private static int hash(Object key) {
+        int h;
+        return (h = key.hashCode()) ^ (h >>> 16);
+    }
+
+    // Distance of the item in the slot from its home slot.
+    private int distance(int index, int mask) {
+        return (index - hashTable[index]) & mask;
+    }
+
+    // Returns either a match index (non-negative) or the bitwise complement of the slot the key would be inserted into
+    // (negative). The search stops at the first empty slot or item closer to its home slot than the key would be.
+    private int probe(Object key, int hash) {
+        int mask = keyTable.length - 1;
+        int index = hash & mask;
+        for (int dist = 0; ; dist++) {
+            Object item = keyTable[index];
+            if (item == null || distance(index, mask) < dist)
+                return ~index;
+            if (hashTable[index] == hash && key.equals(item))
+                return index;
+            index = (index + 1) & mask;
+        }
+    }
+
+    // Inserts a new item at the slot found by probe, growing the table first if it is full.
+    private void insert(int index, Object key, int hash, @Nullable Object value) {
+        if (size >= threshold) {
+            if (keyTable.length == MAX_TABLE_LEN)
+                throw new IllegalStateException("Maximum size reached");
+            resize(keyTable.length * 2);
+            index = ~probe(key, hash);
+        }
+
+        place(index, key, hash, value);
+        ++size;
+        ++version;
+    }
+
+    // Puts the item in the slot, moving each item it displaces along to the next slot that is closer to its own home.
+    private void place(int index, Object key, int hash, @Nullable Object value) {
+        int mask = keyTable.length - 1;
+        while (keyTable[index] != null) {
+            Object displacedKey = keyTable[index];
+            Object displacedValue = valueTable[index];
+            int displacedHash = hashTable[index];
+            keyTable[index] = key;
+            valueTable[index] = value;
+            hashTable[index] = hash;
+            key = displacedKey;
+            value = displacedValue;
+            hash = displacedHash;
+
+            int dist = distance(index, mask);
+            do {
+                index = (index + 1) & mask;
+                ++dist;
+            } while (keyTable[index] != null && distance(index, mask) >= dist);
+        }
+
+        keyTable[index] = key;
+        valueTable[index] = value;
+        hashTable[index] = hash;
+    }
+
+    // Removes the item in the slot, shifting the following items that are away from their home slot back by one.
+    private void removeAt(int index) {
+        int mask = keyTable.length - 1;
+        int next = (index + 1) & mask;
+        while (keyTable[next] != null && distance(next, mask) > 0) {
+            keyTable[index] = keyTable[next];
+            valueTable[index] = valueTable[next];
+            hashTable[index] = hashTable[next];
+            index = next;
+            next = (next + 1) & mask;
+        }
+
+        keyTable[index] = null;
+        valueTable[index] = null;
+        --size;
+        ++version;
+    }
+
+    private void shrinkIfSparse() {
+        if (keyTable.length > MIN_TABLE_LEN && size < threshold / 4)
+            resize(Math.max(tableLengthFor(size), MIN_TABLE_LEN));
+    }
+
+    private int tableLengthFor(int expectedSize) {
+        int len = MIN_TABLE_LEN;
+        while (len < MAX_TABLE_LEN && expectedSize > (int) (len * loadFactor))
+            len *= 2;
+        return len;
+    }
+
+    private void allocate(int len) {
+        keyTable = new Object[len];
+        valueTable = new Object[len];
+        hashTable = new int[len];
+        threshold = Math.min((int) (len * loadFactor), len - 1);
+        ++version;
+    }
+
+    private void resize(int newLen) {
+        Object[] oldKeyTable = keyTable;
+        Object[] oldValueTable = valueTable;
+        int[] oldHashTable = hashTable;
+        allocate(newLen);
+
+        int mask = newLen - 1;
+        for (int i = 0; i < oldKeyTable.length; i++) {
+            if (oldKeyTable[i] == null)
+                continue;
+
+            // Find the insertion slot as probe does, but without equals as the keys are already unique.
+            int hash = oldHashTable[i];
+            int index = hash & mask;
+            int dist = 0;
+            while (keyTable[index] != null && distance(index, mask) >= dist) {
+                index = (index + 1) & mask;
+                ++dist;
+            }
+            place(index, oldKeyTable[i], hash, oldValueTable[i]);
+        }
+    }
+
+    /*---- Advanced methods ----*/
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new EntrySet();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new KeySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new Values();
+    }
+
+    private static final int MIN_TABLE_LEN = 2;
+    private static final int MAX_TABLE_LEN = 0x40000000;  // Largest power of 2 that fits in an int
+
+    // Clone not supported.
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        throw new CloneNotSupportedException();
+    }
+
+    /*---- Helper classes ----*/
+
+    // Iterates the items of the table, starting after an empty slot. Removing an item shifts the items after it back a
+    // slot, and starting after an empty slot means no item is shifted from before the start of the iteration to after it.
+    @EverythingIsNonnullByDefault
+    private abstract class TableIter<T> implements Iterator<T> {
+
+        private int expectedVersion = version;
+        private int nextIndex;
+        private int remaining;  // Number of slots left to check.
+        private int currentIndex = -1;
+
+        TableIter() {
+            int start = 0;
+            while (keyTable[start] != null)
+                ++start;
+            nextIndex = (start + 1) & (keyTable.length - 1);
+            remaining = keyTable.length - 1;
+        }
+
+        abstract T get(int index);
+
+        public boolean hasNext() {
+            if (version != expectedVersion)
+                throw new ConcurrentModificationException();
+            while (remaining > 0 && keyTable[nextIndex] == null) {
+                nextIndex = (nextIndex + 1) & (keyTable.length - 1);
+                --remaining;
+            }
+            return remaining > 0;
+        }
+
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            currentIndex = nextIndex;
+            nextIndex = (nextIndex + 1) & (keyTable.length - 1);
+            --remaining;
+            return get(currentIndex);
+        }
+
+        @Override
+        public void remove() {
+            if (version != expectedVersion)
+                throw new ConcurrentModificationException();
+            if (currentIndex == -1)
+                throw new IllegalStateException();
+
+            // Do not shrink the table, as that would reorder the items.
+            removeAt(currentIndex);
+            expectedVersion = version;
+
+            // The next item may have been shifted back into the slot we just removed.
+            if (keyTable[currentIndex] != null) {
+                nextIndex = currentIndex;
+                ++remaining;
+            }
+            currentIndex = -1;
+        }
+
+    }
+
+    @EverythingIsNonnullByDefault
+    private final class KeySet extends AbstractSet<K> {
+
+        public int size() {
+            return size;
+        }
+
+        public boolean contains(@Nullable Object obj) {
+            return containsKey(obj);
+        }
+
+        public boolean remove(@Nullable Object obj) {
+            if (!containsKey(obj))
+                return false;
+            RobinHoodHashMap.this.remove(obj);
+            return true;
+        }
+
+        public void clear() {
+            RobinHoodHashMap.this.clear();
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            return new TableIter<K>() {
+                @SuppressWarnings("unchecked")
+                @Override
+                K get(int index) {
+                    return (K) keyTable[index];
+                }
+            };
+        }
+
+    }
+
+    @EverythingIsNonnullByDefault
+    private final class Values extends AbstractCollection<V> {
+
+        public int size() {
+            return size;
+        }
+
+        public void clear() {
+            RobinHoodHashMap.this.clear();
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            return new TableIter<V>() {
+                @SuppressWarnings("unchecked")
+                @Override
+                V get(int index) {
+                    return (V) valueTable[index];
+                }
+            };
+        }
+
+    }
+
+    @EverythingIsNonnullByDefault
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+        public int size() {
+            return size;
+        }
+
+        public boolean contains(@Nullable Object obj) {
+            if (!(obj instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) obj;
+            Object key = entry.getKey();
+            return containsKey(key) && Objects.equals(get(key), entry.getValue());
+        }
+
+        public void clear() {
+            RobinHoodHashMap.this.clear();
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new TableIter<Map.Entry<K, V>>() {
+                @SuppressWarnings("unchecked")
+                @Override
+                Map.Entry<K, V> get(int index) {
+                    return new Entry((K) keyTable[index], index);
+                }
+            };
+        }
+
+    }
+
+    // An entry that finds its key again if the items have moved since it was created.
+    @EverythingIsNonnullByDefault
+    private final class Entry implements Map.Entry<K, V> {
+
+        private final K key;
+        private int index;
+        private int entryVersion = version;
+
+        Entry(K key, int index) {
+            this.key = key;
+            this.index = index;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Nullable
+        @Override
+        public V getValue() {
+            return locate() ? (V) valueTable[index] : null;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Nullable
+        @Override
+        public V setValue(@Nullable V value) {
+            if (!locate())
+                throw new IllegalStateException("The entry has been removed from the map");
+            V oldValue = (V) valueTable[index];
+            valueTable[index] = value;
+            return oldValue;
+        }
+
+        private boolean locate() {
+            if (entryVersion != version) {
+                index = probe(key, hash(key));
+                entryVersion = version;
+            }
+            return index >= 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public boolean equals(@Nullable Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return key.equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+
+    }
+
+}
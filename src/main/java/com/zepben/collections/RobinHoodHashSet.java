@@ -0,0 +1,324 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * A hash table based set that uses Robin Hood hashing with backward shift deletion. See {@link RobinHoodHashMap} for the
+ * details and trade-offs.
+ */
+@EverythingIsNonnullByDefault
+public final class RobinHoodHashSet<E> extends AbstractSet<E> implements Serializable {
+
+    /*---- Fields ----*/
+
+    private Object[] objTable = new Object[0];  // Length is always a power of 2. Each element is either null or data. At least one element must be null.
+    private int[] hashTable = new int[0];       // Hash of the item in each slot of objTable.
+    private int size;
+    private int threshold;                      // The size at which the table grows.
+    private int version;                        // Changes whenever items are added, removed or moved.
+    private final double loadFactor = 0.75;     // 0 < loadFactor < 1
+
+    /*---- Constructors ----*/
+
+    public RobinHoodHashSet() {
+        clear();
+    }
+
+    /**
+     * @param expectedSize The number of items the set is expected to hold, which it can do without resizing.
+     */
+    public RobinHoodHashSet(int expectedSize) {
+        allocate(tableLengthFor(expectedSize));
+    }
+
+    /*---- Basic methods ----*/
+
+    public void clear() {
+        size = 0;
+        allocate(MIN_TABLE_LEN);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(@Nullable Object obj) {
+        return obj != null && probe(obj, hash(obj)) >= 0;
+    }
+
+    public boolean add(E obj) {
+        int hash = hash(obj);
+        int index = probe(obj, hash);
+        if (index >= 0)
+            return false;
+
+        if (size >= threshold) {
+            if (objTable.length == MAX_TABLE_LEN)
+                throw new IllegalStateException("Maximum size reached");
+            resize(objTable.length * 2);
+            index = probe(obj, hash);
+        }
+
+        place(~index, obj, hash);
+        ++size;
+        ++version;
+        return true;
+    }
+
+    public boolean remove(@Nullable Object obj) {
+        if (obj == null)
+            return false;
+
+        int index = probe(obj, hash(obj));
+        if (index < 0)
+            return false;
+
+        removeAt(index);
+        if (objTable.length > MIN_TABLE_LEN && size < threshold / 4)
+            resize(Math.max(tableLengthFor(size), MIN_TABLE_LEN));
+        return true;
+    }
+
+    /**
+     * Grows the table so it can hold the expected number of items without resizing again.
+     *
+     * @param expectedSize The number of items the set is expected to hold.
+     */
+    public void ensureCapacity(int expectedSize) {
+        int newLen = tableLengthFor(expectedSize);
+        if (newLen > objTable.length)
+            resize(newLen);
+    }
+
+    /**
+     * Shrinks the table to the smallest length that holds the current items. Useful once a set that was sized for more
+     * items, or had many removed, is not expected to change much.
+     */
+    public void trimToSize() {
+        int newLen = tableLengthFor(size);
+        if (newLen < objTable.length)
+            resize(newLen);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void forEach(Consumer<? super E> action) {
+        int expectedVersion = version;
+        for (Object item : objTable) {
+            if (item != null) {
+                action.accept((E) item);
+                if (version != expectedVersion)
+                    throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of slots a lookup of the item examines, which is the item's distance from its home slot plus one
+     * for items in the set. Used to measure the probe lengths of the table.
+     */
+    int probeLength(Object obj) {
+        int hash = hash(obj);
+        int mask = objTable.length - 1;
+        int index = hash & mask;
+        for (int dist = 0; ; dist++) {
+            if (objTable[index] == null || distance(index, mask) < dist)
+                return dist + 1;
+            if (hashTable[index] == hash && obj.equals(objTable[index]))
+                return dist + 1;
+            index = (index + 1) & mask;
+        }
+    }
+
+    /*---- Helper methods ----*/
+
+    private static int hash(Object obj) {
+        int h;
+        return (h = obj.hashCode()) ^ (h >>> 16);
+    }
+
+    // Distance of the item in the slot from its home slot.
+    private int distance(int index, int mask) {
+        return (index - hashTable[index]) & mask;
+    }
+
+    // Returns either a match index (non-negative) or the bitwise complement of the slot the item would be inserted into
+    // (negative). The search stops at the first empty slot or item closer to its home slot than the item would be.
+    private int probe(Object obj, int hash) {
+        int mask = objTable.length - 1;
+        int index = hash & mask;
+        for (int dist = 0; ; dist++) {
+            Object item = objTable[index];
+            if (item == null || distance(index, mask) < dist)
+                return ~index;
+            if (hashTable[index] == hash && obj.equals(item))
+                return index;
+            index = (index + 1) & mask;
+        }
+    }
+
+    // Puts the item in the slot, moving each item it displaces along to the next slot that is closer to its own home.
+    private void place(int index, Object obj, int hash) {
+        int mask = objTable.length - 1;
+        while (objTable[index] != null) {
+            Object displaced = objTable[index];
+            int displacedHash = hashTable[index];
+            objTable[index] = obj;
+            hashTable[index] = hash;
+            obj = displaced;
+            hash = displacedHash;
+
+            int dist = distance(index, mask);
+            do {
+                index = (index + 1) & mask;
+                ++dist;
+            } while (objTable[index] != null && distance(index, mask) >= dist);
+        }
+
+        objTable[index] = obj;
+        hashTable[index] = hash;
+    }
+
+    // Removes the item in the slot, shifting the following items that are away from their home slot back by one.
+    private void removeAt(int index) {
+        int mask = objTable.length - 1;
+        int next = (index + 1) & mask;
+        while (objTable[next] != null && distance(next, mask) > 0) {
+            objTable[index] = objTable[next];
+            hashTable[index] = hashTable[next];
+            index = next;
+            next = (next + 1) & mask;
+        }
+
+        objTable[index] = null;
+        --size;
+        ++version;
+    }
+
+    private int tableLengthFor(int expectedSize) {
+        int len = MIN_TABLE_LEN;
+        while (len < MAX_TABLE_LEN && expectedSize > (int) (len * loadFactor))
+            len *= 2;
+        return len;
+    }
+
+    private void allocate(int len) {
+        objTable = new Object[len];
+        hashTable = new int[len];
+        threshold = Math.min((int) (len * loadFactor), len - 1);
+        ++version;
+    }
+
+    private void resize(int newLen) {
+        Object[] oldObjTable = objTable;
+        int[] oldHashTable = hashTable;
+        allocate(newLen);
+
+        int mask = newLen - 1;
+        for (int i = 0; i < oldObjTable.length; i++) {
+            if (oldObjTable[i] == null)
+                continue;
+
+            // Find the insertion slot as probe does, but without equals as the items are already unique.
+            int hash = oldHashTable[i];
+            int index = hash & mask;
+            int dist = 0;
+            while (objTable[index] != null && distance(index, mask) >= dist) {
+                index = (index + 1) & mask;
+                ++dist;
+            }
+            place(index, oldObjTable[i], hash);
+        }
+    }
+
+    /*---- Advanced methods ----*/
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iter();
+    }
+
+    private static final int MIN_TABLE_LEN = 2;
+    private static final int MAX_TABLE_LEN = 0x40000000;  // Largest power of 2 that fits in an int
+
+    /*---- Helper classes ----*/
+
+    // Iterates the items of the table, starting after an empty slot. Removing an item shifts the items after it back a
+    // slot, and starting after an empty slot means no item is shifted from before the start of the iteration to after it.
+    @EverythingIsNonnullByDefault
+    private final class Iter implements Iterator<E> {
+
+        private int expectedVersion = version;
+        private int nextIndex;
+        private int remaining;  // Number of slots left to check.
+        private int currentIndex = -1;
+
+        Iter() {
+            int start = 0;
+            while (objTable[start] != null)
+                ++start;
+            nextIndex = (start + 1) & (objTable.length - 1);
+            remaining = objTable.length - 1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (version != expectedVersion)
+                throw new ConcurrentModificationException();
+            while (remaining > 0 && objTable[nextIndex] == null) {
+                nextIndex = (nextIndex + 1) & (objTable.length - 1);
+                --remaining;
+            }
+            return remaining > 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public E next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            currentIndex = nextIndex;
+            nextIndex = (nextIndex + 1) & (objTable.length - 1);
+            --remaining;
+            return (E) objTable[currentIndex];
+        }
+
+        @Override
+        public void remove() {
+            if (version != expectedVersion)
+                throw new ConcurrentModificationException();
+            if (currentIndex == -1)
+                throw new IllegalStateException();
+
+            // Do not shrink the table, as that would reorder the items.
+            removeAt(currentIndex);
+            expectedVersion = version;
+
+            // The next item may have been shifted back into the slot we just removed.
+            if (objTable[currentIndex] != null) {
+                nextIndex = currentIndex;
+                ++remaining;
+            }
+            currentIndex = -1;
+        }
+
+    }
+
+}
@@ -0,0 +1,484 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A map for holding a few items, which stores up to 8 of them inline in a single array that is searched linearly, and
+ * switches to a {@link CompactHashMap} when it grows past that.
+ * <p>
+ * Pros:
+ * - Much less memory than a hash map when there are only a few items, as there is a single array sized for the items
+ * rather than hash tables kept at most half full.
+ * - Lookups in a small map only compare a few keys, without hashing.
+ * <p>
+ * Cons:
+ * - Once it switches to a hash map every operation goes through this map, and it doesn't switch back if items are
+ * removed.
+ * - Linear search means lookups call equals on every key before the match, so it suits keys with cheap equals.
+ */
+@EverythingIsNonnullByDefault
+public final class SmallHashMap<K, V> extends AbstractMap<K, V> implements Serializable {
+
+    /*---- Fields ----*/
+
+    private Object[] inline = EMPTY;                  // Keys and values interleaved, in the order they were added.
+    @Nullable private CompactHashMap<K, V> hashed;  // Holds the items instead once there are more than MAX_INLINE.
+    private int size;                                 // Number of items stored inline.
+    private int modCount;                             // Incremented by every add and remove, to detect modification.
+
+    /*---- Constructors ----*/
+
+    public SmallHashMap() {
+    }
+
+    /**
+     * @param expectedSize The number of items the map is expected to hold, which it can do without resizing.
+     */
+    public SmallHashMap(int expectedSize) {
+        if (expectedSize > MAX_INLINE)
+            hashed = new CompactHashMap<>(expectedSize);
+        else if (expectedSize > 0)
+            inline = new Object[expectedSize * 2];
+    }
+
+    /*---- Basic methods ----*/
+
+    public void clear() {
+        inline = EMPTY;
+        hashed = null;
+        size = 0;
+        modCount++;
+    }
+
+    public int size() {
+        return hashed != null ? hashed.size() : size;
+    }
+
+    public boolean containsKey(@Nullable Object key) {
+        if (hashed != null)
+            return key != null && hashed.containsKey(key);
+        return indexOf(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V get(@Nullable Object key) {
+        if (hashed != null)
+            return key != null ? hashed.get(key) : null;
+
+        int index = indexOf(key);
+        return index >= 0 ? (V) inline[index * 2 + 1] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public V getOrDefault(@Nullable Object key, @Nullable V defaultValue) {
+        if (hashed != null)
+            return key != null ? hashed.getOrDefault(key, defaultValue) : defaultValue;
+
+        int index = indexOf(key);
+        return index >= 0 ? (V) inline[index * 2 + 1] : defaultValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V put(K key, @Nullable V value) {
+        if (hashed != null)
+            return hashed.put(key, value);
+
+        int index = indexOf(key);
+        if (index < 0) {
+            append(key, value);
+            return null;
+        }
+
+        V result = (V) inline[index * 2 + 1];
+        inline[index * 2 + 1] = value;
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public V putIfAbsent(K key, @Nullable V value) {
+        if (hashed != null)
+            return hashed.putIfAbsent(key, value);
+
+        int index = indexOf(key);
+        if (index < 0) {
+            append(key, value);
+            return null;
+        }
+
+        V result = (V) inline[index * 2 + 1];
+        if (result == null)
+            inline[index * 2 + 1] = value;
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        if (hashed != null)
+            return hashed.computeIfAbsent(key, mappingFunction);
+
+        int index = indexOf(key);
+        if (index >= 0 && inline[index * 2 + 1] != null)
+            return (V) inline[index * 2 + 1];
+
+        int expectedModCount = modCount;
+        V value = mappingFunction.apply(key);
+        if (value == null)
+            return null;
+
+        // Only reuse the index if the function didn't modify the map.
+        if (hashed != null || modCount != expectedModCount)
+            put(key, value);
+        else if (index >= 0)
+            inline[index * 2 + 1] = value;
+        else
+            append(key, value);
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V remove(@Nullable Object key) {
+        if (hashed != null)
+            return key != null ? hashed.remove(key) : null;
+
+        int index = indexOf(key);
+        if (index < 0)
+            return null;
+
+        V result = (V) inline[index * 2 + 1];
+        removeAt(index);
+        return result;
+    }
+
+    /**
+     * Makes room for the expected number of items, switching to a hash map if they won't fit inline.
+     *
+     * @param expectedSize The number of items the map is expected to hold.
+     */
+    public void ensureCapacity(int expectedSize) {
+        if (hashed != null)
+            hashed.ensureCapacity(expectedSize);
+        else if (expectedSize > MAX_INLINE)
+            switchToHashed(expectedSize);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (hashed != null) {
+            hashed.forEach(action);
+            return;
+        }
+
+        int expectedModCount = modCount;
+        for (int i = 0; i < size; i++) {
+            action.accept((K) inline[i * 2], (V) inline[i * 2 + 1]);
+            if (hashed != null || modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    /*---- Helper methods ----*/
+
+    private int indexOf(@Nullable Object key) {
+        if (key == null)
+            return -1;
+
+        for (int i = 0; i < size; i++) {
+            if (key.equals(inline[i * 2]))
+                return i;
+        }
+        return -1;
+    }
+
+    // Adds a new item to the end of the inline array, growing it or switching to a hash map if it is full.
+    private void append(K key, @Nullable V value) {
+        modCount++;
+        if (size == MAX_INLINE) {
+            switchToHashed(size + 1).put(key, value);
+            return;
+        }
+
+        if (size * 2 == inline.length)
+            inline = Arrays.copyOf(inline, Math.min(Math.max(inline.length * 2, 2), MAX_INLINE * 2));
+        inline[size * 2] = key;
+        inline[size * 2 + 1] = value;
+        ++size;
+    }
+
+    private void removeAt(int index) {
+        modCount++;
+        System.arraycopy(inline, index * 2 + 2, inline, index * 2, (size - index - 1) * 2);
+        --size;
+        inline[size * 2] = null;
+        inline[size * 2 + 1] = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompactHashMap<K, V> switchToHashed(int expectedSize) {
+        CompactHashMap<K, V> map = new CompactHashMap<>(expectedSize);
+        for (int i = 0; i < size; i++)
+            map.put((K) inline[i * 2], (V) inline[i * 2 + 1]);
+
+        inline = EMPTY;
+        size = 0;
+        hashed = map;
+        return map;
+    }
+
+    /*---- Advanced methods ----*/
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new EntrySet();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new KeySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new Values();
+    }
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private static final int MAX_INLINE = 8;  // The most items stored inline before switching to a hash map.
+
+    // Clone not supported.
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        throw new CloneNotSupportedException();
+    }
+
+    /*---- Helper classes ----*/
+
+    // The views check which storage is in use on each call, so they stay valid when the map switches to a hash map.
+
+    @EverythingIsNonnullByDefault
+    private abstract class InlineIter<T> implements Iterator<T> {
+
+        private int expectedModCount = modCount;
+        private int nextIndex;
+        private int currentIndex = -1;
+
+        abstract T get(int index);
+
+        private void checkModification() {
+            if (hashed != null || modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+        }
+
+        public boolean hasNext() {
+            checkModification();
+            return nextIndex < size;
+        }
+
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            currentIndex = nextIndex++;
+            return get(currentIndex);
+        }
+
+        @Override
+        public void remove() {
+            checkModification();
+            if (currentIndex == -1)
+                throw new IllegalStateException();
+
+            removeAt(currentIndex);
+            expectedModCount = modCount;
+            nextIndex = currentIndex;
+            currentIndex = -1;
+        }
+
+    }
+
+    @EverythingIsNonnullByDefault
+    private final class KeySet extends AbstractSet<K> {
+
+        public int size() {
+            return SmallHashMap.this.size();
+        }
+
+        public boolean contains(@Nullable Object obj) {
+            return containsKey(obj);
+        }
+
+        public boolean remove(@Nullable Object obj) {
+            if (!containsKey(obj))
+                return false;
+            SmallHashMap.this.remove(obj);
+            return true;
+        }
+
+        public void clear() {
+            SmallHashMap.this.clear();
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            if (hashed != null)
+                return hashed.keySet().iterator();
+
+            return new InlineIter<K>() {
+                @SuppressWarnings("unchecked")
+                @Override
+                K get(int index) {
+                    return (K) inline[index * 2];
+                }
+            };
+        }
+
+        @Override
+        public void forEach(Consumer<? super K> action) {
+            SmallHashMap.this.forEach((key, value) -> action.accept(key));
+        }
+
+    }
+
+    @EverythingIsNonnullByDefault
+    private final class Values extends AbstractCollection<V> {
+
+        public int size() {
+            return SmallHashMap.this.size();
+        }
+
+        public void clear() {
+            SmallHashMap.this.clear();
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            if (hashed != null)
+                return hashed.values().iterator();
+
+            return new InlineIter<V>() {
+                @SuppressWarnings("unchecked")
+                @Override
+                V get(int index) {
+                    return (V) inline[index * 2 + 1];
+                }
+            };
+        }
+
+        @Override
+        public void forEach(Consumer<? super V> action) {
+            SmallHashMap.this.forEach((key, value) -> action.accept(value));
+        }
+
+    }
+
+    @EverythingIsNonnullByDefault
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+        public int size() {
+            return SmallHashMap.this.size();
+        }
+
+        public boolean contains(@Nullable Object obj) {
+            if (!(obj instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) obj;
+            Object key = entry.getKey();
+            return containsKey(key) && Objects.equals(get(key), entry.getValue());
+        }
+
+        public void clear() {
+            SmallHashMap.this.clear();
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            if (hashed != null)
+                return hashed.entrySet().iterator();
+
+            return new InlineIter<Map.Entry<K, V>>() {
+                @SuppressWarnings("unchecked")
+                @Override
+                Map.Entry<K, V> get(int index) {
+                    return new Entry((K) inline[index * 2]);
+                }
+            };
+        }
+
+    }
+
+    // An entry that looks up its key on each access, which only scans a few keys while the map is small.
+    @EverythingIsNonnullByDefault
+    private final class Entry implements Map.Entry<K, V> {
+
+        private final K key;
+
+        Entry(K key) {
+            this.key = key;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Nullable
+        @Override
+        public V getValue() {
+            return get(key);
+        }
+
+        @Nullable
+        @Override
+        public V setValue(@Nullable V value) {
+            if (!containsKey(key))
+                throw new IllegalStateException("The entry has been removed from the map");
+            return put(key, value);
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public boolean equals(@Nullable Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return key.equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * A set for holding a few items, which stores up to 8 of them inline in a single array that is searched linearly, and
+ * switches to a {@link CompactHashSet} when it grows past that. See {@link SmallHashMap} for the trade-offs.
+ */
+@EverythingIsNonnullByDefault
+public final class SmallHashSet<E> extends AbstractSet<E> implements Serializable {
+
+    /*---- Fields ----*/
+
+    private Object[] inline = EMPTY;               // Items in the order they were added.
+    @Nullable private CompactHashSet<E> hashed;  // Holds the items instead once there are more than MAX_INLINE.
+    private int size;                              // Number of items stored inline.
+
+    /*---- Constructors ----*/
+
+    public SmallHashSet() {
+    }
+
+    /**
+     * @param expectedSize The number of items the set is expected to hold, which it can do without resizing.
+     */
+    public SmallHashSet(int expectedSize) {
+        if (expectedSize > MAX_INLINE)
+            hashed = new CompactHashSet<>(expectedSize);
+        else if (expectedSize > 0)
+            inline = new Object[expectedSize];
+    }
+
+    /*---- Basic methods ----*/
+
+    public void clear() {
+        inline = EMPTY;
+        hashed = null;
+        size = 0;
+    }
+
+    public int size() {
+        return hashed != null ? hashed.size() : size;
+    }
+
+    @Override
+    public boolean contains(@Nullable Object obj) {
+        if (hashed != null)
+            return hashed.contains(obj);
+        return indexOf(obj) >= 0;
+    }
+
+    public boolean add(E obj) {
+        if (hashed != null)
+            return hashed.add(obj);
+        if (indexOf(obj) >= 0)
+            return false;
+
+        if (size == MAX_INLINE)
+            return switchToHashed(size + 1).add(obj);
+
+        if (size == inline.length)
+            inline = Arrays.copyOf(inline, Math.min(Math.max(inline.length * 2, 1), MAX_INLINE));
+        inline[size++] = obj;
+        return true;
+    }
+
+    public boolean remove(@Nullable Object obj) {
+        if (hashed != null)
+            return obj != null && hashed.remove(obj);
+
+        int index = indexOf(obj);
+        if (index < 0)
+            return false;
+
+        removeAt(index);
+        return true;
+    }
+
+    /**
+     * Makes room for the expected number of items, switching to a hash set if they won't fit inline.
+     *
+     * @param expectedSize The number of items the set is expected to hold.
+     */
+    public void ensureCapacity(int expectedSize) {
+        if (hashed != null)
+            hashed.ensureCapacity(expectedSize);
+        else if (expectedSize > MAX_INLINE)
+            switchToHashed(expectedSize);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void forEach(Consumer<? super E> action) {
+        if (hashed != null) {
+            hashed.forEach(action);
+            return;
+        }
+
+        Object[] expectedInline = inline;
+        int expectedSize = size;
+        for (int i = 0; i < expectedSize; i++) {
+            action.accept((E) expectedInline[i]);
+            if (hashed != null || inline != expectedInline || size != expectedSize)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    /*---- Helper methods ----*/
+
+    private int indexOf(@Nullable Object obj) {
+        if (obj == null)
+            return -1;
+
+        for (int i = 0; i < size; i++) {
+            if (obj.equals(inline[i]))
+                return i;
+        }
+        return -1;
+    }
+
+    private void removeAt(int index) {
+        System.arraycopy(inline, index + 1, inline, index, size - index - 1);
+        inline[--size] = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompactHashSet<E> switchToHashed(int expectedSize) {
+        CompactHashSet<E> set = new CompactHashSet<>(expectedSize);
+        for (int i = 0; i < size; i++)
+            set.add((E) inline[i]);
+
+        inline = EMPTY;
+        size = 0;
+        hashed = set;
+        return set;
+    }
+
+    /*---- Advanced methods ----*/
+
+    @Override
+    public Iterator<E> iterator() {
+        if (hashed != null)
+            return hashed.iterator();
+        return new Iter();
+    }
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private static final int MAX_INLINE = 8;  // The most items stored inline before switching to a hash set.
+
+    /*---- Helper classes ----*/
+
+    @EverythingIsNonnullByDefault
+    private final class Iter implements Iterator<E> {
+
+        private final Object[] expectedInline = inline;
+        private int expectedSize = size;
+        private int nextIndex;
+        private int currentIndex = -1;
+
+        private void checkModification() {
+            if (hashed != null || inline != expectedInline || size != expectedSize)
+                throw new ConcurrentModificationException();
+        }
+
+        @Override
+        public boolean hasNext() {
+            checkModification();
+            return nextIndex < size;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public E next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            currentIndex = nextIndex++;
+            return (E) inline[currentIndex];
+        }
+
+        @Override
+        public void remove() {
+            checkModification();
+            if (currentIndex == -1)
+                throw new IllegalStateException();
+
+            removeAt(currentIndex);
+            expectedSize = size;
+            nextIndex = currentIndex;
+            currentIndex = -1;
+        }
+
+    }
+
+}
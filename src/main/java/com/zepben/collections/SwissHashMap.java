@@ -0,0 +1,623 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * A hash table based map laid out like a SwissTable, where each slot has a control byte holding 7 bits of the hash of
+ * its key, or a marker for an empty or deleted slot.
+ * <p>
+ * The slots are split into groups of 8, whose control bytes are packed into a single long. A lookup compares the hash
+ * fragment against all 8 control bytes of a group at once with a few word operations, and only calls equals on the keys
+ * whose fragment matches, which is 1 in 128 of the other keys in the group. A lookup stops at the first group with an
+ * empty slot, so most misses are decided from the control words without reading any keys.
+ * <p>
+ * Pros:
+ * - Lookups read one long per group of 8 slots, and rarely call equals on keys that don't match.
+ * - The control bytes use 1 byte per slot, much less than the int per slot of stored hashes, and allow a 7/8 load factor.
+ * <p>
+ * Cons:
+ * - Removed items leave deleted markers in groups that have no empty slot, which are cleared when the table is
+ * rehashed.
+ * - Resizing calls hashCode on every key, as only 7 bits of each hash are stored.
+ */
+@EverythingIsNonnullByDefault
+public final class SwissHashMap<K, V> extends AbstractMap<K, V> implements Serializable {
+
+    /*---- Fields ----*/
+
+    private long[] controlTable = new long[0];  // The control bytes of each group of 8 slots, with slot 0 in the lowest byte.
+    private Object[] keyTable = new Object[0];  // Length is always a power of 2, and at least GROUP_SIZE. Each element is either null or data.
+    private Object[] valueTable = new Object[0];
+    private int size;
+    private int deleted;                        // Number of slots marked as deleted.
+    private int threshold;                      // The most slots that can be full or deleted before the table is rehashed.
+    private int version;                        // Changes whenever items are added or removed.
+    private final double loadFactor = 0.875;    // 0 < loadFactor < 1
+
+    /*---- Constructors ----*/
+
+    public SwissHashMap() {
+        clear();
+    }
+
+    /**
+     * @param expectedSize The number of items the map is expected to hold, which it can do without resizing.
+     */
+    public SwissHashMap(int expectedSize) {
+        allocate(tableLengthFor(expectedSize));
+    }
+
+    /*---- Basic methods ----*/
+
+    public void clear() {
+        size = 0;
+        allocate(MIN_TABLE_LEN);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(@Nullable Object key) {
+        return key != null && probe(key, hash(key)) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V get(@Nullable Object key) {
+        if (key == null)
+            return null;
+
+        int index = probe(key, hash(key));
+        return index >= 0 ? (V) valueTable[index] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public V getOrDefault(@Nullable Object key, @Nullable V defaultValue) {
+        if (key == null)
+            return defaultValue;
+
+        int index = probe(key, hash(key));
+        return index >= 0 ? (V) valueTable[index] : defaultValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V put(K key, @Nullable V value) {
+        int hash = hash(key);
+        int index = probe(key, hash);
+        if (index < 0) {
+            insert(~index, key, hash, value);
+            return null;
+        }
+
+        V result = (V) valueTable[index];
+        valueTable[index] = value;
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public V putIfAbsent(K key, @Nullable V value) {
+        int hash = hash(key);
+        int index = probe(key, hash);
+        if (index < 0) {
+            insert(~index, key, hash, value);
+            return null;
+        }
+
+        V result = (V) valueTable[index];
+        if (result == null)
+            valueTable[index] = value;
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        int hash = hash(key);
+        int index = probe(key, hash);
+        if (index >= 0 && valueTable[index] != null)
+            return (V) valueTable[index];
+
+        int expectedVersion = version;
+        V value = mappingFunction.apply(key);
+        if (value == null)
+            return null;
+
+        if (version != expectedVersion)
+            put(key, value);
+        else if (index >= 0)
+            valueTable[index] = value;
+        else
+            insert(~index, key, hash, value);
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V remove(@Nullable Object key) {
+        if (key == null)
+            return null;
+
+        int index = probe(key, hash(key));
+        if (index < 0)
+            return null;
+
+        V result = (V) valueTable[index];
+        removeAt(index);
+        shrinkIfSparse();
+        return result;
+    }
+
+    /**
+     * Grows the table so it can hold the expected number of items without resizing again.
+     *
+     * @param expectedSize The number of items the map is expected to hold.
+     */
+    public void ensureCapacity(int expectedSize) {
+        int newLen = tableLengthFor(expectedSize);
+        if (newLen > keyTable.length)
+            resize(newLen);
+    }
+
+    /**
+     * Shrinks the table to the smallest length that holds the current items, clearing any deleted markers. Useful once a
+     * map that was sized for more items, or had many removed, is not expected to change much.
+     */
+    public void trimToSize() {
+        int newLen = tableLengthFor(size);
+        if (newLen < keyTable.length || deleted > 0)
+            resize(newLen);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        int expectedVersion = version;
+        for (int i = 0; i < keyTable.length; i++) {
+            if (keyTable[i] != null) {
+                action.accept((K) keyTable[i], (V) valueTable[i]);
+                if (version != expectedVersion)
+                    throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of keys a lookup of the key calls equals on, including the key itself if it is in the map. Used
+     * to measure how often lookups read keys that don't match.
+     */
+    int keysCompared(Object key) {
+        int hash = hash(key);
+        int groupMask = controlTable.length - 1;
+        long pattern = LOW_BITS * (hash & FRAGMENT_MASK);
+        int group = (hash >>> FRAGMENT_BITS) & groupMask;
+        int compared = 0;
+        for (int step = 1; ; step++) {
+            long control = controlTable[group];
+            for (long matches = matchFragment(control, pattern); matches != 0; matches &= matches - 1) {
+                ++compared;
+                if (key.equals(keyTable[slotIndex(group, matches)]))
+                    return compared;
+            }
+            if (matchEmpty(control) != 0)
+                return compared;
+            group = (group + step) & groupMask;
+        }
+    }
+
+    /*---- Helper methods ----*/
+
+    // The low bits of the hash are the control byte of the key, and the rest pick its first group.
+    private static int hash(Object key) {
+        return Hashing.mix(key.hashCode(), Hashing.DEFAULT_SEED);
+    }
+
+    // Flags the high bit of each byte of the control word that equals the byte repeated in the pattern. A byte can be
+    // flagged falsely when the byte below it matches, which only costs an extra equals.
+    private static long matchFragment(long control, long pattern) {
+        long x = control ^ pattern;
+        return (x - LOW_BITS) & ~x & HIGH_BITS;
+    }
+
+    // Flags the high bit of each byte of the control word that is EMPTY, which is the only control byte with its high bit
+    // set and second lowest bit clear.
+    private static long matchEmpty(long control) {
+        return control & ~(control << 6) & HIGH_BITS;
+    }
+
+    // The index of the slot for the lowest flagged byte in a match of the group.
+    private static int slotIndex(int group, long matches) {
+        return (group << GROUP_SHIFT) + (Long.numberOfTrailingZeros(matches) >>> 3);
+    }
+
+    private int control(int index) {
+        return (int) (controlTable[index >>> GROUP_SHIFT] >>> ((index & (GROUP_SIZE - 1)) << 3)) & 0xFF;
+    }
+
+    private void setControl(int index, int control) {
+        int shift = (index & (GROUP_SIZE - 1)) << 3;
+        int group = index >>> GROUP_SHIFT;
+        controlTable[group] = (controlTable[group] & ~(0xFFL << shift)) | ((long) control << shift);
+    }
+
+    // Returns either a match index (non-negative) or the bitwise complement of the first empty or deleted slot the key
+    // passes (negative), which is where it would be inserted. The groups are probed quadratically, which visits every
+    // group of a table whose group count is a power of 2, and the search stops at the first group with an empty slot.
+    private int probe(Object key, int hash) {
+        int groupMask = controlTable.length - 1;
+        long pattern = LOW_BITS * (hash & FRAGMENT_MASK);
+        int group = (hash >>> FRAGMENT_BITS) & groupMask;
+        int freeIndex = -1;
+        for (int step = 1; ; step++) {
+            long control = controlTable[group];
+            for (long matches = matchFragment(control, pattern); matches != 0; matches &= matches - 1) {
+                int index = slotIndex(group, matches);
+                if (key.equals(keyTable[index]))
+                    return index;
+            }
+
+            if (freeIndex < 0 && (control & HIGH_BITS) != 0)
+                freeIndex = slotIndex(group, control & HIGH_BITS);
+            if (matchEmpty(control) != 0)
+                return ~freeIndex;
+            group = (group + step) & groupMask;
+        }
+    }
+
+    // Returns the first empty or deleted slot for the hash, for use when the key is known not to be in the table.
+    private int findFree(int hash) {
+        int groupMask = controlTable.length - 1;
+        int group = (hash >>> FRAGMENT_BITS) & groupMask;
+        for (int step = 1; ; step++) {
+            long free = controlTable[group] & HIGH_BITS;
+            if (free != 0)
+                return slotIndex(group, free);
+            group = (group + step) & groupMask;
+        }
+    }
+
+    // Inserts a new item at the slot found by probe, rehashing the table first if taking an empty slot would leave too
+    // few of them.
+    private void insert(int index, Object key, int hash, @Nullable Object value) {
+        if (control(index) == DELETED)
+            --deleted;
+        else if (size + deleted >= threshold) {
+            // Rehashing at the same length clears the deleted markers. It is only done when they take up enough of the
+            // table, so a full table under churn doesn't rehash for every few items added.
+            if (deleted > threshold / 8 || (keyTable.length == MAX_TABLE_LEN && deleted > 0))
+                resize(keyTable.length);
+            else if (keyTable.length == MAX_TABLE_LEN)
+                throw new IllegalStateException("Maximum size reached");
+            else
+                resize(keyTable.length * 2);
+            index = findFree(hash);
+        }
+
+        setControl(index, hash & FRAGMENT_MASK);
+        keyTable[index] = key;
+        valueTable[index] = value;
+        ++size;
+        ++version;
+    }
+
+    // Removes the item in the slot. The slot can be marked empty if its group has another empty slot, as no lookup can have
+    // probed past the group, otherwise it is marked as deleted so lookups keep going.
+    private void removeAt(int index) {
+        if (matchEmpty(controlTable[index >>> GROUP_SHIFT]) != 0)
+            setControl(index, EMPTY);
+        else {
+            setControl(index, DELETED);
+            ++deleted;
+        }
+
+        keyTable[index] = null;
+        valueTable[index] = null;
+        --size;
+        ++version;
+    }
+
+    private void shrinkIfSparse() {
+        if (keyTable.length > MIN_TABLE_LEN && size < threshold / 4)
+            resize(tableLengthFor(size));
+    }
+
+    private int tableLengthFor(int expectedSize) {
+        int len = MIN_TABLE_LEN;
+        while (len < MAX_TABLE_LEN && expectedSize > thresholdFor(len))
+            len *= 2;
+        return len;
+    }
+
+    // At least one slot is always left empty, so every probe ends.
+    private int thresholdFor(int len) {
+        return Math.min((int) (len * loadFactor), len - 1);
+    }
+
+    private void allocate(int len) {
+        controlTable = new long[len >>> GROUP_SHIFT];
+        Arrays.fill(controlTable, EMPTY_GROUP);
+        keyTable = new Object[len];
+        valueTable = new Object[len];
+        deleted = 0;
+        threshold = thresholdFor(len);
+        ++version;
+    }
+
+    private void resize(int newLen) {
+        Object[] oldKeyTable = keyTable;
+        Object[] oldValueTable = valueTable;
+        allocate(newLen);
+
+        for (int i = 0; i < oldKeyTable.length; i++) {
+            Object key = oldKeyTable[i];
+            if (key == null)
+                continue;
+
+            int hash = hash(key);
+            int index = findFree(hash);
+            setControl(index, hash & FRAGMENT_MASK);
+            keyTable[index] = key;
+            valueTable[index] = oldValueTable[i];
+        }
+    }
+
+    /*---- Advanced methods ----*/
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new EntrySet();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new KeySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new Values();
+    }
+
+    private static final int GROUP_SIZE = 8;   // Slots per group, one for each byte of a long.
+    private static final int GROUP_SHIFT = 3;  // log2(GROUP_SIZE)
+
+    private static final int FRAGMENT_BITS = 7;
+    private static final int FRAGMENT_MASK = (1 << FRAGMENT_BITS) - 1;
+
+    // Control bytes other than a hash fragment have their high bit set.
+    private static final int EMPTY = 0x80;
+    private static final int DELETED = 0xFE;
+    private static final long EMPTY_GROUP = 0x8080808080808080L;
+
+    private static final long LOW_BITS = 0x0101010101010101L;   // The lowest bit of each byte.
+    private static final long HIGH_BITS = 0x8080808080808080L;  // The highest bit of each byte.
+
+    private static final int MIN_TABLE_LEN = GROUP_SIZE;
+    private static final int MAX_TABLE_LEN = 0x40000000;  // Largest power of 2 that fits in an int
+
+    // Clone not supported.
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        throw new CloneNotSupportedException();
+    }
+
+    /*---- Helper classes ----*/
+
+    // Removing an item doesn't move any others, so the iterator just scans the slots in order.
+    @EverythingIsNonnullByDefault
+    private abstract class TableIter<T> implements Iterator<T> {
+
+        private int expectedVersion = version;
+        private int nextIndex;
+        private int currentIndex = -1;
+
+        abstract T get(int index);
+
+        public boolean hasNext() {
+            if (version != expectedVersion)
+                throw new ConcurrentModificationException();
+            while (nextIndex < keyTable.length && keyTable[nextIndex] == null)
+                ++nextIndex;
+            return nextIndex < keyTable.length;
+        }
+
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            currentIndex = nextIndex++;
+            return get(currentIndex);
+        }
+
+        @Override
+        public void remove() {
+            if (version != expectedVersion)
+                throw new ConcurrentModificationException();
+            if (currentIndex == -1)
+                throw new IllegalStateException();
+
+            // Do not shrink the table, as that would reorder the items.
+            removeAt(currentIndex);
+            expectedVersion = version;
+            currentIndex = -1;
+        }
+
+    }
+
+    @EverythingIsNonnullByDefault
+    private final class KeySet extends AbstractSet<K> {
+
+        public int size() {
+            return size;
+        }
+
+        public boolean contains(@Nullable Object obj) {
+            return containsKey(obj);
+        }
+
+        public boolean remove(@Nullable Object obj) {
+            if (!containsKey(obj))
+                return false;
+            SwissHashMap.this.remove(obj);
+            return true;
+        }
+
+        public void clear() {
+            SwissHashMap.this.clear();
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            return new TableIter<K>() {
+                @SuppressWarnings("unchecked")
+                @Override
+                K get(int index) {
+                    return (K) keyTable[index];
+                }
+            };
+        }
+
+    }
+
+    @EverythingIsNonnullByDefault
+    private final class Values extends AbstractCollection<V> {
+
+        public int size() {
+            return size;
+        }
+
+        public void clear() {
+            SwissHashMap.this.clear();
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            return new TableIter<V>() {
+                @SuppressWarnings("unchecked")
+                @Override
+                V get(int index) {
+                    return (V) valueTable[index];
+                }
+            };
+        }
+
+    }
+
+    @EverythingIsNonnullByDefault
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+        public int size() {
+            return size;
+        }
+
+        public boolean contains(@Nullable Object obj) {
+            if (!(obj instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) obj;
+            Object key = entry.getKey();
+            return containsKey(key) && Objects.equals(get(key), entry.getValue());
+        }
+
+        public void clear() {
+            SwissHashMap.this.clear();
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new TableIter<Map.Entry<K, V>>() {
+                @SuppressWarnings("unchecked")
+                @Override
+                Map.Entry<K, V> get(int index) {
+                    return new Entry((K) keyTable[index], index);
+                }
+            };
+        }
+
+    }
+
+    // An entry that finds its key again if the map has been modified since it was created.
+    @EverythingIsNonnullByDefault
+    private final class Entry implements Map.Entry<K, V> {
+
+        private final K key;
+        private int index;
+        private int entryVersion = version;
+
+        Entry(K key, int index) {
+            this.key = key;
+            this.index = index;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Nullable
+        @Override
+        public V getValue() {
+            return locate() ? (V) valueTable[index] : null;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Nullable
+        @Override
+        public V setValue(@Nullable V value) {
+            if (!locate())
+                throw new IllegalStateException("The entry has been removed from the map");
+            V oldValue = (V) valueTable[index];
+            valueTable[index] = value;
+            return oldValue;
+        }
+
+        private boolean locate() {
+            if (entryVersion != version) {
+                index = probe(key, hash(key));
+                entryVersion = version;
+            }
+            return index >= 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public boolean equals(@Nullable Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return key.equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+
+    }
+
+}
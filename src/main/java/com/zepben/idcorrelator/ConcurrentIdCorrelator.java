@@ -0,0 +1,562 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+import com.zepben.collections.CompactHashSet;
+import com.zepben.idcorrelator.io.FailedCorrelationInfo;
+import com.zepben.idcorrelator.io.IdCorrelatorWriteException;
+import com.zepben.idcorrelator.io.IdCorrelatorWriter;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * A thread safe {@link IdCorrelator} built on concurrent maps, so many threads can add correlations while others look
+ * them up without a lock shared by all of them.
+ * <p>
+ * Each correlation is stored on both the core side and the id side, as in {@link MapBackedIdCorrelator}. The core side
+ * decides whether a correlation exists: it is updated after the id side when adding and before it when removing, and
+ * lookups from the id side only return cores whose own side agrees. A correlation therefore appears in both directions
+ * at the same moment. Writers changing the correlations of the same core take turns, while writers on different cores
+ * only contend within the concurrent maps.
+ * </p>
+ * <p>
+ * Lookups never block and return a copy of the correlations at the time they were made. Iterating over the systems or
+ * cores, exporting and writing are weakly consistent: each core's correlations are taken as they were at one moment,
+ * but changes made to other cores during the iteration may or may not be seen, so use
+ * {@link SynchronisedIdCorrelator} if a point in time copy of the whole correlator is required.
+ * </p>
+ * <p>
+ * Most ids and cores are only correlated to a few others, so their sets are immutable and replaced on each change,
+ * which readers can use without any synchronisation. Sets that grow larger are switched to concurrent sets to avoid
+ * copying them on every change.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+@EverythingIsNonnullByDefault
+public class ConcurrentIdCorrelator implements IdCorrelator {
+
+    static final int MAX_COPIED_SET_SIZE = 8;
+
+    private final ConcurrentHashMap<String, CoreEntry> coresMap = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, SystemEntry> systemsMap = new ConcurrentHashMap<>();
+    private final Set<String> blockedSystems = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void addBlockedSystem(String blockedSystem) {
+        blockedSystems.add(blockedSystem);
+    }
+
+    @Override
+    public void removeBlockedSystem(String blockedSystem) {
+        blockedSystems.remove(blockedSystem);
+    }
+
+    @Override
+    public Set<String> systems() {
+        return readOnlyCopy(systemsMap.keySet());
+    }
+
+    @Override
+    public Set<String> cores() {
+        return readOnlyCopy(coresMap.keySet());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The view is live and weakly consistent, so it can be used while the correlator is being modified.
+     * </p>
+     */
+    @Override
+    public Set<String> systemsView() {
+        return Collections.unmodifiableSet(systemsMap.keySet());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The view is live and weakly consistent, so it can be used while the correlator is being modified.
+     * </p>
+     */
+    @Override
+    public Set<String> coresView() {
+        return Collections.unmodifiableSet(coresMap.keySet());
+    }
+
+    @Override
+    public int systemCount() {
+        return systemsMap.size();
+    }
+
+    @Override
+    public int coreCount() {
+        return coresMap.size();
+    }
+
+    @Override
+    public boolean hasSystem(String systemTag) {
+        return systemsMap.containsKey(systemTag);
+    }
+
+    @Override
+    public boolean hasCore(String coreId) {
+        return coresMap.containsKey(coreId);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * No lock is held while the action runs, so it may modify the correlator.
+     * </p>
+     */
+    @Override
+    public void forEachSystem(Consumer<String> action) {
+        systemsMap.keySet().forEach(action);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * No lock is held while the action runs, so it may modify the correlator.
+     * </p>
+     */
+    @Override
+    public void forEachCore(Consumer<String> action) {
+        coresMap.keySet().forEach(action);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Blocking a system doesn't remove it if it has already been added, but does stop it being added again.
+     * </p>
+     */
+    @Override
+    public boolean addSystem(String systemTag) {
+        if (blockedSystems.contains(systemTag) || systemTag.equals("id"))
+            return false;
+
+        if (!systemsMap.containsKey(systemTag))
+            systemsMap.putIfAbsent(systemTag, new SystemEntry(systemTag));
+        return true;
+    }
+
+    @Override
+    public void removeSystem(String systemTag) {
+        SystemEntry system = systemsMap.get(systemTag);
+        if ((system == null) || !remove(system, false))
+            return;
+
+        // Lookups go through the system entry, so its correlations are gone as soon as it is removed. Clearing the cores'
+        // side only frees the memory.
+        system.coresById.values().forEach(cores -> cores.forEach(core -> {
+            synchronized (core) {
+                core.idsBySystem.remove(system);
+            }
+        }));
+    }
+
+    @Override
+    public boolean addCore(String coreId) {
+        return !coresMap.containsKey(coreId) && (coresMap.putIfAbsent(coreId, new CoreEntry(coreId)) == null);
+    }
+
+    @Override
+    public void removeCore(String coreId) {
+        CoreEntry core = coresMap.remove(coreId);
+        if (core == null)
+            return;
+
+        synchronized (core) {
+            core.removed = true;
+            core.idsBySystem.forEach((system, ids) -> {
+                for (String systemId : ids)
+                    system.coresById.computeIfPresent(systemId, (id, cores) -> without(cores, core));
+
+                // As with MapBackedIdCorrelator, a system left without any ids by removing the core is removed with it.
+                if (system.coresById.isEmpty())
+                    remove(system, true);
+            });
+            core.idsBySystem.clear();
+        }
+    }
+
+    @Override
+    public Set<String> getCores(String systemTag, String systemId) {
+        SystemEntry system = systemsMap.get(systemTag);
+        if (system == null)
+            return Collections.emptySet();
+
+        return correlatedCoreIds(system, system.coresById.get(systemId), systemId);
+    }
+
+    @Override
+    public Map<String, Set<String>> getCoresForIds(String systemTag, Collection<String> systemIds) {
+        SystemEntry system = systemsMap.get(systemTag);
+        if ((system == null) || systemIds.isEmpty())
+            return Collections.emptyMap();
+
+        Map<String, Set<String>> cores = new HashMap<>();
+        for (String systemId : systemIds) {
+            Set<String> correlated = correlatedCoreIds(system, system.coresById.get(systemId), systemId);
+            if (!correlated.isEmpty())
+                cores.put(systemId, correlated);
+        }
+        return Collections.unmodifiableMap(cores);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The action is passed a copy of the cores, so it may modify the correlator.
+     * </p>
+     */
+    @Override
+    public void forEachCore(String systemTag, String systemId, Consumer<String> action) {
+        getCores(systemTag, systemId).forEach(action);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A live view can't be kept consistent with the id side, so this returns the same copy as
+     * {@link #getCores(String, String)}.
+     * </p>
+     */
+    @Override
+    public Set<String> getCoresView(String systemTag, String systemId) {
+        return getCores(systemTag, systemId);
+    }
+
+    @Override
+    public void addCorrelation(String coreId, String systemTag, String systemId) {
+        // Look the system and core up again if either is removed before the correlation can be added, so the removal is
+        // reported rather than the correlation being lost with it.
+        while (true) {
+            SystemEntry system = systemsMap.get(systemTag);
+            if (system == null)
+                throw new IllegalArgumentException(String.format("INTERNAL ERROR: Unknown system tag '%s'. Why do I not know about it!", systemTag));
+
+            CoreEntry core = coresMap.get(coreId);
+            if (core == null)
+                throw new IllegalArgumentException(String.format("INTERNAL ERROR: Unknown core id '%s'. Why do I not know about it!", coreId));
+
+            if (add(core, system, systemId))
+                return;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Each correlation is added on its own, so other threads see the correlations as they are added rather than all at
+     * once.
+     * </p>
+     */
+    @Override
+    public void loadCorrelations(Iterable<Correlation> correlations, int expectedCores, int expectedCorrelations, Consumer<FailedCorrelationInfo> onFailure) {
+        for (Correlation correlation : correlations)
+            loadCorrelation(correlation.coreId(), correlation.systemTag(), correlation.systemId(), onFailure);
+    }
+
+    @Override
+    public void removeId(String systemTag, String systemId) {
+        SystemEntry system = systemsMap.get(systemTag);
+        if (system == null)
+            return;
+
+        Set<CoreEntry> cores = system.coresById.get(systemId);
+        if (cores == null)
+            return;
+
+        for (CoreEntry core : cores) {
+            synchronized (core) {
+                // Remove it from the core's side first, which is when the correlation stops being visible.
+                core.idsBySystem.computeIfPresent(system, (s, ids) -> without(ids, systemId));
+                system.coresById.computeIfPresent(systemId, (id, correlated) -> without(correlated, core));
+            }
+        }
+    }
+
+    @Override
+    public Set<String> getIds(String coreId, String systemTag) {
+        SystemEntry system = systemsMap.get(systemTag);
+        CoreEntry core = coresMap.get(coreId);
+        if ((system == null) || (core == null))
+            return Collections.emptySet();
+
+        return readOnlyCopy(core.idsBySystem.get(system));
+    }
+
+    @Override
+    public Map<String, Set<String>> getIdsForCores(Collection<String> coreIds, String systemTag) {
+        SystemEntry system = systemsMap.get(systemTag);
+        if ((system == null) || coreIds.isEmpty())
+            return Collections.emptyMap();
+
+        Map<String, Set<String>> ids = new HashMap<>();
+        for (String coreId : coreIds) {
+            CoreEntry core = coresMap.get(coreId);
+            Set<String> correlated = core != null ? readOnlyCopy(core.idsBySystem.get(system)) : Collections.emptySet();
+            if (!correlated.isEmpty())
+                ids.put(coreId, correlated);
+        }
+        return Collections.unmodifiableMap(ids);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The action is passed a copy of the ids, so it may modify the correlator.
+     * </p>
+     */
+    @Override
+    public void forEachId(String coreId, String systemTag, Consumer<String> action) {
+        getIds(coreId, systemTag).forEach(action);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A live view can't be kept consistent with the core side, so this returns the same copy as
+     * {@link #getIds(String, String)}.
+     * </p>
+     */
+    @Override
+    public Set<String> getIdsView(String coreId, String systemTag) {
+        return getIds(coreId, systemTag);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The correlations of each core are exported as they were at one moment, but the export as a whole is weakly
+     * consistent, as the other cores can change while it runs.
+     * </p>
+     */
+    @Override
+    public <E extends Exception> void exportCorrelations(CorrelationExporter<E> exporter) throws E {
+        for (CoreEntry core : coresMap.values()) {
+            Map<String, Set<String>> systemIds = new LinkedHashMap<>();
+            synchronized (core) {
+                if (core.removed)
+                    continue;
+
+                core.idsBySystem.forEach((system, ids) -> {
+                    if (systemsMap.get(system.tag) == system)
+                        systemIds.put(system.tag, readOnlyCopy(ids));
+                });
+            }
+            exporter.exportCore(core.id, Collections.unmodifiableMap(systemIds));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Writers aren't blocked while writing, so the written correlations are only as consistent as
+     * {@link #exportCorrelations}.
+     * </p>
+     */
+    @Override
+    public void write(IdCorrelatorWriter idCorrelatorWriter) throws IdCorrelatorWriteException {
+        idCorrelatorWriter.write(this);
+    }
+
+    private void loadCorrelation(String coreId, String systemTag, String systemId, Consumer<FailedCorrelationInfo> onFailure) {
+        // The load adds the cores it needs, so look the system and core up again if either is removed before the
+        // correlation can be added. A removed core is added again, while a removed system is reported.
+        while (true) {
+            SystemEntry system = systemsMap.get(systemTag);
+            if (system == null) {
+                addCore(coreId);
+                String details = blockedSystems.contains(systemTag) ? FailedCorrelationInfo.BLOCKED_SYSTEM : FailedCorrelationInfo.UNKNOWN_SYSTEM;
+                onFailure.accept(new FailedCorrelationInfo(coreId, systemTag, systemId, details));
+                return;
+            }
+
+            if (add(coresMap.computeIfAbsent(coreId, CoreEntry::new), system, systemId))
+                return;
+        }
+    }
+
+    // Adds the correlation, returning false if the core or the system was removed first.
+    private boolean add(CoreEntry core, SystemEntry system, String systemId) {
+        synchronized (core) {
+            if (core.removed)
+                return false;
+
+            // Adds share the system's lock, so a system can't be removed part way through adding to it.
+            long stamp = system.lock.readLock();
+            try {
+                if (system.removed)
+                    return false;
+
+                // Add it to the id's side first, so it only becomes visible when it is added to the core's side.
+                system.coresById.compute(systemId, (id, cores) -> with(cores, core));
+                core.idsBySystem.compute(system, (s, ids) -> with(ids, systemId));
+                return true;
+            } finally {
+                system.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    // Removes the system, returning false if it was already removed, or if it isn't empty and onlyIfEmpty is set. Adds to
+    // the system are blocked while it is checked, so a correlation can't be added to it as it is removed.
+    private boolean remove(SystemEntry system, boolean onlyIfEmpty) {
+        long stamp = system.lock.writeLock();
+        try {
+            if (system.removed || (onlyIfEmpty && !system.coresById.isEmpty()))
+                return false;
+
+            system.removed = true;
+            systemsMap.remove(system.tag, system);
+            return true;
+        } finally {
+            system.lock.unlockWrite(stamp);
+        }
+    }
+
+    // The id's side can hold cores that were added before the correlation is on their side, or that are part way through
+    // being removed, so only the cores whose own side agrees are returned.
+    private Set<String> correlatedCoreIds(SystemEntry system, @Nullable Set<CoreEntry> cores, String systemId) {
+        if (cores == null)
+            return Collections.emptySet();
+
+        @Nullable String first = null;
+        @Nullable Set<String> ids = null;
+        for (CoreEntry core : cores) {
+            Set<String> correlated = core.idsBySystem.get(system);
+            if ((correlated == null) || !correlated.contains(systemId) || (coresMap.get(core.id) != core))
+                continue;
+
+            if (first == null)
+                first = core.id;
+            else {
+                if (ids == null) {
+                    ids = new CompactHashSet<>(cores.size());
+                    ids.add(first);
+                }
+                ids.add(core.id);
+            }
+        }
+
+        if (ids != null)
+            return Collections.unmodifiableSet(ids);
+        return first != null ? Collections.singleton(first) : Collections.emptySet();
+    }
+
+    private static Set<String> readOnlyCopy(@Nullable Set<String> items) {
+        if ((items == null) || items.isEmpty())
+            return Collections.emptySet();
+
+        Iterator<String> it = items.iterator();
+        String first = it.next();
+        if (!it.hasNext())
+            return Collections.singleton(first);
+
+        Set<String> copy = new CompactHashSet<>(items.size());
+        copy.add(first);
+        it.forEachRemaining(copy::add);
+        return Collections.unmodifiableSet(copy);
+    }
+
+    // Returns a set with the item added. Small sets are immutable and copied, while larger ones are concurrent sets that
+    // are modified in place. Must only be called from the compute function of the map holding the set.
+    private static <T> Set<T> with(@Nullable Set<T> items, T item) {
+        if (items == null)
+            return Collections.singleton(item);
+
+        if (isConcurrent(items)) {
+            items.add(item);
+            return items;
+        }
+
+        if (items.contains(item))
+            return items;
+
+        if (items.size() >= MAX_COPIED_SET_SIZE) {
+            Set<T> concurrent = ConcurrentHashMap.newKeySet(items.size() * 2);
+            concurrent.addAll(items);
+            concurrent.add(item);
+            return concurrent;
+        }
+
+        Set<T> copy = new CompactHashSet<>(items.size() + 1);
+        copy.addAll(items);
+        copy.add(item);
+        return Collections.unmodifiableSet(copy);
+    }
+
+    // Returns a set with the item removed, or null if it was the last item. Must only be called from the compute function
+    // of the map holding the set.
+    @Nullable
+    private static <T> Set<T> without(Set<T> items, T item) {
+        if (isConcurrent(items)) {
+            items.remove(item);
+            return items.isEmpty() ? null : items;
+        }
+
+        if (!items.contains(item))
+            return items;
+        if (items.size() == 1)
+            return null;
+
+        Set<T> copy = new CompactHashSet<>(items.size() - 1);
+        for (T other : items) {
+            if (!other.equals(item))
+                copy.add(other);
+        }
+        return copy.size() == 1 ? Collections.singleton(copy.iterator().next()) : Collections.unmodifiableSet(copy);
+    }
+
+    private static boolean isConcurrent(Set<?> items) {
+        return items instanceof ConcurrentHashMap.KeySetView;
+    }
+
+    /**
+     * A core and the ids it is correlated to in each system. Its lock is held while changing its correlations.
+     */
+    private static final class CoreEntry {
+
+        private final String id;
+        private final ConcurrentHashMap<SystemEntry, Set<String>> idsBySystem = new ConcurrentHashMap<>(2);
+        private boolean removed;  // Guarded by this.
+
+        private CoreEntry(String id) {
+            this.id = id;
+        }
+
+    }
+
+    /**
+     * A system and the cores each of its ids are correlated to. A system that is removed and added again gets a new
+     * entry, so correlations left on the cores' side by the old one can't be mistaken for the new one's. Adds share its
+     * lock, which is taken exclusively to remove it.
+     */
+    private static final class SystemEntry {
+
+        private final String tag;
+        private final ConcurrentHashMap<String, Set<CoreEntry>> coresById = new ConcurrentHashMap<>();
+        private final StampedLock lock = new StampedLock();
+        private boolean removed;  // Guarded by lock.
+
+        private SystemEntry(String tag) {
+            this.tag = tag;
+        }
+
+    }
+
+}
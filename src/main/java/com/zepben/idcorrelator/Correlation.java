@@ -0,0 +1,50 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+/**
+ * A single correlation between a coreId and the systemId located in system systemTag, used to load correlations in bulk.
+ */
+@EverythingIsNonnullByDefault
+public final class Correlation {
+
+    private final String coreId;
+    private final String systemTag;
+    private final String systemId;
+
+    public Correlation(String coreId, String systemTag, String systemId) {
+        this.coreId = coreId;
+        this.systemTag = systemTag;
+        this.systemId = systemId;
+    }
+
+    /**
+     * @return returns the coreId of the correlation.
+     */
+    public String coreId() {
+        return coreId;
+    }
+
+    /**
+     * @return returns the systemTag of the correlation.
+     */
+    public String systemTag() {
+        return systemTag;
+    }
+
+    /**
+     * @return returns the systemId of the correlation.
+     */
+    public String systemId() {
+        return systemId;
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Receives the correlations of each core in an {@link IdCorrelator}, see {@link IdCorrelator#exportCorrelations}.
+ *
+ * @param <E> The type of exception the exporter can throw, e.g. an IOException when writing to a stream.
+ */
+@FunctionalInterface
+@EverythingIsNonnullByDefault
+public interface CorrelationExporter<E extends Exception> {
+
+    /**
+     * Called once for each core in the id correlator.
+     * <p>
+     * The map and its sets are read-only, and may be views of the id correlator that are only valid for the duration of
+     * the call.
+     * </p>
+     *
+     * @param coreId    An id in the central system.
+     * @param systemIds The 'systemIds' the 'coreId' is correlated to, keyed by 'systemTag'. Only the systems the 'coreId'
+     *                  is correlated to are included, so the map is empty for cores without any correlations.
+     * @throws E If the exporter fails, which stops the export.
+     */
+    void exportCore(String coreId, Map<String, Set<String>> systemIds) throws E;
+
+}
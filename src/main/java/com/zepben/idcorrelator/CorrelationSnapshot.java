@@ -0,0 +1,288 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+import com.zepben.collections.CompactHashSet;
+import com.zepben.idcorrelator.io.IdCorrelatorWriteException;
+import com.zepben.idcorrelator.io.IdCorrelatorWriter;
+
+import java.util.*;
+
+/**
+ * A read-only copy of the correlations of an {@link IdCorrelator}, laid out for exporting them rather than looking them
+ * up.
+ * <p>
+ * The correlations are kept in flat arrays in the order they were exported, which share the strings of the copied
+ * correlator, so a snapshot costs a reference for each core, id and system of a core, and exporting it doesn't index
+ * anything. Lookups scan the whole snapshot, so it is only intended to be written. Any attempt to change it throws an
+ * {@link UnsupportedOperationException}.
+ * </p>
+ */
+@EverythingIsNonnullByDefault
+final class CorrelationSnapshot implements IdCorrelator {
+
+    private final Set<String> systems;
+    private final String[] coreIds;
+    private final int coreCount;
+
+    // The systems of core c are the groups from coreGroups[c] up to coreGroups[c + 1], and the ids of group g are the ids
+    // from groupIds[g] up to groupIds[g + 1].
+    private final int[] coreGroups;
+    private final String[] groupSystems;
+    private final int[] groupIds;
+    private final String[] ids;
+
+    private CorrelationSnapshot(Collection<String> systems, Builder builder) {
+        Set<String> systemsCopy = new CompactHashSet<>(systems.size());
+        systemsCopy.addAll(systems);
+        this.systems = Collections.unmodifiableSet(systemsCopy);
+        coreIds = builder.coreIds;
+        coreCount = builder.coreCount;
+        coreGroups = builder.coreGroups;
+        groupSystems = builder.groupSystems;
+        groupIds = builder.groupIds;
+        ids = builder.ids;
+    }
+
+    @Override
+    public Set<String> systems() {
+        return systems;
+    }
+
+    @Override
+    public Set<String> cores() {
+        Set<String> cores = new CompactHashSet<>(coreCount);
+        for (int core = 0; core < coreCount; ++core)
+            cores.add(coreIds[core]);
+        return Collections.unmodifiableSet(cores);
+    }
+
+    @Override
+    public int coreCount() {
+        return coreCount;
+    }
+
+    @Override
+    public Set<String> getCores(String systemTag, String systemId) {
+        Set<String> cores = new CompactHashSet<>();
+        for (int core = 0; core < coreCount; ++core) {
+            int group = findGroup(core, systemTag);
+            if ((group >= 0) && idsOf(group).contains(systemId))
+                cores.add(coreIds[core]);
+        }
+        return Collections.unmodifiableSet(cores);
+    }
+
+    @Override
+    public Set<String> getIds(String coreId, String systemTag) {
+        for (int core = 0; core < coreCount; ++core) {
+            if (coreIds[core].equals(coreId)) {
+                int group = findGroup(core, systemTag);
+                return group >= 0 ? idsOf(group) : Collections.emptySet();
+            }
+        }
+        return Collections.emptySet();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The cores are exported in the order they were copied, and their sets are views of the snapshot.
+     * </p>
+     */
+    @Override
+    public <E extends Exception> void exportCorrelations(CorrelationExporter<E> exporter) throws E {
+        for (int core = 0; core < coreCount; ++core) {
+            int first = coreGroups[core];
+            int end = coreGroups[core + 1];
+
+            Map<String, Set<String>> systemIds;
+            if (first == end)
+                systemIds = Collections.emptyMap();
+            else if (end - first == 1)
+                systemIds = Collections.singletonMap(groupSystems[first], idsOf(first));
+            else {
+                Map<String, Set<String>> groups = new LinkedHashMap<>();
+                for (int group = first; group < end; ++group)
+                    groups.put(groupSystems[group], idsOf(group));
+                systemIds = Collections.unmodifiableMap(groups);
+            }
+
+            exporter.exportCore(coreIds[core], systemIds);
+        }
+    }
+
+    @Override
+    public void write(IdCorrelatorWriter idCorrelatorWriter) throws IdCorrelatorWriteException {
+        idCorrelatorWriter.write(this);
+    }
+
+    @Override
+    public boolean addSystem(String systemTag) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeSystem(String systemTag) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean addCore(String coreId) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addBlockedSystem(String blockedSystem) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeBlockedSystem(String blockedSystem) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeCore(String coreId) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addCorrelation(String coreId, String systemTag, String systemId) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeId(String systemTag, String systemId) {
+        throw readOnly();
+    }
+
+    private int findGroup(int core, String systemTag) {
+        for (int group = coreGroups[core]; group < coreGroups[core + 1]; ++group) {
+            if (groupSystems[group].equals(systemTag))
+                return group;
+        }
+        return -1;
+    }
+
+    private Set<String> idsOf(int group) {
+        return new IdRange(ids, groupIds[group], groupIds[group + 1]);
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("A snapshot of the correlations can't be changed.");
+    }
+
+    /**
+     * Copies the correlations passed to it into the arrays of a snapshot. Only references are copied, so it can be used
+     * while the correlator is locked without holding up writers for longer than a pass over the correlations.
+     */
+    static final class Builder implements CorrelationExporter<RuntimeException> {
+
+        private String[] coreIds;
+        private int coreCount;
+        private int[] coreGroups;
+        private String[] groupSystems;
+        private int groupCount;
+        private int[] groupIds;
+        private String[] ids;
+        private int idCount;
+
+        /**
+         * @param expectedCores The number of cores that will be exported, used to size the arrays.
+         */
+        Builder(int expectedCores) {
+            int capacity = Math.max(expectedCores, 1);
+            coreIds = new String[capacity];
+            coreGroups = new int[capacity + 1];
+            groupSystems = new String[capacity];
+            groupIds = new int[capacity + 1];
+            ids = new String[capacity];
+        }
+
+        @Override
+        public void exportCore(String coreId, Map<String, Set<String>> systemIds) {
+            if (coreCount == coreIds.length) {
+                coreIds = Arrays.copyOf(coreIds, grow(coreCount));
+                coreGroups = Arrays.copyOf(coreGroups, coreIds.length + 1);
+            }
+            coreIds[coreCount++] = coreId;
+
+            for (Map.Entry<String, Set<String>> entry : systemIds.entrySet()) {
+                Set<String> systemIdsOfGroup = entry.getValue();
+                if (groupCount == groupSystems.length) {
+                    groupSystems = Arrays.copyOf(groupSystems, grow(groupCount));
+                    groupIds = Arrays.copyOf(groupIds, groupSystems.length + 1);
+                }
+                if (idCount + systemIdsOfGroup.size() > ids.length)
+                    ids = Arrays.copyOf(ids, Math.max(grow(idCount), idCount + systemIdsOfGroup.size()));
+
+                groupSystems[groupCount++] = entry.getKey();
+                for (String id : systemIdsOfGroup)
+                    ids[idCount++] = id;
+                groupIds[groupCount] = idCount;
+            }
+            coreGroups[coreCount] = groupCount;
+        }
+
+        /**
+         * Creates the snapshot from the correlations exported so far. The builder must not be used afterwards, as the
+         * snapshot shares its arrays.
+         *
+         * @param systems The systems of the correlator, including those without any correlations.
+         * @return The snapshot.
+         */
+        CorrelationSnapshot build(Collection<String> systems) {
+            return new CorrelationSnapshot(systems, this);
+        }
+
+        private static int grow(int size) {
+            return size + (size >> 1) + 1;
+        }
+
+    }
+
+    /**
+     * A read-only set view of a range of the ids, which are unique within a group.
+     */
+    private static final class IdRange extends AbstractSet<String> {
+
+        private final String[] ids;
+        private final int from;
+        private final int to;
+
+        private IdRange(String[] ids, int from, int to) {
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return Collections.unmodifiableList(Arrays.asList(ids).subList(from, to)).iterator();
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            for (int index = from; index < to; ++index) {
+                if (ids[index].equals(o))
+                    return true;
+            }
+            return false;
+        }
+
+    }
+
+}
@@ -9,10 +9,13 @@
 package com.zepben.idcorrelator;
 
 import com.zepben.annotations.EverythingIsNonnullByDefault;
+import com.zepben.idcorrelator.io.FailedCorrelationInfo;
 import com.zepben.idcorrelator.io.IdCorrelatorWriteException;
 import com.zepben.idcorrelator.io.IdCorrelatorWriter;
 
-import java.util.Set;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * An object that correlates ids between peripheral systems and a central system.
@@ -39,6 +42,94 @@ public interface IdCorrelator {
      */
     Set<String> cores();
 
+    /**
+     * Returns a read-only view of the systemTags currently inside the id correlator, without copying them.
+     * <p>
+     * Where supported the view is live and reflects later changes to the correlator. A live view is not thread safe and
+     * must not be used while the correlator is being modified. Implementations that guard against concurrent access
+     * return a copy instead, as the view could not be protected by their lock.
+     * </p>
+     *
+     * @return A read-only set that holds every systemTag in the id correlator.
+     */
+    default Set<String> systemsView() {
+        return systems();
+    }
+
+    /**
+     * Returns a read-only view of the central system ids, without copying them.
+     * <p>
+     * Where supported the view is live and reflects later changes to the correlator. A live view is not thread safe and
+     * must not be used while the correlator is being modified. Implementations that guard against concurrent access
+     * return a copy instead, as the view could not be protected by their lock.
+     * </p>
+     *
+     * @return A read-only set that holds every coreId.
+     */
+    default Set<String> coresView() {
+        return cores();
+    }
+
+    /**
+     * @return The number of systemTags currently inside the id correlator.
+     */
+    default int systemCount() {
+        return systems().size();
+    }
+
+    /**
+     * @return The number of central system ids.
+     */
+    default int coreCount() {
+        return cores().size();
+    }
+
+    /**
+     * Checks if a system tag is inside the id correlator.
+     *
+     * @param systemTag The unique id for a peripheral system.
+     * @return True if the 'systemTag' is inside the id correlator, false otherwise.
+     */
+    default boolean hasSystem(String systemTag) {
+        return systems().contains(systemTag);
+    }
+
+    /**
+     * Checks if a coreId is inside the id correlator.
+     *
+     * @param coreId An id in the central system.
+     * @return True if the 'coreId' is inside the id correlator, false otherwise.
+     */
+    default boolean hasCore(String coreId) {
+        return cores().contains(coreId);
+    }
+
+    /**
+     * Passes each systemTag inside the id correlator to the given action, without copying them into a new set.
+     * <p>
+     * The correlator must not be modified while the action is running, including by the action itself. Implementations
+     * that guard against concurrent access hold their lock for the duration of the visit.
+     * </p>
+     *
+     * @param action The action to run on each systemTag.
+     */
+    default void forEachSystem(Consumer<String> action) {
+        systems().forEach(action);
+    }
+
+    /**
+     * Passes each coreId to the given action, without copying them into a new set.
+     * <p>
+     * The correlator must not be modified while the action is running, including by the action itself. Implementations
+     * that guard against concurrent access hold their lock for the duration of the visit.
+     * </p>
+     *
+     * @param action The action to run on each coreId.
+     */
+    default void forEachCore(Consumer<String> action) {
+        cores().forEach(action);
+    }
+
     /**
      * Adds a system tag to the id correlator.
      *
@@ -91,6 +182,72 @@ public interface IdCorrelator {
      */
     Set<String> getCores(String systemTag, String systemId);
 
+    /**
+     * Returns the coreIds correlated to each of the given systemIds of a specific system.
+     * <p>
+     * This is equivalent to calling {@link #getCores(String, String)} for each systemId, but allows implementations to
+     * resolve the whole batch at once, e.g. under a single lock acquisition.
+     * </p>
+     *
+     * @param systemTag The unique id for a peripheral system.
+     * @param systemIds The ids in the peripheral system to look up.
+     * @return A read-only map from each 'systemId' that is correlated to the set of 'coreIds' it is correlated to.
+     * 'systemIds' without any correlations are not included.
+     */
+    default Map<String, Set<String>> getCoresForIds(String systemTag, Collection<String> systemIds) {
+        Map<String, Set<String>> cores = new HashMap<>();
+        for (String systemId : systemIds) {
+            Set<String> correlated = getCores(systemTag, systemId);
+            if (!correlated.isEmpty())
+                cores.put(systemId, correlated);
+        }
+        return Collections.unmodifiableMap(cores);
+    }
+
+    /**
+     * Passes each coreId correlated to a specific systemId to the given action, without copying them into a new set.
+     * <p>
+     * The correlator must not be modified while the action is running, including by the action itself. Implementations
+     * that guard against concurrent access hold their lock for the duration of the visit, so the action should be short.
+     * </p>
+     *
+     * @param systemTag The unique id for a peripheral system.
+     * @param systemId  An id in a peripheral system.
+     * @param action    The action to run on each 'coreId' the 'systemId' (of 'systemTag') is correlated to.
+     */
+    default void forEachCore(String systemTag, String systemId, Consumer<String> action) {
+        getCores(systemTag, systemId).forEach(action);
+    }
+
+    /**
+     * Returns the coreId correlated to a specific systemId, for systems that are correlated one-to-one with the central system.
+     *
+     * @param systemTag The unique id for a peripheral system.
+     * @param systemId  An id in a peripheral system.
+     * @return The 'coreId' the 'systemId' (of 'systemTag') is correlated to, or null if it is not correlated to exactly one 'coreId'.
+     */
+    @Nullable
+    default String findCore(String systemTag, String systemId) {
+        Set<String> cores = getCores(systemTag, systemId);
+        return cores.size() == 1 ? cores.iterator().next() : null;
+    }
+
+    /**
+     * Returns a read-only view of the coreIds correlated to a specific systemId.
+     * <p>
+     * Where supported the view is live and reflects later changes to the correlator without copying. A live view is not
+     * thread safe and must not be used while the correlator is being modified. Implementations that guard against
+     * concurrent access return a copy instead, as the view could not be protected by their lock.
+     * </p>
+     *
+     * @param systemTag The unique id for a peripheral system.
+     * @param systemId  An id in a peripheral system.
+     * @return A read-only set of the 'coreIds' the 'systemId' (of 'systemTag') is correlated to.
+     */
+    default Set<String> getCoresView(String systemTag, String systemId) {
+        return getCores(systemTag, systemId);
+    }
+
     /**
      * Adds a correlation between a 'coreId' and the 'systemId' located in system 'systemTag'.
      * <p>
@@ -107,6 +264,43 @@ public interface IdCorrelator {
      */
     void addCorrelation(String coreId, String systemTag, String systemId);
 
+    /**
+     * Adds many correlations at once, such as when loading the id correlator from a persistent data store.
+     * <p>
+     * Cores that are not already in the id correlator are added, even if their correlations can't be. Correlations for
+     * systems that have not been added (or have been blocked) are not added, and are passed to 'onFailure' rather than
+     * throwing an exception. Correlations that already exist are skipped.
+     * </p>
+     * <p>
+     * The expected sizes are hints that implementations may use to pre-size their storage, and can be 0 when unknown.
+     * </p>
+     *
+     * @param correlations         The correlations to add.
+     * @param expectedCores        The number of new cores the correlations are expected to add.
+     * @param expectedCorrelations The number of correlations expected.
+     * @param onFailure            Called with each correlation that could not be added.
+     */
+    default void loadCorrelations(Iterable<Correlation> correlations, int expectedCores, int expectedCorrelations, Consumer<FailedCorrelationInfo> onFailure) {
+        for (Correlation correlation : correlations) {
+            addCore(correlation.coreId());
+            if (hasSystem(correlation.systemTag()))
+                addCorrelation(correlation.coreId(), correlation.systemTag(), correlation.systemId());
+            else
+                onFailure.accept(new FailedCorrelationInfo(correlation.coreId(), correlation.systemTag(), correlation.systemId(), FailedCorrelationInfo.UNKNOWN_SYSTEM));
+        }
+    }
+
+    /**
+     * Adds many correlations at once, without any hints about the number of correlations.
+     *
+     * @param correlations The correlations to add.
+     * @param onFailure    Called with each correlation that could not be added.
+     * @see #loadCorrelations(Iterable, int, int, Consumer)
+     */
+    default void loadCorrelations(Iterable<Correlation> correlations, Consumer<FailedCorrelationInfo> onFailure) {
+        loadCorrelations(correlations, 0, 0, onFailure);
+    }
+
     /**
      * Removes a systemId from the id correlator.
      *
@@ -124,6 +318,100 @@ public interface IdCorrelator {
      */
     Set<String> getIds(String coreId, String systemTag);
 
+    /**
+     * Returns the systemIds of a specific system correlated to each of the given coreIds.
+     * <p>
+     * This is equivalent to calling {@link #getIds(String, String)} for each coreId, but allows implementations to
+     * resolve the whole batch at once, e.g. under a single lock acquisition.
+     * </p>
+     *
+     * @param coreIds   The ids in the central system to look up.
+     * @param systemTag The unique id for a peripheral system.
+     * @return A read-only map from each 'coreId' that is correlated to the set of 'systemIds' it is correlated to in the
+     * system with name 'systemTag'. 'coreIds' without any correlations are not included.
+     */
+    default Map<String, Set<String>> getIdsForCores(Collection<String> coreIds, String systemTag) {
+        Map<String, Set<String>> ids = new HashMap<>();
+        for (String coreId : coreIds) {
+            Set<String> correlated = getIds(coreId, systemTag);
+            if (!correlated.isEmpty())
+                ids.put(coreId, correlated);
+        }
+        return Collections.unmodifiableMap(ids);
+    }
+
+    /**
+     * Passes each systemId correlated to a coreId for a specific system to the given action, without copying them into a new set.
+     * <p>
+     * The correlator must not be modified while the action is running, including by the action itself. Implementations
+     * that guard against concurrent access hold their lock for the duration of the visit, so the action should be short.
+     * </p>
+     *
+     * @param coreId    An id in the central system.
+     * @param systemTag The unique id for a peripheral system.
+     * @param action    The action to run on each 'systemId' the 'coreId' is correlated to in the system with name 'systemTag'.
+     */
+    default void forEachId(String coreId, String systemTag, Consumer<String> action) {
+        getIds(coreId, systemTag).forEach(action);
+    }
+
+    /**
+     * Returns the systemId correlated to a coreId, for systems that are correlated one-to-one with the central system.
+     *
+     * @param coreId    An id in the central system.
+     * @param systemTag The unique id for a peripheral system.
+     * @return The 'systemId' the 'coreId' is correlated to in the system with name 'systemTag', or null if it is not correlated to exactly one 'systemId'.
+     */
+    @Nullable
+    default String findId(String coreId, String systemTag) {
+        Set<String> ids = getIds(coreId, systemTag);
+        return ids.size() == 1 ? ids.iterator().next() : null;
+    }
+
+    /**
+     * Returns a read-only view of the systemIds correlated to a coreId for a specific system.
+     * <p>
+     * Where supported the view is live and reflects later changes to the correlator without copying. A live view is not
+     * thread safe and must not be used while the correlator is being modified. Implementations that guard against
+     * concurrent access return a copy instead, as the view could not be protected by their lock.
+     * </p>
+     *
+     * @param coreId    An id in the central system.
+     * @param systemTag The unique id for a peripheral system.
+     * @return A read-only set of the 'systemIds' the 'coreId' is correlated to in the system with name 'systemTag'.
+     */
+    default Set<String> getIdsView(String coreId, String systemTag) {
+        return getIds(coreId, systemTag);
+    }
+
+    /**
+     * Passes the correlations of each core to the given exporter, visiting each correlation once.
+     * <p>
+     * This is intended for serialising the id correlator, where the cost should be proportional to the number of
+     * correlations rather than the number of cores multiplied by the number of systems.
+     * </p>
+     * <p>
+     * The correlator must not be modified while the export is running, including by the exporter itself. Implementations
+     * that guard against concurrent access hold their lock for the duration of the export.
+     * </p>
+     *
+     * @param exporter The exporter to pass the correlations of each core to.
+     * @param <E>      The type of exception the exporter can throw.
+     * @throws E If the exporter fails, which stops the export.
+     */
+    default <E extends Exception> void exportCorrelations(CorrelationExporter<E> exporter) throws E {
+        Set<String> systems = systems();
+        for (String coreId : cores()) {
+            Map<String, Set<String>> systemIds = new LinkedHashMap<>();
+            for (String system : systems) {
+                Set<String> ids = getIds(coreId, system);
+                if (!ids.isEmpty())
+                    systemIds.put(system, ids);
+            }
+            exporter.exportCore(coreId, Collections.unmodifiableMap(systemIds));
+        }
+    }
+
     /**
      * Locks the id correlator and calls the write() method in a {@link IdCorrelatorWriter}.
      * If the id correlator is being used concurrently calling this method is the correct way to write its data to a persistent data store.
@@ -11,11 +11,18 @@ package com.zepben.idcorrelator;
 import com.zepben.annotations.EverythingIsNonnullByDefault;
 import com.zepben.collections.CompactHashMap;
 import com.zepben.collections.CompactHashSet;
+import com.zepben.collections.RobinHoodHashMap;
+import com.zepben.collections.SmallHashMap;
+import com.zepben.collections.SmallHashSet;
+import com.zepben.collections.SwissHashMap;
+import com.zepben.idcorrelator.io.FailedCorrelationInfo;
 import com.zepben.idcorrelator.io.IdCorrelatorWriteException;
 import com.zepben.idcorrelator.io.IdCorrelatorWriter;
 
+import javax.annotation.Nullable;
 import java.io.Serializable;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * An IdCorrelator that uses Maps and Sets in its implementation.
@@ -27,13 +34,16 @@ import java.util.*;
 @EverythingIsNonnullByDefault
 public class MapBackedIdCorrelator implements IdCorrelator {
 
-    private MapFactory mapFactory;
-    private SetFactory setFactory;
+    private SizedMapFactory mapFactory;
+    private SizedSetFactory setFactory;
 
     private Map<String, IdObject> coresMap;
     private Set<String> blockedSystems = new HashSet<>();
     private Map<String, Map<String, Set<IdObject>>> systemTagToIdMaps;
 
+    private Set<String> coresView;
+    private Set<String> systemsView;
+
     /**
      * Functional Interface used by id correlator to instantiate maps
      */
@@ -52,6 +62,26 @@ public class MapBackedIdCorrelator implements IdCorrelator {
 
     }
 
+    /**
+     * Functional Interface used by id correlator to instantiate maps large enough for the number of entries expected in
+     * them, e.g. a reference to a constructor that takes the expected size.
+     */
+    interface SizedMapFactory {
+
+        <K, V> Map<K, V> newMap(int expectedSize);
+
+    }
+
+    /**
+     * Functional Interface used by id correlator to instantiate sets large enough for the number of items expected in
+     * them, e.g. a reference to a constructor that takes the expected size.
+     */
+    interface SizedSetFactory {
+
+        <T> Set<T> newSet(int expectedSize);
+
+    }
+
     /**
      * Constructor for the id correlator.
      *
@@ -60,11 +90,26 @@ public class MapBackedIdCorrelator implements IdCorrelator {
      */
     @SuppressWarnings("WeakerAccess")
     public MapBackedIdCorrelator(MapFactory mapFactory, SetFactory setFactory) {
+        this(unsized(mapFactory), unsized(setFactory), 0);
+    }
+
+    /**
+     * Constructor for an id correlator that creates its maps and sets with the number of items expected in them.
+     *
+     * @param mapFactory    method reference for a map constructor that takes the expected size.
+     * @param setFactory    method reference for a set constructor that takes the expected size.
+     * @param expectedCores The number of cores the id correlator is expected to hold.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public MapBackedIdCorrelator(SizedMapFactory mapFactory, SizedSetFactory setFactory, int expectedCores) {
         this.mapFactory = mapFactory;
         this.setFactory = setFactory;
 
-        this.coresMap = mapFactory.newMap();
-        this.systemTagToIdMaps = mapFactory.newMap();
+        this.coresMap = mapFactory.newMap(expectedCores);
+        this.systemTagToIdMaps = mapFactory.newMap(0);
+
+        this.coresView = Collections.unmodifiableSet(coresMap.keySet());
+        this.systemsView = Collections.unmodifiableSet(systemTagToIdMaps.keySet());
     }
 
     /**
@@ -73,7 +118,42 @@ public class MapBackedIdCorrelator implements IdCorrelator {
      * @return An id correlator that uses CompactHashMap/Set.
      */
     public static IdCorrelator newCorrelator() {
-        return new MapBackedIdCorrelator(CompactHashMap::new, CompactHashSet::new);
+        return newCorrelator(0);
+    }
+
+    /**
+     * Factory method for the IdCorrelator which uses the CompactHashMap/Set implementation, sized to hold the expected
+     * number of cores without resizing.
+     *
+     * @param expectedCores The number of cores the id correlator is expected to hold.
+     * @return An id correlator that uses CompactHashMap/Set.
+     */
+    public static IdCorrelator newCorrelator(int expectedCores) {
+        return new MapBackedIdCorrelator(CompactHashMap::new, CompactHashSet::new, expectedCores);
+    }
+
+    /**
+     * Factory method for the IdCorrelator which uses the SmallHashMap/Set implementation, which stores the few
+     * correlations of each core and id inline rather than in hash tables. This uses much less memory when most
+     * correlations are one-to-one, at the cost of going through the small map to reach the hash map of larger ones.
+     *
+     * @param expectedCores The number of cores the id correlator is expected to hold.
+     * @return An id correlator that uses SmallHashMap/Set.
+     */
+    public static IdCorrelator newSmallCollectionCorrelator(int expectedCores) {
+        return new MapBackedIdCorrelator(SmallHashMap::new, SmallHashSet::new, expectedCores);
+    }
+
+    /**
+     * Factory method for the IdCorrelator which uses SwissHashMap for its maps and CompactHashSet for its sets.
+     * SwissHashMap matches a fragment of each key's hash against a group of slots at once, so lookups in the large maps of
+     * cores and ids rarely read keys that don't match.
+     *
+     * @param expectedCores The number of cores the id correlator is expected to hold.
+     * @return An id correlator that uses SwissHashMap and CompactHashSet.
+     */
+    public static IdCorrelator newSwissTableCorrelator(int expectedCores) {
+        return new MapBackedIdCorrelator(SwissHashMap::new, CompactHashSet::new, expectedCores);
     }
 
     @Override
@@ -96,10 +176,64 @@ public class MapBackedIdCorrelator implements IdCorrelator {
         return readOnlyKeySetCopy(coresMap);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The returned view is live, so it must not be used while the correlator is being modified by another thread.
+     * </p>
+     */
+    @Override
+    public Set<String> systemsView() {
+        return systemsView;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The returned view is live, so it must not be used while the correlator is being modified by another thread.
+     * </p>
+     */
+    @Override
+    public Set<String> coresView() {
+        return coresView;
+    }
+
+    @Override
+    public int systemCount() {
+        return systemTagToIdMaps.size();
+    }
+
+    @Override
+    public int coreCount() {
+        return coresMap.size();
+    }
+
+    @Override
+    public boolean hasSystem(String systemTag) {
+        return systemTagToIdMaps.containsKey(systemTag);
+    }
+
+    @Override
+    public boolean hasCore(String coreId) {
+        return coresMap.containsKey(coreId);
+    }
+
+    @Override
+    public void forEachSystem(Consumer<String> action) {
+        for (String systemTag : systemTagToIdMaps.keySet())
+            action.accept(systemTag);
+    }
+
+    @Override
+    public void forEachCore(Consumer<String> action) {
+        for (String coreId : coresMap.keySet())
+            action.accept(coreId);
+    }
+
     @Override
     public boolean addSystem(String systemTag) {
         if (!blockedSystems.contains(systemTag) && !systemTag.equals("id")) {
-            systemTagToIdMaps.putIfAbsent(systemTag, mapFactory.newMap());
+            systemTagToIdMaps.putIfAbsent(systemTag, mapFactory.newMap(0));
             return true;
         }
         return false;
@@ -107,8 +241,12 @@ public class MapBackedIdCorrelator implements IdCorrelator {
 
     @Override
     public void removeSystem(String systemTag) {
-        coresMap.values().forEach(core -> core.removeMap(systemTag));
-        systemTagToIdMaps.remove(systemTag);
+        Map<String, Set<IdObject>> systemIds = systemTagToIdMaps.remove(systemTag);
+        if (systemIds == null)
+            return;
+
+        // Only the cores correlated to the system need updating, rather than every core.
+        systemIds.values().forEach(correlatedCores -> correlatedCores.forEach(core -> core.removeMap(systemTag)));
     }
 
     @Override
@@ -145,12 +283,53 @@ public class MapBackedIdCorrelator implements IdCorrelator {
         if (!systemTagToIdMaps.keySet().contains(systemTag))
             return Collections.emptySet();
 
-        Set<String> ids = setFactory.newSet();
-        systemTagToIdMaps.get(systemTag).getOrDefault(systemId, Collections.emptySet()).forEach(core -> ids.add(core.id));
+        Set<IdObject> cores = systemTagToIdMaps.get(systemTag).getOrDefault(systemId, Collections.emptySet());
+        Set<String> ids = setFactory.newSet(cores.size());
+        cores.forEach(core -> ids.add(core.id));
 
         return Collections.unmodifiableSet(ids);
     }
 
+    @Override
+    public Map<String, Set<String>> getCoresForIds(String systemTag, Collection<String> systemIds) {
+        Map<String, Set<IdObject>> idMap = systemTagToIdMaps.get(systemTag);
+        if ((idMap == null) || systemIds.isEmpty())
+            return Collections.emptyMap();
+
+        Map<String, Set<String>> cores = new HashMap<>(hashMapCapacity(systemIds.size()));
+        for (String systemId : systemIds) {
+            Set<IdObject> correlated = idMap.get(systemId);
+            if ((correlated != null) && !correlated.isEmpty())
+                cores.put(systemId, readOnlyCoreIds(correlated));
+        }
+
+        return Collections.unmodifiableMap(cores);
+    }
+
+    @Override
+    public void forEachCore(String systemTag, String systemId, Consumer<String> action) {
+        for (IdObject core : correlatedCores(systemTag, systemId))
+            action.accept(core.id);
+    }
+
+    @Nullable
+    @Override
+    public String findCore(String systemTag, String systemId) {
+        Set<IdObject> cores = correlatedCores(systemTag, systemId);
+        return cores.size() == 1 ? cores.iterator().next().id : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The returned view is live, so it must not be used while the correlator is being modified by another thread.
+     * </p>
+     */
+    @Override
+    public Set<String> getCoresView(String systemTag, String systemId) {
+        return new CoresView(systemTag, systemId);
+    }
+
     @Override
     public void addCorrelation(String coreId, String systemTag, String systemId) {
         Map<String, Set<IdObject>> systemIds = systemTagToIdMaps.get(systemTag);
@@ -162,15 +341,67 @@ public class MapBackedIdCorrelator implements IdCorrelator {
         if (core == null)
             throw new IllegalArgumentException(String.format("INTERNAL ERROR: Unknown core id '%s'. Why do I not know about it!", coreId));
 
-        Set<IdObject> matchedCoreSet = systemIds.computeIfAbsent(systemId, (id) -> setFactory.newSet());
+        Set<IdObject> matchedCoreSet = systemIds.computeIfAbsent(systemId, (id) -> setFactory.newSet(1));
         matchedCoreSet.add(core);
         core.addMap(systemTag, systemId);
     }
 
+    @Override
+    public void loadCorrelations(Iterable<Correlation> correlations, int expectedCores, int expectedCorrelations, Consumer<FailedCorrelationInfo> onFailure) {
+        ensureCapacity(coresMap, coresMap.size() + expectedCores);
+        int expectedIdsPerSystem = expectedCorrelations / Math.max(systemTagToIdMaps.size(), 1);
+        Set<String> sizedSystems = new HashSet<>();
+
+        // Correlations are usually grouped by core and system, so reuse the previous lookups while they still match.
+        @Nullable String lastCoreId = null;
+        @Nullable IdObject core = null;
+        @Nullable String lastSystemTag = null;
+        @Nullable Map<String, Set<IdObject>> systemIds = null;
+
+        for (Correlation correlation : correlations) {
+            String coreId = correlation.coreId();
+            String systemTag = correlation.systemTag();
+            String systemId = correlation.systemId();
+
+            if ((core == null) || !coreId.equals(lastCoreId)) {
+                lastCoreId = coreId;
+                core = coresMap.get(coreId);
+                if (core == null) {
+                    core = new IdObject(coreId);
+                    coresMap.put(coreId, core);
+                }
+            }
+
+            if (!systemTag.equals(lastSystemTag)) {
+                lastSystemTag = systemTag;
+                systemIds = systemTagToIdMaps.get(systemTag);
+
+                // Only size each system the first time it is seen, as the ids it has gained since count towards the hint.
+                if ((systemIds != null) && sizedSystems.add(systemTag))
+                    ensureCapacity(systemIds, systemIds.size() + expectedIdsPerSystem);
+            }
+
+            if (systemIds == null) {
+                String details = blockedSystems.contains(systemTag) ? FailedCorrelationInfo.BLOCKED_SYSTEM : FailedCorrelationInfo.UNKNOWN_SYSTEM;
+                onFailure.accept(new FailedCorrelationInfo(coreId, systemTag, systemId, details));
+                continue;
+            }
+
+            if (systemIds.computeIfAbsent(systemId, id -> setFactory.newSet(1)).add(core))
+                core.addMap(systemTag, systemId);
+        }
+    }
+
     @Override
     public void removeId(String systemTag, String systemId) {
-        coresMap.values().forEach(core -> core.removeId(systemTag, systemId));
-        systemTagToIdMaps.getOrDefault(systemTag, Collections.emptyMap()).remove(systemId);
+        Map<String, Set<IdObject>> systemIds = systemTagToIdMaps.get(systemTag);
+        if (systemIds == null)
+            return;
+
+        // Only the cores correlated to the id need updating, which the system already indexes for us.
+        Set<IdObject> correlatedCores = systemIds.remove(systemId);
+        if (correlatedCores != null)
+            correlatedCores.forEach(core -> core.removeId(systemTag, systemId));
     }
 
     @Override
@@ -178,24 +409,233 @@ public class MapBackedIdCorrelator implements IdCorrelator {
         if (!systemTagToIdMaps.keySet().contains(systemTag) || !coresMap.containsKey(coreId))
             return Collections.emptySet();
 
-        Set<String> ids = setFactory.newSet();
-        ids.addAll(coresMap.get(coreId).getMap(systemTag));
+        Set<String> correlated = coresMap.get(coreId).getMap(systemTag);
+        Set<String> ids = setFactory.newSet(correlated.size());
+        ids.addAll(correlated);
 
         return Collections.unmodifiableSet(ids);
     }
 
+    @Override
+    public Map<String, Set<String>> getIdsForCores(Collection<String> coreIds, String systemTag) {
+        if (!systemTagToIdMaps.containsKey(systemTag) || coreIds.isEmpty())
+            return Collections.emptyMap();
+
+        Map<String, Set<String>> ids = new HashMap<>(hashMapCapacity(coreIds.size()));
+        for (String coreId : coreIds) {
+            Set<String> correlated = correlatedIds(coreId, systemTag);
+            if (!correlated.isEmpty())
+                ids.put(coreId, readOnlyCopy(correlated));
+        }
+
+        return Collections.unmodifiableMap(ids);
+    }
+
+    @Override
+    public void forEachId(String coreId, String systemTag, Consumer<String> action) {
+        for (String id : correlatedIds(coreId, systemTag))
+            action.accept(id);
+    }
+
+    @Nullable
+    @Override
+    public String findId(String coreId, String systemTag) {
+        Set<String> ids = correlatedIds(coreId, systemTag);
+        return ids.size() == 1 ? ids.iterator().next() : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The returned view is live, so it must not be used while the correlator is being modified by another thread.
+     * </p>
+     */
+    @Override
+    public Set<String> getIdsView(String coreId, String systemTag) {
+        return new IdsView(coreId, systemTag);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Each core's own correlations are passed directly, so systems a core is not correlated to are never looked up.
+     * </p>
+     */
+    @Override
+    public <E extends Exception> void exportCorrelations(CorrelationExporter<E> exporter) throws E {
+        for (IdObject core : coresMap.values())
+            exporter.exportCore(core.id, Collections.unmodifiableMap(core.systemTagToIds));
+    }
+
     @Override
     public void write(IdCorrelatorWriter idCorrelatorWriter) throws IdCorrelatorWriteException {
         idCorrelatorWriter.write(this);
     }
 
+    // Returns the live set of cores correlated to the systemId, without copying it.
+    private Set<IdObject> correlatedCores(String systemTag, String systemId) {
+        Map<String, Set<IdObject>> systemIds = systemTagToIdMaps.get(systemTag);
+        if (systemIds == null)
+            return Collections.emptySet();
+
+        Set<IdObject> cores = systemIds.get(systemId);
+        return cores != null ? cores : Collections.emptySet();
+    }
+
+    // Returns the live set of systemIds correlated to the coreId, without copying it.
+    private Set<String> correlatedIds(String coreId, String systemTag) {
+        IdObject core = coresMap.get(coreId);
+        if (core == null)
+            return Collections.emptySet();
+
+        Set<String> ids = core.systemTagToIds.get(systemTag);
+        return ids != null ? ids : Collections.emptySet();
+    }
+
+    // Most ids are correlated one-to-one, so avoid building a set for a single id.
+    private Set<String> readOnlyCoreIds(Set<IdObject> cores) {
+        if (cores.size() == 1)
+            return Collections.singleton(cores.iterator().next().id);
+
+        Set<String> ids = setFactory.newSet(cores.size());
+        cores.forEach(core -> ids.add(core.id));
+        return Collections.unmodifiableSet(ids);
+    }
+
+    // Most ids are correlated one-to-one, so avoid building a set for a single id.
+    private Set<String> readOnlyCopy(Set<String> ids) {
+        if (ids.size() == 1)
+            return Collections.singleton(ids.iterator().next());
+
+        Set<String> copy = setFactory.newSet(ids.size());
+        copy.addAll(ids);
+        return Collections.unmodifiableSet(copy);
+    }
+
+    // Adapts a factory that doesn't take the expected size, so it can be used where one does.
+    private static SizedMapFactory unsized(MapFactory mapFactory) {
+        return new SizedMapFactory() {
+            @Override
+            public <K, V> Map<K, V> newMap(int expectedSize) {
+                return mapFactory.newMap();
+            }
+        };
+    }
+
+    private static SizedSetFactory unsized(SetFactory setFactory) {
+        return new SizedSetFactory() {
+            @Override
+            public <T> Set<T> newSet(int expectedSize) {
+                return setFactory.newSet();
+            }
+        };
+    }
+
+    private static void ensureCapacity(Map<?, ?> map, int expectedSize) {
+        if (map instanceof CompactHashMap)
+            ((CompactHashMap<?, ?>) map).ensureCapacity(expectedSize);
+        else if (map instanceof RobinHoodHashMap)
+            ((RobinHoodHashMap<?, ?>) map).ensureCapacity(expectedSize);
+        else if (map instanceof SmallHashMap)
+            ((SmallHashMap<?, ?>) map).ensureCapacity(expectedSize);
+        else if (map instanceof SwissHashMap)
+            ((SwissHashMap<?, ?>) map).ensureCapacity(expectedSize);
+    }
+
+    // The initial capacity that lets a HashMap hold the expected number of entries without resizing.
+    private static int hashMapCapacity(int expectedSize) {
+        return (int) (expectedSize / 0.75f) + 1;
+    }
+
     private Set<String> readOnlyKeySetCopy(Map<String, ?> map) {
-        Set<String> systemTags = setFactory.newSet();
+        Set<String> systemTags = setFactory.newSet(map.size());
         systemTags.addAll(map.keySet());
 
         return Collections.unmodifiableSet(systemTags);
     }
 
+    /**
+     * A read-only view of the coreIds correlated to a systemId.
+     * <p>
+     * The correlated cores are looked up on every access, so the view stays correct when the systemId is removed and
+     * correlated again.
+     * </p>
+     */
+    @EverythingIsNonnullByDefault
+    private final class CoresView extends AbstractSet<String> {
+
+        private final String systemTag;
+        private final String systemId;
+
+        private CoresView(String systemTag, String systemId) {
+            this.systemTag = systemTag;
+            this.systemId = systemId;
+        }
+
+        @Override
+        public int size() {
+            return correlatedCores(systemTag, systemId).size();
+        }
+
+        @Override
+        public boolean contains(@Nullable Object coreId) {
+            IdObject core = coresMap.get(coreId);
+            return (core != null) && correlatedCores(systemTag, systemId).contains(core);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            Iterator<IdObject> cores = correlatedCores(systemTag, systemId).iterator();
+            return new Iterator<String>() {
+                @Override
+                public boolean hasNext() {
+                    return cores.hasNext();
+                }
+
+                @Override
+                public String next() {
+                    return cores.next().id;
+                }
+            };
+        }
+
+    }
+
+    /**
+     * A read-only view of the systemIds correlated to a coreId for a system.
+     * <p>
+     * The correlated ids are looked up on every access, so the view stays correct when the coreId is removed and
+     * correlated again.
+     * </p>
+     */
+    @EverythingIsNonnullByDefault
+    private final class IdsView extends AbstractSet<String> {
+
+        private final String coreId;
+        private final String systemTag;
+
+        private IdsView(String coreId, String systemTag) {
+            this.coreId = coreId;
+            this.systemTag = systemTag;
+        }
+
+        @Override
+        public int size() {
+            return correlatedIds(coreId, systemTag).size();
+        }
+
+        @Override
+        public boolean contains(@Nullable Object systemId) {
+            return correlatedIds(coreId, systemTag).contains(systemId);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return Collections.unmodifiableSet(correlatedIds(coreId, systemTag)).iterator();
+        }
+
+    }
+
     /**
      * A class that represent a core element in the central system.
      * <p>
@@ -206,14 +646,14 @@ public class MapBackedIdCorrelator implements IdCorrelator {
     private class IdObject implements Serializable {
 
         private String id;
-        private Map<String, Set<String>> systemTagToIds = mapFactory.newMap();
+        private Map<String, Set<String>> systemTagToIds = mapFactory.newMap(1);
 
         private IdObject(String id) {
             this.id = id;
         }
 
         private void addMap(String systemTag, String systemId) {
-            systemTagToIds.computeIfAbsent(systemTag, index -> setFactory.newSet()).add(systemId);
+            systemTagToIds.computeIfAbsent(systemTag, index -> setFactory.newSet(1)).add(systemId);
         }
 
         private Set<String> getMap(String systemTag) {
@@ -225,8 +665,12 @@ public class MapBackedIdCorrelator implements IdCorrelator {
         }
 
         private void removeId(String systemTag, String id) {
-            systemTagToIds.getOrDefault(systemTag, Collections.emptySet()).remove(id);
-            if (systemTagToIds.getOrDefault(systemTag, Collections.emptySet()).size() == 0)
+            Set<String> ids = systemTagToIds.get(systemTag);
+            if (ids == null)
+                return;
+
+            ids.remove(id);
+            if (ids.isEmpty())
                 systemTagToIds.remove(systemTag);
         }
 
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+import com.zepben.idcorrelator.io.FailedCorrelationInfo;
+import com.zepben.idcorrelator.io.IdCorrelatorWriteException;
+import com.zepben.idcorrelator.io.IdCorrelatorWriter;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A thread safe {@link IdCorrelator} that guards another with a {@link StampedLock}, as an alternative to
+ * {@link SynchronisedIdCorrelator} for correlators that are read far more often than they are written.
+ * <p>
+ * Lookups first run without taking the lock, then check that no write started while they ran. Only if one did is the
+ * lookup repeated under the read lock. Uncontended lookups therefore never write to the lock, so readers on different
+ * cores don't contend for its cache line the way they do for the reader count of a {@link java.util.concurrent.locks.ReentrantReadWriteLock}.
+ * </p>
+ * <p>
+ * A lookup that races a write can see the wrapped correlator half updated, such as a hash table that is full until
+ * the write resizes it, or one that is being replaced. Anything it returns or throws, including errors, is discarded
+ * when the check fails, but the wrapped correlator's lookups must not modify it or loop forever while a write is in
+ * progress. The correlators created by the {@link MapBackedIdCorrelator} factory methods meet this, as their lookups
+ * only read, and a probe of their hash tables gives up after one pass over the table.
+ * </p>
+ * <p>
+ * Methods that pass items to an action, export or write the correlator always take the read lock, as the action can't
+ * be repeated if the check fails. The lock isn't reentrant, so the action must not call back into this correlator.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+@EverythingIsNonnullByDefault
+public class StampedIdCorrelator implements IdCorrelator {
+
+    private final IdCorrelator idCorrelator;
+    private final StampedLock lock = new StampedLock();
+
+    public StampedIdCorrelator(IdCorrelator idCorrelator) {
+        this.idCorrelator = idCorrelator;
+    }
+
+    @Override
+    public void addBlockedSystem(String blockedSystem) {
+        long stamp = lock.writeLock();
+        try {
+            idCorrelator.addBlockedSystem(blockedSystem);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void removeBlockedSystem(String blockedSystem) {
+        long stamp = lock.writeLock();
+        try {
+            idCorrelator.removeBlockedSystem(blockedSystem);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Set<String> systems() {
+        return read(idCorrelator::systems);
+    }
+
+    @Override
+    public Set<String> cores() {
+        return read(idCorrelator::cores);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A live view can't be protected by the lock, so this returns the same copy as {@link #systems()}.
+     * </p>
+     */
+    @Override
+    public Set<String> systemsView() {
+        return systems();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A live view can't be protected by the lock, so this returns the same copy as {@link #cores()}.
+     * </p>
+     */
+    @Override
+    public Set<String> coresView() {
+        return cores();
+    }
+
+    @Override
+    public int systemCount() {
+        return readInt(idCorrelator::systemCount);
+    }
+
+    @Override
+    public int coreCount() {
+        return readInt(idCorrelator::coreCount);
+    }
+
+    @Override
+    public boolean hasSystem(String systemTag) {
+        return readBoolean(() -> idCorrelator.hasSystem(systemTag));
+    }
+
+    @Override
+    public boolean hasCore(String coreId) {
+        return readBoolean(() -> idCorrelator.hasCore(coreId));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The read lock is held while the action runs, so the action must not modify this correlator or it will deadlock.
+     * </p>
+     */
+    @Override
+    public void forEachSystem(Consumer<String> action) {
+        long stamp = lock.readLock();
+        try {
+            idCorrelator.forEachSystem(action);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The read lock is held while the action runs, so the action must not modify this correlator or it will deadlock.
+     * </p>
+     */
+    @Override
+    public void forEachCore(Consumer<String> action) {
+        long stamp = lock.readLock();
+        try {
+            idCorrelator.forEachCore(action);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean addSystem(String systemTag) {
+        long stamp = lock.writeLock();
+        try {
+            return idCorrelator.addSystem(systemTag);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void removeSystem(String systemTag) {
+        long stamp = lock.writeLock();
+        try {
+            idCorrelator.removeSystem(systemTag);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean addCore(String coreId) {
+        long stamp = lock.writeLock();
+        try {
+            return idCorrelator.addCore(coreId);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void removeCore(String coreId) {
+        long stamp = lock.writeLock();
+        try {
+            idCorrelator.removeCore(coreId);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Set<String> getCores(String systemTag, String systemId) {
+        return read(() -> idCorrelator.getCores(systemTag, systemId));
+    }
+
+    @Override
+    public Map<String, Set<String>> getCoresForIds(String systemTag, Collection<String> systemIds) {
+        return read(() -> idCorrelator.getCoresForIds(systemTag, systemIds));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The read lock is held while the action runs, so the action must not modify this correlator or it will deadlock.
+     * </p>
+     */
+    @Override
+    public void forEachCore(String systemTag, String systemId, Consumer<String> action) {
+        long stamp = lock.readLock();
+        try {
+            idCorrelator.forEachCore(systemTag, systemId, action);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Nullable
+    @Override
+    public String findCore(String systemTag, String systemId) {
+        return read(() -> idCorrelator.findCore(systemTag, systemId));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A live view can't be protected by the lock, so this returns the same copy as {@link #getCores(String, String)}.
+     * </p>
+     */
+    @Override
+    public Set<String> getCoresView(String systemTag, String systemId) {
+        return getCores(systemTag, systemId);
+    }
+
+    @Override
+    public void addCorrelation(String coreId, String systemTag, String systemId) {
+        long stamp = lock.writeLock();
+        try {
+            idCorrelator.addCorrelation(coreId, systemTag, systemId);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The write lock is held for the whole load, blocking all other access to the correlator until it completes.
+     * </p>
+     */
+    @Override
+    public void loadCorrelations(Iterable<Correlation> correlations, int expectedCores, int expectedCorrelations, Consumer<FailedCorrelationInfo> onFailure) {
+        long stamp = lock.writeLock();
+        try {
+            idCorrelator.loadCorrelations(correlations, expectedCores, expectedCorrelations, onFailure);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void removeId(String systemTag, String systemId) {
+        long stamp = lock.writeLock();
+        try {
+            idCorrelator.removeId(systemTag, systemId);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Set<String> getIds(String coreId, String systemTag) {
+        return read(() -> idCorrelator.getIds(coreId, systemTag));
+    }
+
+    @Override
+    public Map<String, Set<String>> getIdsForCores(Collection<String> coreIds, String systemTag) {
+        return read(() -> idCorrelator.getIdsForCores(coreIds, systemTag));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The read lock is held while the action runs, so the action must not modify this correlator or it will deadlock.
+     * </p>
+     */
+    @Override
+    public void forEachId(String coreId, String systemTag, Consumer<String> action) {
+        long stamp = lock.readLock();
+        try {
+            idCorrelator.forEachId(coreId, systemTag, action);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Nullable
+    @Override
+    public String findId(String coreId, String systemTag) {
+        return read(() -> idCorrelator.findId(coreId, systemTag));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A live view can't be protected by the lock, so this returns the same copy as {@link #getIds(String, String)}.
+     * </p>
+     */
+    @Override
+    public Set<String> getIdsView(String coreId, String systemTag) {
+        return getIds(coreId, systemTag);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The read lock is held for the whole export.
+     * </p>
+     */
+    @Override
+    public <E extends Exception> void exportCorrelations(CorrelationExporter<E> exporter) throws E {
+        long stamp = lock.readLock();
+        try {
+            idCorrelator.exportCorrelations(exporter);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void write(IdCorrelatorWriter idCorrelatorWriter) throws IdCorrelatorWriteException {
+        long stamp = lock.readLock();
+        try {
+            idCorrelator.write(idCorrelatorWriter);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    boolean isReadLocked() {
+        return lock.isReadLocked();
+    }
+
+    boolean isWriteLocked() {
+        return lock.isWriteLocked();
+    }
+
+    // Runs the lookup without the lock, and again under the read lock if a write started while it ran. Anything thrown
+    // by a lookup that raced a write, including errors such as the AssertionError from probing a full table, is treated
+    // the same as a result from one, as the lookup may have seen a half finished write.
+    private <T> T read(Supplier<T> lookup) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = lookup.get();
+                if (lock.validate(stamp))
+                    return result;
+            } catch (Throwable t) {
+                if (lock.validate(stamp))
+                    throw t;
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return lookup.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // The same as read, without boxing the result.
+    private int readInt(IntSupplier lookup) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                int result = lookup.getAsInt();
+                if (lock.validate(stamp))
+                    return result;
+            } catch (Throwable t) {
+                if (lock.validate(stamp))
+                    throw t;
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return lookup.getAsInt();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // The same as read, without boxing the result.
+    private boolean readBoolean(BooleanSupplier lookup) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                boolean result = lookup.getAsBoolean();
+                if (lock.validate(stamp))
+                    return result;
+            } catch (Throwable t) {
+                if (lock.validate(stamp))
+                    throw t;
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return lookup.getAsBoolean();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+}
@@ -0,0 +1,658 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+import com.zepben.collections.CompactHashMap;
+import com.zepben.collections.CompactHashSet;
+import com.zepben.idcorrelator.io.FailedCorrelationInfo;
+import com.zepben.idcorrelator.io.IdCorrelatorWriteException;
+import com.zepben.idcorrelator.io.IdCorrelatorWriter;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * A thread safe {@link IdCorrelator} with a lock for each system, so correlations in different systems can be added,
+ * removed and looked up in parallel. A bulk load of one system only blocks access to that system.
+ * <p>
+ * Each system indexes its correlations in both directions, from ids to cores and from cores to ids, so updating a
+ * correlation only touches the structures of its own system. The cores themselves are held in a concurrent set.
+ * </p>
+ * <p>
+ * Adding and removing systems, removing cores and changing the blocked systems take a structure lock that excludes all
+ * other access while they run, as they can touch every system. Everything else shares the structure lock, then takes
+ * the lock of the system it uses. Locks are always taken in that order, with the systems in the order they are held,
+ * so they can't deadlock.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+@EverythingIsNonnullByDefault
+public class StripedIdCorrelator implements IdCorrelator {
+
+    private final MapBackedIdCorrelator.MapFactory mapFactory;
+    private final MapBackedIdCorrelator.SetFactory setFactory;
+
+    private final ReentrantReadWriteLock structureLock = new ReentrantReadWriteLock();
+    private final Map<String, SystemIndex> systemIndexes;                  // Guarded by structureLock.
+    private final Set<String> blockedSystems = new HashSet<>();            // Guarded by structureLock.
+    private final Set<String> cores = ConcurrentHashMap.newKeySet();       // Added to under the read lock, removed from under the write lock.
+
+    /**
+     * Creates a correlator that uses CompactHashMap/Set for the correlations of each system.
+     */
+    public StripedIdCorrelator() {
+        this(CompactHashMap::new, CompactHashSet::new);
+    }
+
+    /**
+     * Constructor for the id correlator.
+     *
+     * @param mapFactory method reference for a map constructor.
+     * @param setFactory method reference for a set constructor.
+     */
+    public StripedIdCorrelator(MapBackedIdCorrelator.MapFactory mapFactory, MapBackedIdCorrelator.SetFactory setFactory) {
+        this.mapFactory = mapFactory;
+        this.setFactory = setFactory;
+        this.systemIndexes = mapFactory.newMap();
+    }
+
+    @Override
+    public void addBlockedSystem(String blockedSystem) {
+        structureLock.writeLock().lock();
+        try {
+            blockedSystems.add(blockedSystem);
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeBlockedSystem(String blockedSystem) {
+        structureLock.writeLock().lock();
+        try {
+            blockedSystems.remove(blockedSystem);
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> systems() {
+        structureLock.readLock().lock();
+        try {
+            Set<String> systems = setFactory.newSet();
+            systems.addAll(systemIndexes.keySet());
+            return Collections.unmodifiableSet(systems);
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> cores() {
+        Set<String> copy = setFactory.newSet();
+        copy.addAll(cores);
+        return Collections.unmodifiableSet(copy);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A live view can't be protected by the locks, so this returns the same copy as {@link #systems()}.
+     * </p>
+     */
+    @Override
+    public Set<String> systemsView() {
+        return systems();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A live view can't be protected by the locks, so this returns the same copy as {@link #cores()}.
+     * </p>
+     */
+    @Override
+    public Set<String> coresView() {
+        return cores();
+    }
+
+    @Override
+    public int systemCount() {
+        structureLock.readLock().lock();
+        try {
+            return systemIndexes.size();
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int coreCount() {
+        return cores.size();
+    }
+
+    @Override
+    public boolean hasSystem(String systemTag) {
+        structureLock.readLock().lock();
+        try {
+            return systemIndexes.containsKey(systemTag);
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean hasCore(String coreId) {
+        return cores.contains(coreId);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The structure lock is held while the action runs, so the action must not add or remove systems or it will deadlock.
+     * </p>
+     */
+    @Override
+    public void forEachSystem(Consumer<String> action) {
+        structureLock.readLock().lock();
+        try {
+            for (String systemTag : systemIndexes.keySet())
+                action.accept(systemTag);
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The structure lock is held while the action runs, so the action must not remove cores or it will deadlock.
+     * </p>
+     */
+    @Override
+    public void forEachCore(Consumer<String> action) {
+        structureLock.readLock().lock();
+        try {
+            for (String coreId : cores)
+                action.accept(coreId);
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean addSystem(String systemTag) {
+        structureLock.writeLock().lock();
+        try {
+            if (!blockedSystems.contains(systemTag) && !systemTag.equals("id")) {
+                systemIndexes.computeIfAbsent(systemTag, tag -> new SystemIndex());
+                return true;
+            }
+            return false;
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeSystem(String systemTag) {
+        structureLock.writeLock().lock();
+        try {
+            systemIndexes.remove(systemTag);
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Cores can be added while correlations are being added to any system, as only removing them takes the structure lock.
+     * </p>
+     */
+    @Override
+    public boolean addCore(String coreId) {
+        structureLock.readLock().lock();
+        try {
+            return cores.add(coreId);
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeCore(String coreId) {
+        structureLock.writeLock().lock();
+        try {
+            if (!cores.remove(coreId))
+                return;
+
+            // As with MapBackedIdCorrelator, a system left without any ids by removing the core is removed with it.
+            systemIndexes.values().removeIf(index -> index.removeCore(coreId) && index.coresById.isEmpty());
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getCores(String systemTag, String systemId) {
+        structureLock.readLock().lock();
+        try {
+            SystemIndex index = systemIndexes.get(systemTag);
+            if (index == null)
+                return Collections.emptySet();
+
+            index.lock.readLock().lock();
+            try {
+                return readOnlyCopy(index.coresById.get(systemId));
+            } finally {
+                index.lock.readLock().unlock();
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Set<String>> getCoresForIds(String systemTag, Collection<String> systemIds) {
+        structureLock.readLock().lock();
+        try {
+            SystemIndex index = systemIndexes.get(systemTag);
+            if ((index == null) || systemIds.isEmpty())
+                return Collections.emptyMap();
+
+            index.lock.readLock().lock();
+            try {
+                return readOnlyCopies(index.coresById, systemIds);
+            } finally {
+                index.lock.readLock().unlock();
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The system's read lock is held while the action runs, so the action must not modify this correlator or it may deadlock.
+     * </p>
+     */
+    @Override
+    public void forEachCore(String systemTag, String systemId, Consumer<String> action) {
+        structureLock.readLock().lock();
+        try {
+            SystemIndex index = systemIndexes.get(systemTag);
+            if (index == null)
+                return;
+
+            index.lock.readLock().lock();
+            try {
+                Set<String> correlated = index.coresById.get(systemId);
+                if (correlated != null)
+                    correlated.forEach(action);
+            } finally {
+                index.lock.readLock().unlock();
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    @Nullable
+    @Override
+    public String findCore(String systemTag, String systemId) {
+        structureLock.readLock().lock();
+        try {
+            SystemIndex index = systemIndexes.get(systemTag);
+            if (index == null)
+                return null;
+
+            index.lock.readLock().lock();
+            try {
+                return onlyItem(index.coresById.get(systemId));
+            } finally {
+                index.lock.readLock().unlock();
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A live view can't be protected by the locks, so this returns the same copy as {@link #getCores(String, String)}.
+     * </p>
+     */
+    @Override
+    public Set<String> getCoresView(String systemTag, String systemId) {
+        return getCores(systemTag, systemId);
+    }
+
+    @Override
+    public void addCorrelation(String coreId, String systemTag, String systemId) {
+        structureLock.readLock().lock();
+        try {
+            SystemIndex index = systemIndexes.get(systemTag);
+            if (index == null)
+                throw new IllegalArgumentException(String.format("INTERNAL ERROR: Unknown system tag '%s'. Why do I not know about it!", systemTag));
+
+            // Cores are only removed under the structure write lock, so the core can't be removed before it is correlated.
+            if (!cores.contains(coreId))
+                throw new IllegalArgumentException(String.format("INTERNAL ERROR: Unknown core id '%s'. Why do I not know about it!", coreId));
+
+            index.lock.writeLock().lock();
+            try {
+                index.add(coreId, systemId);
+            } finally {
+                index.lock.writeLock().unlock();
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Each system's write lock is held while a run of consecutive correlations for it is added, so correlations grouped
+     * by system are added with few lock acquisitions. Other systems remain available throughout the load, but systems and
+     * cores can't be removed until it completes.
+     * </p>
+     */
+    @Override
+    public void loadCorrelations(Iterable<Correlation> correlations, int expectedCores, int expectedCorrelations, Consumer<FailedCorrelationInfo> onFailure) {
+        structureLock.readLock().lock();
+        @Nullable String lastSystemTag = null;
+        @Nullable SystemIndex index = null;
+        try {
+            for (Correlation correlation : correlations) {
+                String coreId = correlation.coreId();
+                String systemTag = correlation.systemTag();
+                String systemId = correlation.systemId();
+
+                cores.add(coreId);
+
+                if (!systemTag.equals(lastSystemTag)) {
+                    if (index != null)
+                        index.lock.writeLock().unlock();
+
+                    lastSystemTag = systemTag;
+                    index = systemIndexes.get(systemTag);
+                    if (index != null)
+                        index.lock.writeLock().lock();
+                }
+
+                if (index == null) {
+                    String details = blockedSystems.contains(systemTag) ? FailedCorrelationInfo.BLOCKED_SYSTEM : FailedCorrelationInfo.UNKNOWN_SYSTEM;
+                    onFailure.accept(new FailedCorrelationInfo(coreId, systemTag, systemId, details));
+                    continue;
+                }
+
+                index.add(coreId, systemId);
+            }
+        } finally {
+            if (index != null)
+                index.lock.writeLock().unlock();
+            structureLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeId(String systemTag, String systemId) {
+        structureLock.readLock().lock();
+        try {
+            SystemIndex index = systemIndexes.get(systemTag);
+            if (index == null)
+                return;
+
+            index.lock.writeLock().lock();
+            try {
+                index.removeId(systemId);
+            } finally {
+                index.lock.writeLock().unlock();
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getIds(String coreId, String systemTag) {
+        structureLock.readLock().lock();
+        try {
+            SystemIndex index = systemIndexes.get(systemTag);
+            if (index == null)
+                return Collections.emptySet();
+
+            index.lock.readLock().lock();
+            try {
+                return readOnlyCopy(index.idsByCore.get(coreId));
+            } finally {
+                index.lock.readLock().unlock();
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Set<String>> getIdsForCores(Collection<String> coreIds, String systemTag) {
+        structureLock.readLock().lock();
+        try {
+            SystemIndex index = systemIndexes.get(systemTag);
+            if ((index == null) || coreIds.isEmpty())
+                return Collections.emptyMap();
+
+            index.lock.readLock().lock();
+            try {
+                return readOnlyCopies(index.idsByCore, coreIds);
+            } finally {
+                index.lock.readLock().unlock();
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The system's read lock is held while the action runs, so the action must not modify this correlator or it may deadlock.
+     * </p>
+     */
+    @Override
+    public void forEachId(String coreId, String systemTag, Consumer<String> action) {
+        structureLock.readLock().lock();
+        try {
+            SystemIndex index = systemIndexes.get(systemTag);
+            if (index == null)
+                return;
+
+            index.lock.readLock().lock();
+            try {
+                Set<String> correlated = index.idsByCore.get(coreId);
+                if (correlated != null)
+                    correlated.forEach(action);
+            } finally {
+                index.lock.readLock().unlock();
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    @Nullable
+    @Override
+    public String findId(String coreId, String systemTag) {
+        structureLock.readLock().lock();
+        try {
+            SystemIndex index = systemIndexes.get(systemTag);
+            if (index == null)
+                return null;
+
+            index.lock.readLock().lock();
+            try {
+                return onlyItem(index.idsByCore.get(coreId));
+            } finally {
+                index.lock.readLock().unlock();
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A live view can't be protected by the locks, so this returns the same copy as {@link #getIds(String, String)}.
+     * </p>
+     */
+    @Override
+    public Set<String> getIdsView(String coreId, String systemTag) {
+        return getIds(coreId, systemTag);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The read lock of every system is held for the whole export, so correlations can't be changed until it completes.
+     * </p>
+     */
+    @Override
+    public <E extends Exception> void exportCorrelations(CorrelationExporter<E> exporter) throws E {
+        structureLock.readLock().lock();
+        List<Lock> held = new ArrayList<>(systemIndexes.size());
+        try {
+            for (SystemIndex index : systemIndexes.values()) {
+                index.lock.readLock().lock();
+                held.add(index.lock.readLock());
+            }
+
+            for (String coreId : cores) {
+                Map<String, Set<String>> systemIds = new LinkedHashMap<>();
+                systemIndexes.forEach((systemTag, index) -> {
+                    Set<String> ids = index.idsByCore.get(coreId);
+                    if (ids != null)
+                        systemIds.put(systemTag, Collections.unmodifiableSet(ids));
+                });
+                exporter.exportCore(coreId, Collections.unmodifiableMap(systemIds));
+            }
+        } finally {
+            held.forEach(Lock::unlock);
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The read lock of every system is held while writing, which the writer's own lookups take again.
+     * </p>
+     */
+    @Override
+    public void write(IdCorrelatorWriter idCorrelatorWriter) throws IdCorrelatorWriteException {
+        structureLock.readLock().lock();
+        List<Lock> held = new ArrayList<>(systemIndexes.size());
+        try {
+            for (SystemIndex index : systemIndexes.values()) {
+                index.lock.readLock().lock();
+                held.add(index.lock.readLock());
+            }
+
+            idCorrelatorWriter.write(this);
+        } finally {
+            held.forEach(Lock::unlock);
+            structureLock.readLock().unlock();
+        }
+    }
+
+    int getStructureReadHoldCount() {
+        return structureLock.getReadHoldCount();
+    }
+
+    boolean isSystemWriteLocked(String systemTag) {
+        SystemIndex index = systemIndexes.get(systemTag);
+        return (index != null) && index.lock.isWriteLocked();
+    }
+
+    private Set<String> readOnlyCopy(@Nullable Set<String> items) {
+        if ((items == null) || items.isEmpty())
+            return Collections.emptySet();
+
+        Set<String> copy = setFactory.newSet();
+        copy.addAll(items);
+        return Collections.unmodifiableSet(copy);
+    }
+
+    private Map<String, Set<String>> readOnlyCopies(Map<String, Set<String>> correlations, Collection<String> keys) {
+        Map<String, Set<String>> copies = new HashMap<>();
+        for (String key : keys) {
+            Set<String> correlated = correlations.get(key);
+            if (correlated != null)
+                copies.put(key, readOnlyCopy(correlated));
+        }
+        return Collections.unmodifiableMap(copies);
+    }
+
+    @Nullable
+    private static String onlyItem(@Nullable Set<String> items) {
+        return (items != null) && (items.size() == 1) ? items.iterator().next() : null;
+    }
+
+    /**
+     * The correlations of a single system, indexed in both directions, and the lock that guards them.
+     */
+    private final class SystemIndex {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<String, Set<String>> coresById = mapFactory.newMap();
+        private final Map<String, Set<String>> idsByCore = mapFactory.newMap();
+
+        private void add(String coreId, String systemId) {
+            if (coresById.computeIfAbsent(systemId, id -> setFactory.newSet()).add(coreId))
+                idsByCore.computeIfAbsent(coreId, id -> setFactory.newSet()).add(systemId);
+        }
+
+        private void removeId(String systemId) {
+            Set<String> correlatedCores = coresById.remove(systemId);
+            if (correlatedCores == null)
+                return;
+
+            for (String coreId : correlatedCores)
+                removeFrom(idsByCore, coreId, systemId);
+        }
+
+        // Returns true if the core had any correlations in this system.
+        private boolean removeCore(String coreId) {
+            Set<String> correlatedIds = idsByCore.remove(coreId);
+            if (correlatedIds == null)
+                return false;
+
+            for (String systemId : correlatedIds)
+                removeFrom(coresById, systemId, coreId);
+            return true;
+        }
+
+        private void removeFrom(Map<String, Set<String>> correlations, String key, String item) {
+            Set<String> items = correlations.get(key);
+            if ((items != null) && items.remove(item) && items.isEmpty())
+                correlations.remove(key);
+        }
+
+    }
+
+}
@@ -9,21 +9,55 @@
 package com.zepben.idcorrelator;
 
 import com.zepben.annotations.EverythingIsNonnullByDefault;
+import com.zepben.idcorrelator.io.FailedCorrelationInfo;
 import com.zepben.idcorrelator.io.IdCorrelatorWriteException;
 import com.zepben.idcorrelator.io.IdCorrelatorWriter;
 
-import java.util.Set;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @SuppressWarnings("WeakerAccess")
 @EverythingIsNonnullByDefault
 public class SynchronisedIdCorrelator implements IdCorrelator {
 
+    static final int COMBINE_ATTEMPTS = 8;
+    static final int SPINS_PER_ATTEMPT = 64;
+    static final int MAX_IDLE_PASSES = 1024;
+
     private final IdCorrelator idCorrelator;
     private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    @Nullable
+    private final Combiner combiner;
 
     public SynchronisedIdCorrelator(IdCorrelator idCorrelator) {
+        this(idCorrelator, false);
+    }
+
+    private SynchronisedIdCorrelator(IdCorrelator idCorrelator, boolean combineWrites) {
         this.idCorrelator = idCorrelator;
+        this.combiner = combineWrites ? new Combiner() : null;
+    }
+
+    /**
+     * Creates a correlator that combines the writes of concurrent threads. {@link #addSystem}, {@link #removeSystem},
+     * {@link #addCore}, {@link #removeCore}, {@link #addCorrelation} and {@link #removeId} publish the write for the
+     * calling thread, and whichever thread gets the write lock applies every published write before releasing it. Under
+     * bursts of writes from many threads, most find their write already applied rather than parking on the lock.
+     * <p>
+     * Each write is still applied atomically under the write lock, and a thread's writes are applied in the order it
+     * makes them. An exception thrown by a write is rethrown to the thread that made it, but may have been thrown on
+     * the thread that applied it.
+     * </p>
+     *
+     * @param idCorrelator The correlator to guard.
+     * @return A thread safe correlator that combines writes.
+     */
+    public static SynchronisedIdCorrelator newCombiningCorrelator(IdCorrelator idCorrelator) {
+        return new SynchronisedIdCorrelator(idCorrelator, true);
     }
 
     @Override
@@ -66,8 +100,105 @@ public class SynchronisedIdCorrelator implements IdCorrelator {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A live view can't be protected by the lock, so this returns the same copy as {@link #systems()}.
+     * </p>
+     */
+    @Override
+    public Set<String> systemsView() {
+        return systems();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A live view can't be protected by the lock, so this returns the same copy as {@link #cores()}.
+     * </p>
+     */
+    @Override
+    public Set<String> coresView() {
+        return cores();
+    }
+
+    @Override
+    public int systemCount() {
+        lock.readLock().lock();
+        try {
+            return idCorrelator.systemCount();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int coreCount() {
+        lock.readLock().lock();
+        try {
+            return idCorrelator.coreCount();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean hasSystem(String systemTag) {
+        lock.readLock().lock();
+        try {
+            return idCorrelator.hasSystem(systemTag);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean hasCore(String coreId) {
+        lock.readLock().lock();
+        try {
+            return idCorrelator.hasCore(coreId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The read lock is held while the action runs, so the action must not modify this correlator or it will deadlock.
+     * </p>
+     */
+    @Override
+    public void forEachSystem(Consumer<String> action) {
+        lock.readLock().lock();
+        try {
+            idCorrelator.forEachSystem(action);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The read lock is held while the action runs, so the action must not modify this correlator or it will deadlock.
+     * </p>
+     */
+    @Override
+    public void forEachCore(Consumer<String> action) {
+        lock.readLock().lock();
+        try {
+            idCorrelator.forEachCore(action);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     @Override
     public boolean addSystem(String systemTag) {
+        if (combiner != null)
+            return combiner.apply(wrapped -> wrapped.addSystem(systemTag));
+
         lock.writeLock().lock();
         try {
             return idCorrelator.addSystem(systemTag);
@@ -78,6 +209,14 @@ public class SynchronisedIdCorrelator implements IdCorrelator {
 
     @Override
     public void removeSystem(String systemTag) {
+        if (combiner != null) {
+            combiner.apply(wrapped -> {
+                wrapped.removeSystem(systemTag);
+                return null;
+            });
+            return;
+        }
+
         lock.writeLock().lock();
         try {
             idCorrelator.removeSystem(systemTag);
@@ -88,6 +227,9 @@ public class SynchronisedIdCorrelator implements IdCorrelator {
 
     @Override
     public boolean addCore(String coreId) {
+        if (combiner != null)
+            return combiner.apply(wrapped -> wrapped.addCore(coreId));
+
         lock.writeLock().lock();
         try {
             return idCorrelator.addCore(coreId);
@@ -98,6 +240,14 @@ public class SynchronisedIdCorrelator implements IdCorrelator {
 
     @Override
     public void removeCore(String coreId) {
+        if (combiner != null) {
+            combiner.apply(wrapped -> {
+                wrapped.removeCore(coreId);
+                return null;
+            });
+            return;
+        }
+
         lock.writeLock().lock();
         try {
             idCorrelator.removeCore(coreId);
@@ -116,8 +266,64 @@ public class SynchronisedIdCorrelator implements IdCorrelator {
         }
     }
 
+    @Override
+    public Map<String, Set<String>> getCoresForIds(String systemTag, Collection<String> systemIds) {
+        lock.readLock().lock();
+        try {
+            return idCorrelator.getCoresForIds(systemTag, systemIds);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The read lock is held while the action runs, so the action must not modify this correlator or it will deadlock.
+     * </p>
+     */
+    @Override
+    public void forEachCore(String systemTag, String systemId, Consumer<String> action) {
+        lock.readLock().lock();
+        try {
+            idCorrelator.forEachCore(systemTag, systemId, action);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Nullable
+    @Override
+    public String findCore(String systemTag, String systemId) {
+        lock.readLock().lock();
+        try {
+            return idCorrelator.findCore(systemTag, systemId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A live view can't be protected by the lock, so this returns the same copy as {@link #getCores(String, String)}.
+     * </p>
+     */
+    @Override
+    public Set<String> getCoresView(String systemTag, String systemId) {
+        return getCores(systemTag, systemId);
+    }
+
     @Override
     public void addCorrelation(String coreId, String systemTag, String systemId) {
+        if (combiner != null) {
+            combiner.apply(wrapped -> {
+                wrapped.addCorrelation(coreId, systemTag, systemId);
+                return null;
+            });
+            return;
+        }
+
         lock.writeLock().lock();
         try {
             idCorrelator.addCorrelation(coreId, systemTag, systemId);
@@ -126,8 +332,32 @@ public class SynchronisedIdCorrelator implements IdCorrelator {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The write lock is held for the whole load, blocking all other access to the correlator until it completes.
+     * </p>
+     */
+    @Override
+    public void loadCorrelations(Iterable<Correlation> correlations, int expectedCores, int expectedCorrelations, Consumer<FailedCorrelationInfo> onFailure) {
+        lock.writeLock().lock();
+        try {
+            idCorrelator.loadCorrelations(correlations, expectedCores, expectedCorrelations, onFailure);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
     @Override
     public void removeId(String systemTag, String systemId) {
+        if (combiner != null) {
+            combiner.apply(wrapped -> {
+                wrapped.removeId(systemTag, systemId);
+                return null;
+            });
+            return;
+        }
+
         lock.writeLock().lock();
         try {
             idCorrelator.removeId(systemTag, systemId);
@@ -146,6 +376,77 @@ public class SynchronisedIdCorrelator implements IdCorrelator {
         }
     }
 
+    @Override
+    public Map<String, Set<String>> getIdsForCores(Collection<String> coreIds, String systemTag) {
+        lock.readLock().lock();
+        try {
+            return idCorrelator.getIdsForCores(coreIds, systemTag);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The read lock is held while the action runs, so the action must not modify this correlator or it will deadlock.
+     * </p>
+     */
+    @Override
+    public void forEachId(String coreId, String systemTag, Consumer<String> action) {
+        lock.readLock().lock();
+        try {
+            idCorrelator.forEachId(coreId, systemTag, action);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Nullable
+    @Override
+    public String findId(String coreId, String systemTag) {
+        lock.readLock().lock();
+        try {
+            return idCorrelator.findId(coreId, systemTag);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A live view can't be protected by the lock, so this returns the same copy as {@link #getIds(String, String)}.
+     * </p>
+     */
+    @Override
+    public Set<String> getIdsView(String coreId, String systemTag) {
+        return getIds(coreId, systemTag);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The read lock is held for the whole export.
+     * </p>
+     */
+    @Override
+    public <E extends Exception> void exportCorrelations(CorrelationExporter<E> exporter) throws E {
+        lock.readLock().lock();
+        try {
+            idCorrelator.exportCorrelations(exporter);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The read lock is held for the whole write, including any I/O, which blocks all writes to the correlator until it
+     * completes. Use {@link #writeSnapshot(IdCorrelatorWriter)} to only block them while the correlations are copied.
+     * </p>
+     */
     @Override
     public void write(IdCorrelatorWriter idCorrelatorWriter) throws IdCorrelatorWriteException {
         lock.readLock().lock();
@@ -156,6 +457,44 @@ public class SynchronisedIdCorrelator implements IdCorrelator {
         }
     }
 
+    /**
+     * Writes a {@link #snapshot()} of the correlations, so the read lock is only held while they are copied rather than
+     * for the whole write. Changes made while the snapshot is being written are not included.
+     *
+     * @param idCorrelatorWriter The writer to write the snapshot with.
+     * @throws IdCorrelatorWriteException if any exception is thrown while writing.
+     */
+    public void writeSnapshot(IdCorrelatorWriter idCorrelatorWriter) throws IdCorrelatorWriteException {
+        snapshot().write(idCorrelatorWriter);
+    }
+
+    /**
+     * Copies the systems, cores and correlations as they are at a single point in time, for writing them after the
+     * read lock has been released. Blocked systems are not copied.
+     * <p>
+     * The copy only holds references to the ids in flat arrays, so writes are held up for a single pass over the
+     * correlations and it takes far less memory than the correlator. It is laid out for writing rather than lookups,
+     * which scan the whole copy, and it can't be changed.
+     * </p>
+     *
+     * @return A read-only copy of the correlations that later changes to this correlator don't affect.
+     */
+    public IdCorrelator snapshot() {
+        Set<String> systems;
+        CorrelationSnapshot.Builder builder;
+
+        lock.readLock().lock();
+        try {
+            systems = idCorrelator.systems();
+            builder = new CorrelationSnapshot.Builder(idCorrelator.coreCount());
+            idCorrelator.exportCorrelations(builder);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return builder.build(systems);
+    }
+
     int getReadHoldCount() {
         return lock.getReadHoldCount();
     }
@@ -164,4 +503,127 @@ public class SynchronisedIdCorrelator implements IdCorrelator {
         return lock.getWriteHoldCount();
     }
 
+    int getPendingWriteCount() {
+        return combiner != null ? combiner.pendingCount() : 0;
+    }
+
+    /**
+     * Applies the writes published by many threads under a single hold of the write lock.
+     * <p>
+     * Each thread has a slot it publishes its write to, which is listed for the combiner the first time it is used.
+     * A thread that publishes a write tries the write lock a few times, spinning on its slot in between, and applies
+     * its own write along with every other published write if it gets the lock. If another thread applies its write
+     * first it returns without locking. Otherwise it parks on the lock like a plain write. Slots that go unused for
+     * {@link #MAX_IDLE_PASSES} passes are unlisted so threads that have finished don't slow the scan, and are listed
+     * again if they are used.
+     * </p>
+     */
+    private final class Combiner {
+
+        private final Queue<Slot> slots = new ConcurrentLinkedQueue<>();
+        private final ThreadLocal<Slot> threadSlot = ThreadLocal.withInitial(Slot::new);
+        private int pass;
+
+        @Nullable
+        @SuppressWarnings("unchecked")
+        <T> T apply(Function<IdCorrelator, T> write) {
+            Slot slot = threadSlot.get();
+            slot.pending = write;
+            if (!slot.listed) {
+                slot.listed = true;
+                slots.add(slot);
+            }
+
+            for (int attempt = 0; slot.pending != null; ++attempt) {
+                if (attempt < COMBINE_ATTEMPTS) {
+                    if (!lock.writeLock().tryLock()) {
+                        for (int spin = 0; (spin < SPINS_PER_ATTEMPT) && (slot.pending != null); ++spin) {
+                            // Give the thread holding the lock a chance to apply the write.
+                        }
+                        continue;
+                    }
+                } else
+                    lock.writeLock().lock();
+
+                try {
+                    combine(slot);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+
+            Object result = slot.result;
+            Throwable failure = slot.failure;
+            slot.result = null;
+            slot.failure = null;
+
+            if (failure instanceof RuntimeException)
+                throw (RuntimeException) failure;
+            else if (failure instanceof Error)
+                throw (Error) failure;
+
+            return (T) result;
+        }
+
+        int pendingCount() {
+            int count = 0;
+            for (Slot slot : slots) {
+                if (slot.pending != null)
+                    ++count;
+            }
+            return count;
+        }
+
+        // Must be called with the write lock held. The slot of the combining thread is applied first, as it may have
+        // been unlisted after it was checked.
+        private void combine(Slot own) {
+            ++pass;
+            applyPending(own);
+
+            Iterator<Slot> iterator = slots.iterator();
+            while (iterator.hasNext()) {
+                Slot slot = iterator.next();
+                if (slot.pending != null)
+                    applyPending(slot);
+                else if (pass - slot.lastPass > MAX_IDLE_PASSES) {
+                    iterator.remove();
+                    slot.listed = false;
+                }
+            }
+        }
+
+        private void applyPending(Slot slot) {
+            Function<IdCorrelator, ?> write = slot.pending;
+            if (write == null)
+                return;
+
+            try {
+                slot.result = write.apply(idCorrelator);
+            } catch (RuntimeException | Error e) {
+                slot.failure = e;
+            }
+            slot.lastPass = pass;
+
+            // Clearing the pending write publishes the result to the thread that made it.
+            slot.pending = null;
+        }
+
+    }
+
+    /**
+     * The write published by a thread, and its outcome once applied.
+     */
+    private static final class Slot {
+
+        @Nullable
+        volatile Function<IdCorrelator, ?> pending;
+        volatile boolean listed;
+        @Nullable
+        Object result;
+        @Nullable
+        Throwable failure;
+        int lastPass;
+
+    }
+
 }
@@ -16,6 +16,16 @@ import com.zepben.annotations.EverythingIsNonnullByDefault;
 @EverythingIsNonnullByDefault
 public class FailedCorrelationInfo {
 
+    /**
+     * Details used when a correlation is rejected because its system tag is not in the id correlator.
+     */
+    public static final String UNKNOWN_SYSTEM = "Unknown system tag";
+
+    /**
+     * Details used when a correlation is rejected because its system tag has been blocked.
+     */
+    public static final String BLOCKED_SYSTEM = "Blocked system tag";
+
     private String coreId;
     private String systemTag;
     private String systemId;
@@ -11,10 +11,8 @@ package com.zepben.idcorrelator.io.json;
 import com.zepben.annotations.EverythingIsNonnullByDefault;
 import com.zepben.idcorrelator.IdCorrelator;
 import com.zepben.idcorrelator.io.*;
-import io.vertx.core.json.JsonObject;
 
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
@@ -27,6 +25,8 @@ import java.util.Set;
 @EverythingIsNonnullByDefault
 public class IdCorrelatorJSONReaderWriter implements IdCorrelatorWriter, IdCorrelatorReader {
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private Path filePath;
     private boolean prettyPrint;
 
@@ -79,17 +79,15 @@ public class IdCorrelatorJSONReaderWriter implements IdCorrelatorWriter, IdCorre
      * Writes the correlations for an {@link IdCorrelator} into a JSON file.
      * This method should not be called directly if the idCorrelator is being used concurrently.
      * See the write() method in {@link IdCorrelator} for the concurrent access case.
+     * <p>
+     * The correlations are streamed to the file as they are encoded, rather than building the whole document in memory.
      *
      * @param idCorrelator the {@link IdCorrelator} object to be saved.
      * @throws IdCorrelatorWriteException if an exception is thrown in the process of writing.
      */
-
     public void write(IdCorrelator idCorrelator) throws IdCorrelatorWriteException {
-        try {
-            if (!prettyPrint)
-                Files.write(filePath, JsonUtils.toJson(idCorrelator).encode().getBytes(StandardCharsets.UTF_8));
-            else
-                Files.write(filePath, JsonUtils.toJson(idCorrelator).encodePrettily().getBytes(StandardCharsets.UTF_8));
+        try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(filePath), BUFFER_SIZE)) {
+            JsonUtils.writeJson(idCorrelator, outputStream, prettyPrint);
         } catch (IOException e) {
             throw new IdCorrelatorWriteException(e);
         }
@@ -97,17 +95,18 @@ public class IdCorrelatorJSONReaderWriter implements IdCorrelatorWriter, IdCorre
 
     /**
      * Reads the correlations for an {@link IdCorrelator} stored in an JSON file into an instance of {@link IdCorrelator}.
+     * <p>
+     * The file is parsed incrementally as the correlations are added, rather than loading the whole file into memory.
      *
      * @param idCorrelator the {@link IdCorrelator} instance to be populated with the correlations read.
+     * @return The correlations that could not be added, e.g. because their system is blocked in the idCorrelator.
      * @throws IdCorrelatorReadException if an exception is thrown in the process of reading.
      */
     public Collection<FailedCorrelationInfo> read(IdCorrelator idCorrelator) throws IdCorrelatorReadException {
         Set<FailedCorrelationInfo> failedCorrelationsSet = new HashSet<>();
 
-        try {
-            String jsonStr = new String(Files.readAllBytes(filePath), StandardCharsets.UTF_8);
-            JsonObject idCorrelatorJson = new JsonObject(jsonStr);
-            JsonUtils.intoIdCorrelator(idCorrelatorJson, idCorrelator);
+        try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(filePath), BUFFER_SIZE)) {
+            JsonUtils.readJson(inputStream, idCorrelator, failedCorrelationsSet::add);
         } catch (IOException e) {
             throw new IdCorrelatorReadException(e);
         }
@@ -8,14 +8,27 @@
 
 package com.zepben.idcorrelator.io.json;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.zepben.annotations.EverythingIsNonnullByDefault;
+import com.zepben.idcorrelator.Correlation;
 import com.zepben.idcorrelator.IdCorrelator;
 import com.zepben.idcorrelator.MapBackedIdCorrelator;
+import com.zepben.idcorrelator.io.FailedCorrelationInfo;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 import javax.annotation.Nullable;
-import java.util.Set;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * Utility class to convert instances of {@link IdCorrelator} into
@@ -25,6 +38,8 @@ import java.util.Set;
 @EverythingIsNonnullByDefault
 public final class JsonUtils {
 
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
     /**
      * Private constructor to prevent instantiation of a utility class.
      */
@@ -44,6 +59,57 @@ public final class JsonUtils {
         return idCorrelatorJson;
     }
 
+    /**
+     * Writes an instance of {@link IdCorrelator} to a stream as JSON, without building the intermediate {@link JsonObject}.
+     * The bytes written are the same as UTF-8 encoding {@link JsonObject#encode()} (or {@link JsonObject#encodePrettily()})
+     * of the {@link #toJson(IdCorrelator)} result, but nothing is copied from the idCorrelator as it is written.
+     * <p>
+     * The stream is flushed, but not closed.
+     *
+     * @param idCorrelator The idCorrelator to be written.
+     * @param outputStream The stream the JSON will be written to.
+     * @param prettyPrint  Indicates if the JSON should be pretty printed.
+     * @throws IOException If there was an error writing to the stream.
+     */
+    public static void writeJson(IdCorrelator idCorrelator, OutputStream outputStream, boolean prettyPrint) throws IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            if (prettyPrint)
+                generator.useDefaultPrettyPrinter();
+
+            generator.writeStartObject();
+            writeSystems(idCorrelator, generator);
+            writeCores(idCorrelator, generator);
+            generator.writeEndObject();
+        }
+    }
+
+    static private void writeSystems(IdCorrelator idCorrelator, JsonGenerator generator) throws IOException {
+        generator.writeArrayFieldStart("systems");
+        for (String system : idCorrelator.systems())
+            generator.writeString(system);
+        generator.writeEndArray();
+    }
+
+    static private void writeCores(IdCorrelator idCorrelator, JsonGenerator generator) throws IOException {
+        generator.writeArrayFieldStart("cores");
+        idCorrelator.exportCorrelations((coreId, systemIds) -> {
+            if (systemIds.isEmpty())
+                return;
+
+            generator.writeStartObject();
+            generator.writeStringField("id", coreId);
+            for (Map.Entry<String, Set<String>> entry : systemIds.entrySet()) {
+                generator.writeArrayFieldStart(entry.getKey());
+                for (String id : entry.getValue())
+                    generator.writeString(id);
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+        });
+        generator.writeEndArray();
+    }
+
     static private void addSystemsToJson(IdCorrelator idCorrelator, JsonObject idCorrelatorJson) {
         JsonArray systems = new JsonArray();
         idCorrelator.systems().forEach(systems::add);
@@ -52,21 +118,17 @@ public final class JsonUtils {
 
     static private void addCoresToJson(IdCorrelator idCorrelator, JsonObject idCorrelatorJson) {
         JsonArray cores = new JsonArray();
-        idCorrelator.cores().forEach(coreId -> {
-            JsonObject correlations = new JsonObject();
-            idCorrelator.systems().forEach(system -> {
-                JsonArray ids = new JsonArray();
-                idCorrelator.getIds(coreId, system).forEach(ids::add);
-                if (!ids.isEmpty())
-                    correlations.put(system, ids);
-            });
+        idCorrelator.exportCorrelations((coreId, systemIds) -> {
+            if (systemIds.isEmpty())
+                return;
 
-            if (!correlations.isEmpty()) {
-                JsonObject core = new JsonObject()
-                    .put("id", coreId)
-                    .mergeIn(correlations);
-                cores.add(core);
-            }
+            JsonObject core = new JsonObject().put("id", coreId);
+            systemIds.forEach((system, ids) -> {
+                JsonArray idsJson = new JsonArray();
+                ids.forEach(idsJson::add);
+                core.put(system, idsJson);
+            });
+            cores.add(core);
         });
         idCorrelatorJson.put("cores", cores);
     }
@@ -80,8 +142,9 @@ public final class JsonUtils {
      */
     public static IdCorrelator toIdCorrelator(JsonObject idCorrelatorJson) {
 
-        // Instantiating idCorrelator
-        IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator();
+        // Instantiating idCorrelator, sized for the cores so it doesn't grow as they are added
+        Object cores = idCorrelatorJson.getValue("cores");
+        IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator(cores instanceof JsonArray ? ((JsonArray) cores).size() : 0);
 
         // Populating idCorrelator
         intoIdCorrelator(idCorrelatorJson, idCorrelator);
@@ -96,8 +159,21 @@ public final class JsonUtils {
      * @param idCorrelator     Instance of an IdCorrelator to which the correlations will be added.
      */
     public static void intoIdCorrelator(JsonObject idCorrelatorJson, IdCorrelator idCorrelator) {
+        intoIdCorrelator(idCorrelatorJson, idCorrelator, failure -> {
+        });
+    }
+
+    /**
+     * Adds the correlations represented by a {@link JsonObject} into an instance of {@link IdCorrelator}, reporting any
+     * correlations that could not be added.
+     *
+     * @param idCorrelatorJson Json representation of an IdCorrelator, serves as the source of the correlations to be added.
+     * @param idCorrelator     Instance of an IdCorrelator to which the correlations will be added.
+     * @param onFailure        Called with each correlation that could not be added, e.g. because its system is blocked.
+     */
+    public static void intoIdCorrelator(JsonObject idCorrelatorJson, IdCorrelator idCorrelator, Consumer<FailedCorrelationInfo> onFailure) {
         addSystemsToIdCorrelator(idCorrelator, idCorrelatorJson);
-        addCoresToIdCorrelator(idCorrelator, idCorrelatorJson);
+        addCoresToIdCorrelator(idCorrelator, idCorrelatorJson, onFailure);
     }
 
     static private void addSystemsToIdCorrelator(IdCorrelator idCorrelator, JsonObject idCorrelatorJson) {
@@ -107,23 +183,179 @@ public final class JsonUtils {
             .forEach(idCorrelator::addSystem);
     }
 
-    static private void addCoresToIdCorrelator(IdCorrelator idCorrelator, JsonObject idCorrelatorJson) {
-        Set<String> systems = idCorrelator.systems();
-        extract(idCorrelatorJson, "cores", JsonObject::getJsonArray)
+    static private void addCoresToIdCorrelator(IdCorrelator idCorrelator, JsonObject idCorrelatorJson, Consumer<FailedCorrelationInfo> onFailure) {
+        JsonArray cores = extract(idCorrelatorJson, "cores", JsonObject::getJsonArray);
+        Stream<Correlation> correlations = cores
             .stream()
             .map(JsonObject.class::cast)
-            .forEach(core -> {
+            .flatMap(core -> {
                 String coreId = extract(core, "id", JsonObject::getString);
-                idCorrelator.addCore(coreId);
-                systems.forEach(system -> {
-                    if (core.containsKey(system)) {
-                        core.getJsonArray(system)
-                            .stream()
-                            .map(String.class::cast)
-                            .forEach(id -> idCorrelator.addCorrelation(coreId, system, id));
-                    }
-                });
+                if (core.size() == 1)
+                    idCorrelator.addCore(coreId);
+
+                return core.fieldNames()
+                    .stream()
+                    .filter(system -> !system.equals("id"))
+                    .flatMap(system -> correlationsOf(coreId, core, system));
             });
+
+        idCorrelator.loadCorrelations(correlations::iterator, cores.size(), 0, onFailure);
+    }
+
+    static private Stream<Correlation> correlationsOf(String coreId, JsonObject core, String system) {
+        return extract(core, system, JsonObject::getJsonArray)
+            .stream()
+            .map(String.class::cast)
+            .map(id -> new Correlation(coreId, system, id));
+    }
+
+    /**
+     * Reads JSON written by {@link #writeJson} (or {@link #toJson}) from a stream into an instance of {@link IdCorrelator},
+     * without loading the whole document into memory. The correlations are passed to
+     * {@link IdCorrelator#loadCorrelations} one core at a time as they are parsed.
+     * <p>
+     * The "systems" are expected before the "cores", which is the order they are written. If they are not, the
+     * correlations are held until the systems are read, which needs as much memory as reading the whole document.
+     * <p>
+     * The stream is not closed.
+     *
+     * @param inputStream  The stream the JSON will be read from.
+     * @param idCorrelator Instance of an IdCorrelator to which the correlations will be added.
+     * @param onFailure    Called with each correlation that could not be added, e.g. because its system is blocked.
+     * @throws IOException              If there was an error reading the stream, or it does not contain valid JSON.
+     * @throws IllegalArgumentException If the JSON does not describe an IdCorrelator.
+     */
+    public static void readJson(InputStream inputStream, IdCorrelator idCorrelator, Consumer<FailedCorrelationInfo> onFailure) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(inputStream)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            expectToken(parser.nextToken(), JsonToken.START_OBJECT, "systems");
+
+            boolean haveSystems = false;
+            boolean haveCores = false;
+            List<Correlation> heldCorrelations = new ArrayList<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (key.equals("systems")) {
+                    expectToken(value, JsonToken.START_ARRAY, key);
+                    while (parser.nextToken() != JsonToken.END_ARRAY)
+                        idCorrelator.addSystem(readString(parser, key));
+                    haveSystems = true;
+                } else if (key.equals("cores")) {
+                    expectToken(value, JsonToken.START_ARRAY, key);
+                    CorrelationReader correlations = new CorrelationReader(parser, idCorrelator);
+                    if (haveSystems)
+                        idCorrelator.loadCorrelations(correlations, 0, 0, onFailure);
+                    else
+                        correlations.forEach(heldCorrelations::add);
+                    haveCores = true;
+                } else
+                    parser.skipChildren();
+            }
+
+            if (!haveSystems)
+                throw new IllegalArgumentException(String.format("Required key '%s' must be specified", "systems"));
+            if (!haveCores)
+                throw new IllegalArgumentException(String.format("Required key '%s' must be specified", "cores"));
+
+            if (!heldCorrelations.isEmpty())
+                idCorrelator.loadCorrelations(heldCorrelations, 0, heldCorrelations.size(), onFailure);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Parses the correlations of the "cores" array a single core at a time, as they are iterated. Cores without any
+     * correlations are added directly to the IdCorrelator as they are parsed.
+     */
+    static private class CorrelationReader implements Iterable<Correlation>, Iterator<Correlation> {
+
+        private final JsonParser parser;
+        private final IdCorrelator idCorrelator;
+        private final List<String> systems = new ArrayList<>();
+        private final List<String> ids = new ArrayList<>();
+        private String coreId = "";
+        private int next;
+        private boolean finished;
+
+        CorrelationReader(JsonParser parser, IdCorrelator idCorrelator) {
+            this.parser = parser;
+            this.idCorrelator = idCorrelator;
+        }
+
+        @Override
+        public Iterator<Correlation> iterator() {
+            return this;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while ((next == ids.size()) && !finished)
+                    readCore();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return next < ids.size();
+        }
+
+        @Override
+        public Correlation next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            Correlation correlation = new Correlation(coreId, systems.get(next), ids.get(next));
+            ++next;
+            return correlation;
+        }
+
+        private void readCore() throws IOException {
+            systems.clear();
+            ids.clear();
+            next = 0;
+
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.END_ARRAY) {
+                finished = true;
+                return;
+            }
+            expectToken(token, JsonToken.START_OBJECT, "cores");
+
+            // The id is normally the first key, but buffering the ids of the core allows it to be anywhere.
+            @Nullable String id = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String system = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (system.equals("id")) {
+                    id = readString(parser, system);
+                } else {
+                    expectToken(value, JsonToken.START_ARRAY, system);
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        systems.add(system);
+                        ids.add(readString(parser, system));
+                    }
+                }
+            }
+
+            if (id == null)
+                throw new IllegalArgumentException(String.format("Required key '%s' must be specified", "id"));
+
+            coreId = id;
+            if (ids.isEmpty())
+                idCorrelator.addCore(coreId);
+        }
+
+    }
+
+    static private void expectToken(@Nullable JsonToken token, JsonToken expected, String key) {
+        if (token != expected)
+            throw new IllegalArgumentException(String.format("Error reading required key '%s'", key));
+    }
+
+    static private String readString(JsonParser parser, String key) throws IOException {
+        expectToken(parser.getCurrentToken(), JsonToken.VALUE_STRING, key);
+        return parser.getText();
     }
 
     @FunctionalInterface
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+/**
+ * Builds strings that all have the same {@link String#hashCode}, as an attacker supplying ids could.
+ */
+class CollidingStrings {
+
+    /**
+     * Returns 2^blocks strings made of every sequence of "Aa" and "BB" blocks, which have equal hash codes because
+     * 'A' * 31 + 'a' == 'B' * 31 + 'B'.
+     */
+    static String[] generate(int blocks) {
+        String[] strings = new String[1 << blocks];
+        char[] chars = new char[blocks * 2];
+        for (int i = 0; i < strings.length; i++) {
+            for (int b = 0; b < blocks; b++) {
+                boolean aa = ((i >>> b) & 1) == 0;
+                chars[b * 2] = aa ? 'A' : 'B';
+                chars[b * 2 + 1] = aa ? 'a' : 'B';
+            }
+            strings[i] = new String(chars);
+        }
+        return strings;
+    }
+
+}
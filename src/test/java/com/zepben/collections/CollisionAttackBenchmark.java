@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the maps when every key has the same {@link String#hashCode}, as ids crafted by an attacker could, against
+ * ordinary keys of the same length.
+ * <p>
+ * The lookup benchmark samples the time of single lookups, so the percentiles JMH reports show the worst case latency.
+ * Without hashing strings by their characters every colliding key would share a probe sequence, making lookups and
+ * adds linear in the size of the map.
+ * </p>
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class CollisionAttackBenchmark {
+
+    // The maps hold 2^blocks keys, each made of this many two character blocks.
+    @Param({"10", "14"})
+    public int blocks;
+
+    @Param
+    public Keys keys;
+
+    @Param
+    public Implementation implementation;
+
+    private String[] keyArray = new String[0];
+    private Map<String, Object> map = new HashMap<>();
+    private int next;
+
+    /**
+     * The keys added to the maps.
+     */
+    public enum Keys {
+
+        // Every sequence of "Aa" and "BB" blocks, which all have the same hash code.
+        COLLIDING {
+            @Override
+            String[] generate(int blocks) {
+                return CollidingStrings.generate(blocks);
+            }
+        },
+
+        // Distinct strings of the same length, which have well spread hash codes.
+        ORDINARY {
+            @Override
+            String[] generate(int blocks) {
+                String[] keys = new String[1 << blocks];
+                for (int i = 0; i < keys.length; i++)
+                    keys[i] = String.format("%0" + blocks * 2 + "d", i);
+                return keys;
+            }
+        };
+
+        abstract String[] generate(int blocks);
+
+    }
+
+    /**
+     * The maps under test.
+     */
+    public enum Implementation {
+
+        COMPACT_HASH_MAP {
+            @Override
+            Map<String, Object> create() {
+                return new CompactHashMap<>();
+            }
+        },
+        COMPACT_HASH_MAP_CACHED_HASHES {
+            @Override
+            Map<String, Object> create() {
+                return CompactHashMap.withCachedHashes();
+            }
+        },
+        // HashMap falls back to trees for colliding keys that are Comparable, such as strings.
+        HASH_MAP {
+            @Override
+            Map<String, Object> create() {
+                return new HashMap<>();
+            }
+        };
+
+        abstract Map<String, Object> create();
+
+    }
+
+    @Setup(Level.Trial)
+    public void populate() {
+        keyArray = keys.generate(blocks);
+        map = build();
+    }
+
+    /**
+     * Builds a map holding all the keys.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Map<String, Object> build() {
+        Map<String, Object> map = implementation.create();
+        for (String key : keyArray)
+            map.put(key, key);
+        return map;
+    }
+
+    /**
+     * Looks up the next key in the populated map.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Object lookup() {
+        next = (next + 1) & (keyArray.length - 1);
+        return map.get(keyArray[next]);
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the {@link CompactHashMap} operations used by the id correlator.
+ * <p>
+ * The keys share a long prefix, like the ids of many systems, to show the effect of caching the hashes on lookups that
+ * hit and miss. See {@link CompactHashMapResizeBenchmark} for resizing.
+ * </p>
+ * <p>
+ * Run with the benchmark profile, which writes the results to target/jmh-result.json:
+ * mvn -P benchmark -DskipTests verify -Djmh.args=CompactHashMapBenchmark
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class CompactHashMapBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean cacheHashes;
+
+    String[] keys = new String[0];
+    String[] missingKeys = new String[0];
+    private CompactHashMap<String, Object> populated = new CompactHashMap<>();
+    private CompactHashMap<String, Object>.Cursor cursor = populated.cursor();
+    private int next;
+
+    @Setup(Level.Trial)
+    public void generateKeys() {
+        keys = new String[size];
+        missingKeys = new String[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = "ZONE-SUB-FDR-" + String.format("%09d", i);
+            missingKeys[i] = "ZONE-SUB-FDR-" + String.format("%09d", i + size);
+        }
+
+        populated = new CompactHashMap<>(cacheHashes);
+        for (String key : keys)
+            populated.put(key, key);
+        cursor = populated.cursor();
+    }
+
+    /**
+     * Fills an empty map, so every key is an insert, including the resizes as the map grows.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Map<String, Object> computeIfAbsentInsert() {
+        CompactHashMap<String, Object> map = new CompactHashMap<>(cacheHashes);
+        for (String key : keys)
+            map.computeIfAbsent(key, k -> k);
+        return map;
+    }
+
+    /**
+     * The get then put pattern the Map default of computeIfAbsent uses, for comparison with computeIfAbsentInsert.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Map<String, Object> getThenPutInsert() {
+        CompactHashMap<String, Object> map = new CompactHashMap<>(cacheHashes);
+        for (String key : keys) {
+            if (map.get(key) == null)
+                map.put(key, key);
+        }
+        return map;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Map<String, Object> putIfAbsentInsert() {
+        CompactHashMap<String, Object> map = new CompactHashMap<>(cacheHashes);
+        for (String key : keys)
+            map.putIfAbsent(key, key);
+        return map;
+    }
+
+    @Benchmark
+    public Object computeIfAbsentHit() {
+        return populated.computeIfAbsent(nextKey(), k -> k);
+    }
+
+    @Benchmark
+    public Object getHit() {
+        return populated.get(nextKey());
+    }
+
+    @Benchmark
+    public Object getMiss() {
+        return populated.get(missingKeys[nextIndex()]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int iterateEntrySet() {
+        int count = 0;
+        for (Map.Entry<String, Object> entry : populated.entrySet())
+            count += entry.getKey().length();
+        return count;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int iterateKeySet() {
+        int count = 0;
+        for (String key : populated.keySet())
+            count += key.length();
+        return count;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int iterateForEach() {
+        int[] count = new int[1];
+        populated.forEach((key, value) -> count[0] += key.length());
+        return count[0];
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int iterateCursor() {
+        int count = 0;
+        cursor.reset();
+        while (cursor.advance())
+            count += cursor.key().length();
+        return count;
+    }
+
+    String nextKey() {
+        return keys[nextIndex()];
+    }
+
+    int nextIndex() {
+        if (++next >= keys.length)
+            next = 0;
+        return next;
+    }
+
+}
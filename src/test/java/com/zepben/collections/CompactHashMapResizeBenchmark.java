@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures rehashing a populated {@link CompactHashMap} into a larger table, with and without cached hashes.
+ * <p>
+ * The map is recreated before every invocation, so only the resize itself is measured.
+ * </p>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class CompactHashMapResizeBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean cacheHashes;
+
+    private String[] keys = new String[0];
+    private CompactHashMap<String, Object> map = new CompactHashMap<>();
+
+    @Setup(Level.Trial)
+    public void generateKeys() {
+        keys = new String[size];
+        for (int i = 0; i < size; i++)
+            keys[i] = "ZONE-SUB-FDR-" + String.format("%09d", i);
+    }
+
+    @Setup(Level.Invocation)
+    public void populate() {
+        map = new CompactHashMap<>(cacheHashes);
+        for (String key : keys)
+            map.put(key, key);
+    }
+
+    @Benchmark
+    public Map<String, Object> resize() {
+        map.ensureCapacity(size * 4);
+        return map;
+    }
+
+}
@@ -159,6 +159,291 @@ public class CompactHashMapTest {
         contains(mapTest);
     }
 
+    @Test
+    public void ensureCapacityTest() {
+        CompactHashMap<String, String> mapTest = new CompactHashMap<>();
+        mapTest.put("a", "1");
+        mapTest.put("b", "2");
+
+        mapTest.ensureCapacity(1000);
+        assertThat(mapTest.get("a"), is("1"));
+        assertThat(mapTest.get("b"), is("2"));
+
+        for (int i = 0; i < 1000; i++)
+            mapTest.put(Integer.toString(i), "value" + i);
+        assertThat(mapTest.size(), is(1002));
+        for (int i = 0; i < 1000; i++)
+            assertThat(mapTest.get(Integer.toString(i)), is("value" + i));
+
+        // Never shrinks the table.
+        mapTest.ensureCapacity(0);
+        assertThat(mapTest.size(), is(1002));
+        assertThat(mapTest.get("a"), is("1"));
+    }
+
+    @Test
+    public void expectedSizeAndTrimToSizeTest() {
+        // Iterators fail if the table is resized, so an iterator created before filling the map shows it never resized.
+        CompactHashMap<String, String> mapTest = new CompactHashMap<>(1000);
+        Iterator<String> iterator = mapTest.keySet().iterator();
+        for (int i = 0; i < 1000; i++)
+            mapTest.put(Integer.toString(i), "value" + i);
+        assertThat(iterator.hasNext(), is(true));
+
+        // Growing well past the expected size does resize it.
+        for (int i = 1000; i < 1100; i++)
+            mapTest.put(Integer.toString(i), "value" + i);
+        expect(iterator::hasNext).toThrow(ConcurrentModificationException.class);
+
+        CompactHashMap<String, String> cachedTest = new CompactHashMap<>(1000, true);
+        iterator = cachedTest.keySet().iterator();
+        for (int i = 0; i < 1000; i++)
+            cachedTest.put(Integer.toString(i), "value" + i);
+        assertThat(iterator.hasNext(), is(true));
+
+        // Trimming keeps the items but drops the tombstones.
+        mapTest.keySet().removeIf(key -> !key.startsWith("9"));
+        assertThat(mapTest.tombstoneRatio(), greaterThan(0.0));
+        mapTest.trimToSize();
+        assertThat(mapTest.tombstoneRatio(), is(0.0));
+        assertThat(mapTest.size(), is(111));
+        for (int i = 0; i < 1100; i++)
+            assertThat(mapTest.get(Integer.toString(i)), Integer.toString(i).startsWith("9") ? is("value" + i) : nullValue());
+
+        mapTest.clear();
+        mapTest.trimToSize();
+        assertThat(mapTest.isEmpty(), is(true));
+        mapTest.put("a", "1");
+        assertThat(mapTest.get("a"), is("1"));
+    }
+
+    @Test
+    public void singleProbeOverridesTest() {
+        CompactHashMap<String, String> mapTest = new CompactHashMap<>();
+
+        assertThat(mapTest.putIfAbsent("a", "1"), nullValue());
+        assertThat(mapTest.putIfAbsent("a", "2"), is("1"));
+        assertThat(mapTest.getOrDefault("a", "default"), is("1"));
+        assertThat(mapTest.getOrDefault("b", "default"), is("default"));
+
+        // Absent keys and keys mapped to null are both computed.
+        mapTest.put("null", null);
+        assertThat(mapTest.getOrDefault("null", "default"), nullValue());
+        assertThat(mapTest.computeIfAbsent("null", key -> "computed"), is("computed"));
+        assertThat(mapTest.computeIfAbsent("b", key -> key + "1"), is("b1"));
+        assertThat(mapTest.computeIfAbsent("b", key -> "not called"), is("b1"));
+        assertThat(mapTest.computeIfAbsent("c", key -> null), nullValue());
+        assertThat(mapTest.containsKey("c"), is(false));
+
+        assertThat(mapTest.computeIfPresent("c", (key, value) -> "not called"), nullValue());
+        assertThat(mapTest.computeIfPresent("b", (key, value) -> value + "2"), is("b12"));
+        assertThat(mapTest.computeIfPresent("b", (key, value) -> null), nullValue());
+        assertThat(mapTest.containsKey("b"), is(false));
+
+        assertThat(mapTest.compute("c", (key, value) -> value == null ? "new" : "old"), is("new"));
+        assertThat(mapTest.compute("c", (key, value) -> value == null ? "new" : "old"), is("old"));
+        assertThat(mapTest.compute("c", (key, value) -> null), nullValue());
+        assertThat(mapTest.containsKey("c"), is(false));
+
+        assertThat(mapTest.merge("d", "1", String::concat), is("1"));
+        assertThat(mapTest.merge("d", "2", String::concat), is("12"));
+        assertThat(mapTest.merge("d", "3", (oldValue, value) -> null), nullValue());
+        assertThat(mapTest.containsKey("d"), is(false));
+
+        assertThat(mapTest.size(), is(2));
+        assertThat(mapTest.keySet(), containsInAnyOrder("a", "null"));
+
+        // Enough inserts to resize the table several times.
+        for (int i = 0; i < 1000; i++)
+            mapTest.computeIfAbsent(Integer.toString(i), key -> "value" + key);
+        assertThat(mapTest.size(), is(1002));
+        for (int i = 0; i < 1000; i++)
+            assertThat(mapTest.get(Integer.toString(i)), is("value" + i));
+    }
+
+    @Test
+    public void computeModifyingMapTest() {
+        CompactHashMap<String, String> mapTest = new CompactHashMap<>();
+
+        // The functions resize the map before the result is stored, so the earlier probe can't be reused.
+        mapTest.computeIfAbsent("key", key -> {
+            for (int i = 0; i < 100; i++)
+                mapTest.put(Integer.toString(i), "value");
+            return "computed";
+        });
+        assertThat(mapTest.get("key"), is("computed"));
+        assertThat(mapTest.size(), is(101));
+
+        mapTest.computeIfPresent("key", (key, value) -> {
+            for (int i = 0; i < 100; i++)
+                mapTest.remove(Integer.toString(i));
+            return null;
+        });
+        assertThat(mapTest.containsKey("key"), is(false));
+        assertThat(mapTest.size(), is(0));
+    }
+
+    @Test
+    public void computeAddingAndRemovingWithoutResizeTest() {
+        // "Aa" and "BB" have the same hash code, so the function puts "BB" where the earlier probe for "Aa" ended. The
+        // function also removes a key, leaving the size and the table length as they were.
+        CompactHashMap<String, String> mapTest = new CompactHashMap<>();
+        for (int i = 0; i < 40; i++)
+            mapTest.put("k" + i, "v" + i);
+
+        mapTest.computeIfAbsent("Aa", key -> {
+            mapTest.put("BB", "b");
+            mapTest.remove("k0");
+            return "a";
+        });
+        assertThat(mapTest.size(), is(41));
+        assertThat(mapTest.get("Aa"), is("a"));
+        assertThat(mapTest.get("BB"), is("b"));
+        assertThat(mapTest.entrySet().size(), is(41));
+
+        Map<String, String> visited = new HashMap<>();
+        mapTest.forEach(visited::put);
+        assertThat(visited.size(), is(41));
+
+        mapTest.compute("Ca", (key, value) -> {
+            mapTest.put("DB", "d");
+            mapTest.remove("k1");
+            return "c";
+        });
+        assertThat(mapTest.get("Ca"), is("c"));
+        assertThat(mapTest.get("DB"), is("d"));
+        assertThat(mapTest.containsKey("k1"), is(false));
+
+        mapTest.computeIfPresent("Aa", (key, value) -> {
+            mapTest.put("Ee", "e");
+            mapTest.remove("k2");
+            return null;
+        });
+        assertThat(mapTest.containsKey("Aa"), is(false));
+        assertThat(mapTest.get("BB"), is("b"));
+        assertThat(mapTest.get("Ee"), is("e"));
+    }
+
+    @Test
+    public void allocationFreeIterationTest() {
+        CompactHashMap<String, String> mapTest = new CompactHashMap<>();
+        put(mapTest);
+
+        Map<String, String> visited = new HashMap<>();
+        mapTest.forEach(visited::put);
+        assertThat(visited, equalTo(mapTest));
+        assertThat(mapTest, equalTo(visited));
+        assertThat(mapTest.hashCode(), equalTo(visited.hashCode()));
+        assertThat(mapTest.containsValue("value3"), is(true));
+        assertThat(mapTest.containsValue("key3"), is(false));
+
+        CompactHashMap<String, String>.Cursor cursor = mapTest.cursor();
+        for (int pass = 0; pass < 2; pass++) {
+            Map<String, String> cursorVisited = new HashMap<>();
+            while (cursor.advance())
+                cursorVisited.put(cursor.key(), cursor.value());
+            assertThat(cursorVisited, equalTo(visited));
+            cursor.reset();
+        }
+
+        assertThat(cursor.advance(), is(true));
+        String key = cursor.key();
+        assertThat(cursor.setValue("cursor"), equalTo(visited.get(key)));
+        assertThat(mapTest.get(key), is("cursor"));
+
+        cursor.reset();
+        expect(cursor::key).toThrow(NoSuchElementException.class);
+
+        // Growing the map invalidates the cursor.
+        for (int i = 0; i < 100; i++)
+            mapTest.put(Integer.toString(i), "value");
+        expect(cursor::advance).toThrow(ConcurrentModificationException.class);
+        expect(() -> mapTest.forEach((k, v) -> mapTest.put(k + "_new", v))).toThrow(ConcurrentModificationException.class);
+
+        mapTest.replaceAll((k, v) -> k);
+        mapTest.forEach((k, v) -> assertThat(v, equalTo(k)));
+    }
+
+    @Test
+    public void keySetAndValuesTest() {
+        CompactHashMap<String, String> mapTest = new CompactHashMap<>();
+        put(mapTest);
+
+        Set<String> keys = mapTest.keySet();
+        Collection<String> values = mapTest.values();
+        assertThat(keys, hasSize(10));
+        assertThat(values, hasSize(10));
+        assertThat(keys.contains("key1"), is(true));
+        assertThat(values.contains("value1"), is(true));
+
+        List<String> visited = new ArrayList<>();
+        keys.forEach(visited::add);
+        assertThat(visited, containsInAnyOrder(keys.toArray()));
+
+        visited.clear();
+        values.forEach(visited::add);
+        assertThat(visited, containsInAnyOrder(values.toArray()));
+
+        assertThat(keys.remove("key1"), is(true));
+        assertThat(keys.remove("key1"), is(false));
+        assertThat(mapTest.containsKey("key1"), is(false));
+
+        Iterator<String> iterator = values.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().equals("value2"))
+                iterator.remove();
+        }
+        assertThat(mapTest.containsKey("key2"), is(false));
+        assertThat(mapTest.size(), is(8));
+        assertThat(keys, hasSize(8));
+
+        keys.clear();
+        assertThat(mapTest.isEmpty(), is(true));
+        assertThat(values, empty());
+    }
+
+    @Test
+    public void cachedHashesTest() {
+        CompactHashMap<String, String> mapTest = CompactHashMap.withCachedHashes();
+        put(mapTest);
+        get(mapTest);
+        remove(mapTest);
+        for (int i = 0; i < 1000; i++)
+            mapTest.computeIfAbsent(Integer.toString(i), key -> "value" + key);
+        for (int i = 0; i < 1000; i++)
+            assertThat(mapTest.get(Integer.toString(i)), is("value" + i));
+        mapTest.clear();
+        assertThat(mapTest.isEmpty(), is(true));
+        mapTest.put("a", "1");
+        assertThat(mapTest.get("a"), is("1"));
+
+        // Every key has a different hash, so looking up missing keys never needs equals.
+        CompactHashMap<CountingKey, Integer> counting = CompactHashMap.withCachedHashes();
+        for (int i = 0; i < 1000; i++)
+            counting.put(new CountingKey(i, i), i);
+
+        CountingKey.resetCounts();
+        for (int i = 1000; i < 2000; i++)
+            assertThat(counting.get(new CountingKey(i, i)), nullValue());
+        assertThat(CountingKey.equalsCalls, is(0));
+
+        // Resizing uses the stored hashes.
+        CountingKey.resetCounts();
+        counting.ensureCapacity(100000);
+        assertThat(CountingKey.hashCodeCalls, is(0));
+        assertThat(CountingKey.equalsCalls, is(0));
+        for (int i = 0; i < 1000; i++)
+            assertThat(counting.get(new CountingKey(i, i)), is(i));
+
+        // Keys with the same hash are still told apart by equals.
+        CompactHashMap<CountingKey, Integer> colliding = CompactHashMap.withCachedHashes();
+        for (int i = 0; i < 100; i++)
+            colliding.put(new CountingKey(i, 42), i);
+        for (int i = 0; i < 100; i++)
+            assertThat(colliding.get(new CountingKey(i, 42)), is(i));
+        assertThat(colliding.get(new CountingKey(100, 42)), nullValue());
+    }
+
     private void checkIsEmpty(CompactHashMap<String, String> mapTest) {
         assertThat(mapTest.size(), is(0));
     }
@@ -234,6 +519,63 @@ public class CompactHashMapTest {
         hashMap.remove("keyTest");
     }
 
+    @Test
+    public void tombstoneRehashTest() {
+        CompactHashMap<String, String> mapTest = new CompactHashMap<>();
+        for (int i = 0; i < 1000; i++)
+            mapTest.put("key" + i, "value" + i);
+
+        // Churning the keys would leave the table full of tombstones if they were never cleared.
+        for (int i = 1000; i < 100000; i++) {
+            mapTest.remove("key" + (i - 1000));
+            assertThat(mapTest.tombstoneRatio(), lessThanOrEqualTo(0.25));
+            mapTest.put("key" + i, "value" + i);
+            assertThat(mapTest.tombstoneRatio(), lessThanOrEqualTo(0.25));
+        }
+        assertThat(mapTest.size(), is(1000));
+
+        // Removing through an iterator leaves the tombstones until the next modification.
+        mapTest.keySet().removeIf(key -> !key.endsWith("0"));
+        assertThat(mapTest.size(), is(100));
+        assertThat(mapTest.tombstoneRatio(), greaterThan(0.25));
+        mapTest.put("another", "value");
+        assertThat(mapTest.tombstoneRatio(), is(0.0));
+
+        // Or until the map is compacted.
+        mapTest.entrySet().removeIf(entry -> !entry.getKey().endsWith("00"));
+        assertThat(mapTest.tombstoneRatio(), greaterThan(0.0));
+        mapTest.compact();
+        assertThat(mapTest.tombstoneRatio(), is(0.0));
+        assertThat(mapTest.size(), is(10));
+        for (int i = 99000; i < 100000; i++)
+            assertThat(mapTest.get("key" + i), i % 100 == 0 ? equalTo("value" + i) : nullValue());
+    }
+
+    @Test
+    public void collidingKeysTest() {
+        String[] keys = CollidingStrings.generate(12);
+        assertThat(keys[0].hashCode(), equalTo(keys[keys.length - 1].hashCode()));
+
+        for (CompactHashMap<String, Integer> mapTest : Arrays.asList(new CompactHashMap<String, Integer>(), CompactHashMap.<String, Integer>withCachedHashes())) {
+            for (int i = 0; i < keys.length; i++)
+                mapTest.put(keys[i], i);
+
+            // Without hashing the strings by their characters every key would share one probe sequence.
+            int maxProbeLength = 0;
+            for (int i = 0; i < keys.length; i++) {
+                assertThat(mapTest.get(keys[i]), equalTo(i));
+                maxProbeLength = Math.max(maxProbeLength, mapTest.probeLength(keys[i]));
+            }
+            assertThat(maxProbeLength, lessThanOrEqualTo(64));
+
+            for (int i = 0; i < keys.length; i += 2)
+                mapTest.remove(keys[i]);
+            assertThat(mapTest.size(), equalTo(keys.length / 2));
+            for (int i = 0; i < keys.length; i++)
+                assertThat(mapTest.get(keys[i]), i % 2 == 0 ? nullValue() : equalTo(i));
+        }
+    }
+
     private void clear(CompactHashMap<String, String> mapTest) {
         mapTest.clear();
         assertThat(mapTest.size(), is(0));
@@ -12,6 +12,7 @@ import org.junit.jupiter.api.Test;
 
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.stream.IntStream;
 
@@ -101,6 +102,60 @@ public class CompactHashSetTest {
         equalsSet(hashSet);
     }
 
+    @Test
+    public void ensureCapacityTest() {
+        CompactHashSet<String> hashSet = new CompactHashSet<>();
+        hashSet.add("a");
+        hashSet.add("b");
+
+        hashSet.ensureCapacity(1000);
+        assertThat(hashSet, containsInAnyOrder("a", "b"));
+
+        IntStream.range(0, 1000).forEach(i -> hashSet.add(Integer.toString(i)));
+        assertThat(hashSet.size(), is(1002));
+        IntStream.range(0, 1000).forEach(i -> assertThat(hashSet.contains(Integer.toString(i)), is(true)));
+
+        // Never shrinks the table.
+        hashSet.ensureCapacity(0);
+        assertThat(hashSet.size(), is(1002));
+        assertThat(hashSet.contains("a"), is(true));
+    }
+
+    @Test
+    public void cachedHashesTest() {
+        CompactHashSet<String> hashSet = CompactHashSet.withCachedHashes();
+        ArrayList<String> arrayList = new ArrayList<>();
+        add(hashSet, arrayList);
+        contains(hashSet, arrayList);
+        for (String item : new ArrayList<>(hashSet))
+            assertThat(hashSet.remove(item), is(true));
+        checkIsEmpty(hashSet);
+
+        // Every item has a different hash, so looking up missing items never needs equals.
+        CompactHashSet<CountingKey> counting = CompactHashSet.withCachedHashes();
+        for (int i = 0; i < 1000; i++)
+            counting.add(new CountingKey(i, i));
+
+        CountingKey.resetCounts();
+        for (int i = 1000; i < 2000; i++)
+            assertThat(counting.contains(new CountingKey(i, i)), is(false));
+        assertThat(CountingKey.equalsCalls, is(0));
+
+        // Resizing uses the stored hashes.
+        CountingKey.resetCounts();
+        counting.ensureCapacity(100000);
+        assertThat(CountingKey.hashCodeCalls, is(0));
+        for (int i = 0; i < 1000; i++)
+            assertThat(counting.contains(new CountingKey(i, i)), is(true));
+
+        // Items with the same hash are still told apart by equals.
+        CompactHashSet<CountingKey> colliding = CompactHashSet.withCachedHashes();
+        for (int i = 0; i < 100; i++)
+            colliding.add(new CountingKey(i, 42));
+        assertThat(colliding.size(), is(100));
+        assertThat(colliding.contains(new CountingKey(100, 42)), is(false));
+    }
+
     @Test
     public void obscureEdgeCaseCoverage() {
         CompactHashSet<Integer> ints = new CompactHashSet<>();
@@ -143,6 +198,65 @@ public class CompactHashSetTest {
         });
     }
 
+    @Test
+    public void tombstoneRehashTest() {
+        CompactHashSet<String> hashSet = new CompactHashSet<>();
+        for (int i = 0; i < 1000; i++)
+            hashSet.add("item" + i);
+
+        for (int i = 1000; i < 100000; i++) {
+            hashSet.remove("item" + (i - 1000));
+            assertThat(hashSet.tombstoneRatio(), lessThanOrEqualTo(0.25));
+            hashSet.add("item" + i);
+            assertThat(hashSet.tombstoneRatio(), lessThanOrEqualTo(0.25));
+        }
+        assertThat(hashSet.size(), is(1000));
+
+        hashSet.removeIf(item -> !item.endsWith("0"));
+        assertThat(hashSet.size(), is(100));
+        assertThat(hashSet.tombstoneRatio(), greaterThan(0.25));
+
+        hashSet.compact();
+        assertThat(hashSet.tombstoneRatio(), is(0.0));
+        for (int i = 99000; i < 100000; i++)
+            assertThat(hashSet.contains("item" + i), is(i % 10 == 0));
+    }
+
+    @Test
+    public void collidingItemsTest() {
+        String[] items = CollidingStrings.generate(12);
+
+        for (CompactHashSet<String> setTest : Arrays.asList(new CompactHashSet<String>(), CompactHashSet.<String>withCachedHashes())) {
+            for (String item : items)
+                assertThat(setTest.add(item), equalTo(true));
+
+            // Without hashing the strings by their characters every item would share one probe sequence.
+            int maxProbeLength = 0;
+            for (String item : items) {
+                assertThat(setTest.contains(item), equalTo(true));
+                maxProbeLength = Math.max(maxProbeLength, setTest.probeLength(item));
+            }
+            assertThat(maxProbeLength, lessThanOrEqualTo(64));
+            assertThat(setTest.size(), equalTo(items.length));
+        }
+    }
+
+    @Test
+    public void expectedSizeAndTrimToSizeTest() {
+        CompactHashSet<String> hashSet = new CompactHashSet<>(1000);
+        for (int i = 0; i < 1000; i++)
+            hashSet.add(Integer.toString(i));
+        assertThat(hashSet.size(), is(1000));
+
+        hashSet.removeIf(item -> !item.startsWith("9"));
+        assertThat(hashSet.tombstoneRatio(), greaterThan(0.0));
+        hashSet.trimToSize();
+        assertThat(hashSet.tombstoneRatio(), is(0.0));
+        assertThat(hashSet.size(), is(111));
+        for (int i = 0; i < 1000; i++)
+            assertThat(hashSet.contains(Integer.toString(i)), is(Integer.toString(i).startsWith("9")));
+    }
+
     static private int hash(@Nullable Object obj) {
         int h;
         return (obj == null) ? 0 : (h = obj.hashCode()) ^ (h >>> 16);
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import javax.annotation.Nullable;
+
+/**
+ * A key with a chosen hash code that counts the calls to hashCode and equals made on all keys.
+ */
+class CountingKey {
+
+    static int hashCodeCalls;
+    static int equalsCalls;
+
+    private final int id;
+    private final int hash;
+
+    CountingKey(int id, int hash) {
+        this.id = id;
+        this.hash = hash;
+    }
+
+    static void resetCounts() {
+        hashCodeCalls = 0;
+        equalsCalls = 0;
+    }
+
+    @Override
+    public int hashCode() {
+        ++hashCodeCalls;
+        return hash;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        ++equalsCalls;
+        return (o instanceof CountingKey) && ((CountingKey) o).id == id;
+    }
+
+}
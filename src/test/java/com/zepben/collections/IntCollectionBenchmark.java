@@ -0,0 +1,222 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link IntObjectMap} and {@link IntSet} with a {@link CompactHashMap} and {@link CompactHashSet} of boxed
+ * Integers.
+ * <p>
+ * The keys are spread over the whole int range, so almost none of them come from the Integer cache and each boxed key is
+ * a separate object that lookups have to follow. Each implementation only sees one kind of collection per fork, so the
+ * calls through {@link Ints} are monomorphic.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class IntCollectionBenchmark {
+
+    @Param({"1000", "1000000"})
+    public int size;
+
+    @Param
+    public Implementation implementation;
+
+    private int[] keys = new int[0];
+    private int[] missingKeys = new int[0];
+    private Ints populated = Implementation.INT_OBJECT_MAP.create(0);
+    private int next;
+
+    /**
+     * The operations each collection under test supports.
+     */
+    interface Ints {
+
+        void put(int key);
+
+        boolean contains(int key);
+
+        long sumKeys();
+
+    }
+
+    /**
+     * The collections under test.
+     */
+    public enum Implementation {
+
+        INT_OBJECT_MAP {
+            @Override
+            Ints create(int expectedSize) {
+                IntObjectMap<Object> map = new IntObjectMap<>(expectedSize);
+                return new Ints() {
+                    @Override
+                    public void put(int key) {
+                        map.put(key, VALUE);
+                    }
+
+                    @Override
+                    public boolean contains(int key) {
+                        return map.get(key) != null;
+                    }
+
+                    @Override
+                    public long sumKeys() {
+                        long[] sum = new long[1];
+                        map.forEachKey(key -> sum[0] += key);
+                        return sum[0];
+                    }
+                };
+            }
+        },
+        BOXED_COMPACT_HASH_MAP {
+            @Override
+            Ints create(int expectedSize) {
+                Map<Integer, Object> map = new CompactHashMap<>(expectedSize);
+                return new Ints() {
+                    @Override
+                    public void put(int key) {
+                        map.put(key, VALUE);
+                    }
+
+                    @Override
+                    public boolean contains(int key) {
+                        return map.get(key) != null;
+                    }
+
+                    @Override
+                    public long sumKeys() {
+                        long[] sum = new long[1];
+                        map.forEach((key, value) -> sum[0] += key);
+                        return sum[0];
+                    }
+                };
+            }
+        },
+        INT_SET {
+            @Override
+            Ints create(int expectedSize) {
+                IntSet set = new IntSet(expectedSize);
+                return new Ints() {
+                    @Override
+                    public void put(int key) {
+                        set.add(key);
+                    }
+
+                    @Override
+                    public boolean contains(int key) {
+                        return set.contains(key);
+                    }
+
+                    @Override
+                    public long sumKeys() {
+                        long[] sum = new long[1];
+                        set.forEach(key -> sum[0] += key);
+                        return sum[0];
+                    }
+                };
+            }
+        },
+        BOXED_COMPACT_HASH_SET {
+            @Override
+            Ints create(int expectedSize) {
+                CompactHashSet<Integer> set = new CompactHashSet<>(expectedSize);
+                return new Ints() {
+                    @Override
+                    public void put(int key) {
+                        set.add(key);
+                    }
+
+                    @Override
+                    public boolean contains(int key) {
+                        return set.contains(key);
+                    }
+
+                    @Override
+                    public long sumKeys() {
+                        long sum = 0;
+                        for (int key : set)
+                            sum += key;
+                        return sum;
+                    }
+                };
+            }
+        };
+
+        private static final Object VALUE = new Object();
+
+        abstract Ints create(int expectedSize);
+
+    }
+
+    @Setup(Level.Trial)
+    public void populate() {
+        Random random = new Random(1);
+        keys = random.ints().distinct().limit(size * 2L).toArray();
+        missingKeys = new int[size];
+        System.arraycopy(keys, size, missingKeys, 0, size);
+
+        populated = implementation.create(size);
+        for (int i = 0; i < size; i++)
+            populated.put(keys[i]);
+    }
+
+    /**
+     * Looks up a key in the collection.
+     */
+    @Benchmark
+    public boolean getHit() {
+        return populated.contains(keys[nextIndex()]);
+    }
+
+    /**
+     * Looks up a key that isn't in the collection.
+     */
+    @Benchmark
+    public boolean getMiss() {
+        return populated.contains(missingKeys[nextIndex()]);
+    }
+
+    /**
+     * Builds a collection of all the keys, starting from the default size so the time includes growing it.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Ints build() {
+        Ints ints = implementation.create(0);
+        for (int i = 0; i < size; i++)
+            ints.put(keys[i]);
+        return ints;
+    }
+
+    /**
+     * Iterates over every key, unboxing them for the boxed collections.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long forEach() {
+        return populated.sumKeys();
+    }
+
+    // Steps through the keys by a large prime, which visits them all in a scattered order.
+    private int nextIndex() {
+        next = (int) ((next + 1_000_003L) % size);
+        return next;
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class IntIntMapTest {
+
+    @Test
+    public void putGetAndRemoveTest() {
+        IntIntMap mapTest = new IntIntMap();
+        assertThat(mapTest.isEmpty(), is(true));
+
+        for (int i = -500; i < 500; i++)
+            assertThat(mapTest.put(i, i * 2), is(true));
+        assertThat(mapTest.put(7, 70), is(false));
+        assertThat(mapTest.size(), is(1000));
+
+        for (int i = -500; i < 500; i++)
+            assertThat(mapTest.getOrDefault(i, -1), is(i == 7 ? 70 : i * 2));
+        assertThat(mapTest.getOrDefault(1000, -1), is(-1));
+
+        assertThat(mapTest.putIfAbsent(7, 1), is(false));
+        assertThat(mapTest.putIfAbsent(1000, 1), is(true));
+        assertThat(mapTest.getOrDefault(1000, -1), is(1));
+
+        assertThat(mapTest.remove(0), is(true));
+        assertThat(mapTest.remove(0), is(false));
+        assertThat(mapTest.getOrDefault(0, -1), is(-1));
+        assertThat(mapTest.remove(1000), is(true));
+        assertThat(mapTest.size(), is(999));
+
+        mapTest.clear();
+        assertThat(mapTest.isEmpty(), is(true));
+        assertThat(mapTest.containsKey(1), is(false));
+    }
+
+    @Test
+    public void addToTest() {
+        IntIntMap mapTest = new IntIntMap();
+        for (int i = 0; i < 1000; i++)
+            mapTest.addTo(i % 10, 1);
+
+        assertThat(mapTest.size(), is(10));
+        for (int i = 0; i < 10; i++)
+            assertThat(mapTest.getOrDefault(i, -1), is(100));
+        assertThat(mapTest.addTo(0, -100), is(0));
+        assertThat(mapTest.containsKey(0), is(true));
+    }
+
+    @Test
+    public void matchesHashMapUnderChurnTest() {
+        Random random = new Random(1);
+        for (int bound : new int[]{10, 2000}) {
+            IntIntMap mapTest = new IntIntMap();
+            Map<Integer, Integer> expected = new HashMap<>();
+            for (int i = 0; i < 100000; i++) {
+                int key = random.nextInt(bound) - bound / 2;
+                switch (random.nextInt(3)) {
+                    case 0:
+                        assertThat(mapTest.put(key, i), equalTo(expected.put(key, i) == null));
+                        break;
+                    case 1:
+                        assertThat(mapTest.addTo(key, i), equalTo(expected.merge(key, i, Integer::sum)));
+                        break;
+                    default:
+                        assertThat(mapTest.remove(key), equalTo(expected.remove(key) != null));
+                        break;
+                }
+            }
+
+            Map<Integer, Integer> actual = new HashMap<>();
+            mapTest.forEach(actual::put);
+            assertThat(actual, equalTo(expected));
+            assertThat(mapTest.size(), equalTo(expected.size()));
+        }
+    }
+
+    @Test
+    public void forEachTest() {
+        IntIntMap mapTest = new IntIntMap();
+        mapTest.put(0, 10);
+        mapTest.put(1, 11);
+
+        int[] sum = new int[1];
+        mapTest.forEach((key, value) -> sum[0] += key + value);
+        assertThat(sum[0], is(22));
+        assertThat(mapTest.toString(), containsString("0=10"));
+        assertThat(mapTest.toString(), containsString("1=11"));
+
+        expect(() -> mapTest.forEach((key, value) -> mapTest.put(key + 10, value))).toThrow(ConcurrentModificationException.class);
+        expect(() -> mapTest.forEachKey(mapTest::remove)).toThrow(ConcurrentModificationException.class);
+    }
+
+    @Test
+    public void expectedSizeAndTrimToSizeTest() {
+        IntIntMap mapTest = new IntIntMap(1000);
+        for (int i = 0; i < 1000; i++)
+            mapTest.put(i, i);
+
+        for (int i = 0; i < 1000; i++) {
+            if (i % 10 != 0)
+                mapTest.remove(i);
+        }
+        mapTest.trimToSize();
+        mapTest.ensureCapacity(2000);
+        assertThat(mapTest.size(), is(100));
+        for (int i = 0; i < 1000; i++)
+            assertThat(mapTest.getOrDefault(i, -1), is(i % 10 == 0 ? i : -1));
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class IntObjectMapTest {
+
+    @Test
+    public void putGetAndRemoveTest() {
+        IntObjectMap<String> mapTest = new IntObjectMap<>();
+        assertThat(mapTest.isEmpty(), is(true));
+
+        for (int i = -500; i < 500; i++)
+            assertThat(mapTest.put(i, "value" + i), nullValue());
+        assertThat(mapTest.size(), is(1000));
+
+        for (int i = -500; i < 500; i++) {
+            assertThat(mapTest.get(i), is("value" + i));
+            assertThat(mapTest.containsKey(i), is(true));
+        }
+        assertThat(mapTest.get(1000), nullValue());
+        assertThat(mapTest.getOrDefault(1000, "default"), is("default"));
+
+        // 0 is held outside the table, so check it like any other key.
+        assertThat(mapTest.put(0, "zero"), is("value0"));
+        assertThat(mapTest.get(0), is("zero"));
+        assertThat(mapTest.remove(0), is("zero"));
+        assertThat(mapTest.containsKey(0), is(false));
+        assertThat(mapTest.getOrDefault(0, "default"), is("default"));
+        assertThat(mapTest.remove(0), nullValue());
+        assertThat(mapTest.size(), is(999));
+
+        for (int i = -500; i < 500; i += 2)
+            mapTest.remove(i);
+        for (int i = -500; i < 500; i++)
+            assertThat(mapTest.containsKey(i), is(i % 2 != 0));
+
+        mapTest.clear();
+        assertThat(mapTest.isEmpty(), is(true));
+        assertThat(mapTest.get(1), nullValue());
+    }
+
+    @Test
+    public void matchesHashMapUnderChurnTest() {
+        Random random = new Random(1);
+        for (int bound : new int[]{10, 2000}) {
+            IntObjectMap<Integer> mapTest = new IntObjectMap<>();
+            Map<Integer, Integer> expected = new HashMap<>();
+            for (int i = 0; i < 100000; i++) {
+                int key = random.nextInt(bound) - bound / 2;
+                switch (random.nextInt(3)) {
+                    case 0:
+                        assertThat(mapTest.put(key, i), equalTo(expected.put(key, i)));
+                        break;
+                    case 1:
+                        assertThat(mapTest.putIfAbsent(key, i), equalTo(expected.putIfAbsent(key, i)));
+                        break;
+                    default:
+                        assertThat(mapTest.remove(key), equalTo(expected.remove(key)));
+                        break;
+                }
+            }
+
+            Map<Integer, Integer> actual = new HashMap<>();
+            mapTest.forEach(actual::put);
+            assertThat(actual, equalTo(expected));
+            assertThat(mapTest.size(), equalTo(expected.size()));
+        }
+    }
+
+    @Test
+    public void computeIfAbsentTest() {
+        IntObjectMap<String> mapTest = new IntObjectMap<>();
+
+        assertThat(mapTest.computeIfAbsent(1, Integer::toString), is("1"));
+        assertThat(mapTest.computeIfAbsent(1, k -> "other"), is("1"));
+        assertThat(mapTest.computeIfAbsent(0, Integer::toString), is("0"));
+        assertThat(mapTest.computeIfAbsent(2, k -> null), nullValue());
+        assertThat(mapTest.containsKey(2), is(false));
+
+        // The function growing the map moves the items, so the value must be put rather than stored in the stale slot.
+        assertThat(mapTest.computeIfAbsent(3, k -> {
+            for (int i = 100; i < 200; i++)
+                mapTest.put(i, "value");
+            return "3";
+        }), is("3"));
+        assertThat(mapTest.get(3), is("3"));
+        assertThat(mapTest.size(), is(103));
+    }
+
+    @Test
+    public void forEachTest() {
+        IntObjectMap<String> mapTest = new IntObjectMap<>();
+        mapTest.put(0, "zero");
+        mapTest.put(1, "one");
+        mapTest.put(-1, "minus one");
+
+        List<Integer> keys = new ArrayList<>();
+        mapTest.forEachKey(keys::add);
+        assertThat(keys, containsInAnyOrder(0, 1, -1));
+        assertThat(mapTest.toString(), containsString("0=zero"));
+        assertThat(mapTest.toString(), containsString("-1=minus one"));
+
+        expect(() -> mapTest.forEach((key, value) -> mapTest.put(key + 10, value))).toThrow(ConcurrentModificationException.class);
+        expect(() -> mapTest.forEachKey(mapTest::remove)).toThrow(ConcurrentModificationException.class);
+    }
+
+    @Test
+    public void expectedSizeAndTrimToSizeTest() {
+        IntObjectMap<String> mapTest = new IntObjectMap<>(1000);
+        for (int i = 0; i < 1000; i++)
+            mapTest.put(i, "value" + i);
+
+        for (int i = 0; i < 1000; i++) {
+            if (i % 10 != 0)
+                mapTest.remove(i);
+        }
+        mapTest.trimToSize();
+        mapTest.ensureCapacity(2000);
+        assertThat(mapTest.size(), is(100));
+        for (int i = 0; i < 1000; i++)
+            assertThat(mapTest.get(i), i % 10 == 0 ? is("value" + i) : nullValue());
+    }
+
+}
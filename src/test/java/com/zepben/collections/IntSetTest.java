@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class IntSetTest {
+
+    @Test
+    public void addContainsAndRemoveTest() {
+        IntSet setTest = new IntSet();
+        assertThat(setTest.isEmpty(), is(true));
+
+        for (int i = -500; i < 500; i++)
+            assertThat(setTest.add(i), is(true));
+        assertThat(setTest.add(0), is(false));
+        assertThat(setTest.add(7), is(false));
+        assertThat(setTest.size(), is(1000));
+
+        for (int i = -500; i < 500; i++)
+            assertThat(setTest.contains(i), is(true));
+        assertThat(setTest.contains(500), is(false));
+
+        for (int i = -500; i < 500; i += 2)
+            assertThat(setTest.remove(i), is(true));
+        assertThat(setTest.remove(0), is(false));
+        for (int i = -500; i < 500; i++)
+            assertThat(setTest.contains(i), is(i % 2 != 0));
+
+        setTest.clear();
+        assertThat(setTest.isEmpty(), is(true));
+    }
+
+    @Test
+    public void matchesHashSetUnderChurnTest() {
+        Random random = new Random(1);
+        for (int bound : new int[]{10, 2000}) {
+            IntSet setTest = new IntSet();
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 0; i < 100000; i++) {
+                int item = random.nextInt(bound) - bound / 2;
+                if (random.nextBoolean())
+                    assertThat(setTest.add(item), equalTo(expected.add(item)));
+                else
+                    assertThat(setTest.remove(item), equalTo(expected.remove(item)));
+            }
+
+            Set<Integer> actual = new HashSet<>();
+            setTest.forEach(actual::add);
+            assertThat(actual, equalTo(expected));
+            assertThat(setTest.size(), equalTo(expected.size()));
+
+            List<Integer> array = new ArrayList<>();
+            for (int item : setTest.toArray())
+                array.add(item);
+            assertThat(array, containsInAnyOrder(expected.toArray()));
+        }
+    }
+
+    @Test
+    public void forEachTest() {
+        IntSet setTest = new IntSet();
+        setTest.add(0);
+        setTest.add(1);
+        assertThat(setTest.toString(), is("[0, 1]"));
+
+        expect(() -> setTest.forEach(item -> setTest.add(item + 10))).toThrow(ConcurrentModificationException.class);
+        expect(() -> setTest.forEach(setTest::remove)).toThrow(ConcurrentModificationException.class);
+    }
+
+    @Test
+    public void expectedSizeAndTrimToSizeTest() {
+        IntSet setTest = new IntSet(1000);
+        for (int i = 0; i < 1000; i++)
+            setTest.add(i);
+
+        for (int i = 0; i < 1000; i++) {
+            if (i % 10 != 0)
+                setTest.remove(i);
+        }
+        setTest.trimToSize();
+        setTest.ensureCapacity(2000);
+        assertThat(setTest.size(), is(100));
+        for (int i = 0; i < 1000; i++)
+            assertThat(setTest.contains(i), is(i % 10 == 0));
+    }
+
+}
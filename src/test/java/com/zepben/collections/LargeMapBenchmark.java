@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares lookups in maps far larger than the CPU caches, the size of the maps of cores and ids in a large correlator.
+ * <p>
+ * The keys are looked up in a scattered order, so most lookups miss the cache for each slot or node they read. The
+ * difference between the maps is mostly in how many slots they read and how many of the keys in those slots they have
+ * to compare.
+ * </p>
+ * <p>
+ * The 100 million entry maps need most of the 24GB heap. Run a subset with, e.g.
+ * mvn -P benchmark -DskipTests verify -Djmh.args="LargeMapBenchmark -p size=1000000,10000000"
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms24g", "-Xmx24g"})
+@State(Scope.Thread)
+public class LargeMapBenchmark {
+
+    @Param({"1000000", "10000000", "100000000"})
+    public int size;
+
+    @Param
+    public Implementation implementation;
+
+    private String[] keys = new String[0];
+    private Map<String, Object> populated = new HashMap<>();
+    private int next;
+
+    /**
+     * The maps under test.
+     */
+    public enum Implementation {
+
+        COMPACT_HASH_MAP {
+            @Override
+            Map<String, Object> create(int expectedSize) {
+                return new CompactHashMap<>(expectedSize);
+            }
+        },
+        SWISS_HASH_MAP {
+            @Override
+            Map<String, Object> create(int expectedSize) {
+                return new SwissHashMap<>(expectedSize);
+            }
+        },
+        HASH_MAP {
+            @Override
+            Map<String, Object> create(int expectedSize) {
+                return new HashMap<>((int) (expectedSize / 0.75f) + 1);
+            }
+        };
+
+        abstract Map<String, Object> create(int expectedSize);
+
+    }
+
+    @Setup(Level.Trial)
+    public void populate() {
+        keys = new String[size];
+        for (int i = 0; i < size; i++)
+            keys[i] = "id_" + i;
+
+        populated = implementation.create(size);
+        for (String key : keys)
+            populated.put(key, key);
+    }
+
+    /**
+     * Looks up a key in the map.
+     */
+    @Benchmark
+    public Object getHit() {
+        return populated.get(keys[nextIndex()]);
+    }
+
+    /**
+     * Looks up a key that isn't in the map. The key is built for each lookup, so the time includes hashing it.
+     */
+    @Benchmark
+    public Object getMiss() {
+        return populated.get("missing_" + nextIndex());
+    }
+
+    // Steps through the keys by a large prime, which visits them all in a scattered order.
+    private int nextIndex() {
+        next = (int) ((next + 1_000_003L) % size);
+        return next;
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the probe lengths of the hash maps under churn, where a map of a fixed size has its oldest key removed and a
+ * new key added by every operation, as when ids are repeatedly removed and re-added to a correlator.
+ * <p>
+ * The "hitSlots" and "missSlots" secondary results of the probeLengths benchmark are the rate of slots examined by
+ * lookups that hit and miss, so dividing them by the operation rate gives the mean probe length of each.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class ProbeLengthBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param
+    public Implementation implementation;
+
+    private String[] keys = new String[0];
+    private Map<String, Object> map = new CompactHashMap<>();
+    private int next;
+
+    /**
+     * The maps under test, with access to their probe lengths.
+     */
+    public enum Implementation {
+
+        COMPACT_HASH_MAP {
+            @Override
+            Map<String, Object> create() {
+                return new CompactHashMap<>();
+            }
+
+            @Override
+            int probeLength(Map<String, Object> map, String key) {
+                return ((CompactHashMap<String, Object>) map).probeLength(key);
+            }
+        },
+        COMPACT_HASH_MAP_CACHED_HASHES {
+            @Override
+            Map<String, Object> create() {
+                return CompactHashMap.withCachedHashes();
+            }
+
+            @Override
+            int probeLength(Map<String, Object> map, String key) {
+                return ((CompactHashMap<String, Object>) map).probeLength(key);
+            }
+        },
+        ROBIN_HOOD_HASH_MAP {
+            @Override
+            Map<String, Object> create() {
+                return new RobinHoodHashMap<>();
+            }
+
+            @Override
+            int probeLength(Map<String, Object> map, String key) {
+                return ((RobinHoodHashMap<String, Object>) map).probeLength(key);
+            }
+        };
+
+        abstract Map<String, Object> create();
+
+        abstract int probeLength(Map<String, Object> map, String key);
+
+    }
+
+    /**
+     * Counts the slots examined by lookups, which JMH reports as a rate alongside the operations.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Slots {
+
+        public long hitSlots;
+        public long missSlots;
+
+    }
+
+    @Setup(Level.Trial)
+    public void populate() {
+        // The keys cycle, so the map always holds a window of a quarter of them.
+        keys = new String[size * 4];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = "ZONE-SUB-FDR-" + String.format("%09d", i);
+
+        map = implementation.create();
+        for (next = 0; next < size; next++)
+            map.put(keys[next], keys[next]);
+
+        // Churn through the keys once before measuring, so tables with tombstones reach their steady state.
+        for (int i = 0; i < keys.length; i++)
+            churn();
+    }
+
+    /**
+     * Replaces the oldest key, then looks up a key that is present and one that is not.
+     */
+    @Benchmark
+    public Object churnAndLookup() {
+        churn();
+        map.get(hitKey());
+        return map.get(missKey());
+    }
+
+    /**
+     * Replaces the oldest key, then counts the slots examined looking up a key that is present and one that is not.
+     */
+    @Benchmark
+    public Object probeLengths(Slots slots) {
+        Object result = churn();
+        slots.hitSlots += implementation.probeLength(map, hitKey());
+        slots.missSlots += implementation.probeLength(map, missKey());
+        return result;
+    }
+
+    private Object churn() {
+        map.remove(keys[(next - size) % keys.length]);
+        String key = keys[next % keys.length];
+        next = (next + 1) % keys.length + keys.length;
+        return map.put(key, key);
+    }
+
+    private String hitKey() {
+        return keys[(next - size / 2) % keys.length];
+    }
+
+    private String missKey() {
+        return keys[(next + size) % keys.length];
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class RobinHoodHashSetTest {
+
+    @Test
+    public void addContainsAndRemoveTest() {
+        RobinHoodHashSet<String> setTest = new RobinHoodHashSet<>();
+        assertThat(setTest.isEmpty(), is(true));
+
+        for (int i = 0; i < 1000; i++)
+            assertThat(setTest.add("item" + i), is(true));
+        assertThat(setTest.add("item1"), is(false));
+        assertThat(setTest.size(), is(1000));
+
+        for (int i = 0; i < 1000; i += 2)
+            assertThat(setTest.remove("item" + i), is(true));
+        assertThat(setTest.remove("item0"), is(false));
+        assertThat(setTest.size(), is(500));
+
+        for (int i = 0; i < 1000; i++)
+            assertThat(setTest.contains("item" + i), is(i % 2 == 1));
+
+        setTest.clear();
+        assertThat(setTest.isEmpty(), is(true));
+        assertThat(setTest.contains("item1"), is(false));
+    }
+
+    @Test
+    public void matchesHashSetUnderChurnTest() {
+        RobinHoodHashSet<Integer> setTest = new RobinHoodHashSet<>();
+        Set<Integer> expected = new HashSet<>();
+
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            int item = random.nextInt(2000);
+            if (random.nextBoolean())
+                assertThat(setTest.add(item), is(expected.add(item)));
+            else
+                assertThat(setTest.remove(item), is(expected.remove(item)));
+        }
+
+        assertThat(setTest, equalTo(expected));
+    }
+
+    @Test
+    public void collidingItemsTest() {
+        RobinHoodHashSet<CountingKey> setTest = new RobinHoodHashSet<>();
+        List<CountingKey> items = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            items.add(new CountingKey(i, i < 25 ? 7 : 8));
+            setTest.add(items.get(i));
+        }
+
+        for (int i = 0; i < 50; i += 3)
+            setTest.remove(items.get(i));
+
+        for (int i = 0; i < 50; i++)
+            assertThat(setTest.contains(items.get(i)), is(i % 3 != 0));
+    }
+
+    @Test
+    public void noTombstonesAfterChurnTest() {
+        RobinHoodHashSet<String> setTest = new RobinHoodHashSet<>();
+        for (int i = 0; i < 1000; i++)
+            setTest.add("item" + i);
+
+        for (int i = 1000; i < 100000; i++) {
+            setTest.remove("item" + (i - 1000));
+            setTest.add("item" + i);
+        }
+
+        int longest = 0;
+        for (int i = 0; i < 1000; i++)
+            longest = Math.max(longest, setTest.probeLength("missing" + i));
+        assertThat(longest, lessThan(64));
+    }
+
+    @Test
+    public void iteratorRemoveTest() {
+        RobinHoodHashSet<Integer> setTest = new RobinHoodHashSet<>();
+        for (int i = 0; i < 1000; i++)
+            setTest.add(i);
+
+        Set<Integer> seen = new HashSet<>();
+        Iterator<Integer> iterator = setTest.iterator();
+        while (iterator.hasNext()) {
+            Integer item = iterator.next();
+            assertThat(seen.add(item), is(true));
+            if (item % 2 == 0)
+                iterator.remove();
+        }
+
+        assertThat(seen.size(), is(1000));
+        assertThat(setTest.size(), is(500));
+        for (int i = 0; i < 1000; i++)
+            assertThat(setTest.contains(i), is(i % 2 == 1));
+
+        expect(() -> {
+            Iterator<Integer> it = setTest.iterator();
+            it.next();
+            it.remove();
+            it.remove();
+        }).toThrow(IllegalStateException.class);
+    }
+
+    @Test
+    public void concurrentModificationTest() {
+        RobinHoodHashSet<String> setTest = new RobinHoodHashSet<>();
+        setTest.add("a");
+        setTest.add("b");
+
+        expect(() -> {
+            for (String item : setTest)
+                setTest.add(item + item);
+        }).toThrow(ConcurrentModificationException.class);
+        expect(() -> setTest.forEach(setTest::remove)).toThrow(ConcurrentModificationException.class);
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class SmallHashMapTest {
+
+    @Test
+    public void inlineMapTest() {
+        SmallHashMap<String, String> mapTest = new SmallHashMap<>();
+        assertThat(mapTest.isEmpty(), is(true));
+        assertThat(mapTest.get("a"), nullValue());
+
+        for (int i = 0; i < 8; i++)
+            assertThat(mapTest.put("key" + i, "value" + i), nullValue());
+        assertThat(mapTest.put("key1", "other"), is("value1"));
+        assertThat(mapTest.size(), is(8));
+        assertThat(mapTest.get("key1"), is("other"));
+        assertThat(mapTest.getOrDefault("missing", "default"), is("default"));
+
+        // Items are kept in the order they were added while inline.
+        assertThat(new ArrayList<>(mapTest.keySet()), contains("key0", "key1", "key2", "key3", "key4", "key5", "key6", "key7"));
+
+        assertThat(mapTest.remove("key3"), is("value3"));
+        assertThat(mapTest.remove("key3"), nullValue());
+        assertThat(mapTest.containsKey("key3"), is(false));
+        assertThat(new ArrayList<>(mapTest.values()), contains("value0", "other", "value2", "value4", "value5", "value6", "value7"));
+
+        mapTest.clear();
+        assertThat(mapTest.isEmpty(), is(true));
+    }
+
+    @Test
+    public void switchesToHashedTest() {
+        SmallHashMap<String, String> mapTest = new SmallHashMap<>(1);
+        Set<String> keys = mapTest.keySet();
+        Collection<String> values = mapTest.values();
+
+        for (int i = 0; i < 100; i++)
+            mapTest.put("key" + i, "value" + i);
+
+        // The views are still valid after the map switches.
+        assertThat(mapTest.size(), is(100));
+        assertThat(keys.size(), is(100));
+        assertThat(keys.contains("key99"), is(true));
+        assertThat(values, hasItem("value50"));
+        for (int i = 0; i < 100; i++)
+            assertThat(mapTest.get("key" + i), is("value" + i));
+
+        keys.removeIf(key -> !key.endsWith("0"));
+        assertThat(mapTest.size(), is(10));
+
+        Map<String, String> expected = new HashMap<>();
+        for (int i = 0; i < 100; i += 10)
+            expected.put("key" + i, "value" + i);
+        assertThat(mapTest, equalTo(expected));
+        assertThat(expected, equalTo(mapTest));
+        assertThat(mapTest.hashCode(), is(expected.hashCode()));
+
+        SmallHashMap<String, String> presized = new SmallHashMap<>(100);
+        presized.putAll(expected);
+        assertThat(presized, equalTo(expected));
+    }
+
+    @Test
+    public void matchesHashMapTest() {
+        Random random = new Random(1);
+        for (int bound : new int[]{4, 9, 50}) {
+            SmallHashMap<Integer, Integer> mapTest = new SmallHashMap<>();
+            Map<Integer, Integer> expected = new HashMap<>();
+            for (int i = 0; i < 10000; i++) {
+                int key = random.nextInt(bound);
+                switch (random.nextInt(4)) {
+                    case 0:
+                        assertThat(mapTest.put(key, i), equalTo(expected.put(key, i)));
+                        break;
+                    case 1:
+                        assertThat(mapTest.remove(key), equalTo(expected.remove(key)));
+                        break;
+                    case 2:
+                        assertThat(mapTest.putIfAbsent(key, i), equalTo(expected.putIfAbsent(key, i)));
+                        break;
+                    default:
+                        int value = i;
+                        assertThat(mapTest.computeIfAbsent(key, k -> value), equalTo(expected.computeIfAbsent(key, k -> value)));
+                        break;
+                }
+            }
+            assertThat(mapTest, equalTo(expected));
+        }
+    }
+
+    @Test
+    public void iteratorTest() {
+        SmallHashMap<String, String> mapTest = new SmallHashMap<>();
+        for (int i = 0; i < 6; i++)
+            mapTest.put("key" + i, "value" + i);
+
+        Iterator<Map.Entry<String, String>> iterator = mapTest.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> entry = iterator.next();
+            if (entry.getKey().equals("key2") || entry.getKey().equals("key3"))
+                iterator.remove();
+            else
+                entry.setValue(entry.getValue() + "!");
+        }
+        assertThat(mapTest.keySet(), containsInAnyOrder("key0", "key1", "key4", "key5"));
+        mapTest.forEach((key, value) -> assertThat(value.endsWith("!"), is(true)));
+
+        Iterator<String> keys = mapTest.keySet().iterator();
+        expect(keys::remove).toThrow(IllegalStateException.class);
+        expect(() -> {
+            for (String key : mapTest.keySet())
+                mapTest.put(key + key, "value");
+        }).toThrow(ConcurrentModificationException.class);
+        expect(() -> mapTest.forEach((key, value) -> mapTest.remove(key))).toThrow(ConcurrentModificationException.class);
+    }
+
+    @Test
+    public void computeModifyingMapTest() {
+        SmallHashMap<String, String> mapTest = new SmallHashMap<>();
+        mapTest.put("a", "1");
+
+        // The function switching the map to a hash map must not lose the computed value.
+        assertThat(mapTest.computeIfAbsent("b", k -> {
+            for (int i = 0; i < 10; i++)
+                mapTest.put("key" + i, "value");
+            return "2";
+        }), is("2"));
+        assertThat(mapTest.get("b"), is("2"));
+        assertThat(mapTest.size(), is(12));
+    }
+
+    @Test
+    public void addingAndRemovingIsDetectedTest() {
+        SmallHashMap<String, String> mapTest = new SmallHashMap<>();
+        mapTest.put("a", "1");
+        mapTest.put("null", null);
+        mapTest.put("c", "3");
+
+        // Adding one key and removing another leaves the size and the array as they were, but moves "null" down.
+        assertThat(mapTest.computeIfAbsent("null", k -> {
+            mapTest.put("d", "4");
+            mapTest.remove("a");
+            return "2";
+        }), is("2"));
+        assertThat(mapTest.get("null"), is("2"));
+        assertThat(mapTest.get("c"), is("3"));
+        assertThat(mapTest.get("d"), is("4"));
+        assertThat(mapTest.size(), is(3));
+
+        expect(() -> mapTest.forEach((key, value) -> {
+            mapTest.put("e", "5");
+            mapTest.remove("c");
+        })).toThrow(ConcurrentModificationException.class);
+
+        Iterator<String> iterator = mapTest.keySet().iterator();
+        iterator.next();
+        mapTest.put("f", "6");
+        mapTest.remove("d");
+        expect(iterator::hasNext).toThrow(ConcurrentModificationException.class);
+    }
+
+    @Test
+    public void ensureCapacityTest() {
+        SmallHashMap<String, String> mapTest = new SmallHashMap<>();
+        mapTest.put("a", "1");
+        mapTest.ensureCapacity(4);
+        mapTest.ensureCapacity(1000);
+        for (int i = 0; i < 1000; i++)
+            mapTest.put("key" + i, "value");
+
+        assertThat(mapTest.get("a"), is("1"));
+        assertThat(mapTest.size(), is(1001));
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class SmallHashSetTest {
+
+    @Test
+    public void inlineSetTest() {
+        SmallHashSet<String> setTest = new SmallHashSet<>();
+        assertThat(setTest.isEmpty(), is(true));
+
+        for (int i = 0; i < 8; i++)
+            assertThat(setTest.add("item" + i), is(true));
+        assertThat(setTest.add("item1"), is(false));
+        assertThat(setTest.size(), is(8));
+        assertThat(new ArrayList<>(setTest), contains("item0", "item1", "item2", "item3", "item4", "item5", "item6", "item7"));
+
+        assertThat(setTest.remove("item3"), is(true));
+        assertThat(setTest.remove("item3"), is(false));
+        assertThat(setTest.contains("item3"), is(false));
+        assertThat(setTest.contains(null), is(false));
+        assertThat(new ArrayList<>(setTest), contains("item0", "item1", "item2", "item4", "item5", "item6", "item7"));
+
+        setTest.clear();
+        assertThat(setTest.isEmpty(), is(true));
+    }
+
+    @Test
+    public void matchesHashSetTest() {
+        Random random = new Random(1);
+        for (int bound : new int[]{4, 9, 50}) {
+            SmallHashSet<Integer> setTest = new SmallHashSet<>(1);
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 0; i < 10000; i++) {
+                int item = random.nextInt(bound);
+                if (random.nextBoolean())
+                    assertThat(setTest.add(item), is(expected.add(item)));
+                else
+                    assertThat(setTest.remove(item), is(expected.remove(item)));
+            }
+            assertThat(setTest, equalTo(expected));
+            assertThat(setTest.hashCode(), is(expected.hashCode()));
+        }
+    }
+
+    @Test
+    public void iteratorTest() {
+        SmallHashSet<String> setTest = new SmallHashSet<>();
+        for (int i = 0; i < 6; i++)
+            setTest.add("item" + i);
+
+        setTest.removeIf(item -> item.equals("item2") || item.equals("item3"));
+        assertThat(setTest, containsInAnyOrder("item0", "item1", "item4", "item5"));
+
+        expect(() -> {
+            for (String item : setTest)
+                setTest.add(item + item);
+        }).toThrow(ConcurrentModificationException.class);
+        expect(() -> setTest.forEach(setTest::remove)).toThrow(ConcurrentModificationException.class);
+
+        // Each loop above made one change before failing.
+        assertThat(setTest.size(), is(4));
+        for (int i = 0; i < 100; i++)
+            setTest.add("another" + i);
+        setTest.removeIf(item -> item.startsWith("another"));
+        assertThat(setTest.size(), is(4));
+    }
+
+}
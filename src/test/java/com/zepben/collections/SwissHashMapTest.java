@@ -0,0 +1,222 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class SwissHashMapTest {
+
+    @Test
+    public void putGetAndRemoveTest() {
+        SwissHashMap<String, String> mapTest = new SwissHashMap<>();
+        assertThat(mapTest.isEmpty(), is(true));
+
+        for (int i = 0; i < 1000; i++)
+            assertThat(mapTest.put("key" + i, "value" + i), nullValue());
+        assertThat(mapTest.size(), is(1000));
+
+        for (int i = 0; i < 1000; i++) {
+            assertThat(mapTest.get("key" + i), is("value" + i));
+            assertThat(mapTest.containsKey("key" + i), is(true));
+        }
+        assertThat(mapTest.get("missing"), nullValue());
+        assertThat(mapTest.getOrDefault("missing", "default"), is("default"));
+
+        assertThat(mapTest.put("key1", "other"), is("value1"));
+        assertThat(mapTest.get("key1"), is("other"));
+
+        for (int i = 0; i < 1000; i += 2)
+            assertThat(mapTest.remove("key" + i), notNullValue());
+        assertThat(mapTest.remove("key0"), nullValue());
+        assertThat(mapTest.size(), is(500));
+
+        for (int i = 0; i < 1000; i++)
+            assertThat(mapTest.containsKey("key" + i), is(i % 2 == 1));
+
+        mapTest.clear();
+        assertThat(mapTest.isEmpty(), is(true));
+        assertThat(mapTest.get("key1"), nullValue());
+    }
+
+    @Test
+    public void matchesHashMapUnderChurnTest() {
+        // Small key ranges keep the table full enough to need deleted markers, larger ones make it grow and shrink.
+        Random random = new Random(1);
+        for (int bound : new int[]{7, 60, 2000}) {
+            SwissHashMap<Integer, Integer> mapTest = new SwissHashMap<>();
+            Map<Integer, Integer> expected = new HashMap<>();
+            for (int i = 0; i < 100000; i++) {
+                int key = random.nextInt(bound);
+                if (random.nextBoolean())
+                    assertThat(mapTest.put(key, i), equalTo(expected.put(key, i)));
+                else
+                    assertThat(mapTest.remove(key), equalTo(expected.remove(key)));
+            }
+
+            assertThat(mapTest, equalTo(expected));
+            assertThat(mapTest.keySet(), equalTo(expected.keySet()));
+            assertThat(new ArrayList<>(mapTest.values()), containsInAnyOrder(expected.values().toArray()));
+        }
+    }
+
+    @Test
+    public void collidingKeysTest() {
+        // Keys with the same hash share a control byte and a probe sequence, so they are told apart by equals.
+        SwissHashMap<CountingKey, Integer> mapTest = new SwissHashMap<>();
+        List<CountingKey> keys = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            keys.add(new CountingKey(i, i < 25 ? 7 : 8));
+            mapTest.put(keys.get(i), i);
+        }
+
+        for (int i = 0; i < 50; i += 3)
+            mapTest.remove(keys.get(i));
+
+        for (int i = 0; i < 50; i++)
+            assertThat(mapTest.get(keys.get(i)), i % 3 == 0 ? nullValue() : is(i));
+    }
+
+    @Test
+    public void missesRarelyCompareKeysTest() {
+        SwissHashMap<String, String> mapTest = new SwissHashMap<>();
+        for (int i = 0; i < 10000; i++)
+            mapTest.put("key" + i, "value");
+
+        // Replace the keys several times over, leaving deleted markers behind.
+        for (int i = 10000; i < 50000; i++) {
+            mapTest.remove("key" + (i - 10000));
+            mapTest.put("key" + i, "value");
+        }
+
+        int hitsCompared = 0;
+        int missesCompared = 0;
+        for (int i = 40000; i < 50000; i++) {
+            hitsCompared += mapTest.keysCompared("key" + i);
+            missesCompared += mapTest.keysCompared("missing" + i);
+        }
+
+        // Other keys only match the 7 bit fragment of a key 1 time in 128.
+        assertThat(hitsCompared, lessThan(11000));
+        assertThat(missesCompared, lessThan(1000));
+    }
+
+    @Test
+    public void computeIfAbsentTest() {
+        SwissHashMap<String, String> mapTest = new SwissHashMap<>();
+
+        assertThat(mapTest.computeIfAbsent("a", k -> "1"), is("1"));
+        assertThat(mapTest.computeIfAbsent("a", k -> "2"), is("1"));
+        assertThat(mapTest.computeIfAbsent("b", k -> null), nullValue());
+        assertThat(mapTest.containsKey("b"), is(false));
+
+        // The function growing the map moves the items, so the value must be put rather than stored in the stale slot.
+        assertThat(mapTest.computeIfAbsent("c", k -> {
+            for (int i = 0; i < 100; i++)
+                mapTest.put("key" + i, "value");
+            return "3";
+        }), is("3"));
+        assertThat(mapTest.get("c"), is("3"));
+        assertThat(mapTest.size(), is(102));
+
+        assertThat(mapTest.putIfAbsent("a", "4"), is("1"));
+        assertThat(mapTest.putIfAbsent("d", "4"), nullValue());
+        assertThat(mapTest.get("d"), is("4"));
+    }
+
+    @Test
+    public void iteratorRemoveTest() {
+        SwissHashMap<Integer, Integer> mapTest = new SwissHashMap<>();
+        for (int i = 0; i < 1000; i++)
+            mapTest.put(i, i);
+
+        Set<Integer> seen = new HashSet<>();
+        Iterator<Map.Entry<Integer, Integer>> iterator = mapTest.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Integer> entry = iterator.next();
+            assertThat(seen.add(entry.getKey()), is(true));
+            if (entry.getKey() % 2 == 0)
+                iterator.remove();
+        }
+
+        assertThat(seen.size(), is(1000));
+        assertThat(mapTest.size(), is(500));
+        for (int i = 0; i < 1000; i++)
+            assertThat(mapTest.containsKey(i), is(i % 2 == 1));
+
+        mapTest.keySet().removeIf(key -> key < 500);
+        assertThat(mapTest.size(), is(250));
+
+        mapTest.values().removeIf(value -> true);
+        assertThat(mapTest.isEmpty(), is(true));
+    }
+
+    @Test
+    public void entriesTest() {
+        SwissHashMap<String, String> mapTest = new SwissHashMap<>();
+        mapTest.put("a", "1");
+        mapTest.put("b", "2");
+
+        for (Map.Entry<String, String> entry : mapTest.entrySet())
+            entry.setValue(entry.getValue() + "!");
+        assertThat(mapTest.get("a"), is("1!"));
+        assertThat(mapTest.get("b"), is("2!"));
+
+        Map.Entry<String, String> entry = mapTest.entrySet().iterator().next();
+        for (int i = 0; i < 100; i++)
+            mapTest.put("key" + i, "value");
+        assertThat(entry.getValue(), is(mapTest.get(entry.getKey())));
+
+        mapTest.remove(entry.getKey());
+        expect(() -> entry.setValue("x")).toThrow(IllegalStateException.class);
+    }
+
+    @Test
+    public void concurrentModificationTest() {
+        SwissHashMap<String, String> mapTest = new SwissHashMap<>();
+        mapTest.put("a", "1");
+        mapTest.put("b", "2");
+
+        expect(() -> {
+            for (String key : mapTest.keySet())
+                mapTest.put(key + key, "3");
+        }).toThrow(ConcurrentModificationException.class);
+        expect(() -> mapTest.forEach((key, value) -> mapTest.remove(key))).toThrow(ConcurrentModificationException.class);
+    }
+
+    @Test
+    public void expectedSizeAndTrimToSizeTest() {
+        SwissHashMap<String, String> mapTest = new SwissHashMap<>(1000);
+        for (int i = 0; i < 1000; i++)
+            mapTest.put(Integer.toString(i), "value" + i);
+        assertThat(mapTest.size(), is(1000));
+
+        mapTest.keySet().removeIf(key -> !key.startsWith("9"));
+        mapTest.trimToSize();
+        assertThat(mapTest.size(), is(111));
+        for (int i = 0; i < 1000; i++)
+            assertThat(mapTest.get(Integer.toString(i)), Integer.toString(i).startsWith("9") ? is("value" + i) : nullValue());
+
+        mapTest.ensureCapacity(5000);
+        for (int i = 0; i < 5000; i++)
+            mapTest.put("key" + i, "value");
+        assertThat(mapTest.size(), is(5111));
+    }
+
+    @Test
+    public void cloneNotSupportedTest() {
+        expect(() -> new SwissHashMap<>().clone()).toThrow(CloneNotSupportedException.class);
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the batch lookups {@link IdCorrelator#getCoresForIds} and {@link IdCorrelator#getIdsForCores} against
+ * calling {@link IdCorrelator#getCores} and {@link IdCorrelator#getIds} once per id.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class BatchLookupBenchmark {
+
+    @Param({"1000000"})
+    public int coreCount;
+
+    @Param({"100", "10000"})
+    public int batchSize;
+
+    @Param
+    public CorrelatorState.CorrelatorImplementation correlator;
+
+    private CorrelatorState correlations = new CorrelatorState();
+    private IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator();
+    private List<String> systemIds = Collections.emptyList();
+    private List<String> coreIds = Collections.emptyList();
+    private String systemTag = "";
+
+    @Setup(Level.Trial)
+    public void populate() {
+        correlations = CorrelatorState.generate(coreCount, 1, CorrelatorState.FanOut.ONE_TO_ONE);
+        correlations.correlator = correlator;
+        idCorrelator = correlations.newPopulatedCorrelator();
+        systemTag = correlations.systemTags[0];
+
+        int step = Math.max(coreCount / batchSize, 1);
+        String[] batchSystemIds = new String[batchSize];
+        String[] batchCoreIds = new String[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            int correlation = (i * step) % coreCount;
+            batchSystemIds[i] = correlations.systemIds[0][correlation];
+            batchCoreIds[i] = correlations.coreIds[correlations.correlatedCores[correlation]];
+        }
+        systemIds = Arrays.asList(batchSystemIds);
+        coreIds = Arrays.asList(batchCoreIds);
+    }
+
+    @Benchmark
+    public void getCoresLoop(Blackhole blackhole) {
+        for (String systemId : systemIds)
+            blackhole.consume(idCorrelator.getCores(systemTag, systemId));
+    }
+
+    @Benchmark
+    public Map<String, Set<String>> getCoresForIds() {
+        return idCorrelator.getCoresForIds(systemTag, systemIds);
+    }
+
+    @Benchmark
+    public void getIdsLoop(Blackhole blackhole) {
+        for (String coreId : coreIds)
+            blackhole.consume(idCorrelator.getIds(coreId, systemTag));
+    }
+
+    @Benchmark
+    public Map<String, Set<String>> getIdsForCores() {
+        return idCorrelator.getIdsForCores(coreIds, systemTag);
+    }
+
+}
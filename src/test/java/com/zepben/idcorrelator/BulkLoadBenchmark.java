@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import com.zepben.collections.CompactHashMap;
+import com.zepben.collections.CompactHashSet;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares bulk loading a large correlator that grows as the correlations are added against one created with the
+ * expected number of cores and given the number of correlations, so its large maps are allocated once.
+ * <p>
+ * The "peakHeapMegabytes" secondary result is the highest heap usage seen while loading, as reported by the heap memory
+ * pools after a GC before each load. It includes the generated correlations, which are the same for each sizing, and the
+ * pools peak independently, so it is an upper bound for comparison rather than an exact figure.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+@State(Scope.Thread)
+public class BulkLoadBenchmark {
+
+    @Param({"1000000", "5000000"})
+    public int coreCount;
+
+    @Param({"4"})
+    public int systemCount;
+
+    @Param
+    public Sizing sizing;
+
+    private CorrelatorState state = new CorrelatorState();
+    private List<Correlation> correlations = Collections.emptyList();
+
+    /**
+     * How the correlator is sized before loading.
+     */
+    public enum Sizing {
+
+        // The maps and sets start empty and grow as needed, without any size hints.
+        NONE {
+            @Override
+            IdCorrelator create(int expectedCores) {
+                return new MapBackedIdCorrelator(CompactHashMap::new, CompactHashSet::new);
+            }
+
+            @Override
+            int hint(int count) {
+                return 0;
+            }
+        },
+
+        // The maps and sets are created with their expected sizes, and the load is given the counts.
+        HINTS {
+            @Override
+            IdCorrelator create(int expectedCores) {
+                return MapBackedIdCorrelator.newCorrelator(expectedCores);
+            }
+
+            @Override
+            int hint(int count) {
+                return count;
+            }
+        };
+
+        abstract IdCorrelator create(int expectedCores);
+
+        abstract int hint(int count);
+
+    }
+
+    /**
+     * Records the peak heap usage, which JMH reports alongside the time.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PeakHeap {
+
+        public double peakHeapMegabytes;
+        private double peak;
+        private int measurementIterations = 1;
+
+        @Setup(Level.Iteration)
+        public void reset(BenchmarkParams params) {
+            peakHeapMegabytes = 0;
+            peak = 0;
+            measurementIterations = params.getMeasurement().getCount();
+        }
+
+        // JMH sums EVENTS counters over the measurement iterations, so each iteration records its share of the average.
+        void record(double megabytes) {
+            peak = Math.max(peak, megabytes);
+            peakHeapMegabytes = peak / measurementIterations;
+        }
+
+    }
+
+    @Setup(Level.Trial)
+    public void generate() {
+        state = CorrelatorState.generate(coreCount, systemCount, CorrelatorState.FanOut.ONE_CORE_MANY_IDS);
+        correlations = state.correlations();
+    }
+
+    @Setup(Level.Invocation)
+    public void resetPeakUsage() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            pool.resetPeakUsage();
+    }
+
+    @Benchmark
+    public IdCorrelator loadCorrelations(PeakHeap peakHeap) {
+        IdCorrelator idCorrelator = sizing.create(coreCount);
+        state.addSystems(idCorrelator);
+        idCorrelator.loadCorrelations(correlations, sizing.hint(coreCount), sizing.hint(correlations.size()), failure -> {
+        });
+
+        long peakBytes = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                peakBytes += pool.getPeakUsage().getUsed();
+        }
+        peakHeap.record(peakBytes / 1e6);
+
+        return idCorrelator;
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import com.zepben.idcorrelator.io.IdCorrelatorWriteException;
+import com.zepben.idcorrelator.io.json.IdCorrelatorJSONReaderWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the latency of writes to a {@link SynchronisedIdCorrelator} while another thread repeatedly checkpoints it
+ * to a JSON file, comparing {@link SynchronisedIdCorrelator#write}, which holds the read lock for the whole checkpoint,
+ * with {@link SynchronisedIdCorrelator#writeSnapshot}, which only holds it while the correlations are copied.
+ * <p>
+ * The sampled times of the writers show how long they stall behind a checkpoint, so compare their higher percentiles
+ * rather than the mean.
+ * </p>
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class CheckpointBenchmark {
+
+    static final int WRITERS = 3;
+
+    @Param({"100000", "1000000"})
+    public int coreCount;
+
+    @Param({"false", "true"})
+    public boolean snapshot;
+
+    private CorrelatorState correlations = new CorrelatorState();
+    private SynchronisedIdCorrelator idCorrelator = new SynchronisedIdCorrelator(MapBackedIdCorrelator.newCorrelator());
+    private Path checkpointPath = Paths.get("");
+    private IdCorrelatorJSONReaderWriter checkpointWriter = new IdCorrelatorJSONReaderWriter(checkpointPath, false);
+
+    /**
+     * The position of each writer in the cores, and the spare id it correlates and removes again.
+     */
+    @State(Scope.Thread)
+    public static class Worker {
+
+        private static final AtomicInteger NEXT_WORKER = new AtomicInteger();
+
+        final int worker = NEXT_WORKER.getAndIncrement();
+        final String spareId = "spare_" + worker;
+        int next = worker;
+        boolean correlated;
+
+    }
+
+    @Setup(Level.Trial)
+    public void populate() throws IOException {
+        correlations = CorrelatorState.generate(coreCount, 4, CorrelatorState.FanOut.ONE_TO_ONE);
+        idCorrelator = new SynchronisedIdCorrelator(correlations.newPopulatedCorrelator());
+        checkpointPath = Files.createTempFile("CheckpointBenchmark", ".json");
+        checkpointWriter = new IdCorrelatorJSONReaderWriter(checkpointPath, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteCheckpoint() throws IOException {
+        Files.deleteIfExists(checkpointPath);
+    }
+
+    /**
+     * Writes the whole correlator to the checkpoint file.
+     */
+    @Benchmark
+    @Group("checkpointWhileWriting")
+    @GroupThreads(1)
+    public void checkpoint() throws IdCorrelatorWriteException {
+        if (snapshot)
+            idCorrelator.writeSnapshot(checkpointWriter);
+        else
+            idCorrelator.write(checkpointWriter);
+    }
+
+    /**
+     * Alternately correlates the spare id of the writer and removes it, so the size of the correlator stays the same.
+     */
+    @Benchmark
+    @Group("checkpointWhileWriting")
+    @GroupThreads(WRITERS)
+    public void write(Worker worker) {
+        String systemTag = correlations.systemTags[0];
+        if (worker.correlated) {
+            idCorrelator.removeId(systemTag, worker.spareId);
+        } else {
+            worker.next = (int) ((worker.next + 1_000_003L) % coreCount);
+            idCorrelator.addCorrelation(correlations.coreIds[worker.next], systemTag, worker.spareId);
+        }
+        worker.correlated = !worker.correlated;
+    }
+
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import com.zepben.idcorrelator.io.FailedCorrelationInfo;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.zepben.idcorrelator.TestUtils.compareCorrelations;
+import static com.zepben.idcorrelator.TestUtils.populateTestCorrelations;
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ConcurrentIdCorrelatorTest {
+
+    @Test
+    public void matchesMapBackedCorrelatorTest() {
+        IdCorrelator expected = populateTestCorrelations(MapBackedIdCorrelator.newCorrelator());
+        IdCorrelator concurrent = populateTestCorrelations(new ConcurrentIdCorrelator());
+        compareCorrelations(concurrent, expected);
+
+        assertThat(concurrent.systemCount(), is(4));
+        assertThat(concurrent.coreCount(), is(4));
+        assertThat(concurrent.getCores("CIS", "C1"), containsInAnyOrder("1", "2", "3"));
+        assertThat(concurrent.getIds("2", "DMS"), containsInAnyOrder("D3", "D4"));
+        assertThat(concurrent.findCore("GIS", "G9"), is("4"));
+        assertThat(concurrent.findCore("CIS", "C1"), nullValue());
+        assertThat(concurrent.findId("4", "DMS"), is("D9"));
+        assertThat(concurrent.getCoresForIds("CIS", Arrays.asList("C1", "C2")).keySet(), contains("C1"));
+        assertThat(concurrent.getIdsForCores(Arrays.asList("1", "4"), "GIS").keySet(), contains("4"));
+
+        for (IdCorrelator idCorrelator : new IdCorrelator[]{expected, concurrent}) {
+            idCorrelator.removeId("CIS", "C1");
+            idCorrelator.removeCore("3");
+            idCorrelator.removeSystem("OMS");
+            idCorrelator.addBlockedSystem("OMS");
+            assertThat(idCorrelator.addSystem("OMS"), is(false));
+        }
+        compareCorrelations(concurrent, expected);
+        assertThat(concurrent.getIds("2", "CIS"), empty());
+        assertThat(concurrent.getCores("GIS", "G1"), empty());
+
+        // Removing the only core correlated to a system removes the system, as it does for MapBackedIdCorrelator.
+        expected.removeCore("4");
+        concurrent.removeCore("4");
+        compareCorrelations(concurrent, expected);
+        assertThat(concurrent.systems(), equalTo(expected.systems()));
+
+        expect(() -> concurrent.addCorrelation("1", "UNKNOWN", "U1")).toThrow(IllegalArgumentException.class);
+        expect(() -> concurrent.addCorrelation("UNKNOWN", "GIS", "G1")).toThrow(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void queriesTest() throws Exception {
+        IdCorrelator concurrent = populateTestCorrelations(new ConcurrentIdCorrelator());
+
+        Set<String> systemsView = concurrent.systemsView();
+        Set<String> coresView = concurrent.coresView();
+        concurrent.addCore("5");
+        assertThat(systemsView, containsInAnyOrder("GIS", "DMS", "OMS", "CIS"));
+        assertThat(coresView, containsInAnyOrder("1", "2", "3", "4", "5"));
+        assertThat(concurrent.hasSystem("GIS"), is(true));
+        assertThat(concurrent.hasSystem("UNKNOWN"), is(false));
+        assertThat(concurrent.hasCore("5"), is(true));
+        assertThat(concurrent.addCore("5"), is(false));
+        assertThat(concurrent.addSystem("id"), is(false));
+
+        // The actions may modify the correlator, as no lock is held while they run.
+        List<String> visited = new ArrayList<>();
+        concurrent.forEachSystem(visited::add);
+        concurrent.forEachCore(coreId -> {
+            visited.add(coreId);
+            concurrent.addCorrelation(coreId, "OMS", "O" + coreId);
+        });
+        assertThat(visited, containsInAnyOrder("GIS", "DMS", "OMS", "CIS", "1", "2", "3", "4", "5"));
+        assertThat(concurrent.getCores("OMS", "O5"), contains("5"));
+
+        visited.clear();
+        concurrent.forEachCore("CIS", "C1", coreId -> {
+            visited.add(coreId);
+            concurrent.removeCore(coreId);
+        });
+        concurrent.forEachId("4", "DMS", visited::add);
+        assertThat(visited, containsInAnyOrder("1", "2", "3", "D9"));
+        assertThat(concurrent.getCoresView("CIS", "C1"), empty());
+        assertThat(concurrent.getIdsView("4", "GIS"), contains("G9"));
+
+        assertThat(concurrent.getCoresForIds("UNKNOWN", Collections.singletonList("G1")), anEmptyMap());
+        assertThat(concurrent.getCoresForIds("GIS", Collections.emptyList()), anEmptyMap());
+        assertThat(concurrent.getIdsForCores(Arrays.asList("4", "5", "UNKNOWN"), "GIS"), equalTo(Collections.singletonMap("4", Collections.singleton("G9"))));
+        assertThat(concurrent.getIdsForCores(Collections.singletonList("4"), "UNKNOWN"), anEmptyMap());
+        assertThat(concurrent.getIds("UNKNOWN", "GIS"), empty());
+        assertThat(concurrent.getCores("UNKNOWN", "G9"), empty());
+
+        // Removing what isn't there does nothing.
+        concurrent.removeId("UNKNOWN", "G9");
+        concurrent.removeId("GIS", "UNKNOWN");
+        concurrent.removeSystem("UNKNOWN");
+        concurrent.removeCore("UNKNOWN");
+        assertThat(concurrent.findCore("GIS", "G9"), is("4"));
+
+        concurrent.addBlockedSystem("NEW");
+        assertThat(concurrent.addSystem("NEW"), is(false));
+        concurrent.removeBlockedSystem("NEW");
+        assertThat(concurrent.addSystem("NEW"), is(true));
+
+        List<IdCorrelator> written = new ArrayList<>();
+        concurrent.write(written::add);
+        assertThat(written, contains(concurrent));
+    }
+
+    @Test
+    public void largeSetsTest() {
+        IdCorrelator expected = MapBackedIdCorrelator.newCorrelator();
+        IdCorrelator concurrent = new ConcurrentIdCorrelator();
+
+        // Enough correlations to switch the sets of the shared core and id to concurrent sets, then remove most of them.
+        for (IdCorrelator idCorrelator : new IdCorrelator[]{expected, concurrent}) {
+            idCorrelator.addSystem("GIS");
+            for (int i = 0; i < 100; i++) {
+                idCorrelator.addCore("core" + i);
+                idCorrelator.addCorrelation("core0", "GIS", "id" + i);
+                idCorrelator.addCorrelation("core" + i, "GIS", "shared");
+            }
+        }
+        compareCorrelations(concurrent, expected);
+
+        for (IdCorrelator idCorrelator : new IdCorrelator[]{expected, concurrent}) {
+            for (int i = 1; i < 99; i++) {
+                idCorrelator.removeId("GIS", "id" + i);
+                idCorrelator.removeCore("core" + i);
+            }
+        }
+
+        compareCorrelations(concurrent, expected);
+        assertThat(concurrent.getIds("core0", "GIS"), containsInAnyOrder("id0", "id99", "shared"));
+        assertThat(concurrent.getCores("GIS", "shared"), containsInAnyOrder("core0", "core99"));
+    }
+
+    @Test
+    public void readdingStartsEmptyTest() throws Exception {
+        IdCorrelator concurrent = populateTestCorrelations(new ConcurrentIdCorrelator());
+
+        concurrent.removeSystem("DMS");
+        concurrent.addSystem("DMS");
+        assertThat(concurrent.getIds("3", "DMS"), empty());
+        assertThat(concurrent.getCores("DMS", "D2"), empty());
+
+        concurrent.removeCore("2");
+        concurrent.addCore("2");
+        assertThat(concurrent.getIds("2", "CIS"), empty());
+        assertThat(concurrent.getCores("CIS", "C1"), containsInAnyOrder("1", "3"));
+
+        Map<String, Map<String, Set<String>>> exported = new HashMap<>();
+        concurrent.exportCorrelations((coreId, systemIds) -> exported.put(coreId, new HashMap<>(systemIds)));
+        assertThat(exported.get("2").keySet(), empty());
+        assertThat(exported.get("3").keySet(), containsInAnyOrder("CIS", "GIS"));
+    }
+
+    @Test
+    public void loadCorrelationsTest() {
+        IdCorrelator concurrent = new ConcurrentIdCorrelator();
+        concurrent.addSystem("GIS");
+        concurrent.addBlockedSystem("OMS");
+
+        List<FailedCorrelationInfo> failures = new ArrayList<>();
+        concurrent.loadCorrelations(Arrays.asList(
+            new Correlation("1", "GIS", "G1"),
+            new Correlation("1", "GIS", "G1"),
+            new Correlation("2", "OMS", "O2"),
+            new Correlation("3", "CIS", "C3")
+        ), failures::add);
+
+        assertThat(concurrent.cores(), containsInAnyOrder("1", "2", "3"));
+        assertThat(concurrent.getIds("1", "GIS"), contains("G1"));
+        assertThat(failures.size(), is(2));
+        assertThat(failures.get(0).details(), is(FailedCorrelationInfo.BLOCKED_SYSTEM));
+        assertThat(failures.get(1).details(), is(FailedCorrelationInfo.UNKNOWN_SYSTEM));
+    }
+
+    @Test
+    public void concurrentWritersTest() throws Exception {
+        int threadCount = 4;
+        int coreCount = 200;
+
+        IdCorrelator expected = MapBackedIdCorrelator.newCorrelator();
+        IdCorrelator concurrent = new ConcurrentIdCorrelator();
+        for (IdCorrelator idCorrelator : new IdCorrelator[]{expected, concurrent}) {
+            idCorrelator.addSystem("GIS");
+            idCorrelator.addSystem("DMS");
+            for (int i = 0; i < coreCount; i++)
+                idCorrelator.addCore("core" + i);
+        }
+
+        // Every thread correlates every core to a shared id and an id of its own, then repeatedly moves the id of its own
+        // back to only the first core, so the threads contend for the same cores and the same ids.
+        for (int t = 0; t < threadCount; t++)
+            correlate(expected, t, coreCount);
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                correlate(concurrent, thread, coreCount);
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        compareCorrelations(concurrent, expected);
+        assertThat(concurrent.getCores("GIS", "shared").size(), is(coreCount));
+        assertThat(concurrent.getIds("core0", "DMS"), containsInAnyOrder("own0", "own1", "own2", "own3"));
+        assertThat(concurrent.getIds("core1", "DMS"), empty());
+    }
+
+    @Test
+    public void addingWhileRemovingEmptySystemTest() throws Exception {
+        IdCorrelator concurrent = new ConcurrentIdCorrelator();
+        concurrent.addCore("b");
+
+        // Removing core "a" removes the system whenever it leaves it empty, while the other thread keeps correlating core
+        // "b" to it. A correlation that is added must not be lost with the system, and one that can't be must throw.
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread remover = new Thread(() -> {
+            while (!stop.get()) {
+                concurrent.addSystem("GIS");
+                concurrent.addCore("a");
+                concurrent.addCorrelation("a", "GIS", "A");
+                concurrent.removeCore("a");
+            }
+        });
+        remover.start();
+
+        int added = 0;
+        try {
+            for (int i = 0; i < 100_000; i++) {
+                concurrent.addSystem("GIS");
+                try {
+                    concurrent.addCorrelation("b", "GIS", "B");
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+
+                ++added;
+                assertThat(concurrent.getIds("b", "GIS"), contains("B"));
+                assertThat(concurrent.getCores("GIS", "B"), contains("b"));
+                concurrent.removeId("GIS", "B");
+            }
+        } finally {
+            stop.set(true);
+            remover.join();
+        }
+        assertThat(added, greaterThan(0));
+    }
+
+    @Test
+    public void loadingWhileRemovingEmptySystemTest() throws Exception {
+        IdCorrelator concurrent = new ConcurrentIdCorrelator();
+
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread remover = new Thread(() -> {
+            while (!stop.get()) {
+                concurrent.addSystem("GIS");
+                concurrent.addCore("a");
+                concurrent.addCorrelation("a", "GIS", "A");
+                concurrent.removeCore("a");
+            }
+        });
+        remover.start();
+
+        // Each correlation must either be loaded or reported as failed.
+        try {
+            for (int i = 0; i < 100_000; i++) {
+                concurrent.addSystem("GIS");
+                List<FailedCorrelationInfo> failures = new ArrayList<>();
+                concurrent.loadCorrelations(Collections.singletonList(new Correlation("b", "GIS", "B")), failures::add);
+
+                if (failures.isEmpty()) {
+                    assertThat(concurrent.getIds("b", "GIS"), contains("B"));
+                    concurrent.removeId("GIS", "B");
+                } else
+                    assertThat(failures.get(0).details(), is(FailedCorrelationInfo.UNKNOWN_SYSTEM));
+            }
+        } finally {
+            stop.set(true);
+            remover.join();
+        }
+    }
+
+    private static void correlate(IdCorrelator idCorrelator, int thread, int coreCount) {
+        for (int i = 0; i < coreCount; i++) {
+            idCorrelator.addCorrelation("core" + i, "GIS", "shared");
+            idCorrelator.addCorrelation("core" + i, "DMS", "own" + thread);
+        }
+        for (int i = 1; i < coreCount; i++) {
+            idCorrelator.removeId("DMS", "own" + thread);
+            idCorrelator.addCorrelation("core0", "DMS", "own" + thread);
+        }
+    }
+
+}
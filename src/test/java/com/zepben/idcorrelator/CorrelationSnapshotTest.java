@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import com.zepben.idcorrelator.io.json.JsonUtils;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static com.zepben.idcorrelator.TestUtils.compareCorrelations;
+import static com.zepben.idcorrelator.TestUtils.populateTestCorrelations;
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class CorrelationSnapshotTest {
+
+    @Test
+    public void matchesCopiedCorrelatorTest() {
+        IdCorrelator expected = populateTestCorrelations(MapBackedIdCorrelator.newCorrelator());
+        expected.addCore("uncorrelated");
+        IdCorrelator snapshot = snapshotOf(expected, 1);
+
+        compareCorrelations(snapshot, expected);
+        assertThat(snapshot.coreCount(), is(expected.coreCount()));
+        assertThat(snapshot.hasCore("uncorrelated"), is(true));
+        assertThat(snapshot.getIds("uncorrelated", "GIS"), empty());
+        assertThat(snapshot.getIds("unknown", "GIS"), empty());
+        assertThat(snapshot.getCores("UNKNOWN", "G1"), empty());
+        assertThat(snapshot.findId("4", "DMS"), is("D9"));
+    }
+
+    @Test
+    public void exportsInCopiedOrderTest() {
+        IdCorrelator expected = populateTestCorrelations(MapBackedIdCorrelator.newCorrelator());
+        IdCorrelator snapshot = snapshotOf(expected, 0);
+
+        Map<String, Map<String, Set<String>>> expectedExport = new LinkedHashMap<>();
+        expected.exportCorrelations((coreId, systemIds) -> expectedExport.put(coreId, new LinkedHashMap<>(systemIds)));
+        Map<String, Map<String, Set<String>>> snapshotExport = new LinkedHashMap<>();
+        snapshot.exportCorrelations((coreId, systemIds) -> snapshotExport.put(coreId, new LinkedHashMap<>(systemIds)));
+
+        assertThat(new ArrayList<>(snapshotExport.keySet()), equalTo(new ArrayList<>(expectedExport.keySet())));
+        assertThat(snapshotExport, equalTo(expectedExport));
+    }
+
+    @Test
+    public void writesSameJsonTest() throws Exception {
+        IdCorrelator expected = populateTestCorrelations(MapBackedIdCorrelator.newCorrelator());
+        IdCorrelator snapshot = snapshotOf(expected, expected.coreCount());
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        JsonUtils.writeJson(snapshot, written, false);
+        IdCorrelator read = JsonUtils.toIdCorrelator(new JsonObject(new String(written.toByteArray(), StandardCharsets.UTF_8)));
+
+        compareCorrelations(read, expected);
+    }
+
+    @Test
+    public void readOnlyTest() {
+        IdCorrelator snapshot = snapshotOf(populateTestCorrelations(MapBackedIdCorrelator.newCorrelator()), 4);
+
+        expect(() -> snapshot.addSystem("OMS")).toThrow(UnsupportedOperationException.class);
+        expect(() -> snapshot.removeSystem("GIS")).toThrow(UnsupportedOperationException.class);
+        expect(() -> snapshot.addCore("5")).toThrow(UnsupportedOperationException.class);
+        expect(() -> snapshot.removeCore("1")).toThrow(UnsupportedOperationException.class);
+        expect(() -> snapshot.addBlockedSystem("OMS")).toThrow(UnsupportedOperationException.class);
+        expect(() -> snapshot.removeBlockedSystem("OMS")).toThrow(UnsupportedOperationException.class);
+        expect(() -> snapshot.addCorrelation("1", "GIS", "G2")).toThrow(UnsupportedOperationException.class);
+        expect(() -> snapshot.removeId("CIS", "C1")).toThrow(UnsupportedOperationException.class);
+        expect(() -> snapshot.getIds("2", "DMS").clear()).toThrow(UnsupportedOperationException.class);
+        expect(() -> snapshot.systems().clear()).toThrow(UnsupportedOperationException.class);
+    }
+
+    private static IdCorrelator snapshotOf(IdCorrelator idCorrelator, int expectedCores) {
+        CorrelationSnapshot.Builder builder = new CorrelationSnapshot.Builder(expectedCores);
+        idCorrelator.exportCorrelations(builder);
+        return builder.build(idCorrelator.systems());
+    }
+
+}
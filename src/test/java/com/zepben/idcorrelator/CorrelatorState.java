@@ -0,0 +1,292 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import com.zepben.collections.CompactHashMap;
+import com.zepben.collections.CompactHashSet;
+import com.zepben.collections.RobinHoodHashMap;
+import com.zepben.collections.RobinHoodHashSet;
+import com.zepben.collections.SmallHashMap;
+import com.zepben.collections.SmallHashSet;
+import com.zepben.collections.SwissHashMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * JMH state that describes the correlations used to benchmark {@link IdCorrelator} implementations.
+ * <p>
+ * Each system correlates the same cores using the selected {@link FanOut}, with system ids prefixed by the system tag so
+ * they are unique across systems.
+ * </p>
+ */
+@State(Scope.Benchmark)
+public class CorrelatorState {
+
+    @Param({"10000", "100000"})
+    public int coreCount;
+
+    @Param({"1", "4"})
+    public int systemCount;
+
+    @Param
+    public FanOut fanOut;
+
+    @Param
+    public MapImplementation map;
+
+    @Param
+    public SetImplementation set;
+
+    @Param
+    public CorrelatorImplementation correlator;
+
+    String[] coreIds = new String[0];
+    String[] systemTags = new String[0];
+    String[][] systemIds = new String[0][];  // [system][correlation]
+    int[] correlatedCores = new int[0];      // core index of each correlation, shared by every system
+
+    /**
+     * The shape of the correlations between cores and the ids of a single system.
+     */
+    public enum FanOut {
+
+        // Every core is correlated to a single id, and every id to a single core.
+        ONE_TO_ONE {
+            @Override
+            int correlationCount(int coreCount) {
+                return coreCount;
+            }
+
+            @Override
+            int coreIndex(int correlation) {
+                return correlation;
+            }
+
+            @Override
+            int idIndex(int correlation) {
+                return correlation;
+            }
+        },
+
+        // Every core is correlated to two ids.
+        ONE_CORE_MANY_IDS {
+            @Override
+            int correlationCount(int coreCount) {
+                return coreCount * 2;
+            }
+
+            @Override
+            int coreIndex(int correlation) {
+                return correlation / 2;
+            }
+
+            @Override
+            int idIndex(int correlation) {
+                return correlation;
+            }
+        },
+
+        // Every id is correlated to two cores.
+        MANY_CORES_ONE_ID {
+            @Override
+            int correlationCount(int coreCount) {
+                return coreCount;
+            }
+
+            @Override
+            int coreIndex(int correlation) {
+                return correlation;
+            }
+
+            @Override
+            int idIndex(int correlation) {
+                return correlation / 2;
+            }
+        };
+
+        abstract int correlationCount(int coreCount);
+
+        abstract int coreIndex(int correlation);
+
+        abstract int idIndex(int correlation);
+
+    }
+
+    /**
+     * The {@link MapBackedIdCorrelator.MapFactory} implementations under test.
+     */
+    public enum MapImplementation {
+
+        COMPACT_HASH_MAP(CompactHashMap::new),
+        COMPACT_HASH_MAP_CACHED_HASHES(CompactHashMap::withCachedHashes),
+        ROBIN_HOOD_HASH_MAP(RobinHoodHashMap::new),
+        SMALL_HASH_MAP(SmallHashMap::new),
+        SWISS_HASH_MAP(SwissHashMap::new),
+        HASH_MAP(HashMap::new);
+
+        final MapBackedIdCorrelator.MapFactory factory;
+
+        MapImplementation(MapBackedIdCorrelator.MapFactory factory) {
+            this.factory = factory;
+        }
+
+    }
+
+    /**
+     * The {@link MapBackedIdCorrelator.SetFactory} implementations under test.
+     */
+    public enum SetImplementation {
+
+        COMPACT_HASH_SET(CompactHashSet::new),
+        COMPACT_HASH_SET_CACHED_HASHES(CompactHashSet::withCachedHashes),
+        ROBIN_HOOD_HASH_SET(RobinHoodHashSet::new),
+        SMALL_HASH_SET(SmallHashSet::new),
+        HASH_SET(HashSet::new);
+
+        final MapBackedIdCorrelator.SetFactory factory;
+
+        SetImplementation(MapBackedIdCorrelator.SetFactory factory) {
+            this.factory = factory;
+        }
+
+    }
+
+    /**
+     * The {@link IdCorrelator} implementations under test.
+     */
+    public enum CorrelatorImplementation {
+
+        MAP_BACKED {
+            @Override
+            IdCorrelator create(MapBackedIdCorrelator.MapFactory mapFactory, MapBackedIdCorrelator.SetFactory setFactory) {
+                return new MapBackedIdCorrelator(mapFactory, setFactory);
+            }
+        },
+
+        SYNCHRONISED {
+            @Override
+            IdCorrelator create(MapBackedIdCorrelator.MapFactory mapFactory, MapBackedIdCorrelator.SetFactory setFactory) {
+                return new SynchronisedIdCorrelator(new MapBackedIdCorrelator(mapFactory, setFactory));
+            }
+        },
+
+        COMBINING {
+            @Override
+            IdCorrelator create(MapBackedIdCorrelator.MapFactory mapFactory, MapBackedIdCorrelator.SetFactory setFactory) {
+                return SynchronisedIdCorrelator.newCombiningCorrelator(new MapBackedIdCorrelator(mapFactory, setFactory));
+            }
+        },
+
+        STAMPED {
+            @Override
+            IdCorrelator create(MapBackedIdCorrelator.MapFactory mapFactory, MapBackedIdCorrelator.SetFactory setFactory) {
+                return new StampedIdCorrelator(new MapBackedIdCorrelator(mapFactory, setFactory));
+            }
+        },
+
+        STRIPED {
+            @Override
+            IdCorrelator create(MapBackedIdCorrelator.MapFactory mapFactory, MapBackedIdCorrelator.SetFactory setFactory) {
+                return new StripedIdCorrelator(mapFactory, setFactory);
+            }
+        },
+
+        // Uses concurrent maps and sets of its own, so the map and set implementations have no effect.
+        CONCURRENT {
+            @Override
+            IdCorrelator create(MapBackedIdCorrelator.MapFactory mapFactory, MapBackedIdCorrelator.SetFactory setFactory) {
+                return new ConcurrentIdCorrelator();
+            }
+        };
+
+        abstract IdCorrelator create(MapBackedIdCorrelator.MapFactory mapFactory, MapBackedIdCorrelator.SetFactory setFactory);
+
+    }
+
+    /**
+     * Creates the ids for a {@link MapBackedIdCorrelator} using the CompactHashMap/Set implementation, for benchmarks that
+     * need to control the shape of the correlations themselves.
+     */
+    static CorrelatorState generate(int coreCount, int systemCount, FanOut fanOut) {
+        CorrelatorState state = new CorrelatorState();
+        state.coreCount = coreCount;
+        state.systemCount = systemCount;
+        state.fanOut = fanOut;
+        state.map = MapImplementation.COMPACT_HASH_MAP;
+        state.set = SetImplementation.COMPACT_HASH_SET;
+        state.correlator = CorrelatorImplementation.MAP_BACKED;
+        state.generateIds();
+        return state;
+    }
+
+    @Setup(Level.Trial)
+    public void generateIds() {
+        coreIds = new String[coreCount];
+        for (int i = 0; i < coreCount; i++)
+            coreIds[i] = "core_" + i;
+
+        int correlationCount = fanOut.correlationCount(coreCount);
+        correlatedCores = new int[correlationCount];
+        for (int i = 0; i < correlationCount; i++)
+            correlatedCores[i] = fanOut.coreIndex(i);
+
+        systemTags = new String[systemCount];
+        systemIds = new String[systemCount][correlationCount];
+        for (int s = 0; s < systemCount; s++) {
+            systemTags[s] = "system_" + s;
+            for (int i = 0; i < correlationCount; i++)
+                systemIds[s][i] = "s" + s + "_id" + fanOut.idIndex(i);
+        }
+    }
+
+    IdCorrelator newCorrelator() {
+        return correlator.create(map.factory, set.factory);
+    }
+
+    IdCorrelator newPopulatedCorrelator() {
+        IdCorrelator idCorrelator = newCorrelator();
+        addCores(idCorrelator);
+        addSystems(idCorrelator);
+        addCorrelations(idCorrelator);
+        return idCorrelator;
+    }
+
+    void addCores(IdCorrelator idCorrelator) {
+        for (String coreId : coreIds)
+            idCorrelator.addCore(coreId);
+    }
+
+    void addSystems(IdCorrelator idCorrelator) {
+        for (String systemTag : systemTags)
+            idCorrelator.addSystem(systemTag);
+    }
+
+    List<Correlation> correlations() {
+        List<Correlation> correlations = new ArrayList<>(systemCount * correlatedCores.length);
+        for (int s = 0; s < systemCount; s++) {
+            for (int i = 0; i < correlatedCores.length; i++)
+                correlations.add(new Correlation(coreIds[correlatedCores[i]], systemTags[s], systemIds[s][i]));
+        }
+        return correlations;
+    }
+
+    void addCorrelations(IdCorrelator idCorrelator) {
+        for (int s = 0; s < systemCount; s++) {
+            String systemTag = systemTags[s];
+            String[] ids = systemIds[s];
+            for (int i = 0; i < ids.length; i++)
+                idCorrelator.addCorrelation(coreIds[correlatedCores[i]], systemTag, ids[i]);
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import com.zepben.idcorrelator.io.FailedCorrelationInfo;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Compares the thread safe correlators when each thread works on a different system, which {@link StripedIdCorrelator}
+ * can do in parallel but {@link SynchronisedIdCorrelator} serialises behind its write lock.
+ * <p>
+ * disjointWriters has one thread per system, each adding a correlation and removing it again. reloadWhileReading has a
+ * thread repeatedly reloading every id of the first system while the others look up ids in the other systems, so the
+ * time of the lookups shows how long they wait for the reload.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class DisjointSystemBenchmark {
+
+    static final int THREADS = 4;
+
+    @Param({"100000"})
+    public int coreCount;
+
+    @Param({"SYNCHRONISED", "STRIPED"})
+    public CorrelatorState.CorrelatorImplementation correlator;
+
+    private CorrelatorState correlations = new CorrelatorState();
+    private IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator();
+    private List<Correlation> reload = new ArrayList<>();
+    private final Consumer<FailedCorrelationInfo> onFailure = failure -> {
+    };
+
+    /**
+     * The system each thread uses, and its position in that system's ids.
+     */
+    @State(Scope.Thread)
+    public static class Worker {
+
+        private static final AtomicInteger NEXT_WORKER = new AtomicInteger();
+
+        final int system = NEXT_WORKER.getAndIncrement() % THREADS;
+        final String spareId = "spare_" + system;
+        int next = system;
+
+    }
+
+    @Setup(Level.Trial)
+    public void populate() {
+        correlations = CorrelatorState.generate(coreCount, THREADS, CorrelatorState.FanOut.ONE_TO_ONE);
+        correlations.correlator = correlator;
+        idCorrelator = correlations.newPopulatedCorrelator();
+
+        reload = new ArrayList<>(coreCount);
+        for (int i = 0; i < coreCount; i++)
+            reload.add(new Correlation(correlations.coreIds[i], correlations.systemTags[0], correlations.systemIds[0][i]));
+    }
+
+    @Benchmark
+    @Threads(THREADS)
+    public void disjointWriters(Worker worker) {
+        String systemTag = correlations.systemTags[worker.system];
+        idCorrelator.addCorrelation(correlations.coreIds[nextIndex(worker)], systemTag, worker.spareId);
+        idCorrelator.removeId(systemTag, worker.spareId);
+    }
+
+    /**
+     * Removes every id of the first system and loads them again.
+     */
+    @Benchmark
+    @Group("reloadWhileReading")
+    @GroupThreads(1)
+    public void reload() {
+        String systemTag = correlations.systemTags[0];
+        for (String systemId : correlations.systemIds[0])
+            idCorrelator.removeId(systemTag, systemId);
+        idCorrelator.loadCorrelations(reload, 0, reload.size(), onFailure);
+    }
+
+    /**
+     * Looks up an id in one of the systems that isn't being reloaded.
+     */
+    @Benchmark
+    @Group("reloadWhileReading")
+    @GroupThreads(THREADS - 1)
+    public Set<String> lookupOtherSystem(Worker worker) {
+        int system = 1 + worker.system % (THREADS - 1);
+        return idCorrelator.getCores(correlations.systemTags[system], correlations.systemIds[system][nextIndex(worker)]);
+    }
+
+    // Steps through the ids by a large prime, which visits them all in a scattered order.
+    private int nextIndex(Worker worker) {
+        worker.next = (int) ((worker.next + 1_000_003L) % coreCount);
+        return worker.next;
+    }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * JMH benchmarks for the {@link IdCorrelator} operations, parameterised by {@link CorrelatorState}.
+ * <p>
+ * Run with the benchmark profile, which writes the results to target/jmh-result.json:
+ * mvn -P benchmark -DskipTests verify -Djmh.args=IdCorrelatorBenchmark
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class IdCorrelatorBenchmark {
+
+    static final int REMOVE_BATCH = 1000;
+
+    private int cursor;
+    private int visited;
+    private final Consumer<String> visitor = id -> visited++;
+
+    /**
+     * A correlator populated once per trial, used by the read only benchmarks.
+     */
+    @State(Scope.Benchmark)
+    public static class Populated extends CorrelatorState {
+
+        IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator();
+
+        @Setup(Level.Trial)
+        public void populate() {
+            idCorrelator = newPopulatedCorrelator();
+        }
+
+    }
+
+    /**
+     * A correlator that only contains the cores and systems, recreated for every invocation.
+     */
+    @State(Scope.Thread)
+    public static class CoresAndSystems extends CorrelatorState {
+
+        IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator();
+
+        @Setup(Level.Invocation)
+        public void populate() {
+            idCorrelator = newCorrelator();
+            addCores(idCorrelator);
+            addSystems(idCorrelator);
+        }
+
+    }
+
+    /**
+     * A correlator that only contains the systems, recreated for every invocation, along with the correlations to load.
+     */
+    @State(Scope.Thread)
+    public static class SystemsOnly extends CorrelatorState {
+
+        IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator();
+        List<Correlation> correlations = Collections.emptyList();
+
+        @Setup(Level.Trial)
+        public void createCorrelations() {
+            correlations = correlations();
+        }
+
+        @Setup(Level.Invocation)
+        public void populate() {
+            idCorrelator = newCorrelator();
+            addSystems(idCorrelator);
+        }
+
+    }
+
+    /**
+     * A fully populated correlator, recreated for every invocation so it can be destructively modified.
+     */
+    @State(Scope.Thread)
+    public static class Disposable extends CorrelatorState {
+
+        IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator();
+
+        @Setup(Level.Invocation)
+        public void populate() {
+            idCorrelator = newPopulatedCorrelator();
+        }
+
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public IdCorrelator addCore(CorrelatorState state) {
+        IdCorrelator idCorrelator = state.newCorrelator();
+        state.addCores(idCorrelator);
+        return idCorrelator;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public IdCorrelator addCorrelation(CoresAndSystems state) {
+        state.addCorrelations(state.idCorrelator);
+        return state.idCorrelator;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public IdCorrelator addCorrelationLoop(SystemsOnly state) {
+        for (Correlation correlation : state.correlations) {
+            state.idCorrelator.addCore(correlation.coreId());
+            state.idCorrelator.addCorrelation(correlation.coreId(), correlation.systemTag(), correlation.systemId());
+        }
+        return state.idCorrelator;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public IdCorrelator loadCorrelations(SystemsOnly state) {
+        state.idCorrelator.loadCorrelations(state.correlations, state.coreCount, state.correlations.size(), failure -> {
+        });
+        return state.idCorrelator;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Set<String> getCores(Populated state) {
+        int correlation = nextCorrelation(state);
+        int system = correlation % state.systemCount;
+        return state.idCorrelator.getCores(state.systemTags[system], state.systemIds[system][correlation]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Set<String> getIds(Populated state) {
+        int correlation = nextCorrelation(state);
+        int system = correlation % state.systemCount;
+        return state.idCorrelator.getIds(state.coreIds[state.correlatedCores[correlation]], state.systemTags[system]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int forEachCore(Populated state) {
+        int correlation = nextCorrelation(state);
+        int system = correlation % state.systemCount;
+        state.idCorrelator.forEachCore(state.systemTags[system], state.systemIds[system][correlation], visitor);
+        return visited;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String findCore(Populated state) {
+        int correlation = nextCorrelation(state);
+        int system = correlation % state.systemCount;
+        return state.idCorrelator.findCore(state.systemTags[system], state.systemIds[system][correlation]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int forEachId(Populated state) {
+        int correlation = nextCorrelation(state);
+        int system = correlation % state.systemCount;
+        state.idCorrelator.forEachId(state.coreIds[state.correlatedCores[correlation]], state.systemTags[system], visitor);
+        return visited;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String findId(Populated state) {
+        int correlation = nextCorrelation(state);
+        int system = correlation % state.systemCount;
+        return state.idCorrelator.findId(state.coreIds[state.correlatedCores[correlation]], state.systemTags[system]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Set<String> copyCores(Populated state) {
+        return state.idCorrelator.cores();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int iterateCores(Populated state) {
+        state.idCorrelator.forEachCore(visitor);
+        return visited;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int exportCorrelations(Populated state) {
+        state.idCorrelator.exportCorrelations((coreId, systemIds) -> systemIds.values().forEach(ids -> ids.forEach(visitor)));
+        return visited;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean hasCore(Populated state) {
+        return state.idCorrelator.hasCore(state.coreIds[state.correlatedCores[nextCorrelation(state)]]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REMOVE_BATCH)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public IdCorrelator removeId(Disposable state) {
+        String[] ids = state.systemIds[0];
+        int step = Math.max(ids.length / REMOVE_BATCH, 1);
+        for (int i = 0; i < REMOVE_BATCH; i++)
+            state.idCorrelator.removeId(state.systemTags[0], ids[(i * step) % ids.length]);
+        return state.idCorrelator;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REMOVE_BATCH)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public IdCorrelator removeCore(Disposable state) {
+        String[] coreIds = state.coreIds;
+        int step = Math.max(coreIds.length / REMOVE_BATCH, 1);
+        for (int i = 0; i < REMOVE_BATCH; i++)
+            state.idCorrelator.removeCore(coreIds[(i * step) % coreIds.length]);
+        return state.idCorrelator;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public IdCorrelator removeSystem(Disposable state) {
+        state.idCorrelator.removeSystem(state.systemTags[0]);
+        return state.idCorrelator;
+    }
+
+    private int nextCorrelation(CorrelatorState state) {
+        if (++cursor >= state.correlatedCores.length)
+            cursor = 0;
+        return cursor;
+    }
+
+}
@@ -8,6 +8,9 @@
 
 package com.zepben.idcorrelator;
 
+import com.zepben.idcorrelator.io.FailedCorrelationInfo;
+import com.zepben.idcorrelator.io.IdCorrelatorWriteException;
+import com.zepben.idcorrelator.io.IdCorrelatorWriter;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -16,9 +19,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.*;
 
 import static com.zepben.idcorrelator.TestUtils.compareCorrelations;
 import static com.zepben.testutils.exception.ExpectException.expect;
@@ -50,32 +51,28 @@ public class IdCorrelatorTest {
         IdCorrelator idCorrelator = newTestCorrelator();
 
         Set<String> coreIds;
-        Iterator<String> codeIdIterator;
 
         // ---- CIS to Everything ---
         //GIS
         coreIds = idCorrelator.getCores("CIS", "C1");
-        codeIdIterator = coreIds.iterator();
         assertThat(coreIds, containsInAnyOrder("1", "2", "3"));
-        assertThat(idCorrelator.getIds(codeIdIterator.next(), "GIS"), containsInAnyOrder(Collections.emptySet()));
-        assertThat(idCorrelator.getIds(codeIdIterator.next(), "GIS"), containsInAnyOrder("G2"));
-        assertThat(idCorrelator.getIds(codeIdIterator.next(), "GIS"), containsInAnyOrder("G1"));
+        assertThat(idCorrelator.getIds("1", "GIS"), containsInAnyOrder(Collections.emptySet()));
+        assertThat(idCorrelator.getIds("2", "GIS"), containsInAnyOrder("G2"));
+        assertThat(idCorrelator.getIds("3", "GIS"), containsInAnyOrder("G1"));
 
         //DMS
         coreIds = idCorrelator.getCores("CIS", "C1");
-        codeIdIterator = coreIds.iterator();
         assertThat(coreIds, containsInAnyOrder("1", "2", "3"));
-        assertThat(idCorrelator.getIds(codeIdIterator.next(), "DMS"), containsInAnyOrder(Collections.emptySet()));
-        assertThat(idCorrelator.getIds(codeIdIterator.next(), "DMS"), containsInAnyOrder("D4", "D3"));
-        assertThat(idCorrelator.getIds(codeIdIterator.next(), "DMS"), containsInAnyOrder("D2", "D6"));
+        assertThat(idCorrelator.getIds("1", "DMS"), containsInAnyOrder(Collections.emptySet()));
+        assertThat(idCorrelator.getIds("2", "DMS"), containsInAnyOrder("D4", "D3"));
+        assertThat(idCorrelator.getIds("3", "DMS"), containsInAnyOrder("D2", "D6"));
 
         //OMS
         coreIds = idCorrelator.getCores("CIS", "C1");
-        codeIdIterator = coreIds.iterator();
         assertThat(coreIds, containsInAnyOrder("1", "2", "3"));
-        assertThat(idCorrelator.getIds(codeIdIterator.next(), "OMS"), containsInAnyOrder(Collections.emptySet()));
-        assertThat(idCorrelator.getIds(codeIdIterator.next(), "OMS"), containsInAnyOrder("O5", "O6"));
-        assertThat(idCorrelator.getIds(codeIdIterator.next(), "OMS"), containsInAnyOrder("O1", "O2"));
+        assertThat(idCorrelator.getIds("1", "OMS"), containsInAnyOrder(Collections.emptySet()));
+        assertThat(idCorrelator.getIds("2", "OMS"), containsInAnyOrder("O5", "O6"));
+        assertThat(idCorrelator.getIds("3", "OMS"), containsInAnyOrder("O1", "O2"));
 
         // ---- DMS to Core ----
         // D4
@@ -134,6 +131,16 @@ public class IdCorrelatorTest {
         expect(() -> compareCorrelations(idCorrelator1, idCorrelator2)).toThrow(AssertionError.class);
     }
 
+    @Test
+    public void smallCollectionCorrelatorTest() {
+        checkMatchesTestCorrelator(MapBackedIdCorrelator.newSmallCollectionCorrelator(0));
+    }
+
+    @Test
+    public void swissTableCorrelatorTest() {
+        checkMatchesTestCorrelator(MapBackedIdCorrelator.newSwissTableCorrelator(0));
+    }
+
     @Test
     public void removingSystemTest() {
         IdCorrelator idCorrelator = newTestCorrelator();
@@ -146,6 +153,26 @@ public class IdCorrelatorTest {
         assertThat(Collections.emptySet(), equalTo(idCorrelator.getCores("OTHER", "otherId2")));
     }
 
+    @Test
+    public void removingSharedSystemTest() {
+        IdCorrelator idCorrelator = newTestCorrelator();
+
+        idCorrelator.removeSystem("DMS");
+        assertThat(idCorrelator.systems(), containsInAnyOrder("GIS", "OMS", "CIS", "OTHER"));
+        assertThat(Collections.emptySet(), equalTo(idCorrelator.getIds("2", "DMS")));
+        assertThat(Collections.emptySet(), equalTo(idCorrelator.getIds("3", "DMS")));
+        assertThat(Collections.emptySet(), equalTo(idCorrelator.getIds("4", "DMS")));
+        assertThat(Collections.emptySet(), equalTo(idCorrelator.getCores("DMS", "D2")));
+
+        // Re-adding the system starts it without any of its old correlations.
+        idCorrelator.addSystem("DMS");
+        assertThat(Collections.emptySet(), equalTo(idCorrelator.getIds("3", "DMS")));
+        assertThat(idCorrelator.getIds("3", "OMS"), containsInAnyOrder("O1", "O2"));
+
+        idCorrelator.removeSystem("I DON'T EXIST");
+        assertThat(idCorrelator.systems(), containsInAnyOrder("GIS", "DMS", "OMS", "CIS", "OTHER"));
+    }
+
     @Test
     public void removingCoreTest() {
         IdCorrelator idCorrelator = newTestCorrelator();
@@ -211,6 +238,22 @@ public class IdCorrelatorTest {
         assertThat(idCorrelator.getIds("4", "OTHER"), containsInAnyOrder("otherId2"));
     }
 
+    @Test
+    public void removingSharedIdTest() {
+        IdCorrelator idCorrelator = newTestCorrelator();
+
+        idCorrelator.removeId("CIS", "C1");
+        assertThat(Collections.emptySet(), equalTo(idCorrelator.getCores("CIS", "C1")));
+        assertThat(Collections.emptySet(), equalTo(idCorrelator.getIds("1", "CIS")));
+        assertThat(Collections.emptySet(), equalTo(idCorrelator.getIds("2", "CIS")));
+        assertThat(Collections.emptySet(), equalTo(idCorrelator.getIds("3", "CIS")));
+
+        // Correlations to other systems are untouched.
+        assertThat(idCorrelator.getIds("2", "OMS"), containsInAnyOrder("O6", "O5"));
+        assertThat(idCorrelator.getCores("GIS", "G1"), containsInAnyOrder("3"));
+        assertThat(idCorrelator.systems(), hasItem("CIS"));
+    }
+
     @Test
     public void removingInvalidCoreTest() {
         IdCorrelator idCorrelator1 = newTestCorrelator();
@@ -256,6 +299,127 @@ public class IdCorrelatorTest {
         assertThat(idCorrelator.getCores("OTHER", "otherId2"), containsInAnyOrder("4"));
     }
 
+    @Test
+    public void batchLookupTest() {
+        IdCorrelator idCorrelator = newTestCorrelator();
+
+        Map<String, Set<String>> cores = idCorrelator.getCoresForIds("OMS", Arrays.asList("O1", "O2", "O5", "O9", "I DON'T EXIST"));
+        assertThat(cores.keySet(), containsInAnyOrder("O1", "O2", "O5", "O9"));
+        assertThat(cores.get("O1"), containsInAnyOrder("3"));
+        assertThat(cores.get("O2"), containsInAnyOrder("3"));
+        assertThat(cores.get("O5"), containsInAnyOrder("2"));
+        assertThat(cores.get("O9"), containsInAnyOrder("4"));
+        assertThat(idCorrelator.getCoresForIds("CIS", Collections.singletonList("C1")).get("C1"), containsInAnyOrder("1", "2", "3"));
+
+        Map<String, Set<String>> ids = idCorrelator.getIdsForCores(Arrays.asList("1", "2", "3", "4", "I DON'T EXIST"), "DMS");
+        assertThat(ids.keySet(), containsInAnyOrder("2", "3", "4"));
+        assertThat(ids.get("2"), containsInAnyOrder("D3", "D4"));
+        assertThat(ids.get("3"), containsInAnyOrder("D2", "D6"));
+        assertThat(ids.get("4"), containsInAnyOrder("D9"));
+
+        assertThat(idCorrelator.getCoresForIds("INVALID SYSTEM", Collections.singletonList("O1")).isEmpty(), equalTo(true));
+        assertThat(idCorrelator.getIdsForCores(Collections.singletonList("4"), "INVALID SYSTEM").isEmpty(), equalTo(true));
+        assertThat(idCorrelator.getCoresForIds("OMS", Collections.emptyList()).isEmpty(), equalTo(true));
+
+        expect(() -> cores.put("O1", Collections.emptySet())).toThrow(UnsupportedOperationException.class);
+        expect(() -> ids.get("2").add("D1")).toThrow(UnsupportedOperationException.class);
+        expect(() -> ids.get("4").add("D1")).toThrow(UnsupportedOperationException.class);
+    }
+
+    @Test
+    public void visitingCorrelationsTest() {
+        IdCorrelator idCorrelator = newTestCorrelator();
+
+        List<String> visited = new ArrayList<>();
+        idCorrelator.forEachCore("CIS", "C1", visited::add);
+        assertThat(visited, containsInAnyOrder("1", "2", "3"));
+
+        visited.clear();
+        idCorrelator.forEachId("4", "OTHER", visited::add);
+        assertThat(visited, containsInAnyOrder("otherId1", "otherId2"));
+
+        visited.clear();
+        idCorrelator.forEachCore("INVALID SYSTEM", "C1", visited::add);
+        idCorrelator.forEachCore("CIS", "I DON'T EXIST", visited::add);
+        idCorrelator.forEachId("I DON'T EXIST", "CIS", visited::add);
+        idCorrelator.forEachId("1", "INVALID SYSTEM", visited::add);
+        assertThat(visited, empty());
+    }
+
+    @Test
+    public void findingSingleCorrelationsTest() {
+        IdCorrelator idCorrelator = newTestCorrelator();
+
+        assertThat(idCorrelator.findCore("DMS", "D9"), equalTo("4"));
+        assertThat(idCorrelator.findId("4", "GIS"), equalTo("G9"));
+
+        // Ids that are not correlated to exactly one other id can't be found.
+        assertThat(idCorrelator.findCore("CIS", "C1"), nullValue());
+        assertThat(idCorrelator.findCore("CIS", "I DON'T EXIST"), nullValue());
+        assertThat(idCorrelator.findCore("INVALID SYSTEM", "C1"), nullValue());
+        assertThat(idCorrelator.findId("4", "OTHER"), nullValue());
+        assertThat(idCorrelator.findId("1", "GIS"), nullValue());
+        assertThat(idCorrelator.findId("I DON'T EXIST", "GIS"), nullValue());
+    }
+
+    @Test
+    public void exportingCorrelationsTest() {
+        IdCorrelator idCorrelator = newTestCorrelator();
+        idCorrelator.addCore("5");
+
+        Map<String, Map<String, Set<String>>> exported = new HashMap<>();
+        idCorrelator.exportCorrelations((coreId, systemIds) -> {
+            Map<String, Set<String>> copy = new HashMap<>();
+            systemIds.forEach((system, ids) -> copy.put(system, new HashSet<>(ids)));
+            exported.put(coreId, copy);
+        });
+
+        assertThat(exported.keySet(), containsInAnyOrder("1", "2", "3", "4", "5"));
+        assertThat(exported.get("1").keySet(), containsInAnyOrder("CIS"));
+        assertThat(exported.get("2").get("OMS"), containsInAnyOrder("O5", "O6"));
+        assertThat(exported.get("4").keySet(), containsInAnyOrder("GIS", "DMS", "OMS", "OTHER"));
+        assertThat(exported.get("5").isEmpty(), equalTo(true));
+        for (String coreId : idCorrelator.cores()) {
+            for (String system : idCorrelator.systems())
+                assertThat(exported.get(coreId).getOrDefault(system, Collections.emptySet()), equalTo(idCorrelator.getIds(coreId, system)));
+        }
+
+        expect(() -> idCorrelator.exportCorrelations((coreId, systemIds) -> systemIds.remove("CIS"))).toThrow(UnsupportedOperationException.class);
+    }
+
+    @Test
+    public void liveViewsTest() {
+        IdCorrelator idCorrelator = newTestCorrelator();
+
+        Set<String> cores = idCorrelator.getCoresView("CIS", "C1");
+        Set<String> ids = idCorrelator.getIdsView("4", "OTHER");
+        assertThat(cores, containsInAnyOrder("1", "2", "3"));
+        assertThat(cores.contains("2"), equalTo(true));
+        assertThat(cores.contains("4"), equalTo(false));
+        assertThat(ids, containsInAnyOrder("otherId1", "otherId2"));
+        assertThat(ids.contains("otherId1"), equalTo(true));
+
+        // The views follow changes to the correlator, including ids being removed and correlated again.
+        idCorrelator.removeCore("2");
+        idCorrelator.removeId("OTHER", "otherId1");
+        assertThat(cores, containsInAnyOrder("1", "3"));
+        assertThat(ids, containsInAnyOrder("otherId2"));
+
+        idCorrelator.removeId("CIS", "C1");
+        idCorrelator.removeId("OTHER", "otherId2");
+        assertThat(cores.size(), equalTo(0));
+        assertThat(ids.size(), equalTo(0));
+
+        idCorrelator.addCorrelation("4", "CIS", "C1");
+        idCorrelator.addCorrelation("4", "OTHER", "otherId3");
+        assertThat(cores, containsInAnyOrder("4"));
+        assertThat(ids, containsInAnyOrder("otherId3"));
+
+        expect(() -> cores.add("1")).toThrow(UnsupportedOperationException.class);
+        expect(() -> ids.remove("otherId3")).toThrow(UnsupportedOperationException.class);
+        expect(cores::clear).toThrow(UnsupportedOperationException.class);
+    }
+
     @Test
     public void addingCorrelationsTest() {
         IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator();
@@ -304,6 +468,38 @@ public class IdCorrelatorTest {
         idCorrelator.addCorrelation("3", "OMS", "O5");
     }
 
+    @Test
+    public void loadingCorrelationsTest() {
+        IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator();
+        idCorrelator.addSystem("GIS");
+        idCorrelator.addSystem("DMS");
+        idCorrelator.addBlockedSystem("CIS");
+        idCorrelator.addCore("1");
+
+        List<FailedCorrelationInfo> failures = new ArrayList<>();
+        idCorrelator.loadCorrelations(Arrays.asList(
+            new Correlation("1", "GIS", "G1"),
+            new Correlation("1", "GIS", "G1"),
+            new Correlation("2", "GIS", "G1"),
+            new Correlation("2", "DMS", "D2"),
+            new Correlation("3", "CIS", "C3"),
+            new Correlation("3", "OMS", "O3")
+        ), 3, 6, failures::add);
+
+        assertThat(idCorrelator.cores(), containsInAnyOrder("1", "2", "3"));
+        assertThat(idCorrelator.getCores("GIS", "G1"), containsInAnyOrder("1", "2"));
+        assertThat(idCorrelator.getIds("1", "GIS"), contains("G1"));
+        assertThat(idCorrelator.getIds("2", "DMS"), contains("D2"));
+        assertThat(idCorrelator.getIds("3", "GIS"), empty());
+
+        assertThat(failures, hasSize(2));
+        assertThat(failures.get(0).coreId(), equalTo("3"));
+        assertThat(failures.get(0).systemId(), equalTo("C3"));
+        assertThat(failures.get(0).details(), equalTo(FailedCorrelationInfo.BLOCKED_SYSTEM));
+        assertThat(failures.get(1).systemTag(), equalTo("OMS"));
+        assertThat(failures.get(1).details(), equalTo(FailedCorrelationInfo.UNKNOWN_SYSTEM));
+    }
+
     @Test
     public void addCoresTest() {
         IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator();
@@ -348,6 +544,208 @@ public class IdCorrelatorTest {
         assertThat(idCorrelator.systems(), containsInAnyOrder("GIS", "DMS", "OMS", "CIS", "OTHER"));
     }
 
+    @Test
+    public void systemsAndCoresWithoutCopyingTest() {
+        IdCorrelator idCorrelator = newTestCorrelator();
+
+        Set<String> systems = idCorrelator.systemsView();
+        Set<String> cores = idCorrelator.coresView();
+        assertThat(systems, containsInAnyOrder("GIS", "DMS", "OMS", "CIS", "OTHER"));
+        assertThat(cores, containsInAnyOrder("1", "2", "3", "4"));
+        assertThat(idCorrelator.systemCount(), equalTo(5));
+        assertThat(idCorrelator.coreCount(), equalTo(4));
+        assertThat(idCorrelator.hasSystem("GIS"), equalTo(true));
+        assertThat(idCorrelator.hasSystem("INVALID SYSTEM"), equalTo(false));
+        assertThat(idCorrelator.hasCore("1"), equalTo(true));
+        assertThat(idCorrelator.hasCore("I DON'T EXIST"), equalTo(false));
+
+        List<String> visited = new ArrayList<>();
+        idCorrelator.forEachSystem(visited::add);
+        assertThat(visited, containsInAnyOrder("GIS", "DMS", "OMS", "CIS", "OTHER"));
+
+        visited.clear();
+        idCorrelator.forEachCore(visited::add);
+        assertThat(visited, containsInAnyOrder("1", "2", "3", "4"));
+
+        // The views follow changes to the correlator.
+        idCorrelator.removeSystem("OTHER");
+        idCorrelator.removeCore("4");
+        idCorrelator.addCore("5");
+        assertThat(systems, containsInAnyOrder("GIS", "DMS", "OMS", "CIS"));
+        assertThat(cores, containsInAnyOrder("1", "2", "3", "5"));
+        assertThat(idCorrelator.systemCount(), equalTo(4));
+        assertThat(idCorrelator.coreCount(), equalTo(4));
+
+        expect(() -> systems.add("OTHER")).toThrow(UnsupportedOperationException.class);
+        expect(() -> cores.remove("1")).toThrow(UnsupportedOperationException.class);
+    }
+
+    @Test
+    public void defaultLookupsTest() {
+        IdCorrelator expected = newTestCorrelator();
+        IdCorrelator idCorrelator = new AbstractMethodsOnly(newTestCorrelator());
+
+        assertThat(idCorrelator.findCore("DMS", "D9"), equalTo("4"));
+        assertThat(idCorrelator.findId("4", "GIS"), equalTo("G9"));
+        assertThat(idCorrelator.getCoresView("CIS", "C1"), containsInAnyOrder("1", "2", "3"));
+        assertThat(idCorrelator.getIdsView("4", "OTHER"), containsInAnyOrder("otherId1", "otherId2"));
+
+        List<String> systems = Arrays.asList("GIS", "DMS", "OMS", "CIS", "OTHER", "INVALID SYSTEM");
+        for (String system : systems) {
+            for (String systemId : Arrays.asList("C1", "G1", "G9", "D9", "O5", "otherId1", "I DON'T EXIST")) {
+                List<String> visited = new ArrayList<>();
+                idCorrelator.forEachCore(system, systemId, visited::add);
+                assertThat(new HashSet<>(visited), equalTo(expected.getCores(system, systemId)));
+                assertThat(visited, hasSize(expected.getCores(system, systemId).size()));
+                assertThat(idCorrelator.getCoresView(system, systemId), equalTo(expected.getCores(system, systemId)));
+                assertThat(idCorrelator.findCore(system, systemId), equalTo(expected.findCore(system, systemId)));
+            }
+            for (String coreId : Arrays.asList("1", "2", "3", "4", "I DON'T EXIST")) {
+                List<String> visited = new ArrayList<>();
+                idCorrelator.forEachId(coreId, system, visited::add);
+                assertThat(new HashSet<>(visited), equalTo(expected.getIds(coreId, system)));
+                assertThat(visited, hasSize(expected.getIds(coreId, system).size()));
+                assertThat(idCorrelator.getIdsView(coreId, system), equalTo(expected.getIds(coreId, system)));
+                assertThat(idCorrelator.findId(coreId, system), equalTo(expected.findId(coreId, system)));
+            }
+        }
+    }
+
+    @Test
+    public void defaultSystemsAndCoresTest() {
+        IdCorrelator idCorrelator = new AbstractMethodsOnly(newTestCorrelator());
+
+        assertThat(idCorrelator.systemsView(), containsInAnyOrder("GIS", "DMS", "OMS", "CIS", "OTHER"));
+        assertThat(idCorrelator.coresView(), containsInAnyOrder("1", "2", "3", "4"));
+        assertThat(idCorrelator.systemCount(), equalTo(5));
+        assertThat(idCorrelator.coreCount(), equalTo(4));
+        assertThat(idCorrelator.hasSystem("GIS"), equalTo(true));
+        assertThat(idCorrelator.hasSystem("INVALID SYSTEM"), equalTo(false));
+        assertThat(idCorrelator.hasCore("1"), equalTo(true));
+        assertThat(idCorrelator.hasCore("I DON'T EXIST"), equalTo(false));
+
+        List<String> visited = new ArrayList<>();
+        idCorrelator.forEachSystem(visited::add);
+        assertThat(visited, containsInAnyOrder("GIS", "DMS", "OMS", "CIS", "OTHER"));
+
+        visited.clear();
+        idCorrelator.forEachCore(visited::add);
+        assertThat(visited, containsInAnyOrder("1", "2", "3", "4"));
+
+        idCorrelator.removeSystem("OTHER");
+        idCorrelator.addCore("5");
+        assertThat(idCorrelator.systemCount(), equalTo(4));
+        assertThat(idCorrelator.coreCount(), equalTo(5));
+        assertThat(idCorrelator.hasSystem("OTHER"), equalTo(false));
+        assertThat(idCorrelator.hasCore("5"), equalTo(true));
+    }
+
+    @Test
+    public void defaultBatchLookupsTest() {
+        IdCorrelator expected = newTestCorrelator();
+        IdCorrelator idCorrelator = new AbstractMethodsOnly(newTestCorrelator());
+
+        List<String> systemIds = Arrays.asList("O1", "O2", "O5", "O9", "I DON'T EXIST");
+        Map<String, Set<String>> cores = idCorrelator.getCoresForIds("OMS", systemIds);
+        assertThat(cores.keySet(), containsInAnyOrder("O1", "O2", "O5", "O9"));
+        for (String systemId : cores.keySet())
+            assertThat(cores.get(systemId), equalTo(expected.getCores("OMS", systemId)));
+
+        List<String> coreIds = Arrays.asList("1", "2", "3", "4", "I DON'T EXIST");
+        Map<String, Set<String>> ids = idCorrelator.getIdsForCores(coreIds, "DMS");
+        assertThat(ids.keySet(), containsInAnyOrder("2", "3", "4"));
+        for (String coreId : ids.keySet())
+            assertThat(ids.get(coreId), equalTo(expected.getIds(coreId, "DMS")));
+
+        assertThat(idCorrelator.getCoresForIds("INVALID SYSTEM", systemIds).isEmpty(), equalTo(true));
+        assertThat(idCorrelator.getIdsForCores(coreIds, "INVALID SYSTEM").isEmpty(), equalTo(true));
+
+        expect(() -> cores.put("O1", Collections.emptySet())).toThrow(UnsupportedOperationException.class);
+        expect(() -> ids.remove("2")).toThrow(UnsupportedOperationException.class);
+    }
+
+    @Test
+    public void defaultLoadingCorrelationsTest() {
+        IdCorrelator idCorrelator = new AbstractMethodsOnly(MapBackedIdCorrelator.newCorrelator());
+        idCorrelator.addSystem("GIS");
+        idCorrelator.addSystem("DMS");
+        idCorrelator.addBlockedSystem("CIS");
+        idCorrelator.addCore("1");
+
+        List<FailedCorrelationInfo> failures = new ArrayList<>();
+        idCorrelator.loadCorrelations(Arrays.asList(
+            new Correlation("1", "GIS", "G1"),
+            new Correlation("1", "GIS", "G1"),
+            new Correlation("2", "GIS", "G1"),
+            new Correlation("3", "CIS", "C3")
+        ), failures::add);
+        idCorrelator.loadCorrelations(Arrays.asList(
+            new Correlation("2", "DMS", "D2"),
+            new Correlation("3", "OMS", "O3")
+        ), 1, 2, failures::add);
+
+        assertThat(idCorrelator.cores(), containsInAnyOrder("1", "2", "3"));
+        assertThat(idCorrelator.getCores("GIS", "G1"), containsInAnyOrder("1", "2"));
+        assertThat(idCorrelator.getIds("1", "GIS"), contains("G1"));
+        assertThat(idCorrelator.getIds("2", "DMS"), contains("D2"));
+
+        // Without an override, blocked systems can't be told apart from unknown ones.
+        assertThat(failures, hasSize(2));
+        assertThat(failures.get(0).coreId(), equalTo("3"));
+        assertThat(failures.get(0).systemId(), equalTo("C3"));
+        assertThat(failures.get(0).details(), equalTo(FailedCorrelationInfo.UNKNOWN_SYSTEM));
+        assertThat(failures.get(1).systemTag(), equalTo("OMS"));
+        assertThat(failures.get(1).details(), equalTo(FailedCorrelationInfo.UNKNOWN_SYSTEM));
+    }
+
+    @Test
+    public void defaultExportingCorrelationsTest() {
+        IdCorrelator expected = newTestCorrelator();
+        IdCorrelator idCorrelator = new AbstractMethodsOnly(newTestCorrelator());
+        expected.addCore("5");
+        idCorrelator.addCore("5");
+
+        Map<String, Map<String, Set<String>>> expectedExport = new HashMap<>();
+        expected.exportCorrelations((coreId, systemIds) -> expectedExport.put(coreId, new HashMap<>(systemIds)));
+        Map<String, Map<String, Set<String>>> exported = new HashMap<>();
+        idCorrelator.exportCorrelations((coreId, systemIds) -> exported.put(coreId, new HashMap<>(systemIds)));
+
+        assertThat(exported, equalTo(expectedExport));
+        assertThat(exported.get("5").isEmpty(), equalTo(true));
+
+        expect(() -> idCorrelator.exportCorrelations((coreId, systemIds) -> systemIds.remove("CIS"))).toThrow(UnsupportedOperationException.class);
+    }
+
+    // Copies the test correlator into an empty one, checking the correlations match as both are modified.
+    private void checkMatchesTestCorrelator(IdCorrelator idCorrelator2) {
+        IdCorrelator idCorrelator1 = newTestCorrelator();
+        idCorrelator1.exportCorrelations((coreId, systemIds) -> {
+            idCorrelator2.addCore(coreId);
+            systemIds.forEach((systemTag, ids) -> ids.forEach(id -> {
+                idCorrelator2.addSystem(systemTag);
+                idCorrelator2.addCorrelation(coreId, systemTag, id);
+            }));
+        });
+        idCorrelator2.addSystem("OTHER");
+
+        compareCorrelations(idCorrelator1, idCorrelator2);
+
+        // Enough correlations for small collections to switch to hash tables, and for the others to grow.
+        for (int i = 0; i < 20; i++) {
+            idCorrelator1.addCorrelation("4", "OTHER", "many" + i);
+            idCorrelator2.addCorrelation("4", "OTHER", "many" + i);
+            idCorrelator1.addCorrelation("1", "GIS", "many" + i);
+            idCorrelator2.addCorrelation("1", "GIS", "many" + i);
+        }
+        compareCorrelations(idCorrelator1, idCorrelator2);
+
+        idCorrelator1.removeCore("4");
+        idCorrelator2.removeCore("4");
+        idCorrelator1.removeId("GIS", "many5");
+        idCorrelator2.removeId("GIS", "many5");
+        compareCorrelations(idCorrelator1, idCorrelator2);
+    }
+
     private IdCorrelator newTestCorrelator() {
         IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator();
         idCorrelator.addSystem("GIS");
@@ -381,4 +779,84 @@ public class IdCorrelatorTest {
         return idCorrelator;
     }
 
+
+    /**
+     * Only implements the abstract methods of {@link IdCorrelator}, passing them on to another correlator, so the default
+     * methods are used for everything else.
+     */
+    private static class AbstractMethodsOnly implements IdCorrelator {
+
+        private final IdCorrelator idCorrelator;
+
+        private AbstractMethodsOnly(IdCorrelator idCorrelator) {
+            this.idCorrelator = idCorrelator;
+        }
+
+        @Override
+        public Set<String> systems() {
+            return idCorrelator.systems();
+        }
+
+        @Override
+        public Set<String> cores() {
+            return idCorrelator.cores();
+        }
+
+        @Override
+        public boolean addSystem(String systemTag) {
+            return idCorrelator.addSystem(systemTag);
+        }
+
+        @Override
+        public void removeSystem(String systemTag) {
+            idCorrelator.removeSystem(systemTag);
+        }
+
+        @Override
+        public boolean addCore(String coreId) {
+            return idCorrelator.addCore(coreId);
+        }
+
+        @Override
+        public void addBlockedSystem(String blockedSystem) {
+            idCorrelator.addBlockedSystem(blockedSystem);
+        }
+
+        @Override
+        public void removeBlockedSystem(String blockedSystem) {
+            idCorrelator.removeBlockedSystem(blockedSystem);
+        }
+
+        @Override
+        public void removeCore(String coreId) {
+            idCorrelator.removeCore(coreId);
+        }
+
+        @Override
+        public Set<String> getCores(String systemTag, String systemId) {
+            return idCorrelator.getCores(systemTag, systemId);
+        }
+
+        @Override
+        public void addCorrelation(String coreId, String systemTag, String systemId) {
+            idCorrelator.addCorrelation(coreId, systemTag, systemId);
+        }
+
+        @Override
+        public void removeId(String systemTag, String systemId) {
+            idCorrelator.removeId(systemTag, systemId);
+        }
+
+        @Override
+        public Set<String> getIds(String coreId, String systemTag) {
+            return idCorrelator.getIds(coreId, systemTag);
+        }
+
+        @Override
+        public void write(IdCorrelatorWriter idCorrelatorWriter) throws IdCorrelatorWriteException {
+            idCorrelatorWriter.write(this);
+        }
+
+    }
+
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import com.zepben.idcorrelator.io.json.JsonUtils;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding the whole document into a {@link JsonObject} before populating the correlator against parsing it
+ * incrementally with {@link JsonUtils#readJson}. The document is read from memory so only the parsing is measured.
+ * <p>
+ * The throughput of each approach is reported in MB/s by the "megabytes" secondary result.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class JsonReadBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int coreCount;
+
+    @Param({"4"})
+    public int systemCount;
+
+    private byte[] json = new byte[0];
+
+    /**
+     * Counts the megabytes read, which JMH reports as a rate alongside the operations.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Megabytes {
+
+        public double megabytes;
+
+    }
+
+    @Setup(Level.Trial)
+    public void encode() throws IOException {
+        IdCorrelator idCorrelator = CorrelatorState.generate(coreCount, systemCount, CorrelatorState.FanOut.ONE_CORE_MANY_IDS).newPopulatedCorrelator();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonUtils.writeJson(idCorrelator, out, false);
+        json = out.toByteArray();
+    }
+
+    @Benchmark
+    public IdCorrelator decode(Megabytes megabytes) {
+        IdCorrelator idCorrelator = JsonUtils.toIdCorrelator(new JsonObject(new String(json, StandardCharsets.UTF_8)));
+        megabytes.megabytes += json.length / 1e6;
+        return idCorrelator;
+    }
+
+    @Benchmark
+    public IdCorrelator readJson(Megabytes megabytes) throws IOException {
+        IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator();
+        JsonUtils.readJson(new ByteArrayInputStream(json), idCorrelator, failure -> {
+        });
+        megabytes.megabytes += json.length / 1e6;
+        return idCorrelator;
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import com.zepben.idcorrelator.io.json.JsonUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding the whole {@link JsonUtils#toJson} tree into a string against streaming the same bytes with
+ * {@link JsonUtils#writeJson}. The output is discarded so only the encoding is measured. Run with -prof gc to compare
+ * the allocation of each approach.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class JsonWriteBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int coreCount;
+
+    @Param({"4"})
+    public int systemCount;
+
+    @Param({"false", "true"})
+    public boolean prettyPrint;
+
+    private IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator();
+    private final CountingOutputStream outputStream = new CountingOutputStream();
+
+    @Setup(Level.Trial)
+    public void populate() {
+        idCorrelator = CorrelatorState.generate(coreCount, systemCount, CorrelatorState.FanOut.ONE_CORE_MANY_IDS).newPopulatedCorrelator();
+    }
+
+    @Benchmark
+    public long encode() throws IOException {
+        String json = prettyPrint ? JsonUtils.toJson(idCorrelator).encodePrettily() : JsonUtils.toJson(idCorrelator).encode();
+        outputStream.write(json.getBytes(StandardCharsets.UTF_8));
+        return outputStream.count;
+    }
+
+    @Benchmark
+    public long writeJson() throws IOException {
+        JsonUtils.writeJson(idCorrelator, outputStream, prettyPrint);
+        return outputStream.count;
+    }
+
+    /**
+     * Discards everything written to it, only keeping count of the bytes.
+     */
+    static class CountingOutputStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            ++count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import javax.annotation.Nullable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the memory used by correlators built from the default hash based collections against ones built from the
+ * small collections, which store a few items inline.
+ * <p>
+ * The "bytesPerCorrelation" secondary result is the heap retained by the populated correlator after a GC, divided by
+ * the number of correlations. The ids themselves are held by the benchmark state for every collection type, so the
+ * figure only covers the correlator's own maps and sets. The primary result is the time taken to populate it.
+ * </p>
+ * <p>
+ * G1 is selected explicitly, as the JVM picks the serial collector on small machines, and its used heap after an
+ * explicit GC alternates between invocations, which makes the figure meaningless.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g", "-XX:+UseG1GC"})
+@State(Scope.Thread)
+public class MemoryFootprintBenchmark {
+
+    @Param({"100000"})
+    public int coreCount;
+
+    @Param({"1", "4"})
+    public int systemCount;
+
+    @Param
+    public CorrelatorState.FanOut fanOut;
+
+    @Param
+    public CollectionType collectionType;
+
+    private CorrelatorState state = new CorrelatorState();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private long baselineBytes;
+
+    // Keeps the populated correlator reachable while it is measured, and is released before the next baseline is taken.
+    @Nullable
+    private IdCorrelator idCorrelator;
+
+    /**
+     * The collections the correlator is built from.
+     */
+    public enum CollectionType {
+
+        COMPACT {
+            @Override
+            IdCorrelator create(int expectedCores) {
+                return MapBackedIdCorrelator.newCorrelator(expectedCores);
+            }
+        },
+
+        SMALL {
+            @Override
+            IdCorrelator create(int expectedCores) {
+                return MapBackedIdCorrelator.newSmallCollectionCorrelator(expectedCores);
+            }
+        };
+
+        abstract IdCorrelator create(int expectedCores);
+
+    }
+
+    /**
+     * Records the retained heap of the populated correlator, which JMH reports alongside the time.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+
+        public double bytesPerCorrelation;
+        private int measurementIterations = 1;
+
+        @Setup(Level.Iteration)
+        public void reset(BenchmarkParams params) {
+            bytesPerCorrelation = 0;
+            measurementIterations = params.getMeasurement().getCount();
+        }
+
+        // JMH sums EVENTS counters over the measurement iterations, so each iteration records its share of the average.
+        void record(double value) {
+            bytesPerCorrelation = value / measurementIterations;
+        }
+
+    }
+
+    @Setup(Level.Trial)
+    public void generate() {
+        state = CorrelatorState.generate(coreCount, systemCount, fanOut);
+    }
+
+    @Setup(Level.Invocation)
+    public void measureBaseline() {
+        idCorrelator = null;
+        baselineBytes = usedHeapAfterGc();
+    }
+
+    @Benchmark
+    public int populate(Footprint footprint) {
+        IdCorrelator populated = collectionType.create(coreCount);
+        idCorrelator = populated;
+        state.addCores(populated);
+        state.addSystems(populated);
+        state.addCorrelations(populated);
+
+        long correlationCount = (long) systemCount * fanOut.correlationCount(coreCount);
+        footprint.record((double) (usedHeapAfterGc() - baselineBytes) / correlationCount);
+
+        return populated.coreCount();
+    }
+
+    private long usedHeapAfterGc() {
+        // A couple of passes, as a single GC is not guaranteed to collect everything that is unreachable.
+        System.gc();
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how the throughput of the thread safe correlators scales with the number of threads, when 1 in every
+ * {@code writeInterval} operations is a write and the rest are {@link IdCorrelator#getCores} lookups. The default
+ * intervals compare a read mostly load with one where half the operations are writes.
+ * <p>
+ * Each thread count is a separate benchmark, as JMH can't take the thread count as a parameter. The throughput is the
+ * total over all the threads, so perfect scaling doubles it with each doubling of threads. Run one implementation at
+ * a time with, e.g.
+ * mvn -P benchmark -DskipTests verify -Djmh.args="ReadScalingBenchmark -p correlator=STAMPED"
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class ReadScalingBenchmark {
+
+    @Param({"100000"})
+    public int coreCount;
+
+    @Param({"100", "2"})
+    public int writeInterval;
+
+    @Param({"SYNCHRONISED", "STAMPED", "STRIPED", "CONCURRENT"})
+    public CorrelatorState.CorrelatorImplementation correlator;
+
+    private CorrelatorState correlations = new CorrelatorState();
+    private IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator();
+    private String systemTag = "";
+
+    /**
+     * The position of each thread in the lookups, and the spare id it correlates and removes again for its writes.
+     */
+    @State(Scope.Thread)
+    public static class Worker {
+
+        private static final AtomicInteger NEXT_WORKER = new AtomicInteger();
+
+        final int worker = NEXT_WORKER.getAndIncrement();
+        final String spareId = "spare_" + worker;
+        int operation;
+        int next = worker;
+        boolean correlated;
+
+    }
+
+    @Setup(Level.Trial)
+    public void populate() {
+        correlations = CorrelatorState.generate(coreCount, 1, CorrelatorState.FanOut.ONE_TO_ONE);
+        correlations.correlator = correlator;
+        idCorrelator = correlations.newPopulatedCorrelator();
+        systemTag = correlations.systemTags[0];
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object threads01(Worker worker) {
+        return mixed(worker);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public Object threads02(Worker worker) {
+        return mixed(worker);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object threads04(Worker worker) {
+        return mixed(worker);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object threads08(Worker worker) {
+        return mixed(worker);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Object threads16(Worker worker) {
+        return mixed(worker);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public Object threads32(Worker worker) {
+        return mixed(worker);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Object threads64(Worker worker) {
+        return mixed(worker);
+    }
+
+    // Every writeInterval operations the worker alternately correlates its spare id and removes it, so the size of the
+    // correlator stays the same. The other operations look up the cores of an existing id.
+    @Nullable
+    private Object mixed(Worker worker) {
+        worker.next = (int) ((worker.next + 1_000_003L) % coreCount);
+        if (++worker.operation % writeInterval != 0)
+            return idCorrelator.getCores(systemTag, correlations.systemIds[0][worker.next]);
+
+        if (worker.correlated)
+            idCorrelator.removeId(systemTag, worker.spareId);
+        else
+            idCorrelator.addCorrelation(correlations.coreIds[worker.next], systemTag, worker.spareId);
+        worker.correlated = !worker.correlated;
+        return null;
+    }
+
+}
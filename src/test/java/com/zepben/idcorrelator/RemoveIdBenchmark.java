@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link IdCorrelator#removeId} against the total number of cores, which should not affect its cost.
+ * <p>
+ * Each invocation removes one id and then correlates it again, so the correlator stays the same size for the whole
+ * trial. The cost of re-adding the correlation does not depend on the number of cores either.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class RemoveIdBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int coreCount;
+
+    @Param
+    public CorrelatorState.FanOut fanOut;
+
+    private CorrelatorState correlations = new CorrelatorState();
+    private IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator();
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void populate() {
+        correlations = CorrelatorState.generate(coreCount, 1, fanOut);
+        idCorrelator = correlations.newPopulatedCorrelator();
+    }
+
+    @Benchmark
+    public IdCorrelator removeId() {
+        if (++cursor >= correlations.correlatedCores.length)
+            cursor = 0;
+
+        String systemTag = correlations.systemTags[0];
+        String systemId = correlations.systemIds[0][cursor];
+        idCorrelator.removeId(systemTag, systemId);
+        idCorrelator.addCorrelation(correlations.coreIds[correlations.correlatedCores[cursor]], systemTag, systemId);
+        return idCorrelator;
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link IdCorrelator#removeSystem} for a small system in a correlator that also holds one large system
+ * correlated to every core. The cost should follow the size of the small system, not the number of cores.
+ * <p>
+ * Each invocation removes one of the small systems and then adds it back with its correlations, so the correlator stays
+ * the same size for the whole trial.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class RemoveSystemBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int coreCount;
+
+    @Param({"100"})
+    public int smallSystemCount;
+
+    @Param({"100", "1000"})
+    public int smallSystemSize;
+
+    private CorrelatorState correlations = new CorrelatorState();
+    private IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator();
+    private String[] smallSystemTags = new String[0];
+    private String[][] smallSystemCores = new String[0][];
+    private String[][] smallSystemIds = new String[0][];
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void populate() {
+        correlations = CorrelatorState.generate(coreCount, 1, CorrelatorState.FanOut.ONE_TO_ONE);
+        idCorrelator = correlations.newPopulatedCorrelator();
+
+        smallSystemTags = new String[smallSystemCount];
+        smallSystemCores = new String[smallSystemCount][smallSystemSize];
+        smallSystemIds = new String[smallSystemCount][smallSystemSize];
+        int step = Math.max(coreCount / smallSystemSize, 1);
+        for (int s = 0; s < smallSystemCount; s++) {
+            smallSystemTags[s] = "small_" + s;
+            for (int i = 0; i < smallSystemSize; i++) {
+                smallSystemCores[s][i] = correlations.coreIds[(i * step + s) % coreCount];
+                smallSystemIds[s][i] = "small_" + s + "_id" + i;
+            }
+            addSmallSystem(s);
+        }
+    }
+
+    @Benchmark
+    public IdCorrelator removeSmallSystem() {
+        if (++cursor >= smallSystemCount)
+            cursor = 0;
+
+        idCorrelator.removeSystem(smallSystemTags[cursor]);
+        addSmallSystem(cursor);
+        return idCorrelator;
+    }
+
+    private void addSmallSystem(int system) {
+        String systemTag = smallSystemTags[system];
+        idCorrelator.addSystem(systemTag);
+        for (int i = 0; i < smallSystemSize; i++)
+            idCorrelator.addCorrelation(smallSystemCores[system][i], systemTag, smallSystemIds[system][i]);
+    }
+
+}
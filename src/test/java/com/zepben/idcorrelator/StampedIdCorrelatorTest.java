@@ -0,0 +1,342 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import com.zepben.collections.CompactHashMap;
+import com.zepben.collections.CompactHashSet;
+import com.zepben.idcorrelator.io.FailedCorrelationInfo;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static com.zepben.idcorrelator.TestUtils.compareCorrelations;
+import static com.zepben.idcorrelator.TestUtils.populateTestCorrelations;
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class StampedIdCorrelatorTest {
+
+    @Test
+    public void matchesWrappedCorrelatorTest() {
+        IdCorrelator expected = MapBackedIdCorrelator.newCorrelator();
+        IdCorrelator stamped = new StampedIdCorrelator(MapBackedIdCorrelator.newCorrelator());
+
+        for (IdCorrelator idCorrelator : new IdCorrelator[]{expected, stamped}) {
+            idCorrelator.addSystem("GIS");
+            idCorrelator.addSystem("DMS");
+            idCorrelator.addCore("1");
+            idCorrelator.addCore("2");
+            idCorrelator.addCorrelation("1", "GIS", "G1");
+            idCorrelator.addCorrelation("2", "GIS", "G1");
+            idCorrelator.addCorrelation("2", "DMS", "D2");
+            idCorrelator.addBlockedSystem("OMS");
+        }
+
+        compareCorrelations(stamped, expected);
+        assertThat(stamped.systemCount(), is(2));
+        assertThat(stamped.coreCount(), is(2));
+        assertThat(stamped.hasSystem("GIS"), is(true));
+        assertThat(stamped.hasCore("3"), is(false));
+        assertThat(stamped.findCore("DMS", "D2"), is("2"));
+        assertThat(stamped.findCore("GIS", "G1"), nullValue());
+        assertThat(stamped.findId("2", "DMS"), is("D2"));
+        assertThat(stamped.getCoresView("GIS", "G1"), containsInAnyOrder("1", "2"));
+        assertThat(stamped.getIdsForCores(stamped.cores(), "GIS").keySet(), containsInAnyOrder("1", "2"));
+
+        List<String> visited = new ArrayList<>();
+        stamped.forEachCore("GIS", "G1", visited::add);
+        assertThat(visited, containsInAnyOrder("1", "2"));
+
+        assertThat(stamped.addSystem("OMS"), is(false));
+    }
+
+    @Test
+    public void delegatesToWrappedCorrelatorTest() throws Exception {
+        IdCorrelator stamped = populateTestCorrelations(new StampedIdCorrelator(MapBackedIdCorrelator.newCorrelator()));
+
+        assertThat(stamped.systemsView(), containsInAnyOrder("GIS", "DMS", "OMS", "CIS"));
+        assertThat(stamped.coresView(), containsInAnyOrder("1", "2", "3", "4"));
+        assertThat(stamped.getCoresForIds("CIS", Collections.singletonList("C1")).get("C1"), containsInAnyOrder("1", "2", "3"));
+        assertThat(stamped.getIdsView("2", "DMS"), containsInAnyOrder("D3", "D4"));
+
+        List<String> visited = new ArrayList<>();
+        stamped.forEachSystem(visited::add);
+        stamped.forEachId("4", "OMS", visited::add);
+        assertThat(visited, containsInAnyOrder("GIS", "DMS", "OMS", "CIS", "O9"));
+
+        Map<String, Map<String, Set<String>>> exported = new HashMap<>();
+        stamped.exportCorrelations((coreId, systemIds) -> exported.put(coreId, new HashMap<>(systemIds)));
+        assertThat(exported.get("4").keySet(), containsInAnyOrder("GIS", "DMS", "OMS"));
+
+        List<FailedCorrelationInfo> failures = new ArrayList<>();
+        stamped.loadCorrelations(Arrays.asList(new Correlation("5", "GIS", "G5"), new Correlation("5", "UNKNOWN", "U5")), failures::add);
+        assertThat(stamped.findCore("GIS", "G5"), is("5"));
+        assertThat(failures.size(), is(1));
+
+        stamped.removeId("GIS", "G5");
+        stamped.removeSystem("OMS");
+        stamped.addBlockedSystem("OMS");
+        stamped.removeBlockedSystem("OMS");
+        assertThat(stamped.getIds("5", "GIS"), empty());
+        assertThat(stamped.hasSystem("OMS"), is(false));
+        assertThat(stamped.addSystem("OMS"), is(true));
+
+        List<IdCorrelator> written = new ArrayList<>();
+        stamped.write(written::add);
+        assertThat(written.size(), is(1));
+    }
+
+    @Test
+    public void countsAndChecksRacingWritesAreRepeatedTest() {
+        AtomicInteger calls = new AtomicInteger();
+        Holder holder = new Holder();
+        IdCorrelator wrapped = new MapBackedIdCorrelator(CompactHashMap::new, CompactHashSet::new) {
+            @Override
+            public int systemCount() {
+                if (calls.incrementAndGet() == 1) {
+                    runOnOtherThread(() -> holder.stamped.addSystem("DMS"));
+                    throw new IllegalStateException("Saw a half finished write");
+                }
+                return super.systemCount();
+            }
+
+            @Override
+            public boolean hasSystem(String systemTag) {
+                if (calls.incrementAndGet() == 3) {
+                    boolean stale = super.hasSystem(systemTag);
+                    runOnOtherThread(() -> holder.stamped.addSystem(systemTag));
+                    return stale;
+                }
+                return super.hasSystem(systemTag);
+            }
+
+            @Override
+            public boolean hasCore(String coreId) {
+                calls.incrementAndGet();
+                throw new IllegalStateException("Lookup failed");
+            }
+        };
+        holder.stamped = createPopulated(wrapped);
+
+        assertThat(holder.stamped.systemCount(), is(2));
+        assertThat(holder.stamped.hasSystem("CIS"), is(true));
+        assertThat(calls.get(), is(4));
+
+        expect(() -> holder.stamped.hasCore("1")).toThrow(IllegalStateException.class);
+        expect(() -> new StampedIdCorrelator(new MapBackedIdCorrelator(CompactHashMap::new, CompactHashSet::new) {
+            @Override
+            public int coreCount() {
+                throw new IllegalStateException("Lookup failed");
+            }
+        }).coreCount()).toThrow(IllegalStateException.class);
+    }
+
+    @Test
+    public void locksTest() {
+        Holder holder = new Holder();
+        IdCorrelator wrapped = new MapBackedIdCorrelator(CompactHashMap::new, CompactHashSet::new) {
+            @Override
+            public boolean addCore(String coreId) {
+                assertThat(holder.stamped.isWriteLocked(), is(true));
+                return super.addCore(coreId);
+            }
+
+            @Override
+            public Set<String> getIds(String coreId, String systemTag) {
+                // Lookups don't take the lock unless a write interrupts them.
+                assertThat(holder.stamped.isReadLocked(), is(false));
+                assertThat(holder.stamped.isWriteLocked(), is(false));
+                return super.getIds(coreId, systemTag);
+            }
+
+            @Override
+            public void forEachCore(Consumer<String> action) {
+                assertThat(holder.stamped.isReadLocked(), is(true));
+                super.forEachCore(action);
+            }
+        };
+        holder.stamped = new StampedIdCorrelator(wrapped);
+
+        holder.stamped.addCore("1");
+        holder.stamped.getIds("1", "GIS");
+        holder.stamped.forEachCore(coreId -> {
+        });
+
+        assertThat(holder.stamped.isReadLocked(), is(false));
+        assertThat(holder.stamped.isWriteLocked(), is(false));
+    }
+
+    @Test
+    public void lookupRacingWriteIsRepeatedTest() {
+        AtomicInteger calls = new AtomicInteger();
+        Holder holder = new Holder();
+        IdCorrelator wrapped = new MapBackedIdCorrelator(CompactHashMap::new, CompactHashSet::new) {
+            @Override
+            public Set<String> getCores(String systemTag, String systemId) {
+                if (calls.incrementAndGet() == 1) {
+                    Set<String> stale = super.getCores(systemTag, systemId);
+                    runOnOtherThread(() -> holder.stamped.addCorrelation("2", "GIS", "G1"));
+                    return stale;
+                }
+
+                assertThat(holder.stamped.isReadLocked(), is(true));
+                return super.getCores(systemTag, systemId);
+            }
+        };
+        holder.stamped = createPopulated(wrapped);
+
+        assertThat(holder.stamped.getCores("GIS", "G1"), containsInAnyOrder("1", "2"));
+        assertThat(calls.get(), is(2));
+    }
+
+    @Test
+    public void exceptionFromLookupRacingWriteIsDiscardedTest() {
+        AtomicInteger calls = new AtomicInteger();
+        Holder holder = new Holder();
+        IdCorrelator wrapped = new MapBackedIdCorrelator(CompactHashMap::new, CompactHashSet::new) {
+            @Override
+            public int coreCount() {
+                if (calls.incrementAndGet() == 1) {
+                    runOnOtherThread(() -> holder.stamped.addCore("3"));
+                    throw new IllegalStateException("Saw a half finished write");
+                }
+
+                return super.coreCount();
+            }
+        };
+        holder.stamped = createPopulated(wrapped);
+
+        assertThat(holder.stamped.coreCount(), is(3));
+        assertThat(calls.get(), is(2));
+    }
+
+    @Test
+    public void errorFromLookupRacingWriteIsDiscardedTest() {
+        AtomicInteger calls = new AtomicInteger();
+        Holder holder = new Holder();
+        IdCorrelator wrapped = new MapBackedIdCorrelator(CompactHashMap::new, CompactHashSet::new) {
+            @Nullable
+            @Override
+            public String findId(String coreId, String systemTag) {
+                if (calls.incrementAndGet() == 1) {
+                    runOnOtherThread(() -> holder.stamped.addCorrelation("1", "GIS", "G2"));
+                    throw new AssertionError("Probed a full table");
+                }
+
+                return super.findId(coreId, systemTag);
+            }
+        };
+        holder.stamped = createPopulated(wrapped);
+
+        assertThat(holder.stamped.findId("1", "GIS"), nullValue());
+        assertThat(calls.get(), is(2));
+    }
+
+    @Test
+    public void lookupsRacingWritesTest() throws Exception {
+        StampedIdCorrelator stamped = new StampedIdCorrelator(MapBackedIdCorrelator.newCorrelator());
+        stamped.addSystem("S3");
+
+        // The writer keeps recreating a core, so the readers see its maps being filled and resized. Removing the core
+        // also removes the systems it leaves empty, so they are added again each time.
+        List<Throwable> failures = new ArrayList<>();
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicInteger writes = new AtomicInteger();
+        Thread writer = new Thread(() -> {
+            try {
+                while (!stop.get()) {
+                    stamped.addSystem("S1");
+                    stamped.addSystem("S2");
+                    stamped.addCore("c");
+                    stamped.addCorrelation("c", "S1", "a");
+                    stamped.addCorrelation("c", "S2", "b");
+                    stamped.removeCore("c");
+                    writes.incrementAndGet();
+                }
+            } catch (Throwable t) {
+                synchronized (failures) {
+                    failures.add(t);
+                }
+            }
+        });
+        writer.start();
+
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            readers.add(new Thread(() -> {
+                try {
+                    for (int lookup = 0; lookup < 200_000; lookup++) {
+                        assertThat(stamped.findId("c", "S3"), nullValue());
+                        stamped.getIds("c", "S1");
+                    }
+                } catch (Throwable t) {
+                    synchronized (failures) {
+                        failures.add(t);
+                    }
+                }
+            }));
+        }
+        readers.forEach(Thread::start);
+        for (Thread reader : readers)
+            reader.join();
+        stop.set(true);
+        writer.join();
+
+        assertThat(failures, empty());
+        assertThat(writes.get(), greaterThan(1));
+    }
+
+    @Test
+    public void exceptionFromConsistentLookupIsThrownTest() {
+        AtomicInteger calls = new AtomicInteger();
+        IdCorrelator wrapped = new MapBackedIdCorrelator(CompactHashMap::new, CompactHashSet::new) {
+            @Override
+            public boolean hasCore(String coreId) {
+                calls.incrementAndGet();
+                throw new IllegalStateException("Lookup failed");
+            }
+        };
+        StampedIdCorrelator stamped = createPopulated(wrapped);
+
+        expect(() -> stamped.hasCore("1")).toThrow(IllegalStateException.class);
+        assertThat(calls.get(), is(1));
+    }
+
+    private static StampedIdCorrelator createPopulated(IdCorrelator wrapped) {
+        StampedIdCorrelator stamped = new StampedIdCorrelator(wrapped);
+        stamped.addSystem("GIS");
+        stamped.addCore("1");
+        stamped.addCore("2");
+        stamped.addCorrelation("1", "GIS", "G1");
+        return stamped;
+    }
+
+    // Writes from another thread, as the lock isn't reentrant.
+    private static void runOnOtherThread(Runnable write) {
+        Thread thread = new Thread(write);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static class Holder {
+
+        StampedIdCorrelator stamped = new StampedIdCorrelator(MapBackedIdCorrelator.newCorrelator());
+
+    }
+
+}
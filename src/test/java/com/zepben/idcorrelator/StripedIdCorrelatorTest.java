@@ -0,0 +1,227 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import com.zepben.idcorrelator.io.FailedCorrelationInfo;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.zepben.idcorrelator.TestUtils.compareCorrelations;
+import static com.zepben.idcorrelator.TestUtils.populateTestCorrelations;
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class StripedIdCorrelatorTest {
+
+    @Test
+    public void matchesMapBackedCorrelatorTest() {
+        IdCorrelator expected = populateTestCorrelations(MapBackedIdCorrelator.newCorrelator());
+        IdCorrelator striped = populateTestCorrelations(new StripedIdCorrelator());
+        compareCorrelations(striped, expected);
+
+        assertThat(striped.systemCount(), is(4));
+        assertThat(striped.coreCount(), is(4));
+        assertThat(striped.getCores("CIS", "C1"), containsInAnyOrder("1", "2", "3"));
+        assertThat(striped.getIds("2", "DMS"), containsInAnyOrder("D3", "D4"));
+        assertThat(striped.findCore("GIS", "G9"), is("4"));
+        assertThat(striped.findCore("CIS", "C1"), nullValue());
+        assertThat(striped.findId("4", "DMS"), is("D9"));
+        assertThat(striped.findId("2", "DMS"), nullValue());
+        assertThat(striped.getCoresForIds("CIS", Arrays.asList("C1", "C2")).keySet(), contains("C1"));
+        assertThat(striped.getIdsForCores(Arrays.asList("1", "4"), "GIS").keySet(), contains("4"));
+
+        List<String> visited = new ArrayList<>();
+        striped.forEachCore("CIS", "C1", visited::add);
+        striped.forEachId("2", "DMS", visited::add);
+        assertThat(visited, containsInAnyOrder("1", "2", "3", "D3", "D4"));
+
+        for (IdCorrelator idCorrelator : new IdCorrelator[]{expected, striped}) {
+            idCorrelator.removeId("CIS", "C1");
+            idCorrelator.removeCore("3");
+            idCorrelator.removeSystem("OMS");
+            idCorrelator.addBlockedSystem("OMS");
+            assertThat(idCorrelator.addSystem("OMS"), is(false));
+        }
+        compareCorrelations(striped, expected);
+        assertThat(striped.getIds("2", "CIS"), empty());
+        assertThat(striped.getCores("GIS", "G1"), empty());
+        assertThat(striped.hasSystem("OMS"), is(false));
+
+        // Removing the only core correlated to a system removes the system, as it does for MapBackedIdCorrelator.
+        expected.removeCore("4");
+        striped.removeCore("4");
+        compareCorrelations(striped, expected);
+        assertThat(striped.systems(), equalTo(expected.systems()));
+
+        expect(() -> striped.addCorrelation("1", "UNKNOWN", "U1")).toThrow(IllegalArgumentException.class);
+        expect(() -> striped.addCorrelation("UNKNOWN", "GIS", "G1")).toThrow(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void queriesTest() {
+        StripedIdCorrelator striped = (StripedIdCorrelator) populateTestCorrelations(new StripedIdCorrelator());
+
+        // The views are copies, as they can't be protected by the locks.
+        Set<String> systemsView = striped.systemsView();
+        Set<String> coresView = striped.coresView();
+        striped.addCore("5");
+        assertThat(systemsView, containsInAnyOrder("GIS", "DMS", "OMS", "CIS"));
+        assertThat(coresView, containsInAnyOrder("1", "2", "3", "4"));
+        assertThat(striped.hasCore("5"), is(true));
+        assertThat(striped.hasCore("6"), is(false));
+        assertThat(striped.addSystem("id"), is(false));
+
+        List<String> visited = new ArrayList<>();
+        striped.forEachSystem(visited::add);
+        striped.forEachCore(visited::add);
+        assertThat(visited, containsInAnyOrder("GIS", "DMS", "OMS", "CIS", "1", "2", "3", "4", "5"));
+
+        visited.clear();
+        striped.forEachCore("UNKNOWN", "C1", visited::add);
+        striped.forEachCore("CIS", "UNKNOWN", visited::add);
+        striped.forEachId("2", "UNKNOWN", visited::add);
+        striped.forEachId("5", "CIS", visited::add);
+        assertThat(visited, empty());
+
+        assertThat(striped.getCoresView("GIS", "G9"), contains("4"));
+        assertThat(striped.getIdsView("4", "OMS"), contains("O9"));
+        assertThat(striped.getCores("UNKNOWN", "G9"), empty());
+        assertThat(striped.getIds("4", "UNKNOWN"), empty());
+        assertThat(striped.findCore("UNKNOWN", "G9"), nullValue());
+        assertThat(striped.findId("4", "UNKNOWN"), nullValue());
+        assertThat(striped.getCoresForIds("UNKNOWN", Collections.singletonList("G9")), anEmptyMap());
+        assertThat(striped.getCoresForIds("GIS", Collections.emptyList()), anEmptyMap());
+        assertThat(striped.getIdsForCores(Collections.singletonList("4"), "UNKNOWN"), anEmptyMap());
+        assertThat(striped.getIdsForCores(Collections.emptyList(), "GIS"), anEmptyMap());
+        assertThat(striped.isSystemWriteLocked("UNKNOWN"), is(false));
+
+        // Removing what isn't there does nothing.
+        striped.removeId("UNKNOWN", "G9");
+        striped.removeId("GIS", "UNKNOWN");
+        striped.removeCore("UNKNOWN");
+        assertThat(striped.findCore("GIS", "G9"), is("4"));
+
+        // Removing a shared id leaves the other ids of its cores.
+        striped.removeId("DMS", "D4");
+        striped.removeId("CIS", "C1");
+        assertThat(striped.getIds("2", "DMS"), contains("D3"));
+        assertThat(striped.getIds("1", "CIS"), empty());
+
+        striped.addBlockedSystem("NEW");
+        assertThat(striped.addSystem("NEW"), is(false));
+        striped.removeBlockedSystem("NEW");
+        assertThat(striped.addSystem("NEW"), is(true));
+    }
+
+    @Test
+    public void exportCorrelationsTest() {
+        IdCorrelator striped = populateTestCorrelations(new StripedIdCorrelator());
+
+        Map<String, Map<String, Set<String>>> exported = new HashMap<>();
+        striped.exportCorrelations((coreId, systemIds) -> exported.put(coreId, new HashMap<>(systemIds)));
+
+        assertThat(exported.keySet(), containsInAnyOrder("1", "2", "3", "4"));
+        assertThat(exported.get("1").keySet(), contains("CIS"));
+        assertThat(exported.get("3").get("DMS"), containsInAnyOrder("D2", "D6"));
+        assertThat(exported.get("4").keySet(), containsInAnyOrder("GIS", "DMS", "OMS"));
+    }
+
+    @Test
+    public void writeTest() throws Exception {
+        StripedIdCorrelator striped = (StripedIdCorrelator) populateTestCorrelations(new StripedIdCorrelator());
+
+        // The writer reads the correlator while write holds the read locks of every system.
+        List<String> written = new ArrayList<>();
+        striped.write(idCorrelator -> {
+            assertThat(striped.getStructureReadHoldCount(), is(1));
+            idCorrelator.exportCorrelations((coreId, systemIds) -> written.add(coreId));
+        });
+
+        assertThat(written, containsInAnyOrder("1", "2", "3", "4"));
+        assertThat(striped.getStructureReadHoldCount(), is(0));
+    }
+
+    @Test
+    public void loadCorrelationsTest() {
+        StripedIdCorrelator striped = new StripedIdCorrelator();
+        striped.addSystem("GIS");
+        striped.addSystem("DMS");
+        striped.addBlockedSystem("OMS");
+
+        List<FailedCorrelationInfo> failures = new ArrayList<>();
+        striped.loadCorrelations(Arrays.asList(
+            new Correlation("1", "GIS", "G1"),
+            new Correlation("1", "GIS", "G1"),
+            new Correlation("2", "GIS", "G2"),
+            new Correlation("2", "OMS", "O2"),
+            new Correlation("2", "CIS", "C2"),
+            new Correlation("3", "DMS", "D3")
+        ), failures::add);
+
+        assertThat(striped.cores(), containsInAnyOrder("1", "2", "3"));
+        assertThat(striped.getIds("1", "GIS"), contains("G1"));
+        assertThat(striped.getCores("DMS", "D3"), contains("3"));
+        assertThat(failures.size(), is(2));
+        assertThat(failures.get(0).details(), is(FailedCorrelationInfo.BLOCKED_SYSTEM));
+        assertThat(failures.get(1).details(), is(FailedCorrelationInfo.UNKNOWN_SYSTEM));
+        assertThat(striped.getStructureReadHoldCount(), is(0));
+        assertThat(striped.isSystemWriteLocked("GIS"), is(false));
+    }
+
+    @Test
+    public void loadDoesNotBlockOtherSystemsTest() throws Exception {
+        StripedIdCorrelator striped = new StripedIdCorrelator();
+        striped.addSystem("GIS");
+        striped.addSystem("SCADA");
+        striped.addCore("1");
+        striped.addCorrelation("1", "SCADA", "S1");
+
+        AtomicBoolean otherSystemUsed = new AtomicBoolean();
+        Iterable<Correlation> correlations = () -> new Iterator<Correlation>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < 2;
+            }
+
+            @Override
+            public Correlation next() {
+                // Part way through the load of GIS, use SCADA from another thread, which must not wait for the load.
+                if (next++ == 1) {
+                    assertThat(striped.isSystemWriteLocked("GIS"), is(true));
+                    Thread thread = new Thread(() -> {
+                        striped.addCore("2");
+                        striped.addCorrelation("2", "SCADA", "S2");
+                        otherSystemUsed.set(striped.getCores("SCADA", "S2").contains("2"));
+                    });
+                    thread.start();
+                    try {
+                        thread.join(10000);
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    assertThat(thread.isAlive(), is(false));
+                }
+                return new Correlation("1", "GIS", "G" + next);
+            }
+        };
+
+        striped.loadCorrelations(correlations, failure -> {
+            throw new AssertionError("Unexpected failure " + failure);
+        });
+
+        assertThat(otherSystemUsed.get(), is(true));
+        assertThat(striped.getIds("1", "GIS"), containsInAnyOrder("G1", "G2"));
+    }
+
+}
@@ -9,6 +9,8 @@
 package com.zepben.idcorrelator;
 
 import com.zepben.annotations.EverythingIsNonnullByDefault;
+import com.zepben.collections.CompactHashMap;
+import com.zepben.collections.CompactHashSet;
 import com.zepben.idcorrelator.io.IdCorrelatorWriter;
 import com.zepben.testutils.junit.SystemLogExtension;
 import org.junit.jupiter.api.BeforeEach;
@@ -18,8 +20,12 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 
 import javax.annotation.Nullable;
-import java.util.Collections;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
+import static com.zepben.idcorrelator.TestUtils.compareCorrelations;
+import static com.zepben.testutils.exception.ExpectException.expect;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.hamcrest.core.IsEqual.equalTo;
@@ -49,6 +55,14 @@ public class SynchronisedIdCorrelatorTest {
         AssertionError error = new AssertionError("Incorrectly called a mock that should not have been called");
         doThrow(error).when(mockIdCorrelator).systems();
         doThrow(error).when(mockIdCorrelator).cores();
+        doThrow(error).when(mockIdCorrelator).systemsView();
+        doThrow(error).when(mockIdCorrelator).coresView();
+        doThrow(error).when(mockIdCorrelator).systemCount();
+        doThrow(error).when(mockIdCorrelator).coreCount();
+        doThrow(error).when(mockIdCorrelator).hasSystem(anyString());
+        doThrow(error).when(mockIdCorrelator).hasCore(anyString());
+        doThrow(error).when(mockIdCorrelator).forEachSystem(any());
+        doThrow(error).when(mockIdCorrelator).forEachCore(any());
         doThrow(error).when(mockIdCorrelator).addSystem(anyString());
         doThrow(error).when(mockIdCorrelator).removeSystem(anyString());
         doThrow(error).when(mockIdCorrelator).addCore(anyString());
@@ -57,6 +71,16 @@ public class SynchronisedIdCorrelatorTest {
         doThrow(error).when(mockIdCorrelator).addCorrelation(anyString(), anyString(), anyString());
         doThrow(error).when(mockIdCorrelator).removeId(anyString(), anyString());
         doThrow(error).when(mockIdCorrelator).getIds(anyString(), anyString());
+        doThrow(error).when(mockIdCorrelator).getCoresForIds(anyString(), any());
+        doThrow(error).when(mockIdCorrelator).getIdsForCores(any(), anyString());
+        doThrow(error).when(mockIdCorrelator).forEachCore(anyString(), anyString(), any());
+        doThrow(error).when(mockIdCorrelator).findCore(anyString(), anyString());
+        doThrow(error).when(mockIdCorrelator).getCoresView(anyString(), anyString());
+        doThrow(error).when(mockIdCorrelator).forEachId(anyString(), anyString(), any());
+        doThrow(error).when(mockIdCorrelator).findId(anyString(), anyString());
+        doThrow(error).when(mockIdCorrelator).getIdsView(anyString(), anyString());
+        doThrow(error).when(mockIdCorrelator).loadCorrelations(any(), anyInt(), anyInt(), any());
+        doThrow(error).when(mockIdCorrelator).exportCorrelations(any());
         doThrow(error).when(mockIdCorrelator).write(any());
     }
 
@@ -91,6 +115,130 @@ public class SynchronisedIdCorrelatorTest {
         verify(mockIdCorrelator, times(1)).cores();
     }
 
+    @Test
+    public void systemsView() {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        assertThat(synchronisedIdCorrelator, not(nullValue()));
+
+        // A live view can't be protected by the lock, so a copy is returned instead.
+        doAnswer(invocation -> {
+            validateLocks(false);
+            validateStringParams(invocation, 0);
+            return Collections.emptySet();
+        }).when(mockIdCorrelator).systems();
+
+        synchronisedIdCorrelator.systemsView();
+        verify(mockIdCorrelator, times(1)).systems();
+        verify(mockIdCorrelator, never()).systemsView();
+    }
+
+    @Test
+    public void coresView() {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        assertThat(synchronisedIdCorrelator, not(nullValue()));
+
+        // A live view can't be protected by the lock, so a copy is returned instead.
+        doAnswer(invocation -> {
+            validateLocks(false);
+            validateStringParams(invocation, 0);
+            return Collections.emptySet();
+        }).when(mockIdCorrelator).cores();
+
+        synchronisedIdCorrelator.coresView();
+        verify(mockIdCorrelator, times(1)).cores();
+        verify(mockIdCorrelator, never()).coresView();
+    }
+
+    @Test
+    public void systemCount() {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        assertThat(synchronisedIdCorrelator, not(nullValue()));
+
+        doAnswer(invocation -> {
+            validateLocks(false);
+            validateStringParams(invocation, 0);
+            return 0;
+        }).when(mockIdCorrelator).systemCount();
+
+        synchronisedIdCorrelator.systemCount();
+        verify(mockIdCorrelator, times(1)).systemCount();
+    }
+
+    @Test
+    public void coreCount() {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        assertThat(synchronisedIdCorrelator, not(nullValue()));
+
+        doAnswer(invocation -> {
+            validateLocks(false);
+            validateStringParams(invocation, 0);
+            return 0;
+        }).when(mockIdCorrelator).coreCount();
+
+        synchronisedIdCorrelator.coreCount();
+        verify(mockIdCorrelator, times(1)).coreCount();
+    }
+
+    @Test
+    public void hasSystem() {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        assertThat(synchronisedIdCorrelator, not(nullValue()));
+
+        doAnswer(invocation -> {
+            validateLocks(false);
+            validateStringParams(invocation, 1);
+            return true;
+        }).when(mockIdCorrelator).hasSystem(anyString());
+
+        synchronisedIdCorrelator.hasSystem("first");
+        verify(mockIdCorrelator, times(1)).hasSystem(anyString());
+    }
+
+    @Test
+    public void hasCore() {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        assertThat(synchronisedIdCorrelator, not(nullValue()));
+
+        doAnswer(invocation -> {
+            validateLocks(false);
+            validateStringParams(invocation, 1);
+            return true;
+        }).when(mockIdCorrelator).hasCore(anyString());
+
+        synchronisedIdCorrelator.hasCore("first");
+        verify(mockIdCorrelator, times(1)).hasCore(anyString());
+    }
+
+    @Test
+    public void forEachSystem() {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        assertThat(synchronisedIdCorrelator, not(nullValue()));
+
+        doAnswer(invocation -> {
+            validateLocks(false);
+            return null;
+        }).when(mockIdCorrelator).forEachSystem(any());
+
+        synchronisedIdCorrelator.forEachSystem(systemTag -> {
+        });
+        verify(mockIdCorrelator, times(1)).forEachSystem(any());
+    }
+
+    @Test
+    public void forEachCoreInCorrelator() {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        assertThat(synchronisedIdCorrelator, not(nullValue()));
+
+        doAnswer(invocation -> {
+            validateLocks(false);
+            return null;
+        }).when(mockIdCorrelator).forEachCore(any());
+
+        synchronisedIdCorrelator.forEachCore(coreId -> {
+        });
+        verify(mockIdCorrelator, times(1)).forEachCore(any());
+    }
+
     @Test
     public void addSystem() {
         assertThat(mockIdCorrelator, not(nullValue()));
@@ -136,6 +284,21 @@ public class SynchronisedIdCorrelatorTest {
         verify(mockIdCorrelator, times(1)).addCore(anyString());
     }
 
+    @Test
+    public void loadCorrelations() {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        assertThat(synchronisedIdCorrelator, not(nullValue()));
+
+        doAnswer(invocation -> {
+            validateLocks(true);
+            return null;
+        }).when(mockIdCorrelator).loadCorrelations(any(), anyInt(), anyInt(), any());
+
+        synchronisedIdCorrelator.loadCorrelations(Collections.emptyList(), 1, 1, failure -> {
+        });
+        verify(mockIdCorrelator, times(1)).loadCorrelations(any(), anyInt(), anyInt(), any());
+    }
+
     @Test
     public void removeCore() {
         assertThat(mockIdCorrelator, not(nullValue()));
@@ -211,6 +374,153 @@ public class SynchronisedIdCorrelatorTest {
         verify(mockIdCorrelator, times(1)).getIds(anyString(), anyString());
     }
 
+    @Test
+    public void getCoresForIds() {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        assertThat(synchronisedIdCorrelator, not(nullValue()));
+
+        List<String> systemIds = Collections.singletonList("second");
+        doAnswer(invocation -> {
+            validateLocks(false);
+            assertThat(invocation.getArgument(0), equalTo("first"));
+            assertThat(invocation.getArgument(1), equalTo(systemIds));
+            return Collections.emptyMap();
+        }).when(mockIdCorrelator).getCoresForIds(anyString(), any());
+
+        synchronisedIdCorrelator.getCoresForIds("first", systemIds);
+        verify(mockIdCorrelator, times(1)).getCoresForIds(anyString(), any());
+    }
+
+    @Test
+    public void getIdsForCores() {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        assertThat(synchronisedIdCorrelator, not(nullValue()));
+
+        List<String> coreIds = Collections.singletonList("first");
+        doAnswer(invocation -> {
+            validateLocks(false);
+            assertThat(invocation.getArgument(0), equalTo(coreIds));
+            assertThat(invocation.getArgument(1), equalTo("second"));
+            return Collections.emptyMap();
+        }).when(mockIdCorrelator).getIdsForCores(any(), anyString());
+
+        synchronisedIdCorrelator.getIdsForCores(coreIds, "second");
+        verify(mockIdCorrelator, times(1)).getIdsForCores(any(), anyString());
+    }
+
+    @Test
+    public void forEachCore() {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        assertThat(synchronisedIdCorrelator, not(nullValue()));
+
+        doAnswer(invocation -> {
+            validateLocks(false);
+            assertThat(invocation.getArgument(0), equalTo("first"));
+            assertThat(invocation.getArgument(1), equalTo("second"));
+            return null;
+        }).when(mockIdCorrelator).forEachCore(anyString(), anyString(), any());
+
+        synchronisedIdCorrelator.forEachCore("first", "second", id -> {
+        });
+        verify(mockIdCorrelator, times(1)).forEachCore(anyString(), anyString(), any());
+    }
+
+    @Test
+    public void findCore() {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        assertThat(synchronisedIdCorrelator, not(nullValue()));
+
+        doAnswer(invocation -> {
+            validateLocks(false);
+            validateStringParams(invocation, 2);
+            return null;
+        }).when(mockIdCorrelator).findCore(anyString(), anyString());
+
+        synchronisedIdCorrelator.findCore("first", "second");
+        verify(mockIdCorrelator, times(1)).findCore(anyString(), anyString());
+    }
+
+    @Test
+    public void getCoresView() {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        assertThat(synchronisedIdCorrelator, not(nullValue()));
+
+        // A live view can't be protected by the lock, so a copy is returned instead.
+        doAnswer(invocation -> {
+            validateLocks(false);
+            validateStringParams(invocation, 2);
+            return Collections.emptySet();
+        }).when(mockIdCorrelator).getCores(anyString(), anyString());
+
+        synchronisedIdCorrelator.getCoresView("first", "second");
+        verify(mockIdCorrelator, times(1)).getCores(anyString(), anyString());
+        verify(mockIdCorrelator, never()).getCoresView(anyString(), anyString());
+    }
+
+    @Test
+    public void forEachId() {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        assertThat(synchronisedIdCorrelator, not(nullValue()));
+
+        doAnswer(invocation -> {
+            validateLocks(false);
+            assertThat(invocation.getArgument(0), equalTo("first"));
+            assertThat(invocation.getArgument(1), equalTo("second"));
+            return null;
+        }).when(mockIdCorrelator).forEachId(anyString(), anyString(), any());
+
+        synchronisedIdCorrelator.forEachId("first", "second", id -> {
+        });
+        verify(mockIdCorrelator, times(1)).forEachId(anyString(), anyString(), any());
+    }
+
+    @Test
+    public void findId() {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        assertThat(synchronisedIdCorrelator, not(nullValue()));
+
+        doAnswer(invocation -> {
+            validateLocks(false);
+            validateStringParams(invocation, 2);
+            return null;
+        }).when(mockIdCorrelator).findId(anyString(), anyString());
+
+        synchronisedIdCorrelator.findId("first", "second");
+        verify(mockIdCorrelator, times(1)).findId(anyString(), anyString());
+    }
+
+    @Test
+    public void getIdsView() {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        assertThat(synchronisedIdCorrelator, not(nullValue()));
+
+        // A live view can't be protected by the lock, so a copy is returned instead.
+        doAnswer(invocation -> {
+            validateLocks(false);
+            validateStringParams(invocation, 2);
+            return Collections.emptySet();
+        }).when(mockIdCorrelator).getIds(anyString(), anyString());
+
+        synchronisedIdCorrelator.getIdsView("first", "second");
+        verify(mockIdCorrelator, times(1)).getIds(anyString(), anyString());
+        verify(mockIdCorrelator, never()).getIdsView(anyString(), anyString());
+    }
+
+    @Test
+    public void exportCorrelations() throws Exception {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        assertThat(synchronisedIdCorrelator, not(nullValue()));
+
+        doAnswer(invocation -> {
+            validateLocks(false);
+            return null;
+        }).when(mockIdCorrelator).exportCorrelations(any());
+
+        synchronisedIdCorrelator.exportCorrelations((coreId, systemIds) -> {
+        });
+        verify(mockIdCorrelator, times(1)).exportCorrelations(any());
+    }
+
     @Test
     public void write() throws Exception {
         assertThat(mockIdCorrelator, not(nullValue()));
@@ -228,6 +538,186 @@ public class SynchronisedIdCorrelatorTest {
         verify(mockIdCorrelator, times(1)).write(any());
     }
 
+    @Test
+    public void writeSnapshot() throws Exception {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        assertThat(synchronisedIdCorrelator, not(nullValue()));
+
+        doAnswer(invocation -> {
+            validateLocks(false);
+            return Collections.singleton("GIS");
+        }).when(mockIdCorrelator).systems();
+
+        doAnswer(invocation -> {
+            validateLocks(false);
+            return 2;
+        }).when(mockIdCorrelator).coreCount();
+
+        Map<String, Set<String>> systemIds = Collections.singletonMap("GIS", Collections.singleton("G1"));
+        doAnswer(invocation -> {
+            validateLocks(false);
+            CorrelationExporter<?> exporter = invocation.getArgument(0);
+            exporter.exportCore("1", systemIds);
+            exporter.exportCore("2", Collections.emptyMap());
+            return null;
+        }).when(mockIdCorrelator).exportCorrelations(any());
+
+        // The snapshot is written after the lock has been released.
+        IdCorrelatorWriter writer = mock(IdCorrelatorWriter.class);
+        doAnswer(invocation -> {
+            assertThat(synchronisedIdCorrelator.getReadHoldCount(), equalTo(0));
+            IdCorrelator snapshot = invocation.getArgument(0);
+            assertThat(snapshot.systems(), containsInAnyOrder("GIS"));
+            assertThat(snapshot.cores(), containsInAnyOrder("1", "2"));
+            assertThat(snapshot.getIds("1", "GIS"), containsInAnyOrder("G1"));
+            return null;
+        }).when(writer).write(any());
+
+        synchronisedIdCorrelator.writeSnapshot(writer);
+        verify(mockIdCorrelator, times(1)).exportCorrelations(any());
+        verify(mockIdCorrelator, never()).write(any());
+        verify(writer, times(1)).write(any());
+    }
+
+    @Test
+    public void snapshotIsNotChangedByLaterWrites() {
+        SynchronisedIdCorrelator idCorrelator = new SynchronisedIdCorrelator(MapBackedIdCorrelator.newCorrelator());
+        idCorrelator.addSystem("GIS");
+        idCorrelator.addCore("1");
+        idCorrelator.addCorrelation("1", "GIS", "G1");
+
+        IdCorrelator snapshot = idCorrelator.snapshot();
+        idCorrelator.addCore("2");
+        idCorrelator.addCorrelation("2", "GIS", "G1");
+        idCorrelator.removeId("GIS", "G1");
+
+        assertThat(snapshot.cores(), containsInAnyOrder("1"));
+        assertThat(snapshot.getCores("GIS", "G1"), containsInAnyOrder("1"));
+        assertThat(idCorrelator.getCores("GIS", "G1"), empty());
+    }
+
+    @Test
+    public void combiningWritesHoldTheWriteLock() {
+        assertThat(mockIdCorrelator, not(nullValue()));
+        synchronisedIdCorrelator = SynchronisedIdCorrelator.newCombiningCorrelator(mockIdCorrelator);
+
+        doAnswer(invocation -> {
+            validateLocks(true);
+            validateStringParams(invocation, 1);
+            return true;
+        }).when(mockIdCorrelator).addCore(anyString());
+
+        doAnswer(invocation -> {
+            validateLocks(true);
+            validateStringParams(invocation, 3);
+            return null;
+        }).when(mockIdCorrelator).addCorrelation(anyString(), anyString(), anyString());
+
+        doAnswer(invocation -> {
+            validateLocks(true);
+            validateStringParams(invocation, 2);
+            return null;
+        }).when(mockIdCorrelator).removeId(anyString(), anyString());
+
+        assertThat(synchronisedIdCorrelator.addCore("first"), equalTo(true));
+        synchronisedIdCorrelator.addCorrelation("first", "second", "third");
+        synchronisedIdCorrelator.removeId("first", "second");
+
+        verify(mockIdCorrelator, times(1)).addCore(anyString());
+        verify(mockIdCorrelator, times(1)).addCorrelation(anyString(), anyString(), anyString());
+        verify(mockIdCorrelator, times(1)).removeId(anyString(), anyString());
+        assertThat(synchronisedIdCorrelator.getWriteHoldCount(), equalTo(0));
+    }
+
+    @Test
+    public void combiningWriteExceptionsAreRethrown() {
+        SynchronisedIdCorrelator idCorrelator = SynchronisedIdCorrelator.newCombiningCorrelator(MapBackedIdCorrelator.newCorrelator());
+        idCorrelator.addSystem("GIS");
+
+        expect(() -> idCorrelator.addCorrelation("1", "GIS", "G1")).toThrow(IllegalArgumentException.class);
+
+        assertThat(idCorrelator.addCore("1"), equalTo(true));
+        assertThat(idCorrelator.addCore("1"), equalTo(false));
+        idCorrelator.addCorrelation("1", "GIS", "G1");
+        assertThat(idCorrelator.getIds("1", "GIS"), containsInAnyOrder("G1"));
+    }
+
+    @Test
+    public void combinerAppliesWritesOfOtherThreads() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Map<String, Thread> appliedBy = new ConcurrentHashMap<>();
+        IdCorrelator wrapped = new MapBackedIdCorrelator(CompactHashMap::new, CompactHashSet::new) {
+            @Override
+            public boolean addCore(String coreId) {
+                appliedBy.put(coreId, Thread.currentThread());
+                if (coreId.equals("1")) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+                return super.addCore(coreId);
+            }
+        };
+        SynchronisedIdCorrelator idCorrelator = SynchronisedIdCorrelator.newCombiningCorrelator(wrapped);
+
+        // The first thread holds the write lock while its write waits, so the second thread's write is published for it.
+        Thread first = new Thread(() -> idCorrelator.addCore("1"));
+        Thread second = new Thread(() -> idCorrelator.addCore("2"));
+        first.start();
+        while (!appliedBy.containsKey("1"))
+            Thread.sleep(1);
+        second.start();
+        while (idCorrelator.getPendingWriteCount() < 2)
+            Thread.sleep(1);
+
+        release.countDown();
+        first.join();
+        second.join();
+
+        assertThat(appliedBy.get("2"), equalTo(first));
+        assertThat(idCorrelator.cores(), containsInAnyOrder("1", "2"));
+        assertThat(idCorrelator.getPendingWriteCount(), equalTo(0));
+    }
+
+    @Test
+    public void combiningWritersMatchSequentialWrites() throws Exception {
+        int threadCount = 8;
+        int writesPerThread = 200;
+
+        IdCorrelator expected = MapBackedIdCorrelator.newCorrelator();
+        SynchronisedIdCorrelator combining = SynchronisedIdCorrelator.newCombiningCorrelator(MapBackedIdCorrelator.newCorrelator());
+        expected.addSystem("GIS");
+        combining.addSystem("GIS");
+
+        for (int t = 0; t < threadCount; t++)
+            writeCorrelations(expected, t, writesPerThread);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> writeCorrelations(combining, thread, writesPerThread)));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads)
+            thread.join();
+
+        compareCorrelations(combining, expected);
+    }
+
+    // Each thread correlates its own cores to a shared id, and removes the correlations of every other id it adds.
+    private static void writeCorrelations(IdCorrelator idCorrelator, int thread, int writes) {
+        for (int i = 0; i < writes; i++) {
+            String coreId = thread + "_" + i;
+            idCorrelator.addCore(coreId);
+            idCorrelator.addCorrelation(coreId, "GIS", "shared");
+            idCorrelator.addCorrelation(coreId, "GIS", "id_" + coreId);
+            if (i % 2 == 1)
+                idCorrelator.removeId("GIS", "id_" + coreId);
+        }
+    }
+
     private void validateLocks(boolean expectWriteLock) {
         assertThat(synchronisedIdCorrelator, not(nullValue()));
         assertThat(synchronisedIdCorrelator.getReadHoldCount(), equalTo(expectWriteLock ? 0 : 1));
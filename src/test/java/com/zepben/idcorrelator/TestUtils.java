@@ -45,4 +45,30 @@ public class TestUtils {
         }));
     }
 
+    /**
+     * Adds a small set of systems, cores and correlations, with ids correlated to many cores and cores to many ids.
+     */
+    public static IdCorrelator populateTestCorrelations(IdCorrelator idCorrelator) {
+        idCorrelator.addSystem("GIS");
+        idCorrelator.addSystem("DMS");
+        idCorrelator.addSystem("OMS");
+        idCorrelator.addSystem("CIS");
+        idCorrelator.addCore("1");
+        idCorrelator.addCore("2");
+        idCorrelator.addCore("3");
+        idCorrelator.addCore("4");
+        idCorrelator.addCorrelation("1", "CIS", "C1");
+        idCorrelator.addCorrelation("2", "CIS", "C1");
+        idCorrelator.addCorrelation("3", "CIS", "C1");
+        idCorrelator.addCorrelation("3", "GIS", "G1");
+        idCorrelator.addCorrelation("2", "DMS", "D4");
+        idCorrelator.addCorrelation("2", "DMS", "D3");
+        idCorrelator.addCorrelation("3", "DMS", "D2");
+        idCorrelator.addCorrelation("3", "DMS", "D6");
+        idCorrelator.addCorrelation("4", "GIS", "G9");
+        idCorrelator.addCorrelation("4", "DMS", "D9");
+        idCorrelator.addCorrelation("4", "OMS", "O9");
+        return idCorrelator;
+    }
+
 }
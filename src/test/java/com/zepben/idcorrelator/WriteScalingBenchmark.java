@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.idcorrelator;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the write throughput of {@link SynchronisedIdCorrelator} using its write lock for every write against
+ * combining the writes of concurrent threads, when every thread only writes.
+ * <p>
+ * Each thread count is a separate benchmark, as JMH can't take the thread count as a parameter. The throughput is the
+ * total over all the threads. Run with, e.g.
+ * mvn -P benchmark -DskipTests verify -Djmh.args="WriteScalingBenchmark"
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class WriteScalingBenchmark {
+
+    @Param({"100000"})
+    public int coreCount;
+
+    @Param({"SYNCHRONISED", "COMBINING"})
+    public CorrelatorState.CorrelatorImplementation correlator;
+
+    private CorrelatorState correlations = new CorrelatorState();
+    private IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator();
+    private String systemTag = "";
+
+    /**
+     * The position of each thread in the cores, and the spare id it correlates and removes again.
+     */
+    @State(Scope.Thread)
+    public static class Worker {
+
+        private static final AtomicInteger NEXT_WORKER = new AtomicInteger();
+
+        final int worker = NEXT_WORKER.getAndIncrement();
+        final String spareId = "spare_" + worker;
+        int next = worker;
+        boolean correlated;
+
+    }
+
+    @Setup(Level.Trial)
+    public void populate() {
+        correlations = CorrelatorState.generate(coreCount, 1, CorrelatorState.FanOut.ONE_TO_ONE);
+        correlations.correlator = correlator;
+        idCorrelator = correlations.newPopulatedCorrelator();
+        systemTag = correlations.systemTags[0];
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void threads04(Worker worker) {
+        write(worker);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void threads08(Worker worker) {
+        write(worker);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void threads16(Worker worker) {
+        write(worker);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void threads32(Worker worker) {
+        write(worker);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void threads64(Worker worker) {
+        write(worker);
+    }
+
+    // Alternately correlates the spare id of the worker to the next core and removes it, so the size of the correlator
+    // stays the same.
+    private void write(Worker worker) {
+        if (worker.correlated) {
+            idCorrelator.removeId(systemTag, worker.spareId);
+        } else {
+            worker.next = (int) ((worker.next + 1_000_003L) % coreCount);
+            idCorrelator.addCorrelation(correlations.coreIds[worker.next], systemTag, worker.spareId);
+        }
+        worker.correlated = !worker.correlated;
+    }
+
+}
@@ -10,15 +10,23 @@ package com.zepben.idcorrelator.io.json;
 
 import com.zepben.idcorrelator.IdCorrelator;
 import com.zepben.idcorrelator.MapBackedIdCorrelator;
+import com.zepben.idcorrelator.io.FailedCorrelationInfo;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
 import static com.zepben.idcorrelator.TestUtils.compareCorrelations;
 import static com.zepben.testutils.exception.ExpectException.expect;
 import static org.hamcrest.MatcherAssert.assertThat;
-import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.*;
 
 public class JsonUtilsTest {
 
@@ -28,11 +36,80 @@ public class JsonUtilsTest {
         assertThat(testIdCorrelatorJson(), equalTo(JsonUtils.toJson(testIdCorrelator())));
     }
 
+    @Test
+    public void testWriteJsonMatchesEncode() throws IOException {
+        IdCorrelator idCorrelator = testIdCorrelator();
+        idCorrelator.addCore("uncorrelated");
+
+        ByteArrayOutputStream compact = new ByteArrayOutputStream();
+        JsonUtils.writeJson(idCorrelator, compact, false);
+        assertThat(compact.toByteArray(), equalTo(JsonUtils.toJson(idCorrelator).encode().getBytes(StandardCharsets.UTF_8)));
+
+        ByteArrayOutputStream pretty = new ByteArrayOutputStream();
+        JsonUtils.writeJson(idCorrelator, pretty, true);
+        assertThat(pretty.toByteArray(), equalTo(JsonUtils.toJson(idCorrelator).encodePrettily().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testWriteJsonEmptyCorrelator() throws IOException {
+        IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonUtils.writeJson(idCorrelator, out, true);
+        assertThat(out.toByteArray(), equalTo(JsonUtils.toJson(idCorrelator).encodePrettily().getBytes(StandardCharsets.UTF_8)));
+    }
+
     @Test
     public void testToIdCorrelator() {
         compareCorrelations(testIdCorrelator(), JsonUtils.toIdCorrelator(testIdCorrelatorJson()));
     }
 
+    @Test
+    public void testReadJson() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonUtils.writeJson(testIdCorrelator(), out, true);
+
+        IdCorrelator readCorrelator = MapBackedIdCorrelator.newCorrelator();
+        List<FailedCorrelationInfo> failures = new ArrayList<>();
+        JsonUtils.readJson(new ByteArrayInputStream(out.toByteArray()), readCorrelator, failures::add);
+
+        compareCorrelations(testIdCorrelator(), readCorrelator);
+        assertThat(failures, empty());
+    }
+
+    @Test
+    public void testReadJsonCoresBeforeSystems() throws IOException {
+        String json = "{\"cores\":[{\"sys1\":[\"id1\"],\"id\":\"core1\"},{\"id\":\"core2\",\"sys2\":[\"id2\"]},{\"id\":\"core3\"}],\"systems\":[\"sys1\",\"sys2\"]}";
+
+        IdCorrelator idCorrelator = MapBackedIdCorrelator.newCorrelator();
+        idCorrelator.addBlockedSystem("sys2");
+        List<FailedCorrelationInfo> failures = new ArrayList<>();
+        JsonUtils.readJson(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), idCorrelator, failures::add);
+
+        assertThat(idCorrelator.getIds("core1", "sys1"), contains("id1"));
+        assertThat(idCorrelator.cores(), containsInAnyOrder("core1", "core2", "core3"));
+        assertThat(failures, hasSize(1));
+        assertThat(failures.get(0).details(), equalTo(FailedCorrelationInfo.BLOCKED_SYSTEM));
+    }
+
+    @Test
+    public void testReadBadJsonInput() {
+        expect(() -> JsonUtils.readJson(new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8)), MapBackedIdCorrelator.newCorrelator(), failure -> {
+        }))
+            .toThrow(IllegalArgumentException.class)
+            .withMessage("Required key 'systems' must be specified");
+
+        expect(() -> JsonUtils.readJson(new ByteArrayInputStream("{\"systems\":[],\"cores\":[{}]}".getBytes(StandardCharsets.UTF_8)), MapBackedIdCorrelator.newCorrelator(), failure -> {
+        }))
+            .toThrow(IllegalArgumentException.class)
+            .withMessage("Required key 'id' must be specified");
+
+        expect(() -> JsonUtils.readJson(new ByteArrayInputStream("{\"systems\":{},\"cores\":[]}".getBytes(StandardCharsets.UTF_8)), MapBackedIdCorrelator.newCorrelator(), failure -> {
+        }))
+            .toThrow(IllegalArgumentException.class)
+            .withMessage("Error reading required key 'systems'");
+    }
+
     @Test
     public void testBadJsonInput() {
         expect(() -> JsonUtils.toIdCorrelator(new JsonObject()))